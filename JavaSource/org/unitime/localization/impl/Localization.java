@@ -28,13 +28,18 @@ import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -120,22 +125,45 @@ public class Localization {
 		synchronized (sBundles) {
 			T ret = (T)sBundles.get(bundle);
 			if (ret == null) {
-				ret = (T)Proxy.newProxyInstance(Localization.class.getClassLoader(), new Class[] {bundle}, new Bundle(bundle));
+				ret = (T)Proxy.newProxyInstance(Localization.class.getClassLoader(), new Class[] {bundle}, new Bundle(bundle, ApplicationProperty.LocalizationCompiledBundles.isTrue()));
 				sBundles.put(bundle, ret);
 			}
 			return ret;
 		}
 	}
 	
+	/**
+	 * Message bundle proxy. When compiled, each message is looked up and parsed only once for each locale: constants are cached as they are,
+	 * messages with arguments are parsed into a {@link Template} that is then filled in with the arguments of each call.
+	 */
 	public static class Bundle implements InvocationHandler {
+		private static final Object sNoTemplate = new Object();
 		private Map<String, Properties> iProperties = new Hashtable<String, Properties>();
 		private Class<?> iMessages = null;
+		private boolean iCompiled = false;
+		private Map<String, Map<Method, Object>> iCompiledMessages = new ConcurrentHashMap<String, Map<Method, Object>>();
+		private Map<String, String> iResolvedLocales = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > 100;
+			}
+		});
 
 		public Bundle(Class<?> messages) {
+			this(messages, false);
+		}
+		
+		public Bundle(Class<?> messages, boolean compiled) {
 			iMessages = messages;
+			iCompiled = compiled;
+		}
+		
+		private String getProperty(String locale, String name) {
+			return getProperties(locale).getProperty(name);
 		}
 		
-		private synchronized String getProperty(String locale, String name) {
+		private synchronized Properties getProperties(String locale) {
 			Properties properties = iProperties.get(locale);
 			if (properties == null) {
 				properties = new Properties();
@@ -149,7 +177,7 @@ public class Localization {
 				}
 				iProperties.put(locale, properties);
 			}
-			return properties.getProperty(name);
+			return properties;
 		}
 		
 		private String getProperty(String name) {
@@ -166,6 +194,31 @@ public class Localization {
 			return getProperty("", name); // try default message bundle
 		}
 		
+		/**
+		 * Locales of the current locale string that have a message bundle, in the order in which {@link #getProperty(String)} looks them up.
+		 * Locale strings that resolve to the same bundles share the compiled messages, so the compiled cache does not grow with
+		 * every distinct request parameter or Accept-Language header.
+		 */
+		private String getResolvedLocale() {
+			String locale = getLocale();
+			String resolved = iResolvedLocales.get(locale);
+			if (resolved == null) {
+				StringBuffer sb = new StringBuffer();
+				for (String loc: locale.split(",")) {
+					if (loc.indexOf(';') >= 0) loc = loc.substring(0, loc.indexOf(';'));
+					loc = loc.trim();
+					if (!getProperties(loc).isEmpty()) sb.append(sb.length() == 0 ? "" : ",").append(loc);
+					if (loc.indexOf('_') >= 0) {
+						loc = loc.substring(0, loc.indexOf('_')).trim();
+						if (!getProperties(loc).isEmpty()) sb.append(sb.length() == 0 ? "" : ",").append(loc);
+					}
+				}
+				resolved = sb.toString();
+				iResolvedLocales.put(locale, resolved);
+			}
+			return resolved;
+		}
+		
 		private String fillArgumentsIn(String value, Object[] args, int firstIndex) {
 			if (value == null || args == null) return value;
 			for (int i = 0; i + firstIndex < args.length; i++) {
@@ -250,6 +303,43 @@ public class Localization {
 				String value = (args[0] == null ? null : getProperty((String) args[0]));
 				return (value == null ? (String) args[1] : fillArgumentsIn(value, args, 2));
 			}
+			if (!iCompiled) return resolve(method, args);
+			String locale = getResolvedLocale();
+			Map<Method, Object> messages = iCompiledMessages.get(locale);
+			if (messages == null) {
+				messages = new ConcurrentHashMap<Method, Object>();
+				Map<Method, Object> old = iCompiledMessages.putIfAbsent(locale, messages);
+				if (old != null) messages = old;
+			}
+			Object compiled = messages.get(method);
+			if (compiled == null) {
+				compiled = compile(method);
+				messages.put(method, compiled);
+			}
+			if (compiled == sNoTemplate) return resolve(method, args);
+			if (compiled instanceof Template) return ((Template)compiled).format(args);
+			if (compiled instanceof String[]) return ((String[])compiled).clone();
+			if (compiled instanceof Map) return new HashMap<String, String>((Map<String, String>)compiled);
+			return compiled;
+		}
+		
+		/**
+		 * Compile a message for the current locale: a {@link Template} for messages with arguments, the resolved value for constants
+		 */
+		private Object compile(Method method) {
+			if (method.getParameterTypes().length == 0) {
+				Object value = resolve(method, null);
+				return (value == null ? sNoTemplate : value);
+			}
+			if (!String.class.equals(method.getReturnType())) return sNoTemplate;
+			String value = getProperty(method.getName());
+			if (value != null) return new Template(value);
+			Messages.DefaultMessage dm = method.getAnnotation(Messages.DefaultMessage.class);
+			if (dm != null) return new Template(dm.value());
+			return sNoTemplate;
+		}
+		
+		private Object resolve(Method method, Object[] args) {
 			String value = getProperty(method.getName());
 			if (value != null) {
 				Object ret = type(fillArgumentsIn(value, args, 0), method.getReturnType());
@@ -293,4 +383,80 @@ public class Localization {
 			return method.getName();
 		}
 	}
+	
+	/**
+	 * Pre-parsed message with placeholders {0}, {1}, ... and {0,number,pattern}, ... (see {@link Bundle#fillArgumentsIn(String, Object[], int)}).
+	 */
+	public static class Template {
+		private List<Object> iParts = new ArrayList<Object>();
+		
+		public Template(String message) {
+			StringBuilder literal = new StringBuilder();
+			int pos = 0;
+			while (pos < message.length()) {
+				int open = message.indexOf('{', pos);
+				int close = (open < 0 ? -1 : message.indexOf('}', open));
+				if (open < 0 || close < 0) {
+					literal.append(message.substring(pos));
+					break;
+				}
+				literal.append(message.substring(pos, open));
+				Argument arg = Argument.parse(message.substring(open, close + 1));
+				if (arg == null) {
+					literal.append('{');
+					pos = open + 1;
+				} else {
+					if (literal.length() > 0) { iParts.add(literal.toString().replace("''", "'")); literal.setLength(0); }
+					iParts.add(arg);
+					pos = close + 1;
+				}
+			}
+			if (literal.length() > 0) iParts.add(literal.toString().replace("''", "'"));
+		}
+		
+		public String format(Object[] args) {
+			StringBuilder ret = new StringBuilder();
+			for (Object part: iParts) {
+				if (part instanceof Argument)
+					((Argument)part).format(args, ret);
+				else
+					ret.append((String)part);
+			}
+			return ret.toString();
+		}
+		
+		private static class Argument {
+			private int iIndex;
+			private String iPattern;
+			private String iText;
+			
+			private Argument(int index, String pattern, String text) {
+				iIndex = index; iPattern = pattern; iText = text;
+			}
+			
+			private static Argument parse(String text) {
+				String inner = text.substring(1, text.length() - 1);
+				int comma = inner.indexOf(',');
+				String index = (comma < 0 ? inner : inner.substring(0, comma));
+				if (index.isEmpty() || index.length() > 3) return null;
+				for (int i = 0; i < index.length(); i++)
+					if (!Character.isDigit(index.charAt(i))) return null;
+				if (comma < 0) return new Argument(Integer.parseInt(index), null, text);
+				if (inner.startsWith(index + ",number,")) return new Argument(Integer.parseInt(index), inner.substring(index.length() + ",number,".length()), text);
+				return null;
+			}
+			
+			private void format(Object[] args, StringBuilder ret) {
+				if (args == null || iIndex >= args.length) {
+					ret.append(iText);
+				} else if (args[iIndex] == null) {
+				} else if (iPattern != null) {
+					ret.append(Formats.getNumberFormat(iPattern).format((Number)args[iIndex]));
+				} else {
+					String value = args[iIndex].toString();
+					ret.append(value.indexOf("''") >= 0 ? value.replace("''", "'") : value);
+				}
+			}
+		}
+	}
 }
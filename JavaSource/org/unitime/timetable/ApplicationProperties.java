@@ -34,6 +34,7 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.unitime.commons.Debug;
 import org.unitime.commons.hibernate.util.HibernateUtil;
@@ -50,7 +51,8 @@ import org.unitime.timetable.util.Constants;
  */
 public class ApplicationProperties {
 	private static DateFormat sTempFileDateFormat = new SimpleDateFormat("yy-MM-dd_HHmmssSSS", Locale.US);
-	private static Properties props = new Properties();
+	private static AtomicLong sVersion = new AtomicLong(0);
+	private static Properties props = new VersionedProperties();
     private static long appPropertiesLastModified = -1, custPropertiesLastModified = -1;  
     private static PropertyFileChangeListener pfc=null;
     private static Properties configProps = null;
@@ -181,13 +183,16 @@ public class ApplicationProperties {
 	}
 	
 	public static Properties getConfigProperties() {
-	    if (configProps==null && HibernateUtil.isConfigured())
-	        configProps = ApplicationConfig.toProperties();
+	    if (configProps==null && HibernateUtil.isConfigured()) {
+	        configProps = new VersionedProperties(ApplicationConfig.toProperties());
+	        sVersion.incrementAndGet();
+	    }
 	    return (configProps==null?new Properties():configProps);
 	}
 	
 	public static void clearConfigProperties() {
 	    configProps = null;
+	    sVersion.incrementAndGet();
 	}
 	
 	public static Properties getSessionProperties(Long sessionId) {
@@ -197,8 +202,11 @@ public class ApplicationProperties {
 		Properties properties = sSessionProperties.get(sessionId);
 		if (properties == null) {
 			properties = SessionConfig.toProperties(sessionId);
-			if (properties != null)
+			if (properties != null) {
+				properties = new VersionedProperties(properties);
 				sSessionProperties.put(sessionId, properties);
+				sVersion.incrementAndGet();
+			}
 		}
 		return properties;
 	}
@@ -208,6 +216,58 @@ public class ApplicationProperties {
 			sSessionProperties.clear();
 		else
 			sSessionProperties.remove(sessionId);
+		sVersion.incrementAndGet();
+	}
+	
+	/**
+	 * Version of the application properties. The version is incremented every time the properties are (re)loaded or changed,
+	 * including the application configuration and the academic session configuration. It is used by {@link ApplicationProperty}
+	 * to invalidate its cached values.
+	 */
+	public static long getVersion() {
+		return sVersion.get();
+	}
+	
+	/**
+	 * Properties that increment the application properties version when modified
+	 */
+	private static class VersionedProperties extends Properties {
+		private static final long serialVersionUID = 1L;
+		
+		VersionedProperties() {
+			super();
+		}
+		
+		VersionedProperties(Properties properties) {
+			super();
+			if (properties != null) super.putAll(properties);
+		}
+		
+		@Override
+		public synchronized Object put(Object key, Object value) {
+			Object ret = super.put(key, value);
+			sVersion.incrementAndGet();
+			return ret;
+		}
+		
+		@Override
+		public synchronized void putAll(Map<?, ?> t) {
+			super.putAll(t);
+			sVersion.incrementAndGet();
+		}
+		
+		@Override
+		public synchronized Object remove(Object key) {
+			Object ret = super.remove(key);
+			sVersion.incrementAndGet();
+			return ret;
+		}
+		
+		@Override
+		public synchronized void clear() {
+			super.clear();
+			sVersion.incrementAndGet();
+		}
 	}
 	
 	/**
@@ -268,7 +328,8 @@ public class ApplicationProperties {
 	 * @return Properties object
 	 */
 	public static Properties getProperties() {
-        Properties ret = (Properties)props.clone();
+        Properties ret = new Properties();
+        ret.putAll(props);
         ret.putAll(getConfigProperties());
         
 	    Long sessionId = ApplicationProperties.getSessionId();
@@ -360,6 +421,12 @@ public class ApplicationProperties {
 		return dir;
 	}
 	
+	public static File getSnapshotFolder() {
+		File dir = new File(getDataFolder(),"snapshot");
+		dir.mkdir();
+		return dir;
+	}
+	
 	public static File getTempFolder() {
         File dir = new File(new File(getBasePath()).getParentFile(), "temp");
 		dir.mkdir();
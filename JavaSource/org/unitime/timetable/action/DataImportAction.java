@@ -19,10 +19,13 @@
 */
 package org.unitime.timetable.action;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.DecimalFormat;
 import java.util.Date;
 import java.util.List;
@@ -42,7 +45,6 @@ import org.apache.struts2.tiles.annotation.TilesPutAttribute;
 import org.cpsolver.ifs.util.Progress;
 import org.dom4j.Document;
 import org.dom4j.io.OutputFormat;
-import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
 import org.unitime.commons.Debug;
 import org.unitime.commons.Email;
@@ -311,7 +313,7 @@ public class DataImportAction extends UniTimeAction<DataImportForm> {
 				gzipInput.close();
 			} else if (iForm.getFileFileName().toLowerCase().endsWith(".xml.gz") || iForm.getFileFileName().toLowerCase().endsWith(".zxml")) {
 				GZIPInputStream gzipInput = new GZIPInputStream(fis);
-				DataExchangeHelper.importDocument((new SAXReader()).read(gzipInput), getOwnerId(), this);
+				DataExchangeHelper.importStream(gzipInput, -1, getOwnerId(), this);
 				gzipInput.close();
 			} else if (iForm.getFileFileName().toLowerCase().endsWith(".zip")) {
 				ZipInputStream zipInput = new ZipInputStream(fis);
@@ -323,12 +325,12 @@ public class DataImportAction extends UniTimeAction<DataImportForm> {
 						SessionRestoreInterface restore = (SessionRestoreInterface)Class.forName(ApplicationProperty.SessionRestoreInterface.value()).getConstructor().newInstance();
 						restore.restore(zipInput, this);
 					} else {
-						DataExchangeHelper.importDocument((new SAXReader()).read(new NotClosingInputStream(zipInput)), getOwnerId(), this);
+						DataExchangeHelper.importStream(new NotClosingInputStream(zipInput), ze.getSize(), getOwnerId(), this);
 					}
 				}
 				zipInput.close();
 			} else {
-				DataExchangeHelper.importDocument((new SAXReader()).read(fis), getOwnerId(), this);
+				DataExchangeHelper.importStream(new BufferedInputStream(fis), iForm.getFile().length(), getOwnerId(), this);
 			}
 			} finally {
 				fis.close();
@@ -348,7 +350,10 @@ public class DataImportAction extends UniTimeAction<DataImportForm> {
 		protected void executeDataExchange() throws Exception {
         	ExportType type = iForm.getExportType();
         	if (type == ExportType.SESSION) {
-        		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(createOutput("session", "dat.gz")));
+        		// chunks are already compressed, there is no need to compress the whole file again
+        		OutputStream out = (ApplicationProperty.SessionBackupCompressChunks.isTrue() ?
+        				new BufferedOutputStream(new FileOutputStream(createOutput("session", "dat"))) :
+        				new GZIPOutputStream(new FileOutputStream(createOutput("session", "dat.gz"))));
     			try {
     				SessionBackupInterface backup = (SessionBackupInterface)Class.forName(ApplicationProperty.SessionBackupInterface.value()).getConstructor().newInstance();
     				backup.backup(out, this, getSessionId());
@@ -1778,7 +1778,7 @@ public class ExamAssignmentReportAction extends UniTimeAction<ExamAssignmentRepo
                             if (!match(form, section1.getName())) continue;
                             int nrStudents = 0;
                             for (Long studentId : section1.getStudentIds())
-                                if (conflict.getStudents().contains(studentId)) nrStudents++;
+                                if (conflict.hasStudent(studentId)) nrStudents++;
                             if (nrStudents==0) continue;
                             table.addLine(
                                     "onClick=\"document.location='examDetail.action?examId="+exam.getExamId()+"';\"",
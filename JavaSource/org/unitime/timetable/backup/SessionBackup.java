@@ -19,6 +19,7 @@
 */
 package org.unitime.timetable.backup;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -37,6 +38,11 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 
 import jakarta.persistence.metamodel.Attribute;
 import jakarta.persistence.metamodel.EntityType;
@@ -51,6 +57,8 @@ import org.cpsolver.ifs.util.ProgressWriter;
 import org.cpsolver.ifs.util.ToolBox;
 import org.hibernate.CacheMode;
 import org.hibernate.Hibernate;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.UnknownEntityTypeException;
 import org.hibernate.proxy.HibernateProxy;
 import org.unitime.commons.hibernate.util.HibernateUtil;
@@ -86,7 +94,17 @@ import com.google.protobuf.CodedOutputStream;
  */
 public class SessionBackup implements SessionBackupInterface {
     private static Log sLog = LogFactory.getLog(SessionBackup.class);
+    /**
+     * Marker of a backup with compressed chunks, written at the beginning of the backup as an empty record (the restore reads it as a table of this name).
+     * All the following tables are written compressed (see {@link SessionBackup#compress(TableData.Table)}).
+     */
+    public static final String COMPRESSED_CHUNKS = "org.unitime.timetable.backup.CompressedChunks";
 	private org.hibernate.Session iHibSession = null;
+	private int iChunkSize = 0;
+	private boolean iCompressChunks = false;
+	private ExecutorService iCompressor = null;
+	private int iNrThreads = 1;
+	private Queue<Future<byte[]>> iCompressedChunks = new LinkedList<Future<byte[]>>();
 	
 	private CodedOutputStream iOut = null;
 	private PrintWriter iDebug = null;
@@ -99,11 +117,22 @@ public class SessionBackup implements SessionBackupInterface {
 		return iProgress;
 	}
 	
-	private void add(TableData.Table table) throws IOException {
+	private void add(final TableData.Table table) throws IOException {
 		iProgress.info("Writing " + table.getName().substring(table.getName().lastIndexOf('.') + 1) + " [" + table.getRecordCount() + " records, " + table.getSerializedSize() + " bytes]");
-		iOut.writeInt32NoTag(table.getSerializedSize());
-		table.writeTo(iOut);
-		iOut.flush();
+		if (iCompressChunks) {
+			if (iCompressor == null) {
+				write(compress(table));
+			} else {
+				// compress in parallel, but write in the original order (keep at most two chunks per thread in memory)
+				iCompressedChunks.add(iCompressor.submit(() -> compress(table)));
+				while (iCompressedChunks.size() > 2 * iNrThreads)
+					write(next());
+			}
+		} else {
+			iOut.writeInt32NoTag(table.getSerializedSize());
+			table.writeTo(iOut);
+			iOut.flush();
+		}
 		if (iDebug != null) {
 			iDebug.println("## " + table.getName() + " ##");
 			iDebug.print(table.toString());
@@ -115,6 +144,54 @@ public class SessionBackup implements SessionBackupInterface {
 		iDebug = pw;
 	}
 	
+	/**
+	 * Serialize and compress the given table
+	 */
+	public static byte[] compress(TableData.Table table) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(table.getSerializedSize() / 4);
+		GZIPOutputStream gz = new GZIPOutputStream(bytes);
+		table.writeTo(gz);
+		gz.close();
+		return bytes.toByteArray();
+	}
+	
+	private void write(byte[] chunk) throws IOException {
+		iOut.writeInt32NoTag(chunk.length);
+		iOut.writeRawBytes(chunk);
+		iOut.flush();
+	}
+	
+	private byte[] next() throws IOException {
+		try {
+			return iCompressedChunks.poll().get();
+		} catch (InterruptedException e) {
+			throw new IOException("Backup interrupted.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+	
+	/**
+	 * Add the given record into its table, a full table (see {@link ApplicationProperty#SessionBackupChunkSize}) is written right away
+	 * @return true if a chunk has been written
+	 */
+	private boolean add(Map<String, TableData.Table.Builder> tables, String name, TableData.Record record) throws IOException {
+		TableData.Table.Builder table = tables.get(name);
+		if (table == null) {
+			table = TableData.Table.newBuilder();
+			tables.put(name, table);
+			table.setName(name);
+		}
+		table.addRecord(record);
+		if (iChunkSize > 0 && table.getRecordCount() >= iChunkSize) {
+			add(table.build());
+			tables.remove(name);
+			return true;
+		}
+		return false;
+	}
+	
 	private boolean hasSubclasses(EntityType type) {
 		for (EntityType et: iMetamodel.getEntities()) {
 			if (et.equals(type)) continue;
@@ -174,6 +251,16 @@ public class SessionBackup implements SessionBackupInterface {
         iOut = CodedOutputStream.newInstance(out);
         iProgress = progress;
 		iSessionId = sessionId;
+		iChunkSize = ApplicationProperty.SessionBackupChunkSize.intValue();
+		iCompressChunks = ApplicationProperty.SessionBackupCompressChunks.isTrue();
+		iNrThreads = ApplicationProperty.SessionBackupThreads.intValue();
+		if (iCompressChunks) {
+			// the marker is an empty record (a table with no name), an older restore fails on it as the table name is required
+			// instead of reading the compressed chunks as tables
+			iOut.writeInt32NoTag(0);
+			if (iNrThreads > 1)
+				iCompressor = Executors.newFixedThreadPool(iNrThreads);
+		}
         iHibSession = new _RootDAO().createNewSession(); 
         iHibSession.setCacheMode(CacheMode.IGNORE);
         iMetamodel = iHibSession.getMetamodel();
@@ -329,130 +416,128 @@ public class SessionBackup implements SessionBackupInterface {
             	for (QueueItem current: list) {
             		if (current.size() == 0) continue;
             		iProgress.info("Loading " + current);
-            		List<Object> objects = current.list();
-            		if (objects == null || objects.isEmpty()) continue;
-            		iProgress.setPhase(current.abbv() + " [" + objects.size() + "]", objects.size());
-            		objects: for (Object object: objects) {
-            			iProgress.incProgress();
+            		ScrollableResults<Object> objects = current.scroll();
+            		if (objects == null) continue;
+            		try {
+            			iProgress.setPhase(current.abbv() + " [" + current.size() + "]", current.size());
+            			objects: while (objects.next()) {
+            				Object object = objects.get();
+            				iProgress.incProgress();
             			
-            			if (object instanceof HibernateProxy)
-            				object = Hibernate.unproxy(object);
+            				if (object instanceof HibernateProxy)
+            					object = Hibernate.unproxy(object);
             			
-            			// Get meta data (check for sub-classes)
-            			EntityType meta = null;
-            			try {
-            				meta = iMetamodel.entity(object.getClass());
-            			} catch (IllegalArgumentException e) {}
-            			if (meta == null) meta = current.meta();
-            			if (hasSubclasses(meta)) {
-            				for (EntityType t: iMetamodel.getEntities()) {
-            					if (t.getJavaType().isInstance(object) && !hasSubclasses(t)) {
-            	                	meta = t; break;
-            	                }
-            	    		}
-            			}
+            				// Get meta data (check for sub-classes)
+            				EntityType meta = null;
+            				try {
+            					meta = iMetamodel.entity(object.getClass());
+            				} catch (IllegalArgumentException e) {}
+            				if (meta == null) meta = current.meta();
+            				if (hasSubclasses(meta)) {
+            					for (EntityType t: iMetamodel.getEntities()) {
+            						if (t.getJavaType().isInstance(object) && !hasSubclasses(t)) {
+            		                	meta = t; break;
+            		                }
+            		    		}
+            				}
             			
-            			// Get unique identifier
-            			Serializable id = null;
-            			if (hasCompositeId(meta)) {
-            				List<SingularAttribute> idAttributes = getIdAttributes(meta);
-            				Object[] ids = new Object[idAttributes.size()];
-            				for (int i = 0; i < idAttributes.size(); i++) {
-            					Object value = getProperty(object, idAttributes.get(i));
-            					if (value == null) continue;
-            					if (isEntity(idAttributes.get(i))) {
-            						ids[i] = getProperty(value, getIdAttribute(iMetamodel.entity(idAttributes.get(i).getJavaType())));
-            					} else {
-            						ids[i] = value;
+            				// Get unique identifier
+            				Serializable id = null;
+            				if (hasCompositeId(meta)) {
+            					List<SingularAttribute> idAttributes = getIdAttributes(meta);
+            					Object[] ids = new Object[idAttributes.size()];
+            					for (int i = 0; i < idAttributes.size(); i++) {
+            						Object value = getProperty(object, idAttributes.get(i));
+            						if (value == null) continue;
+            						if (isEntity(idAttributes.get(i))) {
+            							ids[i] = getProperty(value, getIdAttribute(iMetamodel.entity(idAttributes.get(i).getJavaType())));
+            						} else {
+            							ids[i] = value;
+            						}
             					}
+            					id = new CompositeId(ids);
+            				} else {
+            					id = (Serializable)getProperty(object, getIdAttribute(meta));
             				}
-            				id = new CompositeId(ids);
-            			} else {
-            				id = (Serializable)getProperty(object, getIdAttribute(meta));
-            			}
             			
-            			// Check if already exported
-            			Set<Serializable> exportedIds = allExportedIds.get(meta.getJavaType().getName());
-            			if (exportedIds == null) {
-            				exportedIds = new HashSet<Serializable>();
-            				allExportedIds.put(meta.getJavaType().getName(), exportedIds);
-            			}
-            			if (!exportedIds.add(id)) continue;
+            				// Check if already exported
+            				Set<Serializable> exportedIds = allExportedIds.get(meta.getJavaType().getName());
+            				if (exportedIds == null) {
+            					exportedIds = new HashSet<Serializable>();
+            					allExportedIds.put(meta.getJavaType().getName(), exportedIds);
+            				}
+            				if (!exportedIds.add(id)) continue;
             			
-            			// Check relation to an academic session (if exists)
-            			for (Attribute attribute: (Set<Attribute>)meta.getAttributes()) {
-                        	if (attribute.getJavaType().equals(Session.class)) {
-                        		Session s = (Session)getProperty(object, attribute);
-                        		if (s != null && !s.getUniqueId().equals(iSessionId)) {
-                        			iProgress.warn(meta.getName() + "@" + id + " belongs to a different academic session (" + s + ")");
-                        			continue objects; // wrong session
-                        		}
-                        	}
-            			}
-
-            			// Get appropriate table
-            			TableData.Table.Builder table = tables.get(meta.getJavaType().getName());
-            			if (table == null) {
-            				table = TableData.Table.newBuilder();
-            				tables.put(meta.getJavaType().getName(), table);
-            				table.setName(meta.getJavaType().getName());
-            			}
+            				// Check relation to an academic session (if exists)
+            				for (Attribute attribute: (Set<Attribute>)meta.getAttributes()) {
+            	            	if (attribute.getJavaType().equals(Session.class)) {
+            	            		Session s = (Session)getProperty(object, attribute);
+            	            		if (s != null && !s.getUniqueId().equals(iSessionId)) {
+            	            			iProgress.warn(meta.getName() + "@" + id + " belongs to a different academic session (" + s + ")");
+            	            			continue objects; // wrong session
+            	            		}
+            	            	}
+            				}
 
-            			// Export object
-            			TableData.Record.Builder record = TableData.Record.newBuilder();
-            			record.setId(id.toString());
-            			List<Attribute> attributes = new ArrayList<Attribute>();
-            			if (hasCompositeId(meta))
-            				attributes.addAll(getIdAttributes(meta));
-            			for (Attribute attribute: (Set<Attribute>)meta.getAttributes()) {
-            				if (attribute.isCollection() || !((SingularAttribute)attribute).isId())
-            					attributes.add(attribute);
-            			}
-            			for (Attribute attribute: attributes) {
-                    		String property = attribute.getName();
-            				Object value = getProperty(object, attribute);
-            				if (value == null) continue;
-            				TableData.Element.Builder element = TableData.Element.newBuilder();
-            				element.setName(property);
-            				if (value instanceof Boolean) {
-            					element.addValue(value.toString());
-            				} else if (value instanceof Byte) {
-            					element.addValue(value.toString());
-            				} else if (value instanceof Short) {
-            					element.addValue(value.toString());
-            				} else if (value instanceof Integer) {
-            					element.addValue(value.toString());
-            				} else if (value instanceof Long) {
-            					element.addValue(value.toString());
-            				} else if (value instanceof Float) {
-            					element.addValue(value.toString());
-            				} else if (value instanceof Double) {
-            					element.addValue(value.toString());
-            				} else if (value instanceof String) {
-            					element.addValue(value.toString());
-            				} else if (value instanceof Date) {
-            					element.addValue(iDateFormat.format((Date)value));
-            				} else if (value instanceof byte[]) {
-            					element.addValueBytes(ByteString.copyFrom((byte[])value));
-            				} else if (isEntity(attribute)) {
-    							List<Object> ids = current.relation(property, meta, id, false);
-    							if (ids != null)
-    								for (Object i: ids)
-    									element.addValue(i.toString());
-    							// iHibSession.evict(value);
-            				} else if (attribute.isCollection()) {
-    							List<Object> ids = current.relation(property, meta, id, false);
-    							if (ids != null)
-    								for (Object i: ids)
-    									element.addValue(i.toString());
-            				} else {
-            					iProgress.warn("Unknown data type: " + attribute.getJavaType() + " (property " + meta.getName() + "." + property + ", " + value.getClass() + ")");
-            					continue;
+            				// Export object
+            				TableData.Record.Builder record = TableData.Record.newBuilder();
+            				record.setId(id.toString());
+            				List<Attribute> attributes = new ArrayList<Attribute>();
+            				if (hasCompositeId(meta))
+            					attributes.addAll(getIdAttributes(meta));
+            				for (Attribute attribute: (Set<Attribute>)meta.getAttributes()) {
+            					if (attribute.isCollection() || !((SingularAttribute)attribute).isId())
+            						attributes.add(attribute);
             				}
-            				record.addElement(element.build());
+            				for (Attribute attribute: attributes) {
+            	        		String property = attribute.getName();
+            					Object value = getProperty(object, attribute);
+            					if (value == null) continue;
+            					TableData.Element.Builder element = TableData.Element.newBuilder();
+            					element.setName(property);
+            					if (value instanceof Boolean) {
+            						element.addValue(value.toString());
+            					} else if (value instanceof Byte) {
+            						element.addValue(value.toString());
+            					} else if (value instanceof Short) {
+            						element.addValue(value.toString());
+            					} else if (value instanceof Integer) {
+            						element.addValue(value.toString());
+            					} else if (value instanceof Long) {
+            						element.addValue(value.toString());
+            					} else if (value instanceof Float) {
+            						element.addValue(value.toString());
+            					} else if (value instanceof Double) {
+            						element.addValue(value.toString());
+            					} else if (value instanceof String) {
+            						element.addValue(value.toString());
+            					} else if (value instanceof Date) {
+            						element.addValue(iDateFormat.format((Date)value));
+            					} else if (value instanceof byte[]) {
+            						element.addValueBytes(ByteString.copyFrom((byte[])value));
+            					} else if (isEntity(attribute)) {
+	    							List<Object> ids = current.relation(property, meta, id, false);
+	    							if (ids != null)
+	    								for (Object i: ids)
+	    									element.addValue(i.toString());
+	    							// iHibSession.evict(value);
+            					} else if (attribute.isCollection()) {
+	    							List<Object> ids = current.relation(property, meta, id, false);
+	    							if (ids != null)
+	    								for (Object i: ids)
+	    									element.addValue(i.toString());
+            					} else {
+            						iProgress.warn("Unknown data type: " + attribute.getJavaType() + " (property " + meta.getName() + "." + property + ", " + value.getClass() + ")");
+            						continue;
+            					}
+            					record.addElement(element.build());
+            				}
+            				// Add record, release the loaded objects from the session when a chunk is written
+            				if (add(tables, meta.getJavaType().getName(), record.build()))
+            					iHibSession.clear();
             			}
-            			table.addRecord(record.build());
-            			// iHibSession.evict(object);
+            		} finally {
+            			objects.close();
             		}
             		current.clearCache();
             	}
@@ -462,9 +547,17 @@ public class SessionBackup implements SessionBackupInterface {
             	}
             }
             
+            while (!iCompressedChunks.isEmpty())
+            	write(next());
+            
     		iProgress.setStatus("All done.");
         } finally {
         	iHibSession.close();
+        	if (iCompressor != null) {
+        		iCompressor.shutdownNow();
+        		iCompressor = null;
+        	}
+        	iCompressedChunks.clear();
         }
 	}
 	
@@ -625,7 +718,7 @@ public class SessionBackup implements SessionBackupInterface {
 			}
 		}
 		
-		List<Object> list() {
+		ScrollableResults<Object> scroll() {
 			if (relation() == Relation.Empty) return null;
 			if (AssignmentInfo.class.getName().equals(name())) return null;
 			if (ConstraintInfo.class.getName().equals(name())) return null;
@@ -633,7 +726,7 @@ public class SessionBackup implements SessionBackupInterface {
 			return iHibSession.createQuery(
 					"select " + (distinct() ? "" : "distinct ") + hqlName() + " from " + hqlFrom() + " where " + hqlWhere(),
 					Object.class
-					).setParameter("sessionId", iSessionId).list();
+					).setParameter("sessionId", iSessionId).scroll(ScrollMode.FORWARD_ONLY);
 		}
 		
 		Map<String, Map<Serializable, List<Object>>> iRelationCache = new HashMap<String, Map<Serializable,List<Object>>>();
@@ -19,6 +19,7 @@
 */
 package org.unitime.timetable.backup;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -35,11 +36,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import jakarta.persistence.Column;
@@ -321,6 +329,9 @@ public class SessionRestore implements SessionRestoreInterface {
 		} catch (ClassNotFoundException e) {
 		} catch (IllegalArgumentException e) {}
 		if (meta == null) {
+			TableData.Table skipped = iSkippedTables.get(table.getName());
+			if (skipped != null) // table written in multiple chunks
+				table = TableData.Table.newBuilder(skipped).addAllRecord(table.getRecordList()).build();
 			iSkippedTables.put(table.getName(), table);
 			return;
 		}
@@ -530,6 +541,10 @@ public class SessionRestore implements SessionRestoreInterface {
             iProgress.setPhase("Loading data", 1);
             TableData.Table t = null;
             while ((t = readTable(cin)) != null) {
+            	if (SessionBackup.COMPRESSED_CHUNKS.equals(t.getName())) {
+            		readCompressedChunks(cin);
+            		continue;
+            	}
         		if (iDebug != null) {
         			iDebug.println("## " + t.getName() + " ##");
         			iDebug.print(t.toString());
@@ -966,9 +981,70 @@ public class SessionRestore implements SessionRestoreInterface {
 		}
 	}
 	
+	/**
+	 * Read the rest of the backup that was written with compressed chunks (see {@link ApplicationProperty#SessionBackupCompressChunks}).
+	 * The chunks are decompressed and parsed in parallel, but they are created in the original order
+	 * (the hibernate session and the entity maps are not thread-safe).
+	 */
+	protected void readCompressedChunks(CodedInputStream cin) throws IOException, InstantiationException, IllegalAccessException, DocumentException, InvocationTargetException, NoSuchMethodException {
+		int nrThreads = ApplicationProperty.SessionBackupThreads.intValue();
+		ExecutorService executor = (nrThreads > 1 ? Executors.newFixedThreadPool(nrThreads) : null);
+		Queue<Future<TableData.Table>> chunks = new LinkedList<Future<TableData.Table>>();
+		try {
+			while (!cin.isAtEnd() || !chunks.isEmpty()) {
+				if (!cin.isAtEnd()) {
+					final byte[] chunk = cin.readRawBytes(cin.readInt32());
+					cin.resetSizeCounter();
+					if (executor == null) {
+						chunks.add(CompletableFuture.completedFuture(decompress(chunk)));
+					} else {
+						chunks.add(executor.submit(() -> decompress(chunk)));
+					}
+					if (!cin.isAtEnd() && chunks.size() <= 2 * nrThreads) continue;
+				}
+				TableData.Table t = null;
+				try {
+					t = chunks.poll().get();
+				} catch (InterruptedException e) {
+					throw new IOException("Restore interrupted.", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+					throw new IOException(e.getCause().getMessage(), e.getCause());
+				}
+				if (iDebug != null) {
+					iDebug.println("## " + t.getName() + " ##");
+					iDebug.print(t.toString());
+					iDebug.flush();
+				}
+				create(t);
+			}
+		} finally {
+			if (executor != null) executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Decompress and parse a table (see {@link SessionBackup#compress(TableData.Table)})
+	 */
+	public static TableData.Table decompress(byte[] chunk) throws IOException {
+		GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(chunk));
+		try {
+			CodedInputStream cin = CodedInputStream.newInstance(gz);
+			cin.setSizeLimit(Integer.MAX_VALUE);
+			return TableData.Table.parseFrom(cin);
+		} finally {
+			gz.close();
+		}
+	}
+	
 	public static TableData.Table readTable(CodedInputStream cin) throws IOException {
 		if (cin.isAtEnd()) return null;
 		int size = cin.readInt32();
+		if (size == 0) {
+			// empty record: marker of the compressed chunks (see SessionBackup.COMPRESSED_CHUNKS)
+			cin.resetSizeCounter();
+			return TableData.Table.newBuilder().setName(SessionBackup.COMPRESSED_CHUNKS).build();
+		}
 		int limit = cin.pushLimit(size);
 		TableData.Table ret = TableData.Table.parseFrom(cin);
 		cin.popLimit(limit);
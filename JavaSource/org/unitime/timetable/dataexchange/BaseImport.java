@@ -19,16 +19,20 @@
 */
 package org.unitime.timetable.dataexchange;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
 import org.dom4j.io.SAXReader;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.TimetableManager;
 
 /**
@@ -50,7 +54,7 @@ public abstract class BaseImport extends DataExchangeHelper {
         FileInputStream fis = null;
         try {
             fis = new FileInputStream(fileName);
-            loadXml(fis);
+            loadXml(fis, new File(fileName).length());
         } catch (IOException e) {
             fatal("Unable to read file "+fileName+", reason:"+e.getMessage(),e);
             throw e;
@@ -62,13 +66,29 @@ public abstract class BaseImport extends DataExchangeHelper {
     }
     
     public void loadXml(InputStream inputStream) throws Exception {
+    	loadXml(inputStream, -1);
+    }
+    
+    protected void loadXml(InputStream inputStream, long size) throws Exception {
+    	if (this instanceof StreamingImport && ApplicationProperty.DataExchangeStreamingImport.isTrue()) {
+    		StreamingXmlReader reader = null;
+    		try {
+    			reader = new StreamingXmlReader(inputStream, size, this);
+    			((StreamingImport)this).loadXmlStream(reader);
+    		} catch (XMLStreamException e) {
+    			fatal("Unable to parse given XML, reason:"+e.getMessage(), e);
+    		} finally {
+    			if (reader != null) reader.close();
+    		}
+    		return;
+    	}
         try {
             Document document = (new SAXReader()).read(inputStream);
             loadXml(document.getRootElement());
         } catch (DocumentException e) {
             fatal("Unable to parse given XML, reason:"+e.getMessage(), e);
         }
-    }    
+    }
     
     public abstract void loadXml(Element rootElement) throws Exception;
     
@@ -19,12 +19,16 @@
 */
 package org.unitime.timetable.dataexchange;
 
+import java.io.BufferedInputStream;
+import java.io.InputStream;
 import java.util.Hashtable;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
+import org.dom4j.io.SAXReader;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.Class_;
 import org.unitime.timetable.model.Session;
 import org.unitime.timetable.model.TimetableManager;
@@ -274,6 +278,34 @@ public class DataExchangeHelper {
         imp.loadXml(document.getRootElement());
     }
     
+    /**
+     * Import the given XML stream. If the import supports it (see {@link StreamingImport}), the XML file is processed
+     * incrementally. Other imports get the whole document parsed by {@link SAXReader}, the same way as before (see {@link #importDocument(Document, String, Log)}).
+     * @param input XML input stream
+     * @param size size of the input stream in bytes (used for progress reporting), -1 if not known
+     */
+    public static void importStream(InputStream input, long size, String userId, Log log) throws Exception {
+    	// peek at the root element to find the import, then start over
+    	BufferedInputStream buffered = new BufferedInputStream(input, 65536);
+    	buffered.mark(4 * 1024 * 1024);
+    	String rootName = StreamingXmlReader.getRootElementName(buffered);
+    	buffered.reset();
+        BaseImport imp = createImportBase(rootName);
+        imp.setLog(log);
+        if (userId != null)
+        	imp.setManager(TimetableManager.findByExternalId(userId));
+        if (imp instanceof StreamingImport && ApplicationProperty.DataExchangeStreamingImport.isTrue()) {
+        	StreamingXmlReader reader = new StreamingXmlReader(buffered, size, imp);
+        	try {
+        		((StreamingImport)imp).loadXmlStream(reader);
+        	} finally {
+        		reader.close();
+        	}
+        } else {
+        	imp.loadXml((new SAXReader()).read(buffered).getRootElement());
+        }
+    }
+    
     public static Document exportDocument(String rootName, Session session, Properties parameters, Log log) throws Exception {
         BaseExport exp = createExportBase(rootName);
         exp.setLog(log);
@@ -0,0 +1,307 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.dataexchange;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DecimalFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.unitime.timetable.backup.BackupProgress;
+
+/**
+ * StAX based reader of an XML file that does not load the whole document in memory.
+ * The root element is created with all its attributes, but with no children. The children of the root element are
+ * read from the stream one by one, as the iteration over {@link StreamingXmlReader#elements(String)} goes on.
+ * Each child is returned as a regular dom4j element (with all its attributes and sub-elements), so that
+ * the existing import code can be used to process it. The element is not attached to the root element,
+ * so it can be garbage collected as soon as it has been imported.<br>
+ * Progress is reported based on the number of bytes read from the input stream: when the size of the input is known,
+ * the status of the data exchange queue item is updated and a message is logged every 10%, otherwise a message is logged every 50 MB.
+ * 
+ * @author Tomas Muller
+ */
+public class StreamingXmlReader {
+	private static DecimalFormat sDF = new DecimalFormat("0.0");
+	private static DocumentFactory sFactory = DocumentFactory.getInstance();
+	private static long sUnknownSizeStep = 50l * 1024l * 1024l;
+	private CountingInputStream iInput;
+	private XMLStreamReader iReader;
+	private Element iRoot;
+	private long iSize;
+	private DataExchangeHelper iHelper;
+	private BackupProgress iProgress = null;
+	private long iLastReported = 0;
+	private int iNrElements = 0;
+	private boolean iEndOfRoot = false;
+	
+	/**
+	 * @param input input stream (it is not closed by the reader)
+	 * @param size number of bytes of the input stream (used for progress reporting), -1 if not known
+	 * @param helper helper that is used for logging, can be null
+	 */
+	public StreamingXmlReader(InputStream input, long size, DataExchangeHelper helper) throws XMLStreamException {
+		iInput = new CountingInputStream(input);
+		iSize = size;
+		iHelper = helper;
+		iReader = createReader(iInput);
+		iRoot = createElement();
+		sFactory.createDocument(iRoot);
+	}
+	
+	/** StAX reader positioned at the start of the root element */
+	private static XMLStreamReader createReader(InputStream input) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		XMLStreamReader reader = factory.createXMLStreamReader(input);
+		while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT);
+		if (!reader.isStartElement())
+			throw new XMLStreamException("Given XML file has no root element.");
+		return reader;
+	}
+	
+	/**
+	 * Name of the root element of the given XML stream. The stream is read only up to the root element, it must support
+	 * {@link InputStream#mark(int)} so that it can be reset to the beginning afterwards.
+	 */
+	public static String getRootElementName(InputStream input) throws XMLStreamException {
+		XMLStreamReader reader = createReader(input);
+		try {
+			return reader.getLocalName();
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/** Helper that is used for logging of the progress */
+	public void setHelper(DataExchangeHelper helper) { iHelper = helper; }
+	
+	/** Root element, with attributes but with no children */
+	public Element getRootElement() { return iRoot; }
+	
+	/** Number of bytes read so far */
+	public long getBytesRead() { return iInput.getCount(); }
+	
+	/** Number of child elements of the root element read so far */
+	public int getNrElements() { return iNrElements; }
+	
+	/**
+	 * Iterate over the children of the root element, the elements are read from the stream as the iteration goes on.
+	 * Only one iteration can be made, all the elements that are skipped (because of a different name) are lost.
+	 * @param name element name, null for all elements
+	 */
+	public Iterable<Element> elements(final String name) {
+		return new Iterable<Element>() {
+			@Override
+			public Iterator<Element> iterator() {
+				return new ElementIterator(name);
+			}
+		};
+	}
+	
+	/** Release the StAX reader, the input stream is not closed */
+	public void close() {
+		try {
+			iReader.close();
+		} catch (XMLStreamException e) {}
+	}
+	
+	protected Element nextElement(String name) throws XMLStreamException {
+		while (!iEndOfRoot && iReader.hasNext()) {
+			switch (iReader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				if (name == null || name.equals(iReader.getLocalName())) {
+					Element element = readElement();
+					iNrElements ++;
+					progress();
+					return element;
+				}
+				skipElement();
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				iEndOfRoot = true;
+				progress();
+				break;
+			}
+		}
+		return null;
+	}
+	
+	protected Element createElement() {
+		String prefix = iReader.getPrefix();
+		String uri = iReader.getNamespaceURI();
+		Element element = (uri == null || uri.isEmpty() ? sFactory.createElement(iReader.getLocalName()) :
+			sFactory.createElement(sFactory.createQName(iReader.getLocalName(), prefix == null ? "" : prefix, uri)));
+		for (int i = 0; i < iReader.getAttributeCount(); i++) {
+			String attPrefix = iReader.getAttributePrefix(i);
+			if (attPrefix == null || attPrefix.isEmpty())
+				element.addAttribute(iReader.getAttributeLocalName(i), iReader.getAttributeValue(i));
+			else
+				element.addAttribute(QName.get(iReader.getAttributeLocalName(i), attPrefix, iReader.getAttributeNamespace(i)), iReader.getAttributeValue(i));
+		}
+		return element;
+	}
+	
+	/** Read the current element (the reader is on its start tag) including all its content */
+	protected Element readElement() throws XMLStreamException {
+		Element element = createElement();
+		while (iReader.hasNext()) {
+			switch (iReader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				element.add(readElement());
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				element.addText(iReader.getText());
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return element;
+			}
+		}
+		throw new XMLStreamException("Unexpected end of the XML file while reading " + element.getName() + ".");
+	}
+	
+	/** Skip the current element (the reader is on its start tag) including all its content */
+	protected void skipElement() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && iReader.hasNext()) {
+			switch (iReader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth ++; break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth --; break;
+			}
+		}
+	}
+	
+	protected void progress() {
+		long read = iInput.getCount();
+		if (iSize > 0) {
+			if (iLastReported == 0 && iProgress == null && iHelper != null && iHelper.getLog() instanceof BackupProgress) {
+				iProgress = (BackupProgress)iHelper.getLog();
+				iProgress.setPhase("Importing " + iRoot.getName() + "...", 100.0);
+			}
+			long percent = Math.min(100l, 100l * read / iSize);
+			while (iLastReported < percent) {
+				iLastReported ++;
+				if (iProgress != null) iProgress.incProgress();
+				if (iLastReported % 10 == 0 && iHelper != null)
+					iHelper.info("  " + iLastReported + "% read (" + iNrElements + " " + iRoot.getName() + " elements, " + sDF.format(read / 1048576.0) + " MB)");
+			}
+		} else if (read - iLastReported >= sUnknownSizeStep) {
+			iLastReported = read - read % sUnknownSizeStep;
+			if (iHelper != null)
+				iHelper.info("  " + sDF.format(read / 1048576.0) + " MB read (" + iNrElements + " " + iRoot.getName() + " elements)");
+		}
+	}
+	
+	private class ElementIterator implements Iterator<Element> {
+		private String iName;
+		private Element iNext;
+		
+		private ElementIterator(String name) {
+			iName = name;
+			iNext = next(name);
+		}
+		
+		private Element next(String name) {
+			try {
+				return nextElement(name);
+			} catch (XMLStreamException e) {
+				throw new RuntimeException("Unable to parse given XML, reason: " + e.getMessage(), e);
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return iNext != null;
+		}
+
+		@Override
+		public Element next() {
+			if (iNext == null) throw new NoSuchElementException();
+			Element ret = iNext;
+			iNext = next(iName);
+			return ret;
+		}
+	}
+	
+	/**
+	 * Input stream counting the number of bytes read
+	 */
+	public static class CountingInputStream extends FilterInputStream {
+		private long iCount = 0, iMark = 0;
+		
+		public CountingInputStream(InputStream in) { super(in); }
+		
+		public long getCount() { return iCount; }
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) iCount ++;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) iCount += n;
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			iCount += skipped;
+			return skipped;
+		}
+		
+		@Override
+		public synchronized void mark(int readlimit) {
+			super.mark(readlimit);
+			iMark = iCount;
+		}
+		
+		@Override
+		public synchronized void reset() throws IOException {
+			super.reset();
+			iCount = iMark;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			// the stream is closed by its owner
+		}
+	}
+}
@@ -49,7 +49,7 @@ import org.unitime.timetable.test.UpdateExamConflicts;
 /**
  * @author Tomas Muller, Stephanie Schluttenhofer
  */
-public class StudentEnrollmentImport extends BaseImport {
+public class StudentEnrollmentImport extends BaseImport implements StreamingImport {
 
 	public StudentEnrollmentImport() {
 		super();
@@ -57,6 +57,20 @@ public class StudentEnrollmentImport extends BaseImport {
 
 	@Override
 	public void loadXml(Element rootElement) throws Exception {
+		loadXml(rootElement, rootElement.elements("student"), false);
+	}
+	
+	@Override
+	public void loadXmlStream(StreamingXmlReader reader) throws Exception {
+		loadXml(reader.getRootElement(), reader.elements("student"), true);
+	}
+	
+	/**
+	 * @param rootElement root element (only its attributes are used)
+	 * @param studentElements student elements to import
+	 * @param streaming student elements are read from a stream, flush the changes into the database periodically (the transaction is committed at the end)
+	 */
+	protected void loadXml(Element rootElement, Iterable<Element> studentElements, boolean streaming) throws Exception {
 		boolean trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
 
         if (!rootElement.getName().equalsIgnoreCase("studentEnrollments"))
@@ -146,8 +160,7 @@ public class StudentEnrollmentImport extends BaseImport {
 	        
 	        info("Importing enrollments...");
 	        Date ts = new Date();
-	        for (Iterator i = rootElement.elementIterator("student"); i.hasNext(); ) {
-	            Element studentElement = (Element) i.next();
+	        for (Element studentElement: studentElements) {
 	            
 	            String externalId = studentElement.attributeValue("externalId");
 	            if (externalId == null) continue;
@@ -396,7 +409,8 @@ public class StudentEnrollmentImport extends BaseImport {
             			getHibSession().merge(cd);
             		}
             	}
-
+            	
+            	if (streaming) flushIfNeededDoNotClearSession(false);
 	        }
  	        
 	        if (!incremental)
@@ -53,7 +53,7 @@ import org.unitime.timetable.model.StudentSectioningQueue;
 /**
  * @author Tomas Muller, Timothy Almon
  */
-public class StudentImport extends BaseImport {
+public class StudentImport extends BaseImport implements StreamingImport {
 
 	public StudentImport() {
 		super();
@@ -61,6 +61,20 @@ public class StudentImport extends BaseImport {
 
 	@Override
 	public void loadXml(Element rootElement) throws Exception {
+		loadXml(rootElement, rootElement.elements(), false);
+	}
+	
+	@Override
+	public void loadXmlStream(StreamingXmlReader reader) throws Exception {
+		loadXml(reader.getRootElement(), reader.elements(null), true);
+	}
+	
+	/**
+	 * @param rootElement root element (only its attributes are used)
+	 * @param studentElements student elements to import
+	 * @param streaming student elements are read from a stream, flush the changes into the database periodically (the transaction is committed at the end)
+	 */
+	protected void loadXml(Element rootElement, Iterable<Element> studentElements, boolean streaming) throws Exception {
 		try {
 			boolean trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
 			
@@ -164,8 +178,7 @@ public class StudentImport extends BaseImport {
 	        Set<Long> updatedStudents = new HashSet<Long>();
 	        List<Student> createdStudents = new ArrayList<Student>();
 	        
-	        for (Iterator i1 = rootElement.elementIterator(); i1.hasNext(); ) {
-	            Element element = (Element) i1.next();
+	        for (Element element: studentElements) {
 
 	            String externalId = element.attributeValue("externalId");
 	            if (externalId == null) continue;
@@ -173,6 +186,8 @@ public class StudentImport extends BaseImport {
 
 	            importStudent(element, externalId, students, session, updatedStudents, createdStudents,
 	            		abbv2area, code2clasf, code2major, code2minor, code2group, code2accomodation, code2concentration, code2degree, code2program, code2campus);
+	            
+	            if (streaming) flushIfNeededDoNotClearSession(false);
 	        }
 
 	        if (!incremental)
@@ -24,7 +24,12 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.reflect.Field;
 import java.sql.Driver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -32,6 +37,7 @@ import org.hibernate.dialect.Dialect;
 import org.hibernate.id.IdentifierGenerator;
 import org.unitime.commons.Email;
 import org.unitime.commons.hibernate.util.DatabaseUpdate;
+import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.interfaces.AcademicSessionLookup;
 import org.unitime.timetable.interfaces.ExternalClassEditAction;
@@ -78,6 +84,7 @@ import org.unitime.timetable.onlinesectioning.custom.StudentEnrollmentProvider;
 import org.unitime.timetable.onlinesectioning.custom.StudentHoldsCheckProvider;
 import org.unitime.timetable.onlinesectioning.custom.VariableTitleCourseProvider;
 import org.unitime.timetable.onlinesectioning.custom.WaitListValidationProvider;
+import org.unitime.timetable.solver.jgroups.RpcMarshaller;
 import org.unitime.timetable.spring.ldap.SpringLdapExternalUidLookup;
 import org.unitime.timetable.spring.ldap.SpringLdapExternalUidTranslation;
 
@@ -142,6 +149,12 @@ public enum ApplicationProperty {
 	@Description("All Pages: default locale (e.g., en for English)")
 	Locale("unitime.locale"),
 
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Localization: parse each message only once per locale (messages with arguments are pre-parsed into templates, constants are cached)")
+	@Since(4.8)
+	LocalizationCompiledBundles("unitime.localization.compiled"),
+
 	@Description("Configuration: data folder (defaults to Tomcat/data/unitime)")
 	DataDir("unitime.data.dir"),
 
@@ -470,6 +483,12 @@ public enum ApplicationProperty {
 	@DefaultValue("false")
 	@Description("Class Assignment: try to compute student conflicts faster by pre-fetching a table of all classes that students of the selected class are also taking")
 	ClassAssignmentPrefetchConflicts("tmtbl.classAssign.prefetchConflicts"),
+
+	@Type(Integer.class)
+	@DefaultValue("50")
+	@Description("Class Assignment: maximal number of saved solutions for which the class assignments are kept in a shared cache (used by the instructional offering tables), zero to disable the cache")
+	@Since(4.8)
+	ClassAssignmentCacheSize("unitime.classAssignment.cacheSize"),
 	
 	@Type(String.class)
 	@DefaultValue("auto")
@@ -568,6 +587,11 @@ public enum ApplicationProperty {
 	@Description("Data Exchange: default import timetabling manager (e.g., if executed from command line)")
 	DataExchangeXmlManager("unitime.xml.manager"),
 
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Data Exchange: imports that support it (e.g., student and student enrollment imports) read the XML file incrementally, without loading the whole document in memory")
+	DataExchangeStreamingImport("unitime.data.import.streaming"),
+
 	@Type(Boolean.class)
 	@DefaultValue("false")
 	@Description("Student Enrollment Import: update examination student conflicts for final exams")
@@ -686,6 +710,26 @@ public enum ApplicationProperty {
 
 	@Description("Online Student Scheduling Log: besides of the database, also log the actions in the given file (if set)")
 	OnlineSchedulingLogFile("unitime.sectioning.log.file"),
+
+	@Type(Integer.class)
+	@DefaultValue("100")
+	@Description("Online Student Scheduling Log: number of records persisted at once (in one transaction and one JDBC batch)")
+	OnlineSchedulingLogBatchSize("unitime.sectioning.log.batchSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("60")
+	@Description("Online Student Scheduling Log: how often (in seconds) are the records persisted, a full batch is persisted right away")
+	OnlineSchedulingLogFlushInterval("unitime.sectioning.log.flushInterval"),
+
+	@DefaultValue("drop")
+	@Values({"drop", "drop-debug", "block", "spill"})
+	@Description("Online Student Scheduling Log: what to do when the limit on the number of records held in memory is reached: " +
+			"drop the record (drop), drop the record only if it does not contain an enrollment, a failure, or a message of info level or above, block otherwise (drop-debug), " +
+			"block the caller until there is space (block), or write the record into a spill file that is persisted later (spill)")
+	OnlineSchedulingLogOverflow("unitime.sectioning.log.overflow"),
+
+	@Description("Online Student Scheduling Log: spill file used by the spill overflow policy (defaults to sectioning-log.spill in the data folder)")
+	OnlineSchedulingLogSpillFile("unitime.sectioning.log.spillFile"),
 	
 	@Type(Boolean.class)
 	@DefaultValue("true")
@@ -967,6 +1011,16 @@ public enum ApplicationProperty {
 	@Description("Examination Reports: include instructor back-to-back conflicts by default")
 	ExaminationReportsInstructorBackToBacks("tmtbl.exams.reports.instructor.btb"),
 
+	@Type(Integer.class)
+	@DefaultValue("4")
+	@Description("Examination Reports: number of threads used to compute student conflicts of all the examinations of an examination problem")
+	ExaminationReportsConflictThreads("tmtbl.exams.reports.conflicts.threads"),
+
+	@Type(Integer.class)
+	@DefaultValue("4")
+	@Description("Examination Reports: number of threads used to send the individual instructor and student emails (one or less to send the emails one by one)")
+	ExaminationReportsEmailThreads("tmtbl.exams.reports.email.threads"),
+
 	@Type(Boolean.class)
 	@DefaultValue("false")
 	@Description("Examination PDF Reports: can use in-memory solution")
@@ -1645,11 +1699,27 @@ public enum ApplicationProperty {
 	@Description("Clustering: solver request timeout in milliseconds (0 means wait until all responses have been received)")
 	SolverClusterTimeout("unitime.solver.timeout"),
 
+	@Type(Class.class)
+	@Implements(RpcMarshaller.class)
+	@Description("Clustering: marshaller of the remote method calls and their results (defaults to org.unitime.timetable.solver.jgroups.CompressingRpcMarshaller), all the nodes of the cluster must use the same marshaller")
+	SolverClusterMarshaller("unitime.solver.marshaller"),
+
+	@Type(Integer.class)
+	@DefaultValue("8192")
+	@Description("Clustering: remote method calls and results larger than the given number of bytes are compressed (when using the default marshaller), zero to disable compression")
+	SolverClusterCompressionThreshold("unitime.solver.compression.threshold"),
+
 	@Type(Integer.class)
 	@DefaultValue("100")
 	@Description("Test HQL: maximum number of returned lines")
 	TestHQLMaxLines("tmtbl.test_hql.max_line"),
 
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Exports: number of lines after which a streamed export (e.g., of a saved HQL report) is flushed to the client")
+	@Since(4.8)
+	ExportChunkSize("unitime.export.chunkSize"),
+
 	@Type(Integer.class)
 	@DefaultValue("5000")
 	@Description("Query Log: limit on the number of queries held in memory (before persisted)")
@@ -1660,6 +1730,52 @@ public enum ApplicationProperty {
 	@Description("Query Log: record request object/parameters as JSON message")
 	QueryLogJSON("unitime.query.log.json"),
 
+	@Type(Integer.class)
+	@DefaultValue("100")
+	@Description("Query Log: number of queries persisted at once (in one transaction and one JDBC batch)")
+	QueryLogBatchSize("unitime.query.log.batchSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("60")
+	@Description("Query Log: how often (in seconds) are the queries persisted, a full batch is persisted right away")
+	QueryLogFlushInterval("unitime.query.log.flushInterval"),
+
+	@Type(Double.class)
+	@DefaultValue("1.0")
+	@Description("Query Log: fraction of GWT RPC calls of the given type (request class name, e.g., SectioningRequest) that are recorded in the query log, calls that failed are always recorded")
+	@Parameter("request type")
+	QueryLogSampling("unitime.query.log.sampling.%"),
+
+	@Type(Integer.class)
+	@DefaultValue("10000")
+	@Description("Query Log: maximal length of the recorded query (request parameters or JSON) and exception, longer values are truncated (zero for no limit)")
+	QueryLogMaxLength("unitime.query.log.maxLength"),
+
+	@Type(Integer.class)
+	@DefaultValue("20")
+	@Description("Asynchronous RPC: maximal number of asynchronous GWT RPC requests that are executed at the same time")
+	GwtRpcAsyncPoolSize("unitime.rpc.async.poolSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("100")
+	@Description("Asynchronous RPC: maximal number of asynchronous GWT RPC requests waiting for execution, further requests are rejected")
+	GwtRpcAsyncQueueSize("unitime.rpc.async.queueSize"),
+
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Asynchronous RPC: execute asynchronous GWT RPC requests using virtual threads (only used when running on Java 21 or newer)")
+	GwtRpcAsyncVirtualThreads("unitime.rpc.async.virtualThreads"),
+
+	@Type(Integer.class)
+	@DefaultValue("30")
+	@Description("Asynchronous RPC: results of asynchronous GWT RPC requests that have not been picked up by the client are discarded after the given number of minutes")
+	GwtRpcAsyncResultTimeToLive("unitime.rpc.async.ttl"),
+
+	@Type(Integer.class)
+	@DefaultValue("240")
+	@Description("Asynchronous RPC: asynchronous GWT RPC requests that are still waiting or running after the given number of minutes are cancelled and discarded (zero for no limit)")
+	GwtRpcAsyncExecutionTimeout("unitime.rpc.async.timeout"),
+
 	@Type(Boolean.class)
 	@DefaultValue("false")
 	@Description("Classes: if there are two or more scheduling subparts in a parent-child relation with the same instructional type (e.g., Lec - Lec a - Lec b stacked underneath), inherit preferences and the date pattern from the parent subpart whenever possible")
@@ -1922,6 +2038,16 @@ public enum ApplicationProperty {
 	@Description("Solver: passivate solution after given number of minutes of inactivity (disable passivation by setting to zero)")
 	SolverPasivationTime("unitime.solver.passivation.time"),
 
+	@DefaultValue("binary")
+	@Values({"binary", "xml"})
+	@Description("Solver: format of the passivated / backed up solutions (binary is a compact encoding of the XML document that is much faster to write and read)")
+	SolverPassivationFormat("unitime.solver.passivation.format"),
+
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Solver: compress passivated / backed up solutions when the binary format is used")
+	SolverPassivationCompression("unitime.solver.passivation.compress"),
+
 	@Type(Integer.class)
 	@DefaultValue("300")
 	@Description("Online Student Scheduling: sectioning queue load interval in seconds")
@@ -1951,6 +2077,71 @@ public enum ApplicationProperty {
 	@Description("Online Student Scheduling: asynchronous execution thread pool size")
 	OnlineSchedulingServerAsyncPoolSize("unitime.enrollment.server.asyncPoolSize"),
 
+	@Type(Integer.class)
+	@DefaultValue("-1")
+	@Description("Online Student Scheduling: maximal number of asynchronous execution threads that can be running maintenance actions (reload all data, check all offerings, reload all students, persist expected spaces) at the same time, " +
+			"defaults to the asynchronous execution thread pool size minus one so that there is always a thread available for the interactive actions")
+	OnlineSchedulingServerAsyncMaintenanceThreads("unitime.enrollment.server.asyncMaintenanceThreads"),
+
+	@Type(Integer.class)
+	@DefaultValue("10000")
+	@Description("Online Student Scheduling: maximal number of asynchronous actions waiting in a queue (there is one queue for the interactive and one for the maintenance actions), zero for no limit")
+	OnlineSchedulingServerAsyncQueueSize("unitime.enrollment.server.asyncQueueSize"),
+
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Online Student Scheduling: use virtual threads for the asynchronous execution (only used when running on Java 21 or newer)")
+	OnlineSchedulingServerAsyncVirtualThreads("unitime.enrollment.server.asyncVirtualThreads"),
+
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Online Student Scheduling: maximal number of offering templates (student independent class placements, instructors, and ignored conflicts) cached by the server, zero to disable the cache")
+	OnlineSchedulingServerOfferingTemplateCacheSize("unitime.enrollment.server.offeringTemplateCacheSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("Online Student Scheduling: number of lock stripes used to lock students and offerings (rounded up to a power of two), when set to zero a single global lock monitor is used instead")
+	OnlineSchedulingServerLockStripes("unitime.enrollment.server.lockStripes"),
+
+	@Type(Integer.class)
+	@DefaultValue("4")
+	@Description("Online Student Scheduling: number of threads loading the offerings and the students when all the data are reloaded (e.g., on server start-up), " +
+			"the old data remain available until the new data are loaded; when set to one, the data are loaded by a single thread while the server is locked")
+	OnlineSchedulingServerReloadThreads("unitime.enrollment.server.reloadThreads"),
+
+	@Type(Integer.class)
+	@DefaultValue("500")
+	@Description("Online Student Scheduling: number of offerings or students that are loaded at once (using a separate transaction) when all the data are reloaded using multiple threads")
+	OnlineSchedulingServerReloadChunkSize("unitime.enrollment.server.reloadChunkSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("Online Student Scheduling: how often (in minutes) a snapshot of the in-memory server data is written into the local data folder (it is also written when the server is unloaded); " +
+			"when the server is started and there is a snapshot, the data are restored from it and only the student sectioning queue changes newer than the snapshot are replayed; zero to disable the snapshots")
+	OnlineSchedulingServerSnapshotInterval("unitime.enrollment.server.snapshotInterval"),
+
+	@Type(Integer.class)
+	@DefaultValue("1440")
+	@Description("Online Student Scheduling: maximal age of a snapshot (in minutes) that can be used to restore the server data, it should not exceed the online scheduling queue clean-up (unitime.cleanup.sectioningQueue)")
+	OnlineSchedulingServerSnapshotMaxAge("unitime.enrollment.server.snapshotMaxAge"),
+
+	@Type(Integer.class)
+	@DefaultValue("100")
+	@Description("Online Student Scheduling: number of offerings whose expected spaces are persisted at once (using a separate transaction); " +
+			"only the sections whose expected space has changed since it was last persisted are written")
+	OnlineSchedulingServerExpectedSpacesBatchSize("unitime.enrollment.server.expectedSpacesBatchSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("10000")
+	@Description("Online Student Scheduling: maximal number of results of idempotent reads (courses, offerings, course details) made on a server running on a different node that are cached on this node (per academic session); " +
+			"the cache is invalidated every time the server changes an offering, zero to disable the cache")
+	OnlineSchedulingServerNearCacheSize("unitime.enrollment.server.nearCache.size"),
+
+	@Type(Integer.class)
+	@DefaultValue("60")
+	@Description("Online Student Scheduling: time to live (in seconds) of a result cached in the near-cache of a server running on a different node (see unitime.enrollment.server.nearCache.size)")
+	OnlineSchedulingServerNearCacheTimeToLive("unitime.enrollment.server.nearCache.ttl"),
+
 	@Type(Integer.class)
 	@DefaultValue("366")
 	@Description("Change Log: automatically remove records after the given number of days")
@@ -2250,6 +2441,22 @@ public enum ApplicationProperty {
 	@Type(String.class)
 	@Description("Academic session backup: semicolon separated list of disallowed not-null relations")
 	SessionBackupDisallowed("unitime.session_backup.disallowed"),
+	
+	@Type(Integer.class)
+	@DefaultValue("10000")
+	@Description("Academic session backup: maximal number of records written in one chunk (records of a table are split into multiple chunks), zero for no limit")
+	SessionBackupChunkSize("unitime.session_backup.chunkSize"),
+	
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Academic session backup: compress each chunk separately (the chunks are then compressed and, during restore, decompressed in parallel); " +
+			"such a backup does not need to be compressed again and it can only be restored by a version that supports this format")
+	SessionBackupCompressChunks("unitime.session_backup.compressChunks"),
+	
+	@Type(Integer.class)
+	@DefaultValue("4")
+	@Description("Academic session backup: number of threads used to compress (backup) or decompress and parse (restore) the chunks")
+	SessionBackupThreads("unitime.session_backup.threads"),
 
 	@Type(Class.class)
 	@Implements(org.unitime.timetable.backup.SessionRestoreInterface.class)
@@ -2699,6 +2906,16 @@ public enum ApplicationProperty {
 	@Description("Point In Time Data: Day and Time Reports - Use times that begin at the half hour.  If set to false the reports will use times that begin at the start of the hour.  Defaults to true.")
 	ReportsStartOnTheHalfHour("unitime.pointInTimeData.hourlyReportsStartOnTheHalfHour"),
 
+	@Type(Integer.class)
+	@DefaultValue("4")
+	@Description("Point In Time Data: number of threads used to aggregate the classes of a point in time data (one subject area at a time) for the day and time reports")
+	PointInTimeDataReportsThreads("unitime.pointInTimeData.reports.threads"),
+
+	@Type(Integer.class)
+	@DefaultValue("2")
+	@Description("Point In Time Data: number of aggregated point in time data kept in memory, so that multiple day and time reports over the same point in time data only scan the database once (0 to disable)")
+	PointInTimeDataReportsCacheSize("unitime.pointInTimeData.reports.cacheSize"),
+
 	@Type(Boolean.class)
 	@DefaultValue("true")
 	@Description("Instructional Offering: show class notes")
@@ -3055,6 +3272,12 @@ public enum ApplicationProperty {
 	@Since(4.5)
 	CourseTimetablingCommitSkipChecking("unitime.commit.skipConflictChecking"),
 
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Course Timetabling Solution Commit: Use an in-memory occupancy index of the committed assignments (rooms and instructors) when checking for conflicts with other committed problems, instead of the database self-join queries. The index is also used when checking whether an offering has room conflicts.")
+	@Since(4.8)
+	CourseTimetablingCommitOccupancyIndex("unitime.commit.occupancyIndex"),
+
 	@Type(String.class)
 	@DefaultValue("Disabled")
 	@Description("Instructional Offering: wait-listing default value " +
@@ -3614,79 +3837,45 @@ public enum ApplicationProperty {
 	;
 
 	String iKey;
+	private Definition iDefinition;
+	private volatile CachedValue iValue = null;
+	private Map<Long, CachedValue> iSessionValues = new ConcurrentHashMap<Long, CachedValue>();
 	
 	ApplicationProperty(String key) { iKey = key; }
 	
+	static {
+		for (ApplicationProperty property: values())
+			property.iDefinition = new Definition(property);
+	}
+	
 	public String key() { return iKey; }
 	public String key(String reference) { return (reference == null ? iKey : iKey.replace("%", reference)); }
 	
 	public String defaultValue() {
-		try {
-			DefaultValue defaultValue = ApplicationProperty.class.getField(name()).getAnnotation(DefaultValue.class);
-			return (defaultValue == null ? null : defaultValue.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return iDefinition.iDefaultValue;
 	}
 	public String description() {
-		try {
-			Description description = ApplicationProperty.class.getField(name()).getAnnotation(Description.class);
-			return (description == null ? null : description.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return iDefinition.iDescription;
 	}
 	
 	public Class type() {
-		try {
-			Type type = ApplicationProperty.class.getField(name()).getAnnotation(Type.class);
-			return (type == null ? String.class : type.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return iDefinition.iType;
 	}
 	
 	public Class implementation() {
-		try {
-			Implements impl = ApplicationProperty.class.getField(name()).getAnnotation(Implements.class);
-			return (impl == null ? null : impl.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return iDefinition.iImplementation;
 	}
 	
 	public String[] availableValues() {
-		try {
-			Values type = ApplicationProperty.class.getField(name()).getAnnotation(Values.class);
-			return (type == null ? null : type.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return iDefinition.iAvailableValues;
 	}
 	
 	public Double since() {
-		try {
-			Since since = ApplicationProperty.class.getField(name()).getAnnotation(Since.class);
-			return (since == null ? null : since.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return iDefinition.iSince;
 	}
 	
 	public String value() {
-		return value(null, null);
+		return valueOfSession(ApplicationProperties.getSessionId());
 	}
 	
 	public String value(AcademicSessionInfo session) {
@@ -3715,8 +3904,22 @@ public enum ApplicationProperty {
 		return defaultValueOverride != null ? defaultValueOverride : defaultValue();
 	}
 	
+	/**
+	 * Value of the property for the given academic session (session configuration, application configuration, application properties, or the default).
+	 * The resolved value is cached until the application properties change (see {@link ApplicationProperties#getVersion()}).
+	 */
 	public String valueOfSession(Long sessionId) {
-		return valueOfSession(sessionId, null, null);
+		long version = ApplicationProperties.getVersion();
+		CachedValue cached = (sessionId == null ? iValue : iSessionValues.get(sessionId));
+		if (cached != null && cached.iVersion == version) return cached.iValue;
+		String value = valueOfSession(sessionId, null, null);
+		if (HibernateUtil.isConfigured()) {
+			if (sessionId == null)
+				iValue = new CachedValue(version, value);
+			else
+				iSessionValues.put(sessionId, new CachedValue(version, value));
+		}
+		return value;
 	}
 	
 	public String valueOfSession(Long sessionId, String reference) {
@@ -3786,52 +3989,25 @@ public enum ApplicationProperty {
 	}
 	
 	private String[] replaces() {
-		try {
-			Replaces replaces = ApplicationProperty.class.getField(name()).getAnnotation(Replaces.class);
-			return (replaces == null ? null : replaces.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return iDefinition.iReplaces;
 	}
 	
 	public boolean matches(String key) {
-		if (key.matches(key().replace(".", "\\.").replace("%", "(.+)"))) return true;
-		
-		String[] oldKeys = replaces();
-		if (oldKeys != null)
-			for (String old: oldKeys) {
-				if (key.matches(old.replace(".", "\\.").replace("%", "(.+)"))) return true;
-			}
-			
+		for (Pattern pattern: iDefinition.iPatterns)
+			if (pattern.matcher(key).matches()) return true;
 		return false;
 	}
 	
 	public String reference() {
-		try {
-			Parameter reference = ApplicationProperty.class.getField(name()).getAnnotation(Parameter.class);
-			return (reference == null ? null : reference.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return iDefinition.iReference;
 	}
 	
 	public String reference(String key) {
-		Matcher m = Pattern.compile(key().replace(".", "\\.").replace("%", "(.+)")).matcher(key);
-		if (m.matches() && m.groupCount() > 0)
-			return m.group(1);
-
-		String[] oldKeys = replaces();
-		if (oldKeys != null)
-			for (String old: oldKeys) {
-				m = Pattern.compile(old.replace(".", "\\.").replace("%", "(.+)")).matcher(key);
-				if (m.matches() && m.groupCount() > 0)
-					return m.group(1);
-			}
-		
+		for (Pattern pattern: iDefinition.iPatterns) {
+			Matcher m = pattern.matcher(key);
+			if (m.matches() && m.groupCount() > 0)
+				return m.group(1);
+		}
 		return null;
 	}
 	
@@ -3858,32 +4034,70 @@ public enum ApplicationProperty {
 	}
 	
 	public boolean isDeprecated() {
-		try {
-			return (ApplicationProperty.class.getField(name()).getAnnotation(Deprecated.class) != null);
-		} catch (NoSuchFieldException e) {
-			return false;
-		} catch (SecurityException e) {
-			return false;
-		}
+		return iDefinition.iDeprecated;
 	}
 	
 	public boolean isSecret() {
-		try {
-			return (ApplicationProperty.class.getField(name()).getAnnotation(Secret.class) != null);
-		} catch (NoSuchFieldException e) {
-			return false;
-		} catch (SecurityException e) {
-			return false;
-		}
+		return iDefinition.iSecret;
 	}
 	
 	public boolean isReadOnly() {
-		try {
-			return (ApplicationProperty.class.getField(name()).getAnnotation(ReadOnly.class) != null);
-		} catch (NoSuchFieldException e) {
-			return false;
-		} catch (SecurityException e) {
-			return false;
+		return iDefinition.iReadOnly;
+	}
+	
+	/**
+	 * Resolved annotations of an application property. The definitions are created once, when the {@link ApplicationProperty} class is initialized,
+	 * so that the property lookups do not need to use reflection.
+	 */
+	private static class Definition {
+		private String iDefaultValue, iDescription, iReference;
+		private Class iType, iImplementation;
+		private String[] iAvailableValues, iReplaces;
+		private Double iSince;
+		private boolean iDeprecated = false, iSecret = false, iReadOnly = false;
+		private List<Pattern> iPatterns = new ArrayList<Pattern>();
+		
+		private Definition(ApplicationProperty property) {
+			try {
+				Field field = ApplicationProperty.class.getField(property.name());
+				DefaultValue defaultValue = field.getAnnotation(DefaultValue.class);
+				iDefaultValue = (defaultValue == null ? null : defaultValue.value());
+				Description description = field.getAnnotation(Description.class);
+				iDescription = (description == null ? null : description.value());
+				Type type = field.getAnnotation(Type.class);
+				iType = (type == null ? String.class : type.value());
+				Implements impl = field.getAnnotation(Implements.class);
+				iImplementation = (impl == null ? null : impl.value());
+				Values values = field.getAnnotation(Values.class);
+				iAvailableValues = (values == null ? null : values.value());
+				Since since = field.getAnnotation(Since.class);
+				iSince = (since == null ? null : since.value());
+				Replaces replaces = field.getAnnotation(Replaces.class);
+				iReplaces = (replaces == null ? null : replaces.value());
+				Parameter reference = field.getAnnotation(Parameter.class);
+				iReference = (reference == null ? null : reference.value());
+				iDeprecated = (field.getAnnotation(Deprecated.class) != null);
+				iSecret = (field.getAnnotation(Secret.class) != null);
+				iReadOnly = (field.getAnnotation(ReadOnly.class) != null);
+			} catch (NoSuchFieldException e) {
+			} catch (SecurityException e) {
+			}
+			iPatterns.add(Pattern.compile(property.key().replace(".", "\\.").replace("%", "(.+)")));
+			if (iReplaces != null)
+				for (String old: iReplaces)
+					iPatterns.add(Pattern.compile(old.replace(".", "\\.").replace("%", "(.+)")));
+		}
+	}
+	
+	/**
+	 * Resolved value, valid as long as {@link ApplicationProperties#getVersion()} is not changed
+	 */
+	private static class CachedValue {
+		private long iVersion;
+		private String iValue;
+		
+		private CachedValue(long version, String value) {
+			iVersion = version; iValue = value;
 		}
 	}
 	
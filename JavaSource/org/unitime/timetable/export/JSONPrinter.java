@@ -19,11 +19,10 @@
 */
 package org.unitime.timetable.export;
 
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,15 +30,20 @@ import org.unitime.timetable.export.Exporter.Printer;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
 /**
+ * Lines are written as they come (as elements of a JSON array), the array is closed by {@link JSONPrinter#close()}.
+ * Use the {@link StreamingPrinter} to flush the output periodically.
+ * 
  * @author Tomas Muller
  */
 public class JSONPrinter implements Printer {
 	private PrintWriter iOut;
 	private Set<Integer> iHiddenColumns = new HashSet<Integer>();
 	private String[] iHeader = null;
-	private List<Map<String,Object>> iList = new ArrayList<Map<String,Object>>();
+	private Gson iGson = null;
+	private JsonWriter iWriter = null;
 	
 	public JSONPrinter(PrintWriter writer) {
 		iOut = writer;
@@ -61,7 +65,7 @@ public class JSONPrinter implements Printer {
 	}
 	
 	@Override
-	public void printLine(String... fields) {
+	public void printLine(String... fields) throws IOException {
 		Map<String, Object> entry = new HashMap<String, Object>();
 		for (int idx = 0; idx < fields.length; idx++) {
 			if (iHiddenColumns.contains(idx)) continue;
@@ -80,20 +84,30 @@ public class JSONPrinter implements Printer {
 			else if ("false".equals(f)) entry.put(h, Boolean.FALSE);
 			else entry.put(h, f);
 		}
-		iList.add(entry);
+		JsonWriter writer = writer();
+		iGson.toJson(entry, Map.class, writer);
 	}
 	
 	protected Gson createGson() {
 		return new GsonBuilder().setPrettyPrinting().create();
 	}
 	
+	private JsonWriter writer() throws IOException {
+		if (iWriter == null) {
+			iGson = createGson();
+			iWriter = iGson.newJsonWriter(iOut);
+			iWriter.beginArray();
+		}
+		return iWriter;
+	}
+	
 	@Override
 	public void flush() {
-		iOut.print(createGson().toJson(iList));
-		iOut.flush();
 	}
 	
 	@Override
-	public void close() {
+	public void close() throws IOException {
+		writer().endArray();
+		iWriter.flush();
 	}
 }
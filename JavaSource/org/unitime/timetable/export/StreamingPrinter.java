@@ -0,0 +1,94 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.export;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+import org.unitime.timetable.export.Exporter.Printer;
+
+/**
+ * Unlike the {@link BufferedPrinter}, lines are passed to the underlying printer right away
+ * and the output is flushed after every chunk of lines, so that the client starts receiving
+ * the data while the query is still being processed. Use the {@link BufferedPrinter} when
+ * the lines need to be sorted before printed.
+ * 
+ * @author Tomas Muller
+ */
+public class StreamingPrinter implements Printer {
+	private Printer iPrinter = null;
+	private Flushable iOutput = null;
+	private int iChunkSize;
+	private int iLines = 0;
+	
+	/**
+	 * @param printer underlying printer
+	 * @param output output stream or writer of the underlying printer, null if the underlying printer only writes its output on close (e.g., {@link XLSPrinter})
+	 * @param chunkSize number of lines after which the output is flushed
+	 */
+	public StreamingPrinter(Printer printer, Flushable output, int chunkSize) {
+		iPrinter = printer;
+		iOutput = output;
+		iChunkSize = chunkSize;
+	}
+	
+	@Override
+	public String getContentType() {
+		return iPrinter.getContentType();
+	}
+	
+	@Override
+	public void hideColumn(int col) {
+		iPrinter.hideColumn(col);
+	}
+	
+	@Override
+	public void printHeader(String... fields) throws IOException {
+		iPrinter.printHeader(fields);
+	}
+	
+	@Override
+	public void printLine(String... fields) throws IOException {
+		iPrinter.printLine(fields);
+		iLines ++;
+		if (iOutput != null && iChunkSize > 0 && (iLines % iChunkSize) == 0)
+			iOutput.flush();
+	}
+	
+	/** Number of lines printed so far */
+	public int getLines() {
+		return iLines;
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		iPrinter.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			iPrinter.flush();
+			if (iOutput != null) iOutput.flush();
+		} finally {
+			iPrinter.close();
+		}
+	}
+}
@@ -27,9 +27,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.stream.Stream;
 
 import jakarta.persistence.Tuple;
 import jakarta.persistence.TupleElement;
@@ -46,11 +48,13 @@ import org.hibernate.JDBCException;
 import org.springframework.stereotype.Service;
 import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.events.EventAction.EventContext;
 import org.unitime.timetable.export.BufferedPrinter;
 import org.unitime.timetable.export.CSVPrinter;
 import org.unitime.timetable.export.ExportHelper;
 import org.unitime.timetable.export.Exporter;
+import org.unitime.timetable.export.StreamingPrinter;
 import org.unitime.timetable.gwt.resources.GwtMessages;
 import org.unitime.timetable.gwt.shared.PageAccessException;
 import org.unitime.timetable.gwt.shared.SavedHQLException;
@@ -176,12 +180,23 @@ public class SavedHqlExportToCSV implements Exporter {
 		}
 		if (!hasAppearancePermission) throw new AccessDeniedException();
 		
+		String sort = helper.getParameter("sort");
+		if (sort == null || "0".equals(sort)) {
+			// no sorting: print the lines as they come
+			Printer out = new StreamingPrinter(new CSVPrinter(helper, false), helper.getWriter(), ApplicationProperty.ExportChunkSize.intValue());
+			helper.setup(out.getContentType(), hql.getName().replace('/', '-').replace('\\', '-').replace(':', '-') + ".csv", false);
+			
+			execute(context.getUser(), out, hql.getQuery(), params, 0, -1, hql.getParameters());
+			
+			out.close();
+			return;
+		}
+		
 		BufferedPrinter out = new BufferedPrinter(new CSVPrinter(helper, false));
 		helper.setup(out.getContentType(), hql.getName().replace('/', '-').replace('\\', '-').replace(':', '-') + ".csv", false);
 		
 		execute(context.getUser(), out, hql.getQuery(), params, 0, -1, hql.getParameters());
 		
-		String sort = helper.getParameter("sort");
 		if (sort != null && !"0".equals(sort)) {
 			final boolean asc = Integer.parseInt(sort) > 0;
 			final int col = Math.abs(Integer.parseInt(sort)) - 1;
@@ -301,18 +316,29 @@ public class SavedHqlExportToCSV implements Exporter {
 				}
 			}
 			int len = -1;
-			for (Tuple o: q.list()) {
-				if (len < 0) {
-					len = length(o);
+			// the whole result is streamed (scrollable results), the loaded objects are released after each chunk of lines
+			boolean stream = (maxRows <= 0);
+			int chunkSize = ApplicationProperty.ExportChunkSize.intValue(), row = 0;
+			Stream<Tuple> results = (stream ? q.stream() : q.list().stream());
+			try {
+				for (Iterator<Tuple> i = results.iterator(); i.hasNext(); ) {
+					Tuple o = i.next();
+					if (len < 0) {
+						len = length(o);
+						String[] line = new String[len];
+						header(line, o);
+						if (line.length > 0 && line[0].startsWith("__")) out.hideColumn(0);
+						out.printHeader(line);
+					}
 					String[] line = new String[len];
-					header(line, o);
-					if (line.length > 0 && line[0].startsWith("__")) out.hideColumn(0);
-					out.printHeader(line);
+					line(line, o);
+					out.printLine(line);
+					out.flush();
+					if (stream && chunkSize > 0 && (++row % chunkSize) == 0)
+						hibSession.clear();
 				}
-				String[] line = new String[len];
-				line(line, o);
-				out.printLine(line);
-				out.flush();
+			} finally {
+				results.close();
 			}
 		} catch (PageAccessException e) {
 			throw e;
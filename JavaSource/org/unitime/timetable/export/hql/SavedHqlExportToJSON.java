@@ -26,10 +26,12 @@ import java.util.Comparator;
 import java.util.List;
 
 import org.springframework.stereotype.Service;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.events.EventAction.EventContext;
 import org.unitime.timetable.export.BufferedPrinter;
 import org.unitime.timetable.export.ExportHelper;
 import org.unitime.timetable.export.JSONPrinter;
+import org.unitime.timetable.export.StreamingPrinter;
 import org.unitime.timetable.gwt.shared.SavedHQLInterface;
 import org.unitime.timetable.model.SavedHQL;
 import org.unitime.timetable.model.SavedHQLParameter;
@@ -147,12 +149,23 @@ public class SavedHqlExportToJSON extends SavedHqlExportToCSV {
 		}
 		if (!hasAppearancePermission) throw new AccessDeniedException();
 		
+		String sort = helper.getParameter("sort");
+		if (sort == null || "0".equals(sort)) {
+			// no sorting: print the lines as they come
+			Printer out = new StreamingPrinter(new JSONPrinter(helper.getWriter()), helper.getWriter(), ApplicationProperty.ExportChunkSize.intValue());
+			helper.setup(out.getContentType(), hql.getName().replace('/', '-').replace('\\', '-').replace(':', '-') + ".json", true);
+			
+			execute(context.getUser(), out, hql.getQuery(), params, 0, -1, hql.getParameters());
+			
+			out.close();
+			return;
+		}
+		
 		BufferedPrinter out = new BufferedPrinter(new JSONPrinter(helper.getWriter()));
 		helper.setup(out.getContentType(), hql.getName().replace('/', '-').replace('\\', '-').replace(':', '-') + ".json", true);
 		
 		execute(context.getUser(), out, hql.getQuery(), params, 0, -1, hql.getParameters());
 		
-		String sort = helper.getParameter("sort");
 		if (sort != null && !"0".equals(sort)) {
 			final boolean asc = Integer.parseInt(sort) > 0;
 			final int col = Math.abs(Integer.parseInt(sort)) - 1;
@@ -26,9 +26,11 @@ import java.util.Comparator;
 import java.util.List;
 
 import org.springframework.stereotype.Service;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.events.EventAction.EventContext;
 import org.unitime.timetable.export.BufferedPrinter;
 import org.unitime.timetable.export.ExportHelper;
+import org.unitime.timetable.export.StreamingPrinter;
 import org.unitime.timetable.export.XLSPrinter;
 import org.unitime.timetable.gwt.shared.SavedHQLInterface;
 import org.unitime.timetable.model.SavedHQL;
@@ -147,12 +149,23 @@ public class SavedHqlExportToXLS extends SavedHqlExportToCSV {
 		}
 		if (!hasAppearancePermission) throw new AccessDeniedException();
 		
+		String sort = helper.getParameter("sort");
+		if (sort == null || "0".equals(sort)) {
+			// no sorting: print the lines as they come
+			Printer out = new StreamingPrinter(new XLSPrinter(helper.getOutputStream(), false), null, ApplicationProperty.ExportChunkSize.intValue());
+			helper.setup(out.getContentType(), hql.getName().replace('/', '-').replace('\\', '-').replace(':', '-') + ".xls", true);
+			
+			execute(context.getUser(), out, hql.getQuery(), params, 0, -1, hql.getParameters());
+			
+			out.close();
+			return;
+		}
+		
 		BufferedPrinter out = new BufferedPrinter(new XLSPrinter(helper.getOutputStream(), false));
 		helper.setup(out.getContentType(), hql.getName().replace('/', '-').replace('\\', '-').replace(':', '-') + ".xls", true);
 		
 		execute(context.getUser(), out, hql.getQuery(), params, 0, -1, hql.getParameters());
 		
-		String sort = helper.getParameter("sort");
 		if (sort != null && !"0".equals(sort)) {
 			final boolean asc = Integer.parseInt(sort) > 0;
 			final int col = Math.abs(Integer.parseInt(sort)) - 1;
@@ -20,6 +20,7 @@
 package org.unitime.timetable.filter;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
@@ -27,7 +28,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -59,6 +63,7 @@ import org.unitime.timetable.spring.gwt.GwtDispatcherServlet.GwtCallInfo;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 
 /**
  * @author Tomas Muller
@@ -168,7 +173,7 @@ public class QueryLogFilter implements Filter {
 						else
 							params.put(e.getKey(), e.getValue());
 					}
-					q.setQuery(iGson.toJson(params));
+					q.setQuery(toJson(iGson, params));
 				} catch (Throwable t) {}
 			} else {
 				String params = "";
@@ -217,67 +222,143 @@ public class QueryLogFilter implements Filter {
 			iSaver.interrupt();
 	}
 	
+	/**
+	 * Truncate the given string to the maximal length (see {@link ApplicationProperty#QueryLogMaxLength})
+	 */
+	public static String truncate(String text) {
+		int maxLength = ApplicationProperty.QueryLogMaxLength.intValue();
+		if (text == null || maxLength <= 0 || text.length() <= maxLength) return text;
+		return text.substring(0, Math.max(0, maxLength - 3)) + "...";
+	}
+	
+	/**
+	 * Serialize the given object into JSON, the serialization is stopped as soon as the maximal length (see {@link ApplicationProperty#QueryLogMaxLength})
+	 * is reached, so that large requests are not serialized completely only to be truncated afterwards.
+	 */
+	public static String toJson(Gson gson, Object object) {
+		int maxLength = ApplicationProperty.QueryLogMaxLength.intValue();
+		if (maxLength <= 0) return gson.toJson(object);
+		LimitedWriter writer = new LimitedWriter(maxLength);
+		try {
+			gson.toJson(object, writer);
+		} catch (JsonIOException e) {
+			if (!writer.isLimitReached()) throw e;
+		}
+		return writer.toString();
+	}
+	
+	private static class LimitedWriter extends Writer {
+		private StringBuilder iBuffer = new StringBuilder();
+		private int iMaxLength;
+		private boolean iLimitReached = false;
+		
+		LimitedWriter(int maxLength) { iMaxLength = maxLength; }
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			if (iBuffer.length() + len <= iMaxLength) {
+				iBuffer.append(cbuf, off, len);
+			} else {
+				iBuffer.append(cbuf, off, Math.max(0, iMaxLength - 3 - iBuffer.length()));
+				iBuffer.setLength(Math.min(iBuffer.length(), Math.max(0, iMaxLength - 3)));
+				iBuffer.append("...");
+				iLimitReached = true;
+				throw new IOException("Maximal length of " + iMaxLength + " characters reached.");
+			}
+		}
+		
+		@Override
+		public void flush() {}
+		
+		@Override
+		public void close() {}
+		
+		boolean isLimitReached() { return iLimitReached; }
+		
+		@Override
+		public String toString() { return iBuffer.toString(); }
+	}
+	
+	/**
+	 * Asynchronous writer of the query log. The queries are kept in a bounded queue (see {@link ApplicationProperty#QueryLogLimit})
+	 * and persisted in batches (see {@link ApplicationProperty#QueryLogBatchSize}), either when a full batch is available
+	 * or when the flush interval (see {@link ApplicationProperty#QueryLogFlushInterval}) has passed.
+	 */
 	public static class Saver extends Thread {
-		private List<QueryLog> iQueries = new Vector<QueryLog>();
+		private BlockingQueue<QueryLog> iQueries;
 		private boolean iActive = true;
 		private int iLogLimit = -1;
+		private int iBatchSize = 100;
+		private long iFlushInterval = 60000;
+		private Object iSignal = new Object();
+		private AtomicLong iDropped = new AtomicLong(0), iPersisted = new AtomicLong(0);
 		
 		public Saver() {
 			super("QueryLogSaver");
 			iLogLimit = ApplicationProperty.QueryLogLimit.intValue();
+			iBatchSize = Math.max(1, ApplicationProperty.QueryLogBatchSize.intValue());
+			iFlushInterval = 1000l * Math.max(1, ApplicationProperty.QueryLogFlushInterval.intValue());
+			iQueries = (iLogLimit > 0 ? new ArrayBlockingQueue<QueryLog>(iLogLimit) : new LinkedBlockingQueue<QueryLog>());
 			setDaemon(true);
 		}
 		
 		@Override
 		public void interrupt() {
 			iActive = false;
-			super.interrupt();
+			synchronized (iSignal) {
+				iSignal.notify();
+			}
 			try { join(); } catch (InterruptedException e) {}
 		}
 		
 		public void add(QueryLog q) {
 			if (!iActive) return;
-			synchronized (iQueries) {
-				if (iLogLimit <= 0 || iQueries.size() < iLogLimit)
-					iQueries.add(q);
+			q.setQuery(truncate(q.getQuery()));
+			q.setException(truncate(q.getException()));
+			if (!iQueries.offer(q)) {
+				if (iDropped.incrementAndGet() == 1)
+					sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, some messages have been dropped.");
+			} else if (iQueries.size() >= iBatchSize) {
+				synchronized (iSignal) {
+					iSignal.notify();
+				}
 			}
 		}
 		
+		/** Number of queries waiting to be persisted */
+		public int getQueueDepth() { return iQueries.size(); }
+		/** Number of dropped queries */
+		public long getDropped() { return iDropped.get(); }
+		/** Number of persisted queries */
+		public long getPersisted() { return iPersisted.get(); }
+		
 		public void run() {
 			sLog.debug("Query Log Saver is up.");
+			long lastFlush = System.currentTimeMillis();
 			while (true) {
 				try {
-					try {
-						sleep(60000);
-					} catch (InterruptedException e) {
-					}
-					List<QueryLog> queriesToSave = null;
-					synchronized (iQueries) {
-						if (!iQueries.isEmpty()) {
-							queriesToSave = new ArrayList<QueryLog>(iQueries);
-							iQueries.clear();
+					synchronized (iSignal) {
+						long wait = iFlushInterval - (System.currentTimeMillis() - lastFlush);
+						if (iActive && wait > 0 && iQueries.size() < iBatchSize) {
+							try {
+								iSignal.wait(wait);
+							} catch (InterruptedException e) {
+							}
 						}
 					}
-					if (queriesToSave != null) {
-						sLog.debug("Persisting " + queriesToSave.size() + " log entries...");
-						if (iLogLimit > 0 && queriesToSave.size() >= iLogLimit)
-							sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, some messages have been dropped.");
-						Session hibSession = QueryLogDAO.getInstance().createNewSession();
-						hibSession.setCacheMode(CacheMode.IGNORE);
-						Transaction tx = hibSession.beginTransaction();
-						try {
-							for (QueryLog q: queriesToSave)
-								hibSession.persist(q);
-							hibSession.flush();
-							tx.commit();
-						} catch (Exception e) {
-							tx.rollback();
-							sLog.error("Failed to persist " + queriesToSave.size() + " log entries:" + e.getMessage(), e);
-						} finally {
-							hibSession.close();
-						}
+					boolean timeout = !iActive || System.currentTimeMillis() - lastFlush >= iFlushInterval;
+					// persist full batches, and everything that was queued up when the flush interval has passed
+					int toPersist = iQueries.size();
+					if (!timeout) toPersist -= toPersist % iBatchSize;
+					while (toPersist > 0) {
+						List<QueryLog> queriesToSave = new ArrayList<QueryLog>(Math.min(iBatchSize, toPersist));
+						iQueries.drainTo(queriesToSave, Math.min(iBatchSize, toPersist));
+						if (queriesToSave.isEmpty()) break;
+						toPersist -= queriesToSave.size();
+						persist(queriesToSave);
 					}
-					if (!iActive) break;
+					if (timeout) lastFlush = System.currentTimeMillis();
+					if (!iActive && iQueries.isEmpty()) break;
 				} catch (Exception e) {
 					sLog.error("Failed to persist log entries:" + e.getMessage(), e);
 				}
@@ -285,5 +366,24 @@ public class QueryLogFilter implements Filter {
 			sLog.debug("Query Log Saver is down.");
 		}
 		
+		protected void persist(List<QueryLog> queriesToSave) {
+			sLog.debug("Persisting " + queriesToSave.size() + " log entries...");
+			Session hibSession = QueryLogDAO.getInstance().createNewSession();
+			hibSession.setCacheMode(CacheMode.IGNORE);
+			hibSession.setJdbcBatchSize(iBatchSize);
+			Transaction tx = hibSession.beginTransaction();
+			try {
+				for (QueryLog q: queriesToSave)
+					hibSession.persist(q);
+				hibSession.flush();
+				tx.commit();
+				iPersisted.addAndGet(queriesToSave.size());
+			} catch (Exception e) {
+				tx.rollback();
+				sLog.error("Failed to persist " + queriesToSave.size() + " log entries:" + e.getMessage(), e);
+			} finally {
+				hibSession.close();
+			}
+		}
 	}
 }
@@ -22,9 +22,22 @@ package org.unitime.timetable.gwt.command.server;
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -54,6 +67,7 @@ import org.unitime.timetable.security.SessionContext;
 import org.unitime.timetable.security.context.HttpSessionContext;
 import org.unitime.timetable.security.evaluation.PermissionCheck;
 import org.unitime.timetable.util.Formats;
+import org.unitime.timetable.util.VirtualThreads;
 
 import com.google.gson.FieldNamingStrategy;
 import com.google.gson.Gson;
@@ -74,6 +88,9 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 	private QueryLogFilter.Saver iSaver = null;
 	private static IdGenerator sIdGenerator = new IdGenerator();
 	private static Map<Long, Execution> sExecutions = new Hashtable<Long, Execution>();
+	private static ThreadPoolExecutor sExecutor = null;
+	private static Timer sExpirationTimer = null;
+	private static AtomicLong sExecuted = new AtomicLong(0), sRejected = new AtomicLong(0), sExpired = new AtomicLong(0);
 	private Gson iGson = null;
 	
 	protected SessionContext getSessionContext() {
@@ -91,6 +108,7 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 		iSaver = new QueryLogFilter.Saver();
 		iSaver.setName("GwtRpcLogSaver");
 		iSaver.start();
+		startExpirationTimer();
 		iGson = new GsonBuilder()
 				.registerTypeAdapter(java.sql.Timestamp.class, new JsonSerializer<java.sql.Timestamp>() {
 					@Override
@@ -127,6 +145,123 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 	@Override
 	public void destroy() {
 		if (iSaver != null) iSaver.interrupt();
+		if (sLog.isDebugEnabled())
+			for (Map.Entry<String, GwtRpcStatistics.RequestStatistics> e: GwtRpcStatistics.getStatistics().entrySet())
+				sLog.debug(e.getKey() + ": " + e.getValue());
+		synchronized (GwtRpcServlet.class) {
+			if (sExpirationTimer != null) {
+				sExpirationTimer.cancel();
+				sExpirationTimer = null;
+			}
+			if (sExecutor != null) {
+				sExecutor.shutdownNow();
+				sExecutor = null;
+			}
+		}
+	}
+	
+	/**
+	 * Bounded executor of the asynchronous requests, see {@link ApplicationProperty#GwtRpcAsyncPoolSize}
+	 * and {@link ApplicationProperty#GwtRpcAsyncQueueSize}.
+	 */
+	protected static synchronized ThreadPoolExecutor getExecutor() {
+		if (sExecutor == null) {
+			int poolSize = Math.max(1, ApplicationProperty.GwtRpcAsyncPoolSize.intValue());
+			int queueSize = ApplicationProperty.GwtRpcAsyncQueueSize.intValue();
+			ThreadFactory factory = (ApplicationProperty.GwtRpcAsyncVirtualThreads.isTrue() ? VirtualThreads.getFactory("RPC-") : null);
+			if (factory == null)
+				factory = new ThreadFactory() {
+					private AtomicInteger iNextId = new AtomicInteger(1);
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "RPC-" + iNextId.getAndIncrement());
+						t.setDaemon(true);
+						return t;
+					}
+				};
+			sExecutor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+					queueSize > 0 ? new LinkedBlockingQueue<Runnable>(queueSize) : new LinkedBlockingQueue<Runnable>(),
+					factory);
+			sExecutor.allowCoreThreadTimeOut(true);
+		}
+		return sExecutor;
+	}
+	
+	/**
+	 * Start the timer that checks for expired asynchronous executions once a minute (see {@link GwtRpcServlet#expireExecutions()})
+	 */
+	protected static synchronized void startExpirationTimer() {
+		if (sExpirationTimer != null) return;
+		sExpirationTimer = new Timer("GwtRpcAsyncExpiration", true);
+		sExpirationTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					expireExecutions();
+				} catch (Throwable t) {
+					sLog.warn("Failed to expire asynchronous executions: " + t.getMessage(), t);
+				}
+			}
+		}, 60000l, 60000l);
+	}
+	
+	/**
+	 * Discard finished executions whose results have not been picked up within the time to live (see {@link ApplicationProperty#GwtRpcAsyncResultTimeToLive}),
+	 * cancel and discard executions that are still waiting or running after the execution timeout (see {@link ApplicationProperty#GwtRpcAsyncExecutionTimeout}).
+	 */
+	protected static void expireExecutions() {
+		long now = System.currentTimeMillis();
+		long ttl = 60000l * ApplicationProperty.GwtRpcAsyncResultTimeToLive.intValue();
+		long timeout = 60000l * ApplicationProperty.GwtRpcAsyncExecutionTimeout.intValue();
+		List<Execution> expired = new ArrayList<Execution>();
+		List<Execution> timedOut = new ArrayList<Execution>();
+		synchronized (sExecutions) {
+			for (Execution execution: sExecutions.values()) {
+				if (ttl > 0 && execution.isExpired(now, ttl)) expired.add(execution);
+				else if (timeout > 0 && execution.isTimedOut(now, timeout)) timedOut.add(execution);
+			}
+			for (Execution execution: expired)
+				sExecutions.remove(execution.getExecutionId());
+			for (Execution execution: timedOut)
+				sExecutions.remove(execution.getExecutionId());
+		}
+		for (Execution execution: timedOut) {
+			sLog.warn("Execution of " + execution.getRequest() + " did not finish in " + ApplicationProperty.GwtRpcAsyncExecutionTimeout.intValue() + " minutes, cancelling.");
+			execution.cancelExecution();
+		}
+		if (!expired.isEmpty() || !timedOut.isEmpty()) {
+			sExpired.addAndGet(expired.size() + timedOut.size());
+			sLog.info("Discarded " + expired.size() + " unclaimed asynchronous results and " + timedOut.size() + " unfinished executions (" + getAsyncStatistics() + ").");
+		}
+	}
+	
+	/** Number of asynchronous requests waiting for execution */
+	public static int getQueuedExecutions() {
+		ThreadPoolExecutor executor = sExecutor;
+		return (executor == null ? 0 : executor.getQueue().size());
+	}
+	
+	/** Number of asynchronous requests being executed */
+	public static int getRunningExecutions() {
+		ThreadPoolExecutor executor = sExecutor;
+		return (executor == null ? 0 : executor.getActiveCount());
+	}
+	
+	/** Number of asynchronous requests that have been executed */
+	public static long getExecutedExecutions() { return sExecuted.get(); }
+	
+	/** Number of asynchronous requests that have been rejected */
+	public static long getRejectedExecutions() { return sRejected.get(); }
+	
+	/** Number of asynchronous results that have expired (including executions that have been cancelled because they did not finish in time) */
+	public static long getExpiredExecutions() { return sExpired.get(); }
+	
+	/** Number of asynchronous executions (queued, running, or finished) whose results have not been picked up yet */
+	public static int getPendingExecutions() { return sExecutions.size(); }
+	
+	public static String getAsyncStatistics() {
+		return "queued=" + getQueuedExecutions() + ", running=" + getRunningExecutions() + ", pending=" + getPendingExecutions() +
+				", executed=" + getExecutedExecutions() + ", rejected=" + getRejectedExecutions() + ", expired=" + getExpiredExecutions();
 	}
 	
 	public static <T extends GwtRpcResponse> GwtRpcImplementation<GwtRpcRequest<T>, T> getImplementation(Class<? extends GwtRpcRequest<T>> requestClass, ApplicationContext applicationContext) throws BeansException {
@@ -225,8 +360,26 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 		}
 	}
 	
+	/**
+	 * Should a call of the given request type be recorded in the query log (see {@link ApplicationProperty#QueryLogSampling})
+	 */
+	protected boolean isSampled(String requestName) {
+		String sampling = ApplicationProperty.QueryLogSampling.value(requestName);
+		if (sampling == null) return true;
+		try {
+			double rate = Double.parseDouble(sampling);
+			if (rate >= 1.0) return true;
+			if (rate <= 0.0) return false;
+			return ThreadLocalRandom.current().nextDouble() < rate;
+		} catch (NumberFormatException e) {
+			return true;
+		}
+	}
+	
 	private <T extends GwtRpcResponse> void log(GwtRpcRequest<T> request, T response, Throwable exception, long time, SessionContext context, GwtRpcLogging logging) {
 		try {
+			String requestName = request.getClass().getSimpleName();
+			GwtRpcStatistics.record(requestName, time, exception != null);
 			if (iSaver == null) return;
 			if (logging != null) {
 				switch (logging.value()) {
@@ -236,8 +389,8 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 					if (exception != null) return;
 				}
 			}
+			if (exception == null && !isSampled(requestName)) return;
 			QueryLog q = new QueryLog();
-			String requestName = request.getClass().getSimpleName();
 			q.setUri("RPC:" + requestName);
 			q.setType(QueryLog.Type.RPC.ordinal());
 			q.setTimeStamp(new Date());
@@ -245,7 +398,7 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 			q.setSessionId(context.getHttpSessionId());
 			q.setUid(context.isAuthenticated() ? context.getUser().getTrueExternalUserId() : null);
 			if (ApplicationProperty.QueryLogJSON.isTrue()) {
-				q.setQuery(iGson.toJson(request));
+				q.setQuery(QueryLogFilter.toJson(iGson, request));
 			} else {
 				q.setQuery(request.toString());
 			}
@@ -277,8 +430,19 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 			synchronized (sExecutions) {
 				sExecutions.put(execution.getExecutionId(), execution);
 			}
-			execution.start();
+			try {
+				execution.submit(getExecutor());
+			} catch (RejectedExecutionException e) {
+				synchronized (sExecutions) {
+					sExecutions.remove(execution.getExecutionId());
+				}
+				sRejected.incrementAndGet();
+				sLog.warn("Execute async rejected: " + request + " (" + getAsyncStatistics() + ")");
+				throw new GwtRpcException("Too many requests are being processed, please try again later.");
+			}
 			return execution.getExecutionId();
+		} catch (GwtRpcException e) {
+			throw e;
 		} catch (Exception e) {
 			sLog.warn("Execute async failed: " + e.getMessage());
 			throw new GwtRpcException(e.getMessage(), e);
@@ -292,7 +456,7 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 			synchronized (sExecutions) {
 				execution = sExecutions.get(executionId);
 			}
-			if (execution == null) throw new GwtRpcException("No execution with given id found.");
+			if (execution == null) throw new GwtRpcException("No execution with given id found (it may have expired).");
 			try {
 				execution.waitToFinish();
 			} catch (InterruptedException e) {
@@ -335,28 +499,42 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 		}
 	}
 	
-	private class Execution<R extends GwtRpcRequest<T>, T extends GwtRpcResponse> extends Thread {
+	private class Execution<R extends GwtRpcRequest<T>, T extends GwtRpcResponse> implements Runnable {
 		R iRequest;
 		T iResponse = null;
 		SessionContext iContext = null;
 		GwtRpcException iException = null;
-		Thread iWaitingThread = null;
+		Thread iThread = null;
+		Future<?> iFuture = null;
 		long iExecutionId;
-		boolean iRunning = false;
+		boolean iFinished = false;
+		long iFinishedTime = 0;
+		long iCreatedTime = 0;
 		String iLocale = null;
 		
 		Execution(R request) {
-			setName("RPC:" + request);
-			setDaemon(true);
 			iRequest = request;
+			iCreatedTime = System.currentTimeMillis();
 			iExecutionId = sIdGenerator.generatedId();
 			iContext = new GwtRpcHelper(getSessionContext(), getPermissionCheck());
 			iLocale = Localization.getLocale();
 		}
+		
+		void submit(ThreadPoolExecutor executor) throws RejectedExecutionException {
+			Future<?> future = executor.submit(this);
+			synchronized (this) {
+				iFuture = future;
+			}
+		}
 
 		@Override
 		public void run() {
-			iRunning = true;
+			synchronized (this) {
+				if (iFinished) return; // cancelled before started
+				iThread = Thread.currentThread();
+			}
+			String name = iThread.getName();
+			iThread.setName("RPC:" + iRequest);
 			Localization.setLocale(iLocale);
 			ApplicationProperties.setSessionId(iContext.getUser() == null ? null : iContext.getUser().getCurrentAcademicSessionId());
 			// start time
@@ -403,35 +581,57 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 				Formats.removeFormats();
 				ApplicationProperties.setSessionId(null);
 				HibernateUtil.closeCurrentThreadSessions();
-			}
-			synchronized (this) {
-				iWaitingThread = null;
-				iRunning = false;
-				iContext = null;
+				sExecuted.incrementAndGet();
+				synchronized (this) {
+					iThread.setName(name);
+					// clear the interrupted flag (if cancelled) before the thread is returned to the pool
+					Thread.interrupted();
+					iThread = null;
+					iFinished = true;
+					iFinishedTime = System.currentTimeMillis();
+					iContext = null;
+					notifyAll();
+				}
 			}
 		}
 		
 		void waitToFinish() throws InterruptedException {
 			synchronized (this) {
-				if (iRunning) {
-					iWaitingThread = Thread.currentThread();
-					join();
-				}
+				while (!iFinished)
+					wait();
 			}
 		}
 		
 		void cancelExecution() {
 			synchronized (this) {
 				iException = new GwtRpcCancelledException("Operation cancelled by the user.");
-				if (iWaitingThread != null) iWaitingThread.interrupt();
+				if (iThread != null) {
+					iThread.interrupt();
+				} else if (!iFinished) {
+					// not started yet
+					if (iFuture != null) iFuture.cancel(false);
+					iFinished = true;
+					iFinishedTime = System.currentTimeMillis();
+					iContext = null;
+				}
+				notifyAll();
 			}
-			interrupt();
 		}
 		
+		synchronized boolean isExpired(long now, long ttl) {
+			return iFinished && now - iFinishedTime > ttl;
+		}
+		
+		synchronized boolean isTimedOut(long now, long timeout) {
+			return !iFinished && now - iCreatedTime > timeout;
+		}
+		
+		R getRequest() { return iRequest; }
+		
 		T getResponse() { return iResponse; }
 		
 		GwtRpcException getException() { return iException; }
 		
 		Long getExecutionId() { return iExecutionId; }
 	}
-}
\ No newline at end of file
+}
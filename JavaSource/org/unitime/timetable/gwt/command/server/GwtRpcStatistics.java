@@ -0,0 +1,127 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.gwt.command.server;
+
+import java.text.DecimalFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory latency statistics of the GWT RPC calls, kept for each request type.
+ * Unlike the query log, every call is counted (regardless of the query log sampling).
+ * The latencies are kept in a logarithmic histogram (four buckets per power of two),
+ * so the percentiles are approximate (the returned value is the upper bound of the bucket, within about 20% of the actual value).
+ * 
+ * @author Tomas Muller
+ */
+public class GwtRpcStatistics {
+	private static ConcurrentMap<String, RequestStatistics> sStatistics = new ConcurrentHashMap<String, RequestStatistics>();
+	
+	/** Record a call of the given request type that took the given time in milliseconds */
+	public static void record(String requestType, long time, boolean failed) {
+		RequestStatistics stats = sStatistics.get(requestType);
+		if (stats == null) {
+			stats = new RequestStatistics();
+			RequestStatistics old = sStatistics.putIfAbsent(requestType, stats);
+			if (old != null) stats = old;
+		}
+		stats.record(time, failed);
+	}
+	
+	/** Statistics of the given request type, null if no such request was made */
+	public static RequestStatistics getStatistics(String requestType) {
+		return sStatistics.get(requestType);
+	}
+	
+	/** Statistics of all the request types */
+	public static Map<String, RequestStatistics> getStatistics() {
+		return new TreeMap<String, RequestStatistics>(sStatistics);
+	}
+	
+	public static void reset() {
+		sStatistics.clear();
+	}
+	
+	public static class RequestStatistics {
+		private static DecimalFormat sDF = new DecimalFormat("0.0");
+		private static final int NR_BUCKETS = 4 * 40;
+		private AtomicLongArray iHistogram = new AtomicLongArray(NR_BUCKETS);
+		private AtomicLong iCount = new AtomicLong(0), iFailed = new AtomicLong(0), iTotal = new AtomicLong(0), iMax = new AtomicLong(0);
+		
+		/** Bucket of the given time: 0 for less than 1 ms, 4 * log2(time) + 1 otherwise */
+		private static int bucket(long time) {
+			if (time < 1) return 0;
+			int log2 = 63 - Long.numberOfLeadingZeros(time);
+			// two bits following the leading one split the power of two into four sub-buckets
+			int sub = (log2 >= 2 ? (int)((time >> (log2 - 2)) & 3) : log2 == 1 ? (int)((time & 1) << 1) : 0);
+			return Math.min(NR_BUCKETS - 1, 1 + 4 * log2 + sub);
+		}
+		
+		/** Upper bound of the given bucket */
+		private static long upperBound(int bucket) {
+			if (bucket == 0) return 0;
+			int log2 = (bucket - 1) / 4, sub = (bucket - 1) % 4;
+			return ((4l + sub + 1) << log2) / 4;
+		}
+		
+		private void record(long time, boolean failed) {
+			iCount.incrementAndGet();
+			if (failed) iFailed.incrementAndGet();
+			iTotal.addAndGet(time);
+			iHistogram.incrementAndGet(bucket(time));
+			long max = iMax.get();
+			while (time > max && !iMax.compareAndSet(max, time))
+				max = iMax.get();
+		}
+		
+		/** Number of calls */
+		public long getCount() { return iCount.get(); }
+		/** Number of failed calls */
+		public long getFailed() { return iFailed.get(); }
+		/** Average time in milliseconds */
+		public double getAverage() { long c = getCount(); return (c == 0 ? 0.0 : ((double)iTotal.get()) / c); }
+		/** Maximal time in milliseconds */
+		public long getMax() { return iMax.get(); }
+		
+		/** Approximate percentile (0.5 for median, 0.99 for the 99th percentile) in milliseconds */
+		public long getPercentile(double p) {
+			long count = 0;
+			for (int i = 0; i < NR_BUCKETS; i++) count += iHistogram.get(i);
+			if (count == 0) return 0;
+			long rank = (long)Math.ceil(p * count);
+			long seen = 0;
+			for (int i = 0; i < NR_BUCKETS; i++) {
+				seen += iHistogram.get(i);
+				if (seen >= rank) return Math.min(upperBound(i), getMax());
+			}
+			return getMax();
+		}
+		
+		@Override
+		public String toString() {
+			return "count=" + getCount() + (getFailed() > 0 ? ", failed=" + getFailed() : "") + ", avg=" + sDF.format(getAverage()) + " ms" +
+					", p50=" + getPercentile(0.5) + " ms, p90=" + getPercentile(0.9) + " ms, p99=" + getPercentile(0.99) + " ms, max=" + getMax() + " ms";
+		}
+	}
+}
@@ -1097,6 +1097,9 @@ public interface StudentSectioningMessages extends Messages {
 	@DefaultMessage("Academic session is not available for student scheduling.")
 	String exceptionNoServerForSession();
 
+	@DefaultMessage("Too many requests are waiting to be processed, please try again later.")
+	String exceptionAsyncQueueFull();
+
 	@DefaultMessage("Wrong class or instructional offering.")
 	String exceptionBadClassOrOffering();
 	
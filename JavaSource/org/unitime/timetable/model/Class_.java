@@ -63,6 +63,7 @@ import org.unitime.timetable.onlinesectioning.custom.Customization;
 import org.unitime.timetable.security.SessionContext;
 import org.unitime.timetable.security.UserContext;
 import org.unitime.timetable.security.rights.Right;
+import org.unitime.timetable.solver.ClassAssignmentCache;
 import org.unitime.timetable.solver.ClassAssignmentProxy;
 import org.unitime.timetable.solver.CommitedClassAssignmentProxy;
 import org.unitime.timetable.solver.course.ui.ClassAssignmentInfo;
@@ -1444,6 +1445,7 @@ public class Class_ extends BaseClass_ {
         	
         	setCommittedAssignment(null);
         	hibSession.merge(this);
+        	ClassAssignmentCache.invalidateClass(getUniqueId());
         	
             ChangeLog.addChange(hibSession,
                     TimetableManager.findByExternalId(user.getExternalUserId()),
@@ -1544,6 +1546,7 @@ public class Class_ extends BaseClass_ {
             
 			a.getAssignmentInfo().add(ai);
 			a.cleastAssignmentInfoCache();
+			ClassAssignmentCache.invalidateClass(getUniqueId());
             
             ClassEvent event = getEvent();
             EventDateMapping.Class2EventDateMap class2eventDates = EventDateMapping.getMapping(getSession().getUniqueId());
@@ -29,6 +29,7 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
@@ -73,7 +74,9 @@ import org.unitime.timetable.model.dao.InstructionalOfferingDAO;
 import org.unitime.timetable.model.dao.LocationDAO;
 import org.unitime.timetable.model.dao.SolutionDAO;
 import org.unitime.timetable.model.dao.SolutionInfoDAO;
+import org.unitime.timetable.solver.ClassAssignmentCache;
 import org.unitime.timetable.solver.ClassAssignmentProxy;
+import org.unitime.timetable.solver.CommittedAssignmentIndex;
 import org.unitime.timetable.solver.ui.AssignmentPreferenceInfo;
 import org.unitime.timetable.solver.ui.PropertiesInfo;
 import org.unitime.timetable.solver.ui.TimetableInfo;
@@ -138,6 +141,8 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 		setCommited(Boolean.FALSE);
 
 		hibSession.merge(this);
+		CommittedAssignmentIndex.invalidate(getOwner().getSession().getUniqueId());
+		ClassAssignmentCache.invalidate(getUniqueId());
 		
 	    if (ApplicationProperty.ClassAssignmentChangePastMeetings.isTrue()) {
 			deleteObjects(hibSession,
@@ -248,6 +253,63 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
         return false;
     }
     
+    /**
+     * Check this solution for room and instructor conflicts with the solutions committed by the other solver groups (or by solver groups
+     * not listed in ownerIds, when provided), using the {@link CommittedAssignmentIndex} instead of the database self-join queries.
+     */
+    protected boolean checkCommitConflicts(List<String> messages, org.hibernate.Session hibSession, Long[] ownerIds) {
+    	boolean multipleOwners = (ownerIds != null && ownerIds.length > 1 && ownerIds.length <= 1000);
+    	Set<Long> otherOwners = new HashSet<Long>();
+    	if (multipleOwners)
+    		otherOwners.addAll(Arrays.asList(ownerIds));
+    	else
+    		otherOwners.add(getOwner().getUniqueId());
+    	CommittedAssignmentIndex index = CommittedAssignmentIndex.getInstance(getOwner().getSession().getUniqueId(), hibSession);
+    	boolean isOK = true;
+    	for (Assignment a: getAssignments()) {
+    		for (Location location: a.getRooms()) {
+    			if (!location.isIgnoreRoomCheck())
+    				isOK &= checkCommitRoomConflicts(messages, hibSession, index, otherOwners, a, location, location);
+    			if (location instanceof Room) {
+    				Room room = (Room)location;
+    				if (room.getParentRoom() != null && !room.isIgnoreRoomCheck())
+    					isOK &= checkCommitRoomConflicts(messages, hibSession, index, otherOwners, a, room.getParentRoom(), room);
+    				for (Room partition: room.getPartitions())
+    					if (!partition.isIgnoreRoomCheck())
+    						isOK &= checkCommitRoomConflicts(messages, hibSession, index, otherOwners, a, partition, partition);
+    			}
+    		}
+    		for (ClassInstructor ci: a.getClazz().getClassInstructors()) {
+    			DepartmentalInstructor instructor = ci.getInstructor();
+    			if (!ci.isLead() || instructor.getExternalUniqueId() == null || instructor.getDepartment().getSolverGroup() == null) continue;
+    			Long solverGroupId = instructor.getDepartment().getSolverGroup().getUniqueId();
+    			if (!multipleOwners && !solverGroupId.equals(getOwner().getUniqueId())) continue;
+    			for (CommittedAssignmentIndex.Entry e: index.getInstructorAssignments(instructor.getExternalUniqueId(), a)) {
+    				if (otherOwners.contains(e.getOwnerId()) || solverGroupId.equals(e.getSolverGroupId())) continue;
+    				Assignment b = hibSession.get(Assignment.class, e.getAssignmentId());
+    				if (b != null && a.getTimeLocation().hasIntersection(b.getTimeLocation()) && !shareRooms(a, b)) {
+    					messages.add(MESSAGES.failedCommitInstructorConflict(a.getClassName(), a.getTimeLocation().getName(CONSTANTS.useAmPm()), b.getClassName(), b.getTimeLocation().getName(CONSTANTS.useAmPm()), instructor.nameLastNameFirst()));
+    					isOK = false;
+    				}
+    			}
+    		}
+    	}
+    	return isOK;
+    }
+    
+    private boolean checkCommitRoomConflicts(List<String> messages, org.hibernate.Session hibSession, CommittedAssignmentIndex index, Set<Long> otherOwners, Assignment a, Location location, Location label) {
+    	boolean isOK = true;
+    	for (CommittedAssignmentIndex.Entry e: index.getRoomAssignments(location.getUniqueId(), a)) {
+    		if (otherOwners.contains(e.getOwnerId())) continue;
+    		Assignment b = hibSession.get(Assignment.class, e.getAssignmentId());
+    		if (b != null && a.getTimeLocation().hasIntersection(b.getTimeLocation()) && !shareRooms(a, b)) {
+    			messages.add(MESSAGES.failedCommitRoomConflict(a.getClassName(), a.getTimeLocation().getName(CONSTANTS.useAmPm()), b.getClassName(), b.getTimeLocation().getName(CONSTANTS.useAmPm()), label.getLabel()));
+    			isOK = false;
+    		}
+    	}
+    	return isOK;
+    }
+    
     public boolean commitSolution(List<String> messages, org.hibernate.Session hibSession, String sendNotificationPuid) {
     	return commitSolution(messages, hibSession, sendNotificationPuid, null);
     }
@@ -268,6 +330,8 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 		boolean isOK = true;
 		if (ApplicationProperty.CourseTimetablingCommitSkipChecking.isTrue()) {
 			// skip conflict checking
+		} else if (ApplicationProperty.CourseTimetablingCommitOccupancyIndex.isTrue()) {
+			isOK = checkCommitConflicts(messages, hibSession, ownerIds);
 		} else if (ownerIds != null && ownerIds.length > 1 && ownerIds.length <= 1000) {
 			for (Object[] o: hibSession.createQuery(
 					"select r, a1, a2 from Location r inner join r.assignments a1 inner join r.assignments a2 "+
@@ -458,6 +522,8 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 		
 		setCommitDate(new Date());
 		setCommited(Boolean.TRUE);
+		CommittedAssignmentIndex.invalidate(getOwner().getSession().getUniqueId());
+		ClassAssignmentCache.invalidate(getUniqueId());
 		
 //		createDivSecNumbers(hibSession, messages);
 		
@@ -803,6 +869,7 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 	}
 	
 	public void delete(org.hibernate.Session hibSession) {
+		ClassAssignmentCache.invalidate(getUniqueId());
 		// NOTE: In order to decrease the amount of interaction between solutions persistance of committed student conflicts was disabled
 		/*
 		Iterator i = hibSession.createQuery(
@@ -1501,6 +1568,8 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 	public boolean hasConflicts(Long offeringId) {
 		InstructionalOffering offering = InstructionalOfferingDAO.getInstance().get(offeringId);
 		if (offering == null || offering.isNotOffered()) return false;
+		CommittedAssignmentIndex index = (ApplicationProperty.CourseTimetablingCommitOccupancyIndex.isTrue() ? CommittedAssignmentIndex.getInstance(getOwner().getSession().getUniqueId()) : null);
+		Map<String, List<Class_>> enrolledClasses = new HashMap<String, List<Class_>>();
 		
 		for (InstrOfferingConfig config: offering.getInstrOfferingConfigs())
 			for (SchedulingSubpart subpart: config.getSchedulingSubparts())
@@ -1511,20 +1580,20 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 					if (assignment.getRooms() != null)
 						for (Location room : assignment.getRooms()) {
 							if (!room.isIgnoreRoomCheck()) {
-								for (Assignment a : room.getCommitedAssignments())
+								for (Assignment a : getCommitedAssignments(index, room, assignment))
 									if (!assignment.equals(a) && !a.getClazz().isCancelled() && assignment.overlaps(a) && !clazz.canShareRoom(a.getClazz()))
 										return true;
 			            	}
 							if (room instanceof Room) {
 								Room r = (Room)room;
 								if (r.getParentRoom() != null && !r.getParentRoom().isIgnoreRoomCheck()) {
-									for (Assignment a : r.getParentRoom().getCommitedAssignments())
+									for (Assignment a : getCommitedAssignments(index, r.getParentRoom(), assignment))
 										if (!assignment.equals(a) && !a.getClazz().isCancelled() && assignment.overlaps(a) && !clazz.canShareRoom(a.getClazz()))
 											return true;
 								}
 								for (Room p: r.getPartitions()) {
 									if (!p.isIgnoreRoomCheck())
-										for (Assignment a : p.getCommitedAssignments())
+										for (Assignment a : getCommitedAssignments(index, p, assignment))
 											if (!assignment.equals(a) && !a.getClazz().isCancelled() && assignment.overlaps(a) && !clazz.canShareRoom(a.getClazz()))
 												return true;
 								}
@@ -1543,11 +1612,16 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 				            	}
 			            	}
 							if (instructor.getInstructor().getExternalUniqueId() != null) {
-								for (Class_ c: Class_DAO.getInstance().getSession().createQuery(
-									"select e.clazz from StudentClassEnrollment e where e.student.externalUniqueId = :externalId and e.student.session.uniqueId = :sessionId", Class_.class)
-									.setParameter("sessionId", instructor.getInstructor().getDepartment().getSessionId())
-									.setParameter("externalId", instructor.getInstructor().getExternalUniqueId())
-									.setCacheable(true).list()) {
+								List<Class_> classes = enrolledClasses.get(instructor.getInstructor().getExternalUniqueId());
+								if (classes == null) {
+									classes = Class_DAO.getInstance().getSession().createQuery(
+										"select e.clazz from StudentClassEnrollment e where e.student.externalUniqueId = :externalId and e.student.session.uniqueId = :sessionId", Class_.class)
+										.setParameter("sessionId", instructor.getInstructor().getDepartment().getSessionId())
+										.setParameter("externalId", instructor.getInstructor().getExternalUniqueId())
+										.setCacheable(true).list();
+									enrolledClasses.put(instructor.getInstructor().getExternalUniqueId(), classes);
+								}
+								for (Class_ c: classes) {
 									AssignmentInfo a = getAssignment(c);
 				            		if (a != null && !a.getClazz().isCancelled() && assignment.overlaps(a)) return true;
 								}
@@ -1577,6 +1651,14 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 		return false;
 	}
     
+	/**
+	 * Committed assignments of the given room, when the occupancy index is provided only the ones that may overlap with the given assignment are returned
+	 */
+	private static Collection<Assignment> getCommitedAssignments(CommittedAssignmentIndex index, Location room, AssignmentInfo assignment) {
+		if (index == null) return room.getCommitedAssignments();
+		return CommittedAssignmentIndex.getAssignments(index.getRoomAssignments(room.getUniqueId(), assignment), LocationDAO.getInstance().getSession());
+	}
+    
 	@Override
 	public Set<AssignmentInfo> getConflicts(Long classId) {
 		if (classId == null) return null;
@@ -1584,6 +1666,7 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 		if (clazz == null || clazz.isCancelled()) return null;
 		AssignmentInfo assignment = getAssignment(clazz);
 		if (assignment == null) return null;
+		CommittedAssignmentIndex index = (ApplicationProperty.CourseTimetablingCommitOccupancyIndex.isTrue() ? CommittedAssignmentIndex.getInstance(getOwner().getSession().getUniqueId()) : null);
 		Set<AssignmentInfo> conflicts = new HashSet<AssignmentInfo>();
 		if (assignment.getRooms() != null)
 			for (Location room : assignment.getRooms()) {
@@ -1595,13 +1678,13 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 				if (room instanceof Room) {
 					Room r = (Room)room;
 					if (r.getParentRoom() != null && !r.getParentRoom().isIgnoreRoomCheck()) {
-						for (Assignment a : r.getParentRoom().getCommitedAssignments())
+						for (Assignment a : getCommitedAssignments(index, r.getParentRoom(), assignment))
 							if (!assignment.equals(a) && !a.getClazz().isCancelled() && assignment.overlaps(a) && !clazz.canShareRoom(a.getClazz()))
 								conflicts.add(a);
 					}
 					for (Room p: r.getPartitions()) {
 						if (!p.isIgnoreRoomCheck())
-							for (Assignment a : p.getCommitedAssignments())
+							for (Assignment a : getCommitedAssignments(index, p, assignment))
 								if (!assignment.equals(a) && !a.getClazz().isCancelled() && assignment.overlaps(a) && !clazz.canShareRoom(a.getClazz()))
 									conflicts.add(a);
 					}
@@ -144,6 +144,8 @@ public class OnlineSectioningHelper implements ExternalClassNameHelperInterface
     
     public OnlineSectioningLog.Entity getUser() { return iUser; }
     
+    public CacheMode getCacheMode() { return iCacheMode; }
+    
     public boolean isAdmin() {
     	return (getUser() != null && getUser().getType() == OnlineSectioningLog.Entity.EntityType.MANAGER);
     }
@@ -1083,6 +1085,10 @@ public class OnlineSectioningHelper implements ExternalClassNameHelperInterface
     public void setExternalClassNameHelper(ExternalClassNameHelperInterface provider) {
     	iExternalClassNameHelper = provider;
     }
+    
+    public ExternalClassNameHelperInterface getExternalClassNameHelper() {
+    	return iExternalClassNameHelper;
+    }
 
 	@Override
 	public String getClassSuffix(Class_ clazz, CourseOffering courseOffering) {
@@ -19,41 +19,97 @@
 */
 package org.unitime.timetable.onlinesectioning;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.CacheMode;
+import org.hibernate.Transaction;
 import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningConstants;
 import org.unitime.timetable.gwt.server.DayCode;
 import org.unitime.timetable.model.Session;
-import org.unitime.timetable.model.Student;
 import org.unitime.timetable.model.dao.OnlineSectioningLogDAO;
-import org.unitime.timetable.model.dao.SessionDAO;
-import org.unitime.timetable.model.dao.StudentDAO;
 
 /**
+ * Asynchronous writer of the online sectioning log. Recorded actions are kept in a bounded queue
+ * (see {@link ApplicationProperty#OnlineSchedulingLogLimit}) and persisted in batches
+ * (see {@link ApplicationProperty#OnlineSchedulingLogBatchSize}), either when a full batch is available
+ * or when the flush interval (see {@link ApplicationProperty#OnlineSchedulingLogFlushInterval}) has passed.
+ * What happens when the queue is full is controlled by the overflow policy (see {@link ApplicationProperty#OnlineSchedulingLogOverflow}).
+ * 
  * @author Tomas Muller
  */
 public class OnlineSectioningLogger extends Thread {
 	private static Log sLog = LogFactory.getLog(OnlineSectioningLogger.class);
 	protected static StudentSectioningConstants CONST = Localization.create(StudentSectioningConstants.class);
-	private List<OnlineSectioningLog.Action> iActions = new Vector<OnlineSectioningLog.Action>();
+	private static DecimalFormat sDF = new DecimalFormat("0.00");
+	private BlockingQueue<OnlineSectioningLog.Action> iActions;
 	private boolean iActive = false;
 	private boolean iEnabled = false;
 	private int iLogLimit = -1;
+	private int iBatchSize = 100;
+	private long iFlushInterval = 60000;
+	private OverflowPolicy iOverflowPolicy = OverflowPolicy.DROP;
+	private File iSpillFile = null;
+	private OutputStream iSpillOut = null;
+	private Object iSpillLock = new Object();
+	private Object iSignal = new Object();
 	private PrintWriter iOut = null;
 	
+	private AtomicLong iRecorded = new AtomicLong(0), iDropped = new AtomicLong(0), iSpilled = new AtomicLong(0), iBlocked = new AtomicLong(0);
+	private AtomicLong iPersisted = new AtomicLong(0), iFailed = new AtomicLong(0), iSkipped = new AtomicLong(0);
+	private AtomicLong iFlushes = new AtomicLong(0), iFlushNanos = new AtomicLong(0), iMaxFlushNanos = new AtomicLong(0), iLastFlushNanos = new AtomicLong(0);
+	private AtomicInteger iMaxQueueDepth = new AtomicInteger(0);
+	
+	public static enum OverflowPolicy {
+		/** Drop the action */
+		DROP("drop"),
+		/** Drop the action if it does not contain an enrollment, a failure, or a message of info level or above, block otherwise */
+		DROP_DEBUG("drop-debug"),
+		/** Block the caller until there is space in the queue */
+		BLOCK("block"),
+		/** Write the action into a spill file, spilled actions are persisted once the queue is drained */
+		SPILL("spill"),
+		;
+		private String iName;
+		OverflowPolicy(String name) { iName = name; }
+		public String getName() { return iName; }
+		
+		public static OverflowPolicy fromName(String name) {
+			if (name != null)
+				for (OverflowPolicy p: values())
+					if (p.getName().equalsIgnoreCase(name) || p.name().equalsIgnoreCase(name)) return p;
+			return DROP;
+		}
+	}
+	
 	private static OnlineSectioningLogger sInstance = null;
 	
 	public static OnlineSectioningLogger getInstance() {
@@ -71,7 +127,7 @@ public class OnlineSectioningLogger extends Thread {
 	public static void stopLogger() {
 		if (sInstance != null) {
 			sInstance.iActive = false;
-			sInstance.interrupt();
+			sInstance.signal();
 			try {
 				sInstance.join();
 			} catch (InterruptedException e) {}
@@ -84,6 +140,14 @@ public class OnlineSectioningLogger extends Thread {
 		setDaemon(true);
 		iEnabled = ApplicationProperty.OnlineSchedulingLoggingEnabled.isTrue(); 
 		iLogLimit = ApplicationProperty.OnlineSchedulingLogLimit.intValue();
+		iBatchSize = Math.max(1, ApplicationProperty.OnlineSchedulingLogBatchSize.intValue());
+		iFlushInterval = 1000l * Math.max(1, ApplicationProperty.OnlineSchedulingLogFlushInterval.intValue());
+		iOverflowPolicy = OverflowPolicy.fromName(ApplicationProperty.OnlineSchedulingLogOverflow.value());
+		iActions = (iLogLimit > 0 ? new ArrayBlockingQueue<OnlineSectioningLog.Action>(iLogLimit) : new LinkedBlockingQueue<OnlineSectioningLog.Action>());
+		if (ApplicationProperty.OnlineSchedulingLogSpillFile.value() != null)
+			iSpillFile = new File(ApplicationProperty.OnlineSchedulingLogSpillFile.value());
+		else
+			iSpillFile = new File(ApplicationProperties.getDataFolder(), "sectioning-log.spill");
 		try {
 			if (ApplicationProperty.OnlineSchedulingLogFile.value() != null)
 				iOut = new PrintWriter(new FileWriter(new File(ApplicationProperty.OnlineSchedulingLogFile.value()), true));
@@ -95,16 +159,25 @@ public class OnlineSectioningLogger extends Thread {
 	public boolean isEnabled() { return iEnabled; }
 	public void setEnabled(boolean enabled) { iEnabled = enabled; }
 	public boolean isActive() { return iActive; }
+	public OverflowPolicy getOverflowPolicy() { return iOverflowPolicy; }
+	public void setOverflowPolicy(OverflowPolicy policy) { iOverflowPolicy = policy; }
+	
+	private void signal() {
+		synchronized (iSignal) {
+			iSignal.notify();
+		}
+	}
 
 	public void record(OnlineSectioningLog.Log log) {
 		if (log == null || !isEnabled() || !isActive()) return;
 		for (OnlineSectioningLog.Action action: log.getActionList()) {
 			if (action.hasStartTime() && action.hasStudent() && action.hasOperation() && action.hasSession() && ApplicationProperty.OnlineSchedulingLogOperation.isTrue(action.getOperation())
 				&& ApplicationProperty.OnlineSchedulingLogOperation.isTrue(action.getOperation() + "." + (action.hasResult() ? action.getResult().name() : "NULL"))) {
-				synchronized (iActions) {
-					if (iLogLimit <= 0 || iActions.size() < iLogLimit)
-						iActions.add(action);
-				}
+				iRecorded.incrementAndGet();
+				if (!iActions.offer(action)) overflow(action);
+				int depth = iActions.size();
+				iMaxQueueDepth.accumulateAndGet(depth, Math::max);
+				if (depth >= iBatchSize) signal();
 				if (iOut != null) {
 					synchronized (iOut) {
 						iOut.print(OnlineSectioningLog.Log.newBuilder().addAction(action).build().toString());
@@ -115,6 +188,162 @@ public class OnlineSectioningLogger extends Thread {
 		}
 	}
 	
+	protected void overflow(OnlineSectioningLog.Action action) {
+		switch (iOverflowPolicy) {
+		case DROP_DEBUG:
+			if (!isImportant(action)) {
+				drop(action);
+				break;
+			}
+		case BLOCK:
+			iBlocked.incrementAndGet();
+			signal();
+			try {
+				iActions.put(action);
+			} catch (InterruptedException e) {
+				drop(action);
+				Thread.currentThread().interrupt();
+			}
+			break;
+		case SPILL:
+			spill(action);
+			break;
+		default:
+			drop(action);
+		}
+	}
+	
+	private void drop(OnlineSectioningLog.Action action) {
+		if (iDropped.incrementAndGet() == 1)
+			sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, some messages have been dropped.");
+	}
+	
+	/** Action that contains an enrollment, a failure, or a message of info level or above */
+	protected static boolean isImportant(OnlineSectioningLog.Action action) {
+		if (action.getEnrollmentCount() > 0) return true;
+		if (action.hasResult() && action.getResult() == OnlineSectioningLog.Action.ResultType.FAILURE) return true;
+		for (OnlineSectioningLog.Message m: action.getMessageList())
+			if (m.hasLevel() && m.getLevel() != OnlineSectioningLog.Message.Level.DEBUG) return true;
+		return false;
+	}
+	
+	private void spill(OnlineSectioningLog.Action action) {
+		synchronized (iSpillLock) {
+			try {
+				if (iSpillOut == null)
+					iSpillOut = new BufferedOutputStream(new FileOutputStream(iSpillFile, true));
+				action.writeDelimitedTo(iSpillOut);
+				iSpillOut.flush();
+				iSpilled.incrementAndGet();
+			} catch (IOException e) {
+				sLog.warn("Failed to spill log action into " + iSpillFile + ": " + e.getMessage(), e);
+				drop(action);
+			}
+		}
+	}
+	
+	/**
+	 * Persist actions that have been spilled into the spill file. The spill file is renamed first, so that new actions can be spilled
+	 * while the old ones are being persisted. A replay file left over by an earlier run is persisted first.
+	 * When a batch fails to persist, the actions that have not been persisted are kept in the replay file, so that they can be replayed later.
+	 * @return false if some of the actions have not been persisted
+	 */
+	protected boolean replaySpillFile() {
+		File replay = new File(iSpillFile.getParentFile(), iSpillFile.getName() + ".replay");
+		if (!replay.exists()) {
+			synchronized (iSpillLock) {
+				if (iSpillOut != null) {
+					try { iSpillOut.close(); } catch (IOException e) {}
+					iSpillOut = null;
+				}
+				if (!iSpillFile.exists() || !iSpillFile.renameTo(replay)) return true;
+			}
+		}
+		sLog.info("Persisting spilled log actions from " + replay + " ...");
+		File rest = new File(iSpillFile.getParentFile(), iSpillFile.getName() + ".rest");
+		boolean failed = false;
+		try (InputStream in = new BufferedInputStream(new FileInputStream(replay))) {
+			List<OnlineSectioningLog.Action> batch = new ArrayList<OnlineSectioningLog.Action>(iBatchSize);
+			OnlineSectioningLog.Action action = null;
+			try {
+				while ((action = OnlineSectioningLog.Action.parseDelimitedFrom(in)) != null) {
+					batch.add(action);
+					if (batch.size() >= iBatchSize) {
+						if (!persist(batch)) { failed = true; break; }
+						batch.clear();
+					}
+				}
+				if (!failed && !batch.isEmpty() && !persist(batch)) failed = true;
+			} catch (IOException e) {
+				// the actions that have been read were persisted, the rest of the file cannot be read
+				sLog.warn("Failed to read spilled log actions from " + replay + ": " + e.getMessage(), e);
+			}
+			if (failed) {
+				// keep the failed batch and all the actions that have not been read yet
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(rest))) {
+					for (OnlineSectioningLog.Action a: batch)
+						a.writeDelimitedTo(out);
+					while ((action = OnlineSectioningLog.Action.parseDelimitedFrom(in)) != null)
+						action.writeDelimitedTo(out);
+				}
+			}
+		} catch (IOException e) {
+			sLog.warn("Failed to replay spilled log actions from " + replay + ": " + e.getMessage(), e);
+			rest.delete();
+			return false;
+		}
+		if (failed) {
+			try {
+				Files.move(rest.toPath(), replay.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				sLog.warn("Failed to update " + replay + ": " + e.getMessage(), e);
+			}
+			sLog.warn("Some spilled log actions have not been persisted, they will be replayed later.");
+			return false;
+		}
+		replay.delete();
+		return true;
+	}
+	
+	protected boolean hasSpilledActions() {
+		return iSpillFile.exists() || new File(iSpillFile.getParentFile(), iSpillFile.getName() + ".replay").exists();
+	}
+	
+	/** Number of actions waiting to be persisted */
+	public int getQueueDepth() { return iActions.size(); }
+	/** Maximal number of actions waiting to be persisted */
+	public int getMaxQueueDepth() { return iMaxQueueDepth.get(); }
+	/** Number of recorded actions */
+	public long getRecorded() { return iRecorded.get(); }
+	/** Number of persisted actions */
+	public long getPersisted() { return iPersisted.get(); }
+	/** Number of actions that failed to persist */
+	public long getFailed() { return iFailed.get(); }
+	/** Number of actions that were not persisted because the student does not exist */
+	public long getSkipped() { return iSkipped.get(); }
+	/** Number of dropped actions */
+	public long getDropped() { return iDropped.get(); }
+	/** Number of actions written into the spill file */
+	public long getSpilled() { return iSpilled.get(); }
+	/** Number of times a caller had to wait for the queue */
+	public long getBlocked() { return iBlocked.get(); }
+	/** Number of batches persisted */
+	public long getFlushes() { return iFlushes.get(); }
+	/** Average time needed to persist a batch in milliseconds */
+	public double getAverageFlushLatency() { long f = getFlushes(); return (f == 0 ? 0.0 : iFlushNanos.get() / 1000000.0 / f); }
+	/** Maximal time needed to persist a batch in milliseconds */
+	public double getMaxFlushLatency() { return iMaxFlushNanos.get() / 1000000.0; }
+	/** Time needed to persist the last batch in milliseconds */
+	public double getLastFlushLatency() { return iLastFlushNanos.get() / 1000000.0; }
+	
+	@Override
+	public String toString() {
+		return "queue=" + getQueueDepth() + " (max " + getMaxQueueDepth() + "), recorded=" + getRecorded() + ", persisted=" + getPersisted() +
+				(getFailed() > 0 ? ", failed=" + getFailed() : "") + (getSkipped() > 0 ? ", skipped=" + getSkipped() : "") + (getDropped() > 0 ? ", dropped=" + getDropped() : "") +
+				(getSpilled() > 0 ? ", spilled=" + getSpilled() : "") + (getBlocked() > 0 ? ", blocked=" + getBlocked() : "") +
+				", flushes=" + getFlushes() + " (avg " + sDF.format(getAverageFlushLatency()) + " ms, max " + sDF.format(getMaxFlushLatency()) + " ms)";
+	}
+	
 	protected static String getRequestMessage(OnlineSectioningLog.Action action) {
 		String request = "";
 		int notAlt = 0, lastFT = -1;
@@ -248,94 +477,153 @@ public class OnlineSectioningLogger extends Thread {
 		sLog.info("Online Sectioning Logger is up.");
 		try {
 			iActive = true;
+			long lastFlush = System.currentTimeMillis();
+			boolean replay = hasSpilledActions();
 			while (true) {
-				try {
-					sleep(60000);
-				} catch (InterruptedException e) {
-				}
-				List<OnlineSectioningLog.Action> actionsToSave = null;
-				synchronized (iActions) {
-					if (!iActions.isEmpty()) {
-						actionsToSave = new ArrayList<OnlineSectioningLog.Action>(iActions);
-						iActions.clear();
-					}
-				}
-				try {
-					if (actionsToSave != null) {
-						sLog.debug("Persisting " + actionsToSave.size() + " actions...");
-						if (iLogLimit > 0 && actionsToSave.size() >= iLogLimit)
-							sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, some messages have been dropped.");
-						org.hibernate.Session hibSession = OnlineSectioningLogDAO.getInstance().createNewSession();
-						hibSession.setCacheMode(CacheMode.IGNORE);
+				synchronized (iSignal) {
+					long wait = iFlushInterval - (System.currentTimeMillis() - lastFlush);
+					if (iActive && wait > 0 && iActions.size() < iBatchSize) {
 						try {
-							Hashtable<Long, Session> sessions = new Hashtable<Long, Session>();
-							for (OnlineSectioningLog.Action q: actionsToSave) {
-								org.unitime.timetable.model.OnlineSectioningLog log = new org.unitime.timetable.model.OnlineSectioningLog();
-								log.setAction(q.toByteArray());
-								log.setOperation(q.getOperation());
-								String studentExternalId = (q.getStudent().hasExternalId() ? q.getStudent().getExternalId() : null);
-								if (studentExternalId == null || studentExternalId.isEmpty()) {
-									Student student = StudentDAO.getInstance().get(q.getStudent().getUniqueId(), hibSession);
-									if (student == null) continue;
-									studentExternalId = student.getExternalUniqueId();
-								}
-								log.setStudent(studentExternalId);
-								log.setTimeStamp(new Date(q.getStartTime()));
-								if (q.hasResult())
-									log.setResult(q.getResult().getNumber());
-								if (q.hasUser() && q.getUser().hasExternalId())
-									log.setUser(q.getUser().getExternalId());
-								if (q.hasCpuTime())
-									log.setCpuTime(q.getCpuTime());
-								if (q.hasStartTime() && q.hasEndTime())
-									log.setWallTime(q.getEndTime() - q.getStartTime());
-								if (q.hasApiGetTime())
-									log.setApiGetTime(q.getApiGetTime());
-								if (q.hasApiPostTime())
-									log.setApiPostTime(q.getApiPostTime());
-								if (q.hasApiException())
-									log.setApiException(q.getApiException() != null && q.getApiException().length() > 255 ? q.getApiException().substring(0, 255) : q.getApiException());
-								try {
-									String message = getMessage(q);
-									if (message != null && !message.isEmpty())
-										log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
-								} catch (Exception e) {
-									if (!q.getMessageList().isEmpty()) {
-										String message = null; int level = 0;
-										for (OnlineSectioningLog.Message m: q.getMessageList()) {
-											if (message != null && !message.isEmpty() && (!m.hasLevel() || level > m.getLevel().getNumber())) continue;
-											if (m.hasText()) { message = m.getText(); level = m.getLevel().getNumber(); }
-											else if (m.hasException()) { message = m.getException(); level = m.getLevel().getNumber(); }
-										}
-										if (message != null && !message.isEmpty())
-											log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
-									}
-								}
-								Long sessionId = q.getSession().getUniqueId();
-								Session session = sessions.get(sessionId);
-								if (session == null) {
-									session = SessionDAO.getInstance().get(sessionId, hibSession);
-									sessions.put(sessionId, session);
-								}
-								log.setSession(session);
-								hibSession.persist(log);
-							}
-							hibSession.flush();
-						} finally {
-							hibSession.close();
+							iSignal.wait(wait);
+						} catch (InterruptedException e) {
 						}
 					}
-				} catch (Throwable t) {
-					sLog.warn("Failed to save " + actionsToSave.size() + " log actions: " + t.getMessage(), t);
 				}
-				if (!iActive) break;
+				boolean timeout = !iActive || System.currentTimeMillis() - lastFlush >= iFlushInterval;
+				// persist full batches, and everything that was queued up when the flush interval has passed
+				int toPersist = iActions.size();
+				if (!timeout) toPersist -= toPersist % iBatchSize;
+				while (toPersist > 0) {
+					List<OnlineSectioningLog.Action> batch = new ArrayList<OnlineSectioningLog.Action>(Math.min(iBatchSize, toPersist));
+					iActions.drainTo(batch, Math.min(iBatchSize, toPersist));
+					if (batch.isEmpty()) break;
+					toPersist -= batch.size();
+					persist(batch);
+				}
+				if (timeout) {
+					lastFlush = System.currentTimeMillis();
+					if (sLog.isDebugEnabled()) sLog.debug("Logger: " + toString());
+					if ((replay || iSpilled.get() > 0) && iActions.isEmpty())
+						replay = !replaySpillFile();
+				}
+				if (!iActive && iActions.isEmpty()) break;
 			}
 		} catch (Throwable t) {
 			sLog.error("Online Sectioning Logger failed: " + t.getMessage(), t);
 		} finally {
 			iActive = false;
+			synchronized (iSpillLock) {
+				if (iSpillOut != null) {
+					try { iSpillOut.close(); } catch (IOException e) {}
+					iSpillOut = null;
+				}
+			}
 			if (iOut != null) { iOut.flush(); iOut.close(); }
 		}
-		sLog.info("Online Sectioning Logger is down.");	}
-
+		sLog.info("Online Sectioning Logger is down (" + toString() + ").");
+	}
+	
+	/**
+	 * Persist the given actions in a single session, using JDBC batching. Student external ids that are not present in the actions
+	 * are looked up in one query, academic sessions are referenced by their ids. Actions of students that do not exist are skipped.
+	 * The actions are persisted in one transaction, so either all or none of them are persisted.
+	 * @return false if the actions failed to persist
+	 */
+	protected boolean persist(List<OnlineSectioningLog.Action> actionsToSave) {
+		long t0 = System.nanoTime();
+		int skipped = 0;
+		try {
+			sLog.debug("Persisting " + actionsToSave.size() + " actions...");
+			org.hibernate.Session hibSession = OnlineSectioningLogDAO.getInstance().createNewSession();
+			hibSession.setCacheMode(CacheMode.IGNORE);
+			hibSession.setJdbcBatchSize(iBatchSize);
+			Transaction tx = null;
+			try {
+				tx = hibSession.beginTransaction();
+				Set<Long> studentIds = new HashSet<Long>();
+				for (OnlineSectioningLog.Action q: actionsToSave)
+					if (!q.getStudent().hasExternalId() || q.getStudent().getExternalId().isEmpty())
+						studentIds.add(q.getStudent().getUniqueId());
+				Map<Long, String> studentExternalIds = new HashMap<Long, String>();
+				if (!studentIds.isEmpty()) {
+					for (Object[] o: hibSession.createQuery(
+							"select s.uniqueId, s.externalUniqueId from Student s where s.uniqueId in :studentIds", Object[].class)
+							.setParameterList("studentIds", studentIds, Long.class).list()) {
+						studentExternalIds.put((Long)o[0], (String)o[1]);
+					}
+				}
+				Map<Long, Session> sessions = new HashMap<Long, Session>();
+				for (OnlineSectioningLog.Action q: actionsToSave) {
+					org.unitime.timetable.model.OnlineSectioningLog log = new org.unitime.timetable.model.OnlineSectioningLog();
+					log.setAction(q.toByteArray());
+					log.setOperation(q.getOperation());
+					String studentExternalId = (q.getStudent().hasExternalId() ? q.getStudent().getExternalId() : null);
+					if (studentExternalId == null || studentExternalId.isEmpty()) {
+						if (!studentExternalIds.containsKey(q.getStudent().getUniqueId())) { skipped ++; continue; }
+						studentExternalId = studentExternalIds.get(q.getStudent().getUniqueId());
+					}
+					log.setStudent(studentExternalId);
+					log.setTimeStamp(new Date(q.getStartTime()));
+					if (q.hasResult())
+						log.setResult(q.getResult().getNumber());
+					if (q.hasUser() && q.getUser().hasExternalId())
+						log.setUser(q.getUser().getExternalId());
+					if (q.hasCpuTime())
+						log.setCpuTime(q.getCpuTime());
+					if (q.hasStartTime() && q.hasEndTime())
+						log.setWallTime(q.getEndTime() - q.getStartTime());
+					if (q.hasApiGetTime())
+						log.setApiGetTime(q.getApiGetTime());
+					if (q.hasApiPostTime())
+						log.setApiPostTime(q.getApiPostTime());
+					if (q.hasApiException())
+						log.setApiException(q.getApiException() != null && q.getApiException().length() > 255 ? q.getApiException().substring(0, 255) : q.getApiException());
+					try {
+						String message = getMessage(q);
+						if (message != null && !message.isEmpty())
+							log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
+					} catch (Exception e) {
+						if (!q.getMessageList().isEmpty()) {
+							String message = null; int level = 0;
+							for (OnlineSectioningLog.Message m: q.getMessageList()) {
+								if (message != null && !message.isEmpty() && (!m.hasLevel() || level > m.getLevel().getNumber())) continue;
+								if (m.hasText()) { message = m.getText(); level = m.getLevel().getNumber(); }
+								else if (m.hasException()) { message = m.getException(); level = m.getLevel().getNumber(); }
+							}
+							if (message != null && !message.isEmpty())
+								log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
+						}
+					}
+					Long sessionId = q.getSession().getUniqueId();
+					Session session = sessions.get(sessionId);
+					if (session == null) {
+						session = hibSession.getReference(Session.class, sessionId);
+						sessions.put(sessionId, session);
+					}
+					log.setSession(session);
+					hibSession.persist(log);
+				}
+				hibSession.flush();
+				tx.commit(); tx = null;
+				iPersisted.addAndGet(actionsToSave.size() - skipped);
+				iSkipped.addAndGet(skipped);
+				return true;
+			} finally {
+				if (tx != null && tx.isActive()) tx.rollback();
+				hibSession.close();
+			}
+		} catch (Throwable t) {
+			iFailed.addAndGet(actionsToSave.size());
+			sLog.warn("Failed to save " + actionsToSave.size() + " log actions: " + t.getMessage(), t);
+			return false;
+		} finally {
+			long time = System.nanoTime() - t0;
+			iFlushes.incrementAndGet();
+			iFlushNanos.addAndGet(time);
+			iLastFlushNanos.set(time);
+			long max = iMaxFlushNanos.get();
+			while (time > max && !iMaxFlushNanos.compareAndSet(max, time))
+				max = iMaxFlushNanos.get();
+		}
+	}
 }
@@ -97,6 +97,12 @@ public interface OnlineSectioningServer {
 	
 	public void clearAllStudents();
 	
+	/**
+	 * Replace all the data (offerings, students, expectations, and scheduling rules) at once, as if {@link #clearAll()} was called
+	 * and then all the given objects were updated, but without the readers ever seeing the data in between.
+	 */
+	public void replaceAll(XSchedulingRules rules, Collection<XOffering> offerings, Collection<XStudent> students, Collection<XExpectations> expectations);
+	
 	public XCourseRequest assign(XCourseRequest request, XEnrollment enrollment);
 	
 	public XCourseRequest waitlist(XCourseRequest request, boolean waitlist);
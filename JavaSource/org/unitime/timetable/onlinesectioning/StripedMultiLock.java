@@ -0,0 +1,322 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+
+/**
+ * Striped alternative to {@link MultiLock}. Each id (offering id, or negative student id) is mapped to one of a fixed
+ * (power of two) number of stripes, there is no global monitor and no per-id lock object is ever created.
+ * Stripes are always acquired in the increasing order, so two lock requests cannot deadlock each other.
+ * Two different ids may share a stripe, the only consequence is that they cannot be locked by two threads at the same time.<br>
+ * A stripe is reentrant for the thread that is holding it (so that nested locks of colliding ids do not deadlock), and it
+ * can only be released by the thread that has acquired it. Locks that are held for a long time (like the offering edit locks)
+ * must not be kept in the stripes, as they would also block all the other ids sharing the same stripe.<br>
+ * Contention is tracked per offering (student locks only count towards the totals): number of acquisitions, number of acquisitions that had to wait, number of retries
+ * (wake-ups with the stripe still taken), and the total wait time. At most {@link StripedMultiLock#MAX_OFFERING_STATISTICS} offerings
+ * are tracked, the statistics can be cleared using {@link StripedMultiLock#resetStatistics()}.
+ *
+ * @author Tomas Muller
+ */
+public class StripedMultiLock {
+	/** Maximal number of offerings with tracked contention statistics */
+	public static final int MAX_OFFERING_STATISTICS = 10000;
+	private Log iLog;
+	private Stripe[] iStripes;
+	private int iMask;
+	private ConcurrentMap<Long, LockStatistics> iStatistics = new ConcurrentHashMap<Long, LockStatistics>();
+	private LockStatistics iTotal = new LockStatistics();
+
+	public StripedMultiLock(int nrStripes) {
+		iLog = LogFactory.getLog(StripedMultiLock.class.getName() + ".lock");
+		init(nrStripes);
+	}
+
+	public StripedMultiLock(AcademicSessionInfo session, int nrStripes) {
+		iLog = LogFactory.getLog(StripedMultiLock.class.getName() + ".lock[" + session.toCompactString() + "]");
+		init(nrStripes);
+	}
+
+	private void init(int nrStripes) {
+		int size = 1;
+		while (size < nrStripes) size <<= 1;
+		iStripes = new Stripe[size];
+		for (int i = 0; i < size; i++)
+			iStripes[i] = new Stripe();
+		iMask = size - 1;
+	}
+
+	/** Number of stripes (always a power of two) */
+	public int getNrStripes() { return iStripes.length; }
+
+	protected int stripe(long id) {
+		int h = (int)(id ^ (id >>> 32));
+		h ^= (h >>> 16);
+		return h & iMask;
+	}
+
+	/** Sorted unique stripes of the given ids */
+	private int[] stripes(Collection<Long> ids) {
+		int[] stripes = new int[ids.size()];
+		int n = 0;
+		for (Long id: ids)
+			stripes[n++] = stripe(id);
+		Arrays.sort(stripes);
+		int unique = 0;
+		for (int i = 0; i < n; i++)
+			if (unique == 0 || stripes[unique - 1] != stripes[i]) stripes[unique++] = stripes[i];
+		return (unique == n ? stripes : Arrays.copyOf(stripes, unique));
+	}
+
+	/** Lock the given ids, the lock is bound to the current thread */
+	public OnlineSectioningServer.Lock lock(Long... ids) {
+		return lock(Arrays.asList(ids));
+	}
+
+	/** Lock the given ids, the lock is bound to the current thread */
+	public OnlineSectioningServer.Lock lock(Collection<Long> ids) {
+		return lock(ids, Thread.currentThread());
+	}
+
+	protected OnlineSectioningServer.Lock lock(Collection<Long> ids, Object owner) {
+		if (ids == null || ids.isEmpty()) return new Unlock(new int[0], owner);
+		if (iLog.isDebugEnabled()) iLog.debug("Locking " + ids + " ...");
+		int[] stripes = stripes(ids);
+		for (int stripe: stripes) {
+			long t0 = System.nanoTime();
+			int retries = iStripes[stripe].acquire(owner);
+			long wait = (retries < 0 ? 0 : System.nanoTime() - t0);
+			for (Long id: ids)
+				if (id >= 0 && stripe(id) == stripe) {
+					LockStatistics stats = statistics(id);
+					if (stats != null) stats.record(retries, wait);
+				}
+			iTotal.record(retries, wait);
+		}
+		if (iLog.isDebugEnabled()) iLog.debug("Locked: " + ids);
+		return new Unlock(stripes, owner);
+	}
+
+	/** Lock everything, the lock is bound to the current thread */
+	public OnlineSectioningServer.Lock lockAll() {
+		iLog.debug("Locking all ...");
+		int[] stripes = new int[iStripes.length];
+		Object owner = Thread.currentThread();
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = i;
+			iStripes[i].acquire(owner);
+		}
+		iLog.debug("Locked: all");
+		return new Unlock(stripes, owner);
+	}
+
+	/** Is the stripe of the given id locked (this may be caused by a different id sharing the same stripe) */
+	public boolean isLocked(Long id) {
+		return iStripes[stripe(id)].isLocked();
+	}
+
+	/** Contention statistics of the given offering, null if there are too many offerings tracked already */
+	protected LockStatistics statistics(Long id) {
+		LockStatistics stats = iStatistics.get(id);
+		if (stats == null) {
+			if (iStatistics.size() >= MAX_OFFERING_STATISTICS) return null;
+			stats = new LockStatistics();
+			LockStatistics old = iStatistics.putIfAbsent(id, stats);
+			if (old != null) stats = old;
+		}
+		return stats;
+	}
+
+	/** Contention statistics of the given offering, null if the offering has never been locked */
+	public LockStatistics getStatistics(Long id) {
+		return iStatistics.get(id);
+	}
+
+	/** Contention statistics of all the offerings that have been locked */
+	public Map<Long, LockStatistics> getOfferingStatistics() {
+		return new HashMap<Long, LockStatistics>(iStatistics);
+	}
+
+	/** Overall contention statistics */
+	public LockStatistics getTotalStatistics() {
+		return iTotal;
+	}
+
+	public void resetStatistics() {
+		iStatistics.clear();
+		iTotal = new LockStatistics();
+	}
+
+	@Override
+	public String toString() {
+		return "StripedMultiLock{stripes=" + iStripes.length + ", " + iTotal + "}";
+	}
+
+	/**
+	 * Stripe lock, reentrant for the same owner.
+	 */
+	private static class Stripe {
+		private Object iOwner = null;
+		private int iHolds = 0;
+
+		/** Returns -1 if the stripe was acquired right away, the number of retries otherwise */
+		private synchronized int acquire(Object owner) {
+			if (iOwner == null || iOwner == owner) {
+				iOwner = owner; iHolds ++;
+				return -1;
+			}
+			int retries = 0;
+			boolean interrupted = false;
+			while (iOwner != null && iOwner != owner) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+				if (iOwner != null && iOwner != owner) retries ++;
+			}
+			iOwner = owner; iHolds ++;
+			if (interrupted) Thread.currentThread().interrupt();
+			return retries;
+		}
+
+		private synchronized void release(Object owner) {
+			if (iOwner != owner)
+				throw new IllegalMonitorStateException("Stripe is not held by " + owner + " (held by " + iOwner + ").");
+			if (--iHolds == 0) {
+				iOwner = null;
+				notifyAll();
+			}
+		}
+
+		private synchronized boolean isLocked() {
+			return iOwner != null;
+		}
+	}
+
+	public class Unlock implements OnlineSectioningServer.Lock {
+		private int[] iLockedStripes;
+		private Object iOwner;
+		private boolean iReleased = false;
+
+		private Unlock(int[] stripes, Object owner) {
+			iLockedStripes = stripes;
+			iOwner = owner;
+		}
+
+		@Override
+		public void release() {
+			if (iOwner != Thread.currentThread())
+				throw new IllegalMonitorStateException("Lock held by " + iOwner + " cannot be released by " + Thread.currentThread() + ".");
+			synchronized (this) {
+				if (iReleased) return;
+				iReleased = true;
+			}
+			for (int i = iLockedStripes.length - 1; i >= 0; i--)
+				iStripes[iLockedStripes[i]].release(iOwner);
+		}
+	}
+
+	/**
+	 * Lock contention counters
+	 */
+	public static class LockStatistics {
+		private AtomicLong iAcquisitions = new AtomicLong(0);
+		private AtomicLong iContended = new AtomicLong(0);
+		private AtomicLong iRetries = new AtomicLong(0);
+		private AtomicLong iWaitNanos = new AtomicLong(0);
+
+		private void record(int retries, long waitNanos) {
+			iAcquisitions.incrementAndGet();
+			if (retries >= 0) {
+				iContended.incrementAndGet();
+				iRetries.addAndGet(retries);
+				iWaitNanos.addAndGet(waitNanos);
+			}
+		}
+
+		/** Number of times a lock has been acquired */
+		public long getAcquisitions() { return iAcquisitions.get(); }
+		/** Number of times a lock could not be acquired right away */
+		public long getContended() { return iContended.get(); }
+		/** Number of times a waiting thread was woken up, but the lock was still held by someone else */
+		public long getRetries() { return iRetries.get(); }
+		/** Total time spent waiting for the lock in milliseconds */
+		public double getWaitTime() { return iWaitNanos.get() / 1000000.0; }
+		/** Average wait time of a contended acquisition in milliseconds */
+		public double getAverageWaitTime() { long c = getContended(); return (c == 0 ? 0.0 : getWaitTime() / c); }
+
+		@Override
+		public String toString() {
+			DecimalFormat df = new DecimalFormat("0.00"); // not thread-safe, toString can be called from any thread
+			return "acquisitions=" + getAcquisitions() + ", contended=" + getContended() + ", retries=" + getRetries() +
+					", wait=" + df.format(getWaitTime()) + " ms (avg " + df.format(getAverageWaitTime()) + " ms)";
+		}
+	}
+
+	public static void main(String[] args) {
+		try {
+			final StripedMultiLock lock = new StripedMultiLock(1024);
+			final Set<Thread> threads = new HashSet<Thread>();
+			for (int i = 1; i <= 100; i++) {
+				Thread t = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int x = 1; x <= 100; x++) {
+							int nrCourses = 2 + ToolBox.random(9);
+							Set<Long> courses = new HashSet<Long>();
+							for (int i = 0; i < nrCourses; i++)
+								courses.add((long)ToolBox.random(1000));
+							OnlineSectioningServer.Lock l = lock.lock(courses);
+							try {
+								Thread.sleep(ToolBox.random(10));
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								return;
+							} finally {
+								l.release();
+							}
+						}
+					}
+				});
+				t.setName("[T" + i + "]: ");
+				threads.add(t);
+				t.start();
+			}
+			for (Thread t: threads) t.join();
+			System.out.println(lock);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
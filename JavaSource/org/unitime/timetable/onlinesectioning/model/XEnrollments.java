@@ -29,11 +29,18 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 
 /**
+ * Enrollments of an offering. The instance is immutable once handed out: {@link XEnrollments#addRequest(XCourseRequest)} and
+ * {@link XEnrollments#removeRequest(XCourseRequest)} return a new instance that shares all the unchanged data with the original.
+ * Course requests and per-section, per-config, per-course and per-reservation enrollment counts are kept in persistent (path copying)
+ * trees, so that a change costs O(log n) and the counts are available without building any list.
+ * The enrollment lists are only computed (and cached) when asked for.
+ * 
  * @author Tomas Muller
  */
 public class XEnrollments implements Serializable, Externalizable {
@@ -41,12 +48,15 @@ public class XEnrollments implements Serializable, Externalizable {
 	protected static StudentSectioningMessages MSG = Localization.create(StudentSectioningMessages.class);
 	
 	private Long iOfferingId;
-	private List<XCourseRequest> iRequests = new ArrayList<XCourseRequest>();
-	private List<XEnrollment> iEnrollments = null;
-	private Map<Long, List<XEnrollment>> iConfig2Enrl = null;
-	private Map<Long, List<XEnrollment>> iCourse2Enrl = null;
-	private Map<Long, List<XEnrollment>> iSection2Enrl = null;
-	private Map<Long, List<XEnrollment>> iReservation2Enrl = null;
+	private Node<Key, Entry> iRequests = null;
+	private int iNrRequests = 0;
+	private int iNrEnrollments = 0;
+	private Node<Long, Integer> iConfigCounts = null;
+	private Node<Long, Integer> iCourseCounts = null;
+	private Node<Long, Integer> iSectionCounts = null;
+	private Node<Long, Integer> iReservationCounts = null;
+	private Node<Key, Integer> iReservationConfigCounts = null;
+	private transient volatile Lists iLists = null;
 	
 	public XEnrollments() {}
 	
@@ -57,147 +67,348 @@ public class XEnrollments implements Serializable, Externalizable {
 	public XEnrollments(Long offeringId, Collection<XCourseRequest> requests) {
 		iOfferingId = offeringId;
 		if (requests != null)
-			iRequests.addAll(requests);
-		init();
-	}
-	
-	private void init() {
-		iEnrollments = new ArrayList<XEnrollment>();
-		iConfig2Enrl = new HashMap<Long, List<XEnrollment>>();
-		iCourse2Enrl = new HashMap<Long, List<XEnrollment>>();
-		iSection2Enrl = new HashMap<Long, List<XEnrollment>>();
-		iReservation2Enrl = new HashMap<Long, List<XEnrollment>>();
-		for (XCourseRequest request: iRequests) {
-			XEnrollment enrollment = request.getEnrollment();
-			if (enrollment != null && enrollment.getOfferingId().equals(iOfferingId)) {
-				iEnrollments.add(enrollment);
-				
-				List<XEnrollment> cfgEnrl = iConfig2Enrl.get(enrollment.getConfigId());
-				if (cfgEnrl == null) {
-					cfgEnrl = new ArrayList<XEnrollment>();
-					iConfig2Enrl.put(enrollment.getConfigId(), cfgEnrl);
-				}
-				cfgEnrl.add(enrollment);
-				
-				List<XEnrollment> coEnrl = iCourse2Enrl.get(enrollment.getCourseId());
-				if (coEnrl == null) {
-					coEnrl = new ArrayList<XEnrollment>();
-					iCourse2Enrl.put(enrollment.getCourseId(), coEnrl);
-				}
-				coEnrl.add(enrollment);
-				
-				if (enrollment.getReservation() != null) {
-					List<XEnrollment> resEnrl = iReservation2Enrl.get(enrollment.getReservation().getReservationId());
-					if (resEnrl == null) {
-						resEnrl = new ArrayList<XEnrollment>();
-						iReservation2Enrl.put(enrollment.getReservation().getReservationId(), resEnrl);
-					}
-					resEnrl.add(enrollment);
-				}
-				
-				for (Long sectionId: enrollment.getSectionIds()) {
-					List<XEnrollment> enrl = iSection2Enrl.get(sectionId);
-					if (enrl == null) {
-						enrl = new ArrayList<XEnrollment>();
-						iSection2Enrl.put(sectionId, enrl);
-					}
-					enrl.add(enrollment);
-				}
+			for (XCourseRequest request: requests)
+				add(request);
+	}
+	
+	/**
+	 * Copy of the given enrollments, all the trees are shared with the original.
+	 */
+	private XEnrollments(XEnrollments enrollments) {
+		iOfferingId = enrollments.iOfferingId;
+		iRequests = enrollments.iRequests;
+		iNrRequests = enrollments.iNrRequests;
+		iNrEnrollments = enrollments.iNrEnrollments;
+		iConfigCounts = enrollments.iConfigCounts;
+		iCourseCounts = enrollments.iCourseCounts;
+		iSectionCounts = enrollments.iSectionCounts;
+		iReservationCounts = enrollments.iReservationCounts;
+		iReservationConfigCounts = enrollments.iReservationConfigCounts;
+	}
+	
+	private void add(XCourseRequest request) {
+		Key key = new Key(request.getStudentId(), request.getRequestId());
+		if (Node.get(iRequests, key) != null) remove(key);
+		XEnrollment enrollment = request.getEnrollment();
+		if (enrollment != null && !enrollment.getOfferingId().equals(iOfferingId)) enrollment = null;
+		iRequests = Node.put(iRequests, key, new Entry(request, enrollment));
+		iNrRequests ++;
+		if (enrollment != null) {
+			iNrEnrollments ++;
+			iConfigCounts = Node.add(iConfigCounts, enrollment.getConfigId(), 1);
+			iCourseCounts = Node.add(iCourseCounts, enrollment.getCourseId(), 1);
+			if (enrollment.getReservation() != null) {
+				iReservationCounts = Node.add(iReservationCounts, enrollment.getReservation().getReservationId(), 1);
+				iReservationConfigCounts = Node.add(iReservationConfigCounts, new Key(enrollment.getReservation().getReservationId(), enrollment.getConfigId()), 1);
+			}
+			for (Long sectionId: enrollment.getSectionIds())
+				iSectionCounts = Node.add(iSectionCounts, sectionId, 1);
+		}
+	}
+	
+	private boolean remove(Key key) {
+		Entry entry = Node.get(iRequests, key);
+		if (entry == null) return false;
+		iRequests = Node.remove(iRequests, key);
+		iNrRequests --;
+		XEnrollment enrollment = entry.getEnrollment();
+		if (enrollment != null) {
+			iNrEnrollments --;
+			iConfigCounts = Node.add(iConfigCounts, enrollment.getConfigId(), -1);
+			iCourseCounts = Node.add(iCourseCounts, enrollment.getCourseId(), -1);
+			if (enrollment.getReservation() != null) {
+				iReservationCounts = Node.add(iReservationCounts, enrollment.getReservation().getReservationId(), -1);
+				iReservationConfigCounts = Node.add(iReservationConfigCounts, new Key(enrollment.getReservation().getReservationId(), enrollment.getConfigId()), -1);
 			}
+			for (Long sectionId: enrollment.getSectionIds())
+				iSectionCounts = Node.add(iSectionCounts, sectionId, -1);
 		}
+		return true;
+	}
+	
+	/**
+	 * Returns a new instance without the given course request (and its enrollment, as it was when the request was added).
+	 * This instance is not changed. Returns this instance when the request is not present.
+	 */
+	public XEnrollments removeRequest(XCourseRequest request) {
+		Key key = new Key(request.getStudentId(), request.getRequestId());
+		if (Node.get(iRequests, key) == null) return this;
+		XEnrollments ret = new XEnrollments(this);
+		ret.remove(key);
+		return ret;
+	}
+	
+	/**
+	 * Returns a new instance with the given course request (and its current enrollment, if it is in this offering) added.
+	 * This instance is not changed. 
+	 */
+	public XEnrollments addRequest(XCourseRequest request) {
+		XEnrollments ret = new XEnrollments(this);
+		ret.add(request);
+		return ret;
+	}
+	
+	/**
+	 * Enrollment lists, computed from the requests tree when first needed
+	 */
+	private Lists getLists() {
+		Lists lists = iLists;
+		if (lists == null) {
+			lists = new Lists(iNrRequests, iNrEnrollments);
+			Node.forEach(iRequests, lists);
+			iLists = lists;
+		}
+		return lists;
+	}
+	
+	public Long getOfferingId() {
+		return iOfferingId;
 	}
 	
 	public List<XCourseRequest> getRequests() {
-		return iRequests;
+		return getLists().iRequests;
 	}
 	
 	public List<XEnrollment> getEnrollments() {
-		return iEnrollments;
+		return getLists().iEnrollments;
 	}
 	
 	public int countEnrollments() {
-		return iEnrollments == null ? 0 : iEnrollments.size();
+		return iNrEnrollments;
 	}
 
 	public List<XEnrollment> getEnrollmentsForSection(Long sectionId) {
-		List<XEnrollment> ret = iSection2Enrl.get(sectionId);
+		List<XEnrollment> ret = getLists().iSection2Enrl.get(sectionId);
 		return ret == null ? new ArrayList<XEnrollment>() : ret;
 	}
 
 	public List<XEnrollment> getEnrollmentsForCourse(Long courseId) {
-		List<XEnrollment> ret = iCourse2Enrl.get(courseId);
+		List<XEnrollment> ret = getLists().iCourse2Enrl.get(courseId);
 		return ret == null ? new ArrayList<XEnrollment>() : ret;
 	}
 
 	public List<XEnrollment> getEnrollmentsForConfig(Long configId) {
-		List<XEnrollment> ret = iConfig2Enrl.get(configId);
+		List<XEnrollment> ret = getLists().iConfig2Enrl.get(configId);
 		return ret == null ? new ArrayList<XEnrollment>() : ret;
 	}
 
 	public List<XEnrollment> getEnrollmentsForReservation(Long reservationId) {
-		List<XEnrollment> ret = iReservation2Enrl.get(reservationId);
+		List<XEnrollment> ret = getLists().iReservation2Enrl.get(reservationId);
 		return ret == null ? new ArrayList<XEnrollment>() : ret;
 	}
 
 	public int countEnrollmentsForSection(Long sectionId) {
-		List<XEnrollment> ret = iSection2Enrl.get(sectionId);
-		return ret == null ? 0 : ret.size();
+		return Node.count(iSectionCounts, sectionId);
 	}
 	
 	public int countEnrollmentsForCourse(Long courseId) {
-		List<XEnrollment> ret = iCourse2Enrl.get(courseId);
-		return ret == null ? 0 : ret.size();
+		return Node.count(iCourseCounts, courseId);
 	}
 
 	public int countEnrollmentsForConfig(Long configId) {
-		List<XEnrollment> ret = iConfig2Enrl.get(configId);
-		return ret == null ? 0 : ret.size();
+		return Node.count(iConfigCounts, configId);
 	}
 	
 	public int countEnrollmentsForReservation(Long reservationId) {
-		List<XEnrollment> ret = iReservation2Enrl.get(reservationId);
-		return ret == null ? 0 : ret.size();
+		return Node.count(iReservationCounts, reservationId);
 	}
 	
 	public int countEnrollmentsForReservation(Long reservationId, Long config) {
-		List<XEnrollment> ret = iReservation2Enrl.get(reservationId);
-		if (ret == null) return 0;
-		int count = 0;
-		for (XEnrollment e: ret) {
-			if (config.equals(e.getConfigId())) count ++; 
-		}
-		return count;
+		return Node.count(iReservationConfigCounts, new Key(reservationId, config));
 	}
 	
-	private boolean contain(List<XEnrollment> enrollments, Long studentId) {
-		if (studentId == null || enrollments == null) return false;
-		for (XEnrollment e: enrollments)
-			if (e.getStudentId().equals(studentId)) return true;
-		return false;
+	private static boolean contain(Node<Key, Entry> node, Long studentId, Long sectionId) {
+		if (node == null) return false;
+		int cmp = compare(studentId, node.iKey.iFirst);
+		if (cmp == 0) {
+			XEnrollment enrollment = node.iValue.getEnrollment();
+			if (enrollment != null && enrollment.getSectionIds().contains(sectionId)) return true;
+		}
+		return (cmp <= 0 && contain(node.iLeft, studentId, sectionId)) || (cmp >= 0 && contain(node.iRight, studentId, sectionId));
 	}
 	
 	public int countEnrollmentsForSection(Long sectionId, Long excludeStudentId) {
-		List<XEnrollment> ret = iSection2Enrl.get(sectionId);
-		return ret == null ? 0 : contain(ret, excludeStudentId) ? ret.size() - 1 : ret.size();
+		int count = Node.count(iSectionCounts, sectionId);
+		return count == 0 || excludeStudentId == null ? count : contain(iRequests, excludeStudentId, sectionId) ? count - 1 : count;
 	}
 
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		iOfferingId = in.readLong();
 		
+		iRequests = null;
+		iNrRequests = 0; iNrEnrollments = 0;
+		iConfigCounts = null; iCourseCounts = null; iSectionCounts = null; iReservationCounts = null; iReservationConfigCounts = null;
+		iLists = null;
 		int nrRequests = in.readInt();
-		iRequests.clear();
 		for (int i = 0; i < nrRequests; i++)
-			iRequests.add(new XCourseRequest(in));
-
-		init();
+			add(new XCourseRequest(in));
 	}
 
 	@Override
 	public void writeExternal(ObjectOutput out) throws IOException {
 		out.writeLong(iOfferingId);
-		out.writeInt(iRequests.size());
-		for (XCourseRequest request: iRequests)
+		List<XCourseRequest> requests = getRequests();
+		out.writeInt(requests.size());
+		for (XCourseRequest request: requests)
 			request.writeExternal(out);
 	}
+	
+	private static <K extends Comparable<K>> int compare(K k1, K k2) {
+		if (k1 == null) return (k2 == null ? 0 : -1);
+		if (k2 == null) return 1;
+		return k1.compareTo(k2);
+	}
+	
+	/**
+	 * Course request together with its enrollment in this offering, as it was when the request was added
+	 */
+	private static class Entry {
+		private XCourseRequest iRequest;
+		private XEnrollment iEnrollment;
+		
+		private Entry(XCourseRequest request, XEnrollment enrollment) {
+			iRequest = request; iEnrollment = enrollment;
+		}
+		
+		public XCourseRequest getRequest() { return iRequest; }
+		public XEnrollment getEnrollment() { return iEnrollment; }
+	}
+	
+	/**
+	 * Pair of ids (student id and request id, or reservation id and config id)
+	 */
+	private static class Key implements Comparable<Key> {
+		private Long iFirst, iSecond;
+		
+		private Key(Long first, Long second) {
+			iFirst = first; iSecond = second;
+		}
+		
+		@Override
+		public int compareTo(Key key) {
+			int cmp = compare(iFirst, key.iFirst);
+			return (cmp != 0 ? cmp : compare(iSecond, key.iSecond));
+		}
+	}
+	
+	/**
+	 * Enrollment lists and maps, as they used to be computed for each new instance
+	 */
+	private static class Lists implements Consumer<Entry> {
+		private List<XCourseRequest> iRequests;
+		private List<XEnrollment> iEnrollments;
+		private Map<Long, List<XEnrollment>> iConfig2Enrl = new HashMap<Long, List<XEnrollment>>();
+		private Map<Long, List<XEnrollment>> iCourse2Enrl = new HashMap<Long, List<XEnrollment>>();
+		private Map<Long, List<XEnrollment>> iSection2Enrl = new HashMap<Long, List<XEnrollment>>();
+		private Map<Long, List<XEnrollment>> iReservation2Enrl = new HashMap<Long, List<XEnrollment>>();
+		
+		private Lists(int nrRequests, int nrEnrollments) {
+			iRequests = new ArrayList<XCourseRequest>(nrRequests);
+			iEnrollments = new ArrayList<XEnrollment>(nrEnrollments);
+		}
+		
+		@Override
+		public void accept(Entry entry) {
+			iRequests.add(entry.getRequest());
+			XEnrollment enrollment = entry.getEnrollment();
+			if (enrollment == null) return;
+			iEnrollments.add(enrollment);
+			iConfig2Enrl.computeIfAbsent(enrollment.getConfigId(), id -> new ArrayList<XEnrollment>()).add(enrollment);
+			iCourse2Enrl.computeIfAbsent(enrollment.getCourseId(), id -> new ArrayList<XEnrollment>()).add(enrollment);
+			if (enrollment.getReservation() != null)
+				iReservation2Enrl.computeIfAbsent(enrollment.getReservation().getReservationId(), id -> new ArrayList<XEnrollment>()).add(enrollment);
+			for (Long sectionId: enrollment.getSectionIds())
+				iSection2Enrl.computeIfAbsent(sectionId, id -> new ArrayList<XEnrollment>()).add(enrollment);
+		}
+	}
+	
+	/**
+	 * Immutable AVL tree node, a change copies only the path from the root to the changed node.
+	 */
+	private static class Node<K extends Comparable<K>, V> {
+		private final K iKey;
+		private final V iValue;
+		private final Node<K, V> iLeft, iRight;
+		private final int iHeight;
+		
+		private Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+			iKey = key; iValue = value; iLeft = left; iRight = right;
+			iHeight = 1 + Math.max(height(left), height(right));
+		}
+		
+		private static int height(Node<?, ?> node) {
+			return node == null ? 0 : node.iHeight;
+		}
+		
+		private static <K extends Comparable<K>, V> V get(Node<K, V> node, K key) {
+			while (node != null) {
+				int cmp = compare(key, node.iKey);
+				if (cmp == 0) return node.iValue;
+				node = (cmp < 0 ? node.iLeft : node.iRight);
+			}
+			return null;
+		}
+		
+		private static <K extends Comparable<K>> int count(Node<K, Integer> node, K key) {
+			Integer count = get(node, key);
+			return count == null ? 0 : count.intValue();
+		}
+		
+		/** Add delta to the counter of the given key, the key is removed when its counter drops to zero */
+		private static <K extends Comparable<K>> Node<K, Integer> add(Node<K, Integer> node, K key, int delta) {
+			int count = count(node, key) + delta;
+			return count <= 0 ? remove(node, key) : put(node, key, count);
+		}
+		
+		private static <K extends Comparable<K>, V> Node<K, V> put(Node<K, V> node, K key, V value) {
+			if (node == null) return new Node<K, V>(key, value, null, null);
+			int cmp = compare(key, node.iKey);
+			if (cmp < 0) return balance(node.iKey, node.iValue, put(node.iLeft, key, value), node.iRight);
+			if (cmp > 0) return balance(node.iKey, node.iValue, node.iLeft, put(node.iRight, key, value));
+			return new Node<K, V>(key, value, node.iLeft, node.iRight);
+		}
+		
+		private static <K extends Comparable<K>, V> Node<K, V> remove(Node<K, V> node, K key) {
+			if (node == null) return null;
+			int cmp = compare(key, node.iKey);
+			if (cmp < 0) {
+				Node<K, V> left = remove(node.iLeft, key);
+				return left == node.iLeft ? node : balance(node.iKey, node.iValue, left, node.iRight);
+			}
+			if (cmp > 0) {
+				Node<K, V> right = remove(node.iRight, key);
+				return right == node.iRight ? node : balance(node.iKey, node.iValue, node.iLeft, right);
+			}
+			if (node.iLeft == null) return node.iRight;
+			if (node.iRight == null) return node.iLeft;
+			Node<K, V> first = node.iRight;
+			while (first.iLeft != null) first = first.iLeft;
+			return balance(first.iKey, first.iValue, node.iLeft, remove(node.iRight, first.iKey));
+		}
+		
+		private static <K extends Comparable<K>, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+			int hl = height(left), hr = height(right);
+			if (hl > hr + 1) {
+				if (height(left.iLeft) >= height(left.iRight))
+					return new Node<K, V>(left.iKey, left.iValue, left.iLeft, new Node<K, V>(key, value, left.iRight, right));
+				Node<K, V> lr = left.iRight;
+				return new Node<K, V>(lr.iKey, lr.iValue, new Node<K, V>(left.iKey, left.iValue, left.iLeft, lr.iLeft), new Node<K, V>(key, value, lr.iRight, right));
+			}
+			if (hr > hl + 1) {
+				if (height(right.iRight) >= height(right.iLeft))
+					return new Node<K, V>(right.iKey, right.iValue, new Node<K, V>(key, value, left, right.iLeft), right.iRight);
+				Node<K, V> rl = right.iLeft;
+				return new Node<K, V>(rl.iKey, rl.iValue, new Node<K, V>(key, value, left, rl.iLeft), new Node<K, V>(right.iKey, right.iValue, rl.iRight, right.iRight));
+			}
+			return new Node<K, V>(key, value, left, right);
+		}
+		
+		private static <K extends Comparable<K>, V> void forEach(Node<K, V> node, Consumer<V> consumer) {
+			if (node == null) return;
+			forEach(node.iLeft, consumer);
+			consumer.accept(node.iValue);
+			forEach(node.iRight, consumer);
+		}
+	}
 }
@@ -27,11 +27,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface;
 import org.unitime.timetable.gwt.shared.SectioningException;
 import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
 import org.unitime.timetable.onlinesectioning.MultiLock;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
+import org.unitime.timetable.onlinesectioning.StripedMultiLock;
 import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
 import org.unitime.timetable.onlinesectioning.model.XRequest;
@@ -43,6 +45,7 @@ import org.unitime.timetable.onlinesectioning.model.XStudent;
 public abstract class AbstractLockingServer extends AbstractServer {
 	private ReentrantReadWriteLock iLock = new ReentrantReadWriteLock();
 	private MultiLock iMultiLock;
+	private StripedMultiLock iStripedLock;
 	private Map<Long, Lock> iOfferingLocks = new Hashtable<Long, Lock>();
 	
 	public AbstractLockingServer(OnlineSectioningServerContext context) throws SectioningException {
@@ -51,15 +54,85 @@ public abstract class AbstractLockingServer extends AbstractServer {
 	
 	protected AbstractLockingServer(AcademicSessionInfo session, boolean allowAsyncCalls) {
 		super(session, allowAsyncCalls);
-		iMultiLock = new MultiLock(getAcademicSession());
+		createMultiLock();
 	}
 	
 	@Override
 	protected void load(OnlineSectioningServerContext context) {
-		iMultiLock = new MultiLock(getAcademicSession());
+		createMultiLock();
 		super.load(context);
 	}
 	
+	private void createMultiLock() {
+		int stripes = ApplicationProperty.OnlineSchedulingServerLockStripes.intValue();
+		if (stripes > 0) {
+			iStripedLock = new StripedMultiLock(getAcademicSession(), stripes);
+			iMultiLock = null;
+		} else {
+			iMultiLock = new MultiLock(getAcademicSession());
+			iStripedLock = null;
+		}
+	}
+	
+	/**
+	 * Lock the given ids. The offering edit locks (see {@link AbstractLockingServer#lockOffering(Long)}) are kept outside of
+	 * the lock manager (both the striped and the multi lock): the ids are locked first and if any of them is locked for editing,
+	 * the lock is released and the call waits for the offering to be unlocked.
+	 * @throws SectioningException when the thread is interrupted while waiting for an edited offering (the interrupt flag is kept)
+	 */
+	protected Lock lockIds(Collection<Long> ids) {
+		while (true) {
+			Lock lock = (iStripedLock == null ? iMultiLock.lock(ids) : iStripedLock.lock(ids));
+			Long editedOfferingId = null;
+			synchronized (iOfferingLocks) {
+				if (!iOfferingLocks.isEmpty())
+					for (Long id: ids)
+						if (iOfferingLocks.containsKey(id)) { editedOfferingId = id; break; }
+			}
+			if (editedOfferingId == null) return lock;
+			lock.release();
+			synchronized (iOfferingLocks) {
+				while (iOfferingLocks.containsKey(editedOfferingId)) {
+					try {
+						iOfferingLocks.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SectioningException("Interrupted while waiting for offering " + editedOfferingId + " to be unlocked.", e);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Lock all the students and offerings (as if all of them were locked by {@link AbstractLockingServer#lockStudent(Long, Collection, String)}
+	 * and {@link AbstractLockingServer#lockOffering(Long, Collection, String)}), without taking the global lock. All the writers are blocked,
+	 * but the readers can continue. The global lock (see {@link AbstractLockingServer#lockAll()}) can still be taken by the same thread
+	 * while the lock is held, the same way as any other writer does when updating the data.<br>
+	 * Like {@link AbstractLockingServer#lockAll()}, this lock does not wait for the offerings that are locked for editing
+	 * (see {@link AbstractLockingServer#lockOffering(Long)}): the caller (e.g., a reload of all the data) overrides the edit locks,
+	 * which stay in place and are still respected by the other writers.
+	 */
+	public Lock lockAllIds() {
+		if (iStripedLock != null)
+			return iStripedLock.lockAll();
+		return iMultiLock.lockAll();
+	}
+	
+	/**
+	 * Lock contention statistics, only available when the striped locking is used (see {@link ApplicationProperty#OnlineSchedulingServerLockStripes}).
+	 */
+	public StripedMultiLock.LockStatistics getLockStatistics(Long offeringId) {
+		return (iStripedLock == null ? null : offeringId == null ? iStripedLock.getTotalStatistics() : iStripedLock.getStatistics(offeringId));
+	}
+	
+	@Override
+	public void unload() {
+		if (iStripedLock != null)
+			iLog.info("Lock statistics: " + iStripedLock.getTotalStatistics());
+		super.unload();
+	}
+	
 	@Override
 	public Lock readLock() {
 		if (iLock == null)
@@ -143,7 +216,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		} finally {
 			iLock.readLock().unlock();
 		}
-		return iMultiLock.lock(ids);
+		return lockIds(ids);
 	}
 	
 	@Override
@@ -174,7 +247,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		} finally {
 			iLock.readLock().unlock();
 		}
-		return iMultiLock.lock(ids);
+		return lockIds(ids);
 	}
 	
 	private Long getOfferingIdFromCourseName(String courseName) {
@@ -228,7 +301,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		} finally {
 			iLock.readLock().unlock();
 		}
-		return iMultiLock.lock(ids);
+		return lockIds(ids);
 	}
 
 	@Override
@@ -243,12 +316,17 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		synchronized (iOfferingLocks) {
 			if (iOfferingLocks.containsKey(offeringId)) return;
 		}
-		Lock lock = iMultiLock.lock(offeringId);
-		synchronized (iOfferingLocks) {
-			if (iOfferingLocks.containsKey(offeringId))
-				lock.release();
-			else
-				iOfferingLocks.put(offeringId, lock);
+		// wait for the actions currently holding the offering, the lock is not kept while the offering is being edited (see lockIds)
+		Lock lock = (iStripedLock == null ? iMultiLock.lock(offeringId) : iStripedLock.lock(offeringId));
+		try {
+			synchronized (iOfferingLocks) {
+				if (!iOfferingLocks.containsKey(offeringId))
+					iOfferingLocks.put(offeringId, new Lock() {
+						public void release() {}
+					});
+			}
+		} finally {
+			lock.release();
 		}
 	}
 
@@ -258,6 +336,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 			Lock lock = iOfferingLocks.remove(offeringId);
 			if (lock != null)
 				lock.release();
+			iOfferingLocks.notifyAll();
 		}
 	}
 	
@@ -274,6 +353,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 			for (Lock lock: iOfferingLocks.values())
 				lock.release();
 			iOfferingLocks.clear();
+			iOfferingLocks.notifyAll();
 		}
 	}
 	
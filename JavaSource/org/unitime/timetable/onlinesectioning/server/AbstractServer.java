@@ -28,18 +28,18 @@ import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cpsolver.ifs.util.DataProperties;
 import org.cpsolver.ifs.util.DistanceMetric;
-import org.cpsolver.ifs.util.JProf;
 import org.cpsolver.ifs.util.ToolBox;
 import org.cpsolver.studentsct.extension.DistanceConflict;
 import org.cpsolver.studentsct.extension.TimeOverlapsCounter;
@@ -47,7 +47,6 @@ import org.cpsolver.studentsct.online.expectations.AvoidUnbalancedWhenNoExpectat
 import org.cpsolver.studentsct.online.expectations.OverExpectedCriterion;
 import org.cpsolver.studentsct.online.selection.StudentSchedulingAssistantWeights;
 import org.hibernate.CacheMode;
-import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
@@ -67,7 +66,6 @@ import org.unitime.timetable.model.StudentSchedulingRule.Mode;
 import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.model.dao.StudentSchedulingRuleDAO;
 import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
-import org.unitime.timetable.onlinesectioning.CacheElement;
 import org.unitime.timetable.onlinesectioning.HasCacheMode;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningActionFactory;
@@ -83,6 +81,7 @@ import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
 import org.unitime.timetable.onlinesectioning.model.XCredit;
 import org.unitime.timetable.onlinesectioning.model.XEnrollment;
 import org.unitime.timetable.onlinesectioning.model.XEnrollments;
+import org.unitime.timetable.onlinesectioning.model.XExpectations;
 import org.unitime.timetable.onlinesectioning.model.XOffering;
 import org.unitime.timetable.onlinesectioning.model.XRequest;
 import org.unitime.timetable.onlinesectioning.model.XSchedulingRule;
@@ -92,12 +91,13 @@ import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
 import org.unitime.timetable.onlinesectioning.model.XTime;
 import org.unitime.timetable.onlinesectioning.model.XClassEnrollment;
+import org.unitime.timetable.onlinesectioning.solver.OfferingTemplate;
 import org.unitime.timetable.onlinesectioning.updates.CheckAllOfferingsAction;
 import org.unitime.timetable.onlinesectioning.updates.PersistExpectedSpacesAction;
 import org.unitime.timetable.onlinesectioning.updates.ReloadAllData;
+import org.unitime.timetable.onlinesectioning.updates.ReloadAllStudents;
 import org.unitime.timetable.util.Constants;
 import org.unitime.timetable.util.DateUtils;
-import org.unitime.timetable.util.Formats;
 import org.unitime.timetable.util.MemoryCounter;
 
 /**
@@ -112,9 +112,12 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 	protected XSchedulingRules iRules = null;
 	private OnlineSectioningActionFactory iActionFactory = null;
 	
-	protected List<AsyncExecutor> iExecutors = new ArrayList<AsyncExecutor>();
-	private Queue<Runnable> iExecutorQueue = new LinkedList<Runnable>();
-	private HashSet<CacheElement<Long>> iOfferingsToPersistExpectedSpaces = new HashSet<CacheElement<Long>>();
+	protected AsyncActionExecutor iExecutor = null;
+	protected OfferingTemplate.Cache iOfferingTemplates = new OfferingTemplate.Cache(ApplicationProperty.OnlineSchedulingServerOfferingTemplateCacheSize.intValue());
+	private ExpectedSpacesBacklog iExpectedSpacesBacklog = new ExpectedSpacesBacklog();
+	private Set<String> iUnknownLanes = ConcurrentHashMap.newKeySet();
+	private AtomicLong iOfferingsVersion = new AtomicLong(0);
+	private OfferingsVersionListener iOfferingsVersionListener = null;
 	private static ThreadLocal<LinkedList<OnlineSectioningHelper>> sHelper = new ThreadLocal<LinkedList<OnlineSectioningHelper>>();
 	protected Map<String, Object> iProperties = new HashMap<String, Object>();
 	
@@ -146,9 +149,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			AcademicSessionInfo academicSession = new AcademicSessionInfo(session);
 			iLog = LogFactory.getLog(OnlineSectioningServer.class.getName() + ".server[" + academicSession.toCompactString() + "]");
 			iProperties.put("AcademicSession", academicSession);
-			int asncPoolSize = ApplicationProperty.OnlineSchedulingServerAsyncPoolSize.intValue();
-			for (int i = 0; i < asncPoolSize; i++)
-				new AsyncExecutor(academicSession, 1 + i).start();
+			iExecutor = createExecutor(academicSession);
 		} finally {
 			hibSession.close();
 		}
@@ -175,11 +176,90 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 		}
 		iLog = LogFactory.getLog(OnlineSectioningServer.class.getName() + ".server[" + session.toCompactString() + "]");
 		iProperties.put("AcademicSession", session);
-		if (allowAsyncCalls) {
-			int asncPoolSize = ApplicationProperty.OnlineSchedulingServerAsyncPoolSize.intValue();
-			for (int i = 0; i < asncPoolSize; i++)
-				new AsyncExecutor(session, 1 + i).start();
+		if (allowAsyncCalls)
+			iExecutor = createExecutor(session);
+	}
+	
+	/**
+	 * Create asynchronous executor, null if there should be no asynchronous execution
+	 */
+	protected AsyncActionExecutor createExecutor(AcademicSessionInfo session) {
+		int asncPoolSize = ApplicationProperty.OnlineSchedulingServerAsyncPoolSize.intValue();
+		if (asncPoolSize <= 0) return null;
+		return new AsyncActionExecutor(session, asncPoolSize,
+				ApplicationProperty.OnlineSchedulingServerAsyncMaintenanceThreads.intValue(),
+				ApplicationProperty.OnlineSchedulingServerAsyncQueueSize.intValue(),
+				ApplicationProperty.OnlineSchedulingServerAsyncVirtualThreads.isTrue());
+	}
+	
+	/**
+	 * Asynchronous execution lane of the given action. Long running actions that are not initiated by a user
+	 * are executed in the maintenance lane. This can be changed using the [action name].Lane configuration property
+	 * (an unknown lane is ignored with a warning).
+	 */
+	protected AsyncActionExecutor.Lane getLane(OnlineSectioningAction<?> action) {
+		String lane = getConfig().getProperty(action.name() + ".Lane");
+		if (lane != null && !lane.trim().isEmpty()) {
+			try {
+				return AsyncActionExecutor.Lane.valueOf(lane.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				if (iUnknownLanes.add(action.name() + "=" + lane))
+					iLog.warn("Unknown lane " + lane + " of " + action.name() + " (" + action.name() + ".Lane), using the default lane instead.");
+			}
 		}
+		if (action instanceof ReloadAllData || action instanceof CheckAllOfferingsAction || action instanceof ReloadAllStudents || action instanceof PersistExpectedSpacesAction)
+			return AsyncActionExecutor.Lane.MAINTENANCE;
+		return AsyncActionExecutor.Lane.INTERACTIVE;
+	}
+	
+	/**
+	 * Asynchronous executor, null when there is no asynchronous execution
+	 */
+	public AsyncActionExecutor getExecutor() {
+		return iExecutor;
+	}
+	
+	/**
+	 * Template of the given offering, cached until the offering is updated (see {@link OfferingTemplate})
+	 */
+	public OfferingTemplate getOfferingTemplate(XOffering offering) {
+		return iOfferingTemplates.get(offering);
+	}
+	
+	/**
+	 * Template cache statistics
+	 */
+	public OfferingTemplate.Cache getOfferingTemplates() {
+		return iOfferingTemplates;
+	}
+	
+	/**
+	 * Version stamp of the offerings (and courses), it is increased every time an offering is updated or removed
+	 */
+	public long getOfferingsVersion() {
+		return iOfferingsVersion.get();
+	}
+	
+	/**
+	 * Listener to be notified every time the offerings version stamp changes (e.g., to invalidate caches of the server data on other nodes).
+	 * The listener is called while the server may be locked, it should return immediately.
+	 */
+	public void setOfferingsVersionListener(OfferingsVersionListener listener) {
+		iOfferingsVersionListener = listener;
+	}
+	
+	/**
+	 * To be called after an offering has been updated or removed
+	 */
+	protected void offeringsChanged() {
+		long version = iOfferingsVersion.incrementAndGet();
+		OfferingsVersionListener listener = iOfferingsVersionListener;
+		if (listener != null)
+			listener.offeringsVersionChanged(getAcademicSession().getUniqueId(), version);
+	}
+	
+	public static interface OfferingsVersionListener {
+		public void offeringsVersionChanged(Long sessionId, long version);
 	}
 	
 	protected void load(OnlineSectioningServerContext context) throws SectioningException {
@@ -195,12 +275,12 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 					.setType(OnlineSectioningLog.Entity.EntityType.OTHER).build();
 			if (context.isWaitTillStarted()) {
 				try {
-					execute(createAction(ReloadAllData.class), user);
+					execute(createAction(ReloadAllData.class).useSnapshot(true), user);
 				} catch (Throwable exception) {
 					iLog.error("Failed to load server: " + exception.getMessage(), exception);
 					throw exception;
 				}
-				if (getAcademicSession().isSectioningEnabled()) {
+				if (getAcademicSession().isSectioningEnabled() && !isRestoredFromSnapshot()) {
 					try {
 						execute(createAction(CheckAllOfferingsAction.class), user);
 					} catch (Throwable exception) {
@@ -216,10 +296,10 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 					return;
 				}
 				setProperty("ReloadingAllData", Boolean.TRUE);
-				execute(createAction(ReloadAllData.class), user, new ServerCallback<Boolean>() {
+				execute(createAction(ReloadAllData.class).useSnapshot(true), user, new ServerCallback<Boolean>() {
 					@Override
 					public void onSuccess(Boolean result) {
-						if (getAcademicSession().isSectioningEnabled())
+						if (getAcademicSession().isSectioningEnabled() && !isRestoredFromSnapshot())
 							execute(createAction(CheckAllOfferingsAction.class), user, new ServerCallback<Boolean>() {
 								@Override
 								public void onSuccess(Boolean result) {
@@ -252,6 +332,13 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 		}
 	}
 	
+	/**
+	 * The data have been restored from a snapshot (see {@link OnlineSectioningServerSnapshot}), there is no need to check all the offerings
+	 */
+	protected boolean isRestoredFromSnapshot() {
+		return Boolean.TRUE.equals(getProperty("Snapshot.Restored", Boolean.FALSE));
+	}
+	
 	@Override
 	public long getMemUsage() {
 		Runtime rt = Runtime.getRuntime();
@@ -473,7 +560,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 	
 	@Override
 	public <E> void execute(final OnlineSectioningAction<E> action, final OnlineSectioningLog.Entity user, final ServerCallback<E> callback) throws SectioningException {
-		if (iExecutors == null || iExecutors.isEmpty()) {
+		if (iExecutor == null) {
 			try {
 				callback.onSuccess(execute(action, user));
 			} catch (Throwable t) {
@@ -482,8 +569,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			return;
 		}
 		final String locale = Localization.getLocale();
-		synchronized (iExecutorQueue) {
-			iExecutorQueue.offer(new Runnable() {
+		if (!iExecutor.submit(getLane(action), action.name(), new Runnable() {
 				@Override
 				public void run() {
 					Localization.setLocale(locale);
@@ -498,50 +584,10 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 				public String toString() {
 					return action.name();
 				}
-			});
-			iExecutorQueue.notify();
-		}
-	}
-	
-	public class AsyncExecutor extends Thread {
-		private boolean iStop = false;
-		private int iId;
-		
-		public AsyncExecutor(AcademicSessionInfo session, int id) {
-			iId = id;
-			setName("AsyncExecutor[" + session + "-" + id + "]");
-			setDaemon(true);
-			iExecutors.add(this);
-		}
-		
-		public void run() {
-			try {
-				ApplicationProperties.setSessionId(getAcademicSession().getUniqueId());
-				Runnable job;
-				while (!iStop) {
-					synchronized (iExecutorQueue) {
-						job = iExecutorQueue.poll();
-						if (job == null) {
-							try {
-								iLog.debug("Executor " + iId + " is waiting for a new job...");
-								iExecutorQueue.wait();
-							} catch (InterruptedException e) {}
-							continue;
-						}		
-					}
-					job.run();
-					if (HibernateUtil.closeCurrentThreadSessions())
-						iLog.debug("Job " + job + " did not close current-thread hibernate session.");
-				}
-				iLog.info("Executor " + iId + " stopped.");
-			} finally {
-				ApplicationProperties.setSessionId(null);
-				Localization.removeLocale();
-				Formats.removeFormats();
-				iExecutors.remove(this);
-			}
+			})) {
+			iLog.warn("Asynchronous execution of " + action.name() + " was rejected: " + iExecutor);
+			callback.onFailure(new SectioningException(MSG.exceptionAsyncQueueFull()));
 		}
-		
 	}
 	
 	@Override
@@ -551,13 +597,15 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			iLog.info("There are " + offeringIds.size() + " offerings that need expected spaces persisted.");
 			execute(createAction(PersistExpectedSpacesAction.class).forOfferings(offeringIds), getSystemUser());
 		}
-		if (iExecutors != null) {
-			for (AsyncExecutor ex: iExecutors)
-				ex.iStop = true;
-			synchronized (iExecutorQueue) {
-				iExecutorQueue.notifyAll();
-			}
+		if (iExecutor != null) {
+			if (iLog.isInfoEnabled())
+				for (Map.Entry<String, AsyncActionExecutor.ActionStatistics> e: iExecutor.getStatistics().entrySet())
+					iLog.info("Asynchronous " + e.getKey() + ": " + e.getValue());
+			iExecutor.stop();
 		}
+		iLog.info(iExpectedSpacesBacklog);
+		iLog.info(iOfferingTemplates);
+		iOfferingTemplates.clear();
 	}
 
 	@Override
@@ -567,32 +615,22 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 
 	@Override
 	public void persistExpectedSpaces(Long offeringId) {
-		synchronized(iOfferingsToPersistExpectedSpaces) {
-			iOfferingsToPersistExpectedSpaces.add(new CacheElement<Long>(offeringId));
-		}
+		iExpectedSpacesBacklog.add(offeringId);
 	}
 	
 	@Override
 	public List<Long> getOfferingsToPersistExpectedSpaces(long minimalAge) {
-		List<Long> offeringIds = new ArrayList<Long>();
-		long current = JProf.currentTimeMillis();
-		synchronized (iOfferingsToPersistExpectedSpaces) {
-			for (Iterator<CacheElement<Long>> i = iOfferingsToPersistExpectedSpaces.iterator(); i.hasNext(); ) {
-				CacheElement<Long> c = i.next();
-				if (current - c.created() >= minimalAge) {
-					offeringIds.add(c.element());
-					i.remove();
-				}
-			}
-		}
-		return offeringIds;
+		return iExpectedSpacesBacklog.take(minimalAge);
 	}
 	
 	@Override
 	public boolean needPersistExpectedSpaces(Long offeringId) {
-		synchronized(iOfferingsToPersistExpectedSpaces) {
-			return iOfferingsToPersistExpectedSpaces.remove(new CacheElement<Long>(offeringId));
-		}
+		return iExpectedSpacesBacklog.remove(offeringId);
+	}
+	
+	/** Offerings waiting for their expected spaces to be persisted, together with the last persisted expected spaces */
+	public ExpectedSpacesBacklog getExpectedSpacesBacklog() {
+		return iExpectedSpacesBacklog;
 	}
 
 	@Override
@@ -822,6 +860,23 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 		iRules = rules;	
 	}
 
+	@Override
+	public void replaceAll(XSchedulingRules rules, Collection<XOffering> offerings, Collection<XStudent> students, Collection<XExpectations> expectations) {
+		Lock lock = lockAll();
+		try {
+			clearAll();
+			setSchedulingRules(rules);
+			for (XOffering offering: offerings)
+				update(offering);
+			for (XStudent student: students)
+				update(student, true);
+			for (XExpectations expectation: expectations)
+				update(expectation);
+		} finally {
+			lock.release();
+		}
+	}
+
 	
 	@Override
 	public XSchedulingRule getSchedulingRule(XStudent student, Mode mode, boolean isAdvisor, boolean isAdmin) {
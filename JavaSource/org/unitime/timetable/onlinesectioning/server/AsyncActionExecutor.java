@@ -0,0 +1,295 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.text.DecimalFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.commons.hibernate.util.HibernateUtil;
+import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
+import org.unitime.timetable.util.Formats;
+import org.unitime.timetable.util.VirtualThreads;
+
+/**
+ * Asynchronous executor of the online sectioning actions. There are two lanes (queues): interactive and maintenance.
+ * Interactive actions are always taken first, and only a limited number of threads can be running maintenance actions
+ * at the same time, so that long maintenance actions (like check all offerings) cannot starve the interactive ones.
+ * Both queues are bounded, a job that does not fit in its queue is rejected.<br>
+ * For each action, the time spent waiting in the queue and the execution time are tracked in a histogram.
+ * The worker threads can be virtual threads when running on Java 21 or newer.
+ *
+ * @author Tomas Muller
+ */
+public class AsyncActionExecutor {
+	private Log iLog;
+	private AcademicSessionInfo iSession;
+	private Deque<Job> iInteractive = new ArrayDeque<Job>();
+	private Deque<Job> iMaintenance = new ArrayDeque<Job>();
+	private int iQueueSize;
+	private int iMaxMaintenance;
+	private int iRunningMaintenance = 0;
+	private boolean iStop = false;
+	private List<Thread> iWorkers = new ArrayList<Thread>();
+	private ConcurrentMap<String, ActionStatistics> iStatistics = new ConcurrentHashMap<String, ActionStatistics>();
+	private AtomicLong iRejected = new AtomicLong(0);
+
+	public static enum Lane {
+		INTERACTIVE,
+		MAINTENANCE,
+	}
+
+	/**
+	 * @param session academic session
+	 * @param nrThreads number of worker threads
+	 * @param maxMaintenanceThreads maximal number of worker threads running maintenance actions at the same time, negative value for the number of threads minus one (but at least one)
+	 * @param queueSize maximal number of jobs waiting in each of the lanes, zero for no limit
+	 * @param virtualThreads use virtual threads (if supported by the JVM)
+	 */
+	public AsyncActionExecutor(AcademicSessionInfo session, int nrThreads, int maxMaintenanceThreads, int queueSize, boolean virtualThreads) {
+		iSession = session;
+		iLog = LogFactory.getLog(AsyncActionExecutor.class.getName() + "[" + session.toCompactString() + "]");
+		iQueueSize = queueSize;
+		iMaxMaintenance = (maxMaintenanceThreads < 0 ? Math.max(1, nrThreads - 1) : Math.min(maxMaintenanceThreads, nrThreads));
+		ThreadFactory factory = (virtualThreads ? VirtualThreads.getFactory(null) : null);
+		for (int i = 0; i < nrThreads; i++) {
+			Worker worker = new Worker(1 + i);
+			Thread thread = (factory == null ? new Thread(worker) : factory.newThread(worker));
+			thread.setName("AsyncExecutor[" + session + "-" + (1 + i) + "]");
+			if (factory == null) thread.setDaemon(true);
+			synchronized (iWorkers) {
+				iWorkers.add(thread);
+			}
+			thread.start();
+		}
+	}
+
+	/**
+	 * Add a job to the appropriate lane
+	 * @return false if the job was rejected because the lane is full or the executor has been stopped
+	 */
+	public boolean submit(Lane lane, String name, Runnable runnable) {
+		Job job = new Job(lane, name, runnable);
+		synchronized (this) {
+			Deque<Job> queue = (lane == Lane.MAINTENANCE ? iMaintenance : iInteractive);
+			if (iStop || (iQueueSize > 0 && queue.size() >= iQueueSize)) {
+				iRejected.incrementAndGet();
+				return false;
+			}
+			queue.offer(job);
+			notify();
+		}
+		return true;
+	}
+
+	/**
+	 * Next job to execute: interactive jobs go first, maintenance jobs are only returned when there are not too many of them already running
+	 * @return null if the executor has been stopped
+	 */
+	private synchronized Job take(int workerId) {
+		while (!iStop) {
+			Job job = iInteractive.poll();
+			if (job == null && iRunningMaintenance < iMaxMaintenance) {
+				job = iMaintenance.poll();
+				if (job != null) iRunningMaintenance ++;
+			}
+			if (job != null) return job;
+			try {
+				iLog.debug("Executor " + workerId + " is waiting for a new job...");
+				wait();
+			} catch (InterruptedException e) {}
+		}
+		return null;
+	}
+
+	private synchronized void done(Job job) {
+		if (job.iLane == Lane.MAINTENANCE) {
+			iRunningMaintenance --;
+			// there may be an idle worker that was not able to take a maintenance job
+			if (!iMaintenance.isEmpty()) notify();
+		}
+	}
+
+	/** Stop all the workers, jobs waiting in the queues are not executed */
+	public void stop() {
+		synchronized (this) {
+			iStop = true;
+			notifyAll();
+		}
+	}
+
+	/** Number of worker threads that are still running */
+	public int getNrWorkers() {
+		synchronized (iWorkers) {
+			return iWorkers.size();
+		}
+	}
+
+	/** Number of jobs waiting in the given lane */
+	public synchronized int getQueueSize(Lane lane) {
+		return (lane == Lane.MAINTENANCE ? iMaintenance : iInteractive).size();
+	}
+
+	/** Number of rejected jobs */
+	public long getRejected() { return iRejected.get(); }
+
+	/** Timing statistics of all the executed actions */
+	public Map<String, ActionStatistics> getStatistics() {
+		return new TreeMap<String, ActionStatistics>(iStatistics);
+	}
+
+	protected ActionStatistics statistics(String name) {
+		ActionStatistics stats = iStatistics.get(name);
+		if (stats == null) {
+			stats = new ActionStatistics();
+			ActionStatistics old = iStatistics.putIfAbsent(name, stats);
+			if (old != null) stats = old;
+		}
+		return stats;
+	}
+
+	@Override
+	public String toString() {
+		return "AsyncActionExecutor{workers=" + getNrWorkers() + ", interactive=" + getQueueSize(Lane.INTERACTIVE) + ", maintenance=" + getQueueSize(Lane.MAINTENANCE) + ", rejected=" + getRejected() + "}";
+	}
+
+	private static class Job {
+		private Lane iLane;
+		private String iName;
+		private Runnable iRunnable;
+		private long iCreated;
+
+		private Job(Lane lane, String name, Runnable runnable) {
+			iLane = lane; iName = name; iRunnable = runnable; iCreated = System.nanoTime();
+		}
+
+		@Override
+		public String toString() { return iName; }
+	}
+
+	private class Worker implements Runnable {
+		private int iId;
+
+		private Worker(int id) { iId = id; }
+
+		@Override
+		public void run() {
+			try {
+				ApplicationProperties.setSessionId(iSession.getUniqueId());
+				Job job;
+				while ((job = take(iId)) != null) {
+					long t0 = System.nanoTime();
+					try {
+						job.iRunnable.run();
+					} catch (Throwable t) {
+						iLog.error("Job " + job + " failed: " + t.getMessage(), t);
+					} finally {
+						long t1 = System.nanoTime();
+						statistics(job.iName).record(t0 - job.iCreated, t1 - t0);
+						done(job);
+					}
+					if (HibernateUtil.closeCurrentThreadSessions())
+						iLog.debug("Job " + job + " did not close current-thread hibernate session.");
+				}
+				iLog.info("Executor " + iId + " stopped.");
+			} finally {
+				ApplicationProperties.setSessionId(null);
+				Localization.removeLocale();
+				Formats.removeFormats();
+				synchronized (iWorkers) {
+					iWorkers.remove(Thread.currentThread());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Histogram of the time spent in the queue and the execution time of an action
+	 */
+	public static class ActionStatistics {
+		private static DecimalFormat sDF = new DecimalFormat("0.00");
+		/** Upper bounds of the histogram buckets in milliseconds, the last bucket is unbounded */
+		public static final long[] BUCKETS = new long[] { 10, 50, 100, 500, 1000, 5000, 10000, 60000 };
+		private AtomicLongArray iWaitHistogram = new AtomicLongArray(BUCKETS.length + 1);
+		private AtomicLongArray iExecHistogram = new AtomicLongArray(BUCKETS.length + 1);
+		private AtomicLong iCount = new AtomicLong(0), iWaitNanos = new AtomicLong(0), iExecNanos = new AtomicLong(0), iMaxExecNanos = new AtomicLong(0);
+
+		private static int bucket(long nanos) {
+			long millis = nanos / 1000000l;
+			for (int i = 0; i < BUCKETS.length; i++)
+				if (millis < BUCKETS[i]) return i;
+			return BUCKETS.length;
+		}
+
+		private void record(long waitNanos, long execNanos) {
+			iCount.incrementAndGet();
+			iWaitNanos.addAndGet(waitNanos);
+			iExecNanos.addAndGet(execNanos);
+			iWaitHistogram.incrementAndGet(bucket(waitNanos));
+			iExecHistogram.incrementAndGet(bucket(execNanos));
+			long max = iMaxExecNanos.get();
+			while (execNanos > max && !iMaxExecNanos.compareAndSet(max, execNanos))
+				max = iMaxExecNanos.get();
+		}
+
+		/** Number of executions */
+		public long getCount() { return iCount.get(); }
+		/** Average time spent in the queue in milliseconds */
+		public double getAverageWaitTime() { long c = getCount(); return (c == 0 ? 0.0 : iWaitNanos.get() / 1000000.0 / c); }
+		/** Average execution time in milliseconds */
+		public double getAverageExecutionTime() { long c = getCount(); return (c == 0 ? 0.0 : iExecNanos.get() / 1000000.0 / c); }
+		/** Maximal execution time in milliseconds */
+		public double getMaxExecutionTime() { return iMaxExecNanos.get() / 1000000.0; }
+		/** Number of executions that waited in the queue less than {@link ActionStatistics#BUCKETS}[bucket] milliseconds (and at least the previous bucket) */
+		public long getWaitHistogram(int bucket) { return iWaitHistogram.get(bucket); }
+		/** Number of executions that took less than {@link ActionStatistics#BUCKETS}[bucket] milliseconds (and at least the previous bucket) */
+		public long getExecutionHistogram(int bucket) { return iExecHistogram.get(bucket); }
+
+		private static String histogram(AtomicLongArray histogram) {
+			String ret = "";
+			for (int i = 0; i <= BUCKETS.length; i++) {
+				long count = histogram.get(i);
+				if (count == 0) continue;
+				if (!ret.isEmpty()) ret += ", ";
+				ret += (i < BUCKETS.length ? "<" + BUCKETS[i] : ">=" + BUCKETS[BUCKETS.length - 1]) + "ms: " + count;
+			}
+			return ret;
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + getCount() + ", wait=" + sDF.format(getAverageWaitTime()) + " ms [" + histogram(iWaitHistogram) + "]" +
+					", exec=" + sDF.format(getAverageExecutionTime()) + " ms (max " + sDF.format(getMaxExecutionTime()) + " ms) [" + histogram(iExecHistogram) + "]";
+		}
+	}
+}
@@ -0,0 +1,593 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import org.unitime.timetable.gwt.shared.SectioningException;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
+import org.unitime.timetable.onlinesectioning.match.CourseMatcher;
+import org.unitime.timetable.onlinesectioning.match.StudentMatcher;
+import org.unitime.timetable.onlinesectioning.model.XCourse;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
+import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XEnrollments;
+import org.unitime.timetable.onlinesectioning.model.XExpectations;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XRequest;
+import org.unitime.timetable.onlinesectioning.model.XSchedulingRules;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+
+/**
+ * In-memory server in which the readers are not blocked by the updates. All the data are kept in concurrent maps, the values of which
+ * are never modified but replaced by an updated copy:
+ * <ul>
+ * <li>offerings, courses, course names, course search index, and instructed offerings are updated entry by entry when an offering is changed,
+ * <li>students are kept in concurrent maps, a student is replaced by an updated copy (together with its requests) when changed,
+ * <li>offering requests and enrollments are kept in concurrent maps of immutable {@link XEnrollments}.
+ * </ul>
+ * Updates of the same student or of the same offering are serialized using lock striping, updates of different students or offerings
+ * can run in parallel. Both the readers and the updates only take the read part of the global lock, so they only wait for
+ * {@link #lockAll()} (e.g., while all the data are being replaced), which excludes everything else.<br>
+ * As {@link #readLock()} does not exclude the updates, this server cannot provide a consistent view of all the data over multiple calls.<br>
+ * To use this server, set the unitime.enrollment.server.class property to org.unitime.timetable.onlinesectioning.server.ConcurrentInMemoryServer.
+ *
+ * @author Tomas Muller
+ */
+public class ConcurrentInMemoryServer extends AbstractLockingServer {
+	private static final int sNrStripes = 256;
+
+	private volatile Catalog iCatalog;
+
+	private volatile ConcurrentMap<Long, XStudent> iStudentTable;
+	private volatile ConcurrentMap<String, XStudent> iStudentExtTable;
+	private volatile ConcurrentMap<Long, XEnrollments> iOfferingEnrollments;
+	private volatile ConcurrentMap<Long, XExpectations> iExpectations;
+
+	private Object[] iStudentStripes;
+	private Object[] iOfferingStripes;
+
+	public ConcurrentInMemoryServer(OnlineSectioningServerContext context) throws SectioningException {
+		super(context);
+		init();
+	}
+
+	/**
+	 * Create the data structures that have not been created yet. Since the data may get loaded by
+	 * {@link AbstractServer#load(OnlineSectioningServerContext)}, which is called from the super constructor,
+	 * the fields must not have initializers.
+	 */
+	private synchronized void init() {
+		if (iCatalog == null) iCatalog = new Catalog();
+		if (iStudentTable == null) iStudentTable = new ConcurrentHashMap<Long, XStudent>();
+		if (iStudentExtTable == null) iStudentExtTable = new ConcurrentHashMap<String, XStudent>();
+		if (iOfferingEnrollments == null) iOfferingEnrollments = new ConcurrentHashMap<Long, XEnrollments>();
+		if (iExpectations == null) iExpectations = new ConcurrentHashMap<Long, XExpectations>();
+		if (iStudentStripes == null) {
+			iStudentStripes = new Object[sNrStripes];
+			for (int i = 0; i < sNrStripes; i++) iStudentStripes[i] = new Object();
+		}
+		if (iOfferingStripes == null) {
+			iOfferingStripes = new Object[sNrStripes];
+			for (int i = 0; i < sNrStripes; i++) iOfferingStripes[i] = new Object();
+		}
+	}
+	
+	private Catalog catalog() {
+		Catalog catalog = iCatalog;
+		if (catalog == null) {
+			init();
+			catalog = iCatalog;
+		}
+		return catalog;
+	}
+
+	private static Object stripe(Object[] stripes, Long id) {
+		int h = id.hashCode();
+		h ^= (h >>> 16);
+		return stripes[h & (stripes.length - 1)];
+	}
+
+	/**
+	 * Updates only exclude {@link #lockAll()}, concurrent updates of the same student or offering are serialized internally.
+	 */
+	@Override
+	public Lock writeLock() {
+		return super.readLock();
+	}
+
+	@Override
+	public Collection<XCourseId> findCourses(String query, Integer limit, CourseMatcher matcher) {
+		return findCourses(query, limit, matcher, new CourseComparator(query));
+	}
+
+	@Override
+	public Collection<XCourseId> findCourses(String query, Integer limit, CourseMatcher matcher, Comparator<XCourseId> cmp) {
+		if (matcher != null) matcher.setServer(this);
+		SubSet<XCourseId> ret = new SubSet<XCourseId>(limit, cmp);
+		String queryInLowerCase = query.toLowerCase();
+		CourseIndex index = catalog().iCourseIndex;
+		for (XCourseId c : index.findCourseNameCandidates(queryInLowerCase)) {
+			if (c.matchCourseName(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
+		}
+		if (!ret.isLimitReached() && queryInLowerCase.length() > 2) {
+			for (XCourseId c : index.findTitleCandidates(queryInLowerCase)) {
+				if (c.matchTitle(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public Collection<XCourseId> findCourses(CourseMatcher matcher) {
+		if (matcher != null) matcher.setServer(this);
+		Set<XCourseId> ret = new TreeSet<XCourseId>();
+		for (XCourseId c : catalog().iCourseForId.values()) {
+			if (matcher == null || matcher.match(c)) ret.add(c);
+		}
+		return ret;
+	}
+
+	@Override
+	public Collection<XStudent> findStudents(StudentMatcher matcher) {
+		if (matcher != null) matcher.setServer(this);
+		List<XStudent> ret = new ArrayList<XStudent>();
+		for (XStudent s: iStudentTable.values())
+			if (matcher == null || matcher.match(s)) ret.add(s);
+		return ret;
+	}
+
+	@Override
+	public XCourseId getCourse(String course) {
+		Map<String, Set<XCourseId>> courseForName = catalog().iCourseForName;
+		for (int idx = course.indexOf('-'); idx >= 0; idx = course.indexOf('-', idx + 1)) {
+			String courseName = course.substring(0, idx).trim();
+			String title = course.substring(idx + 1).trim();
+			Set<XCourseId> infos = courseForName.get(courseName.toLowerCase());
+			if (infos!= null && !infos.isEmpty())
+				for (XCourseId info: infos)
+					if (title.equalsIgnoreCase(info.getTitle())) return info;
+		}
+		Set<XCourseId> infos = courseForName.get(course.toLowerCase());
+		if (infos!= null && !infos.isEmpty()) return infos.iterator().next();
+		return null;
+	}
+
+	private XCourse toCourse(XCourseId course) {
+		if (course == null) return null;
+		if (course instanceof XCourse)
+			return (XCourse)course;
+		XOffering offering = getOffering(course.getOfferingId());
+		return offering == null ? null : offering.getCourse(course);
+	}
+
+	@Override
+	public XCourse getCourse(Long courseId) {
+		return toCourse(catalog().iCourseForId.get(courseId));
+	}
+
+	@Override
+	public XStudent getStudent(Long studentId) {
+		return iStudentTable.get(studentId);
+	}
+
+	@Override
+	public XOffering getOffering(Long offeringId) {
+		return catalog().iOfferings.get(offeringId);
+	}
+
+	@Override
+	public Collection<XCourseRequest> getRequests(Long offeringId) {
+		XEnrollments enrollments = iOfferingEnrollments.get(offeringId);
+		return enrollments == null ? null : new ArrayList<XCourseRequest>(enrollments.getRequests());
+	}
+
+	@Override
+	public XEnrollments getEnrollments(Long offeringId) {
+		XEnrollments enrollments = iOfferingEnrollments.get(offeringId);
+		return enrollments == null ? new XEnrollments(offeringId, null) : enrollments;
+	}
+
+	@Override
+	public XExpectations getExpectations(Long offeringId) {
+		XExpectations expectations = iExpectations.get(offeringId);
+		return expectations == null ? new XExpectations(offeringId) : expectations;
+	}
+
+	@Override
+	public void update(XExpectations expectations) {
+		Lock lock = writeLock();
+		try {
+			iExpectations.put(expectations.getOfferingId(), expectations);
+		} finally {
+			lock.release();
+		}
+	}
+
+	protected void removeRequest(Long offeringId, XCourseRequest request) {
+		iOfferingEnrollments.computeIfPresent(offeringId, (id, enrollments) -> enrollments.removeRequest(request));
+	}
+
+	protected void addRequest(Long offeringId, XCourseRequest request) {
+		iOfferingEnrollments.compute(offeringId, (id, enrollments) -> (enrollments == null ? new XEnrollments(id, null) : enrollments).addRequest(request));
+	}
+
+	protected void removeRequests(XStudent student) {
+		for (XRequest request: student.getRequests())
+			if (request instanceof XCourseRequest)
+				for (XCourseId course: ((XCourseRequest)request).getCourseIds())
+					removeRequest(course.getOfferingId(), (XCourseRequest)request);
+	}
+
+	protected void addRequests(XStudent student) {
+		for (XRequest request: student.getRequests())
+			if (request instanceof XCourseRequest) {
+				XCourseRequest cr = (XCourseRequest)request;
+				for (XCourseId course: cr.getCourseIds()) {
+					if (cr.isDuplicateOffering(course)) continue;
+					addRequest(course.getOfferingId(), cr);
+				}
+			}
+	}
+
+	@Override
+	public void remove(XStudent student) {
+		Lock lock = writeLock();
+		try {
+			synchronized (stripe(iStudentStripes, student.getStudentId())) {
+				XStudent oldStudent = iStudentTable.remove(student.getStudentId());
+				if (oldStudent != null) {
+					if (oldStudent.getExternalId() != null && !oldStudent.getExternalId().isEmpty())
+						iStudentExtTable.remove(oldStudent.getExternalId());
+					removeRequests(oldStudent);
+				}
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	@Override
+	public void update(XStudent student, boolean updateRequests) {
+		Lock lock = writeLock();
+		try {
+			synchronized (stripe(iStudentStripes, student.getStudentId())) {
+				XStudent oldStudent = iStudentTable.put(student.getStudentId(), student);
+				if (oldStudent != null && oldStudent.getExternalId() != null && !oldStudent.getExternalId().isEmpty() && !oldStudent.getExternalId().equals(student.getExternalId()))
+					iStudentExtTable.remove(oldStudent.getExternalId());
+				if (student.getExternalId() != null && !student.getExternalId().isEmpty())
+					iStudentExtTable.put(student.getExternalId(), student);
+				if (updateRequests) {
+					if (oldStudent != null)
+						removeRequests(oldStudent);
+					addRequests(student);
+				}
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	@Override
+	public void remove(XOffering offering) {
+		Lock lock = writeLock();
+		try {
+			synchronized (stripe(iOfferingStripes, offering.getOfferingId())) {
+				Catalog catalog = catalog();
+				XOffering oldOffering = catalog.iOfferings.get(offering.getOfferingId());
+				catalog.update(oldOffering == null ? offering : oldOffering, null);
+			}
+			iOfferingTemplates.invalidate(offering.getOfferingId());
+			iExpectations.remove(offering.getOfferingId());
+			offeringsChanged();
+		} finally {
+			lock.release();
+		}
+	}
+
+	@Override
+	public void update(XOffering offering) {
+		Lock lock = writeLock();
+		try {
+			synchronized (stripe(iOfferingStripes, offering.getOfferingId())) {
+				Catalog catalog = catalog();
+				catalog.update(catalog.iOfferings.get(offering.getOfferingId()), offering);
+			}
+			iOfferingTemplates.invalidate(offering.getOfferingId());
+			offeringsChanged();
+		} finally {
+			lock.release();
+		}
+	}
+
+	@Override
+	public void clearAll() {
+		Lock lock = writeLock();
+		try {
+			init();
+			iStudentTable.clear();
+			iStudentExtTable.clear();
+			iOfferingEnrollments.clear();
+			iExpectations.clear();
+			iCatalog = new Catalog();
+			iOfferingTemplates.clear();
+			offeringsChanged();
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * All the structures are populated aside (without any locking) and then swapped in while {@link #lockAll()} is held,
+	 * so the readers keep seeing the old data until the new data are ready (they only wait for the swap).
+	 */
+	@Override
+	public void replaceAll(XSchedulingRules rules, Collection<XOffering> offerings, Collection<XStudent> students, Collection<XExpectations> expectations) {
+		Catalog catalog = new Catalog(offerings);
+
+		ConcurrentMap<Long, XStudent> studentTable = new ConcurrentHashMap<Long, XStudent>();
+		ConcurrentMap<String, XStudent> studentExtTable = new ConcurrentHashMap<String, XStudent>();
+		Map<Long, List<XCourseRequest>> requests = new HashMap<Long, List<XCourseRequest>>();
+		for (XStudent student: students) {
+			studentTable.put(student.getStudentId(), student);
+			if (student.getExternalId() != null && !student.getExternalId().isEmpty())
+				studentExtTable.put(student.getExternalId(), student);
+			for (XRequest request: student.getRequests())
+				if (request instanceof XCourseRequest) {
+					XCourseRequest cr = (XCourseRequest)request;
+					for (XCourseId course: cr.getCourseIds()) {
+						if (cr.isDuplicateOffering(course)) continue;
+						List<XCourseRequest> list = requests.get(course.getOfferingId());
+						if (list == null) {
+							list = new ArrayList<XCourseRequest>();
+							requests.put(course.getOfferingId(), list);
+						}
+						list.add(cr);
+					}
+				}
+		}
+		ConcurrentMap<Long, XEnrollments> offeringEnrollments = new ConcurrentHashMap<Long, XEnrollments>();
+		for (Map.Entry<Long, List<XCourseRequest>> e: requests.entrySet())
+			offeringEnrollments.put(e.getKey(), new XEnrollments(e.getKey(), e.getValue()));
+
+		ConcurrentMap<Long, XExpectations> expectationTable = new ConcurrentHashMap<Long, XExpectations>();
+		for (XExpectations expectation: expectations)
+			expectationTable.put(expectation.getOfferingId(), expectation);
+
+		Lock lock = lockAll();
+		try {
+			init();
+			iCatalog = catalog;
+			iExpectations = expectationTable;
+			iStudentTable = studentTable;
+			iStudentExtTable = studentExtTable;
+			iOfferingEnrollments = offeringEnrollments;
+			iOfferingTemplates.clear();
+			setSchedulingRules(rules);
+			offeringsChanged();
+		} finally {
+			lock.release();
+		}
+	}
+
+	@Override
+	public void clearAllStudents() {
+		Lock lock = writeLock();
+		try {
+			iStudentTable.clear();
+			iStudentExtTable.clear();
+			iOfferingEnrollments.clear();
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Replace the given course request of a student by an updated copy. The student is replaced by a copy as well, so that the readers
+	 * never see a request (or a student) that is being changed.
+	 * @return the updated copy, null if the student or the request does not exist
+	 */
+	protected XCourseRequest replace(XCourseRequest request, Function<XCourseRequest, XCourseRequest> change) {
+		Lock lock = writeLock();
+		try {
+			synchronized (stripe(iStudentStripes, request.getStudentId())) {
+				XStudent student = iStudentTable.get(request.getStudentId());
+				if (student == null) return null;
+				for (int i = 0; i < student.getRequests().size(); i++) {
+					XRequest r = student.getRequests().get(i);
+					if (r.equals(request)) {
+						XCourseRequest cr = (XCourseRequest)r;
+						XCourseRequest copy = change.apply(cr);
+						
+						XStudent newStudent = new XStudent(student);
+						newStudent.getRequests().set(i, copy);
+						iStudentTable.put(newStudent.getStudentId(), newStudent);
+						if (newStudent.getExternalId() != null && !newStudent.getExternalId().isEmpty())
+							iStudentExtTable.put(newStudent.getExternalId(), newStudent);
+						
+						// remove old requests
+						for (XCourseId course: cr.getCourseIds())
+							removeRequest(course.getOfferingId(), cr);
+						
+						// put new requests
+						for (XCourseId course: copy.getCourseIds()) {
+							if (copy.isDuplicateOffering(course)) continue;
+							addRequest(course.getOfferingId(), copy);
+						}
+						
+						return copy;
+					}
+				}
+				return null;
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	@Override
+	public XCourseRequest assign(XCourseRequest request, final XEnrollment enrollment) {
+		return replace(request, cr -> {
+			XCourseRequest copy = new XCourseRequest(cr, enrollment);
+			copy.setWaitListSwapWithCourseOffering(cr.getWaitListSwapWithCourseOffering());
+			return copy;
+		});
+	}
+
+	@Override
+	public XCourseRequest waitlist(final XCourseRequest request, final boolean waitlist) {
+		return replace(request, cr -> {
+			XCourseRequest copy = new XCourseRequest(cr, cr.getEnrollment());
+			copy.setWaitlist(waitlist);
+			copy.setWaitListedTimeStamp(request.getWaitListedTimeStamp());
+			copy.setWaitListSwapWithCourseOffering(request.getWaitListSwapWithCourseOffering());
+			return copy;
+		});
+	}
+
+	@Override
+	public Collection<Long> getInstructedOfferings(String instructorExternalId) {
+		return catalog().iInstructedOfferings.get(instructorExternalId);
+	}
+
+	@Override
+	public Set<Long> getRequestedCourseIds(Long studentId) {
+		XStudent student = iStudentTable.get(studentId);
+		return (student == null ? null : student.getRequestedCourseIds());
+	}
+
+	@Override
+	public XStudent getStudentForExternalId(String externalUniqueId) {
+		if (externalUniqueId == null || externalUniqueId.isEmpty()) return null;
+		return iStudentExtTable.get(externalUniqueId);
+	}
+
+	/**
+	 * Offerings, courses, course name index, and instructed offerings. The maps are concurrent, their values are never modified
+	 * but replaced, so that a reader never sees a value that is being changed. Changes of the same offering must be serialized by the caller.
+	 */
+	private static class Catalog {
+		private final Map<Long, XOffering> iOfferings = new ConcurrentHashMap<Long, XOffering>();
+		private final Map<Long, XCourseId> iCourseForId = new ConcurrentHashMap<Long, XCourseId>();
+		private final Map<String, Set<XCourseId>> iCourseForName = new ConcurrentHashMap<String, Set<XCourseId>>();
+		private final CourseIndex iCourseIndex = new CourseIndex(true);
+		private final Map<String, Set<Long>> iInstructedOfferings = new ConcurrentHashMap<String, Set<Long>>();
+		
+		private Catalog() {}
+		
+		private Catalog(Collection<XOffering> offerings) {
+			for (XOffering offering: offerings) {
+				iOfferings.put(offering.getOfferingId(), offering);
+				for (XCourse course: offering.getCourses()) {
+					iCourseForId.put(course.getCourseId(), course);
+					iCourseIndex.add(course);
+					Set<XCourseId> courses = iCourseForName.get(course.getCourseNameInLowerCase());
+					if (courses == null) {
+						courses = new TreeSet<XCourseId>();
+						iCourseForName.put(course.getCourseNameInLowerCase(), courses);
+					}
+					courses.add(course);
+				}
+				for (String externalId: offering.getInstructorExternalIds()) {
+					Set<Long> offeringIds = iInstructedOfferings.get(externalId);
+					if (offeringIds == null) {
+						offeringIds = new HashSet<Long>();
+						iInstructedOfferings.put(externalId, offeringIds);
+					}
+					offeringIds.add(offering.getOfferingId());
+				}
+			}
+			for (Set<XCourseId> courses: iCourseForName.values())
+				for (XCourseId x: courses) x.setHasUniqueName(courses.size() == 1);
+		}
+		
+		/**
+		 * Replace the old offering with the new one, only the entries of the two offerings are changed.
+		 * @param oldOffering offering to be replaced, null when a new offering is added
+		 * @param offering new offering, null when the old offering is removed
+		 */
+		private void update(XOffering oldOffering, XOffering offering) {
+			Map<Long, XCourse> oldCourses = new HashMap<Long, XCourse>();
+			if (oldOffering != null)
+				for (XCourse course: oldOffering.getCourses())
+					oldCourses.put(course.getCourseId(), course);
+			if (offering != null) {
+				iOfferings.put(offering.getOfferingId(), offering);
+				for (XCourse course: offering.getCourses()) {
+					XCourse oldCourse = oldCourses.remove(course.getCourseId());
+					iCourseForId.put(course.getCourseId(), course);
+					iCourseIndex.update(oldCourse, course);
+					if (oldCourse != null && !oldCourse.getCourseNameInLowerCase().equals(course.getCourseNameInLowerCase()))
+						updateCourseName(oldCourse.getCourseNameInLowerCase(), oldCourse, null);
+					updateCourseName(course.getCourseNameInLowerCase(), oldCourse, course);
+				}
+			}
+			// courses that are no longer offered
+			for (XCourse oldCourse: oldCourses.values()) {
+				iCourseForId.remove(oldCourse.getCourseId());
+				iCourseIndex.remove(oldCourse);
+				updateCourseName(oldCourse.getCourseNameInLowerCase(), oldCourse, null);
+			}
+			if (offering == null)
+				iOfferings.remove(oldOffering.getOfferingId());
+			Long offeringId = (offering == null ? oldOffering : offering).getOfferingId();
+			Set<String> instructors = (offering == null ? new HashSet<String>() : new HashSet<String>(offering.getInstructorExternalIds()));
+			if (oldOffering != null)
+				for (String externalId: oldOffering.getInstructorExternalIds())
+					if (!instructors.contains(externalId))
+						iInstructedOfferings.computeIfPresent(externalId, (id, offeringIds) -> {
+							Set<Long> ret = new HashSet<Long>(offeringIds);
+							ret.remove(offeringId);
+							return ret;
+						});
+			for (String externalId: instructors)
+				iInstructedOfferings.compute(externalId, (id, offeringIds) -> {
+					if (offeringIds != null && offeringIds.contains(offeringId)) return offeringIds;
+					Set<Long> ret = (offeringIds == null ? new HashSet<Long>() : new HashSet<Long>(offeringIds));
+					ret.add(offeringId);
+					return ret;
+				});
+		}
+		
+		/** Replace the old course with the new one in the courses of the given name (either of them can be null) */
+		private void updateCourseName(String name, XCourseId oldCourse, XCourseId course) {
+			iCourseForName.compute(name, (n, courses) -> {
+				TreeSet<XCourseId> ret = (courses == null ? new TreeSet<XCourseId>() : new TreeSet<XCourseId>(courses));
+				if (oldCourse != null) ret.remove(oldCourse);
+				if (course != null) ret.add(course);
+				if (ret.isEmpty()) return null;
+				for (XCourseId x: ret) x.setHasUniqueName(ret.size() == 1);
+				return ret;
+			});
+		}
+	}
+}
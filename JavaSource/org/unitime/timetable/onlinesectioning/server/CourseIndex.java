@@ -0,0 +1,172 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+
+/**
+ * Prefix index over course names and titles. Each course is registered under all the (lower case) strings
+ * that {@link XCourseId#matchCourseName(String)} and {@link XCourseId#matchTitle(String)} test with startsWith,
+ * so that the courses matching a query are exactly the courses registered under a key starting with the query.
+ * A lookup is therefore a sorted map range scan, touching only the candidate courses.<br>
+ * The sets of courses stored in the index are never modified, they are replaced instead. A concurrent index
+ * (see {@link CourseIndex#CourseIndex(boolean)}) can be therefore searched while it is being updated.
+ * Otherwise, the caller is expected to hold the appropriate lock.
+ *
+ * @author Tomas Muller
+ */
+public class CourseIndex {
+	private NavigableMap<String, Set<XCourseId>> iNameIndex;
+	private NavigableMap<String, Set<XCourseId>> iTitleIndex;
+
+	public CourseIndex() {
+		this(false);
+	}
+	
+	public CourseIndex(boolean concurrent) {
+		if (concurrent) {
+			iNameIndex = new ConcurrentSkipListMap<String, Set<XCourseId>>();
+			iTitleIndex = new ConcurrentSkipListMap<String, Set<XCourseId>>();
+		} else {
+			iNameIndex = new TreeMap<String, Set<XCourseId>>();
+			iTitleIndex = new TreeMap<String, Set<XCourseId>>();
+		}
+	}
+
+	/**
+	 * Course name keys: course name, course number, the part of the course name after the last dash,
+	 * and the course name followed by the title (see {@link XCourseId#matchCourseName(String)})
+	 */
+	protected static Set<String> getNameKeys(XCourseId course) {
+		Set<String> keys = new HashSet<String>();
+		String name = course.getCourseName();
+		keys.add(name.toLowerCase());
+		keys.add(course.getCourseNumber().toLowerCase());
+		if (name.indexOf('-') >= 0)
+			keys.add(name.substring(name.lastIndexOf('-') + 1).trim().toLowerCase());
+		if (course.getTitle() != null) {
+			keys.add((name + " " + course.getTitle()).toLowerCase());
+			keys.add((name + " - " + course.getTitle()).toLowerCase());
+		}
+		return keys;
+	}
+
+	/**
+	 * Course title keys: the title and every suffix of the title that follows a space (see {@link XCourseId#matchTitle(String)})
+	 */
+	protected static Set<String> getTitleKeys(XCourseId course) {
+		Set<String> keys = new HashSet<String>();
+		if (course.getTitle() == null) return keys;
+		String title = course.getTitle().toLowerCase();
+		keys.add(title);
+		for (int idx = title.indexOf(' '); idx >= 0; idx = title.indexOf(' ', idx + 1))
+			keys.add(title.substring(idx + 1));
+		return keys;
+	}
+
+	private static void add(NavigableMap<String, Set<XCourseId>> index, Collection<String> keys, XCourseId course) {
+		for (String key: keys)
+			index.compute(key, (k, courses) -> {
+				Set<XCourseId> ret = (courses == null ? new HashSet<XCourseId>() : new HashSet<XCourseId>(courses));
+				ret.add(course);
+				return ret;
+			});
+	}
+
+	private static void update(NavigableMap<String, Set<XCourseId>> index, Collection<String> oldKeys, Collection<String> newKeys, XCourseId oldCourse, XCourseId course) {
+		Set<String> keys = new HashSet<String>(oldKeys);
+		keys.addAll(newKeys);
+		for (String key: keys)
+			index.compute(key, (k, courses) -> {
+				Set<XCourseId> ret = (courses == null ? new HashSet<XCourseId>() : new HashSet<XCourseId>(courses));
+				ret.remove(oldCourse);
+				if (newKeys.contains(k)) ret.add(course);
+				return (ret.isEmpty() ? null : ret);
+			});
+	}
+
+	private static void remove(NavigableMap<String, Set<XCourseId>> index, Collection<String> keys, XCourseId course) {
+		for (String key: keys)
+			index.computeIfPresent(key, (k, courses) -> {
+				Set<XCourseId> ret = new HashSet<XCourseId>(courses);
+				ret.remove(course);
+				return (ret.isEmpty() ? null : ret);
+			});
+	}
+
+	private static Set<XCourseId> find(NavigableMap<String, Set<XCourseId>> index, String queryInLowerCase) {
+		Set<XCourseId> ret = new LinkedHashSet<XCourseId>();
+		for (Map.Entry<String, Set<XCourseId>> e: index.subMap(queryInLowerCase, true, queryInLowerCase + Character.MAX_VALUE, true).entrySet())
+			ret.addAll(e.getValue());
+		return ret;
+	}
+
+	/** Register a course */
+	public void add(XCourseId course) {
+		add(iNameIndex, getNameKeys(course), course);
+		add(iTitleIndex, getTitleKeys(course), course);
+	}
+
+	/**
+	 * Replace a registered course with its new version, each key is updated at once (so that a concurrent search never misses the course
+	 * under a key that both versions share)
+	 * @param oldCourse previous version of the course, null if the course has not been registered
+	 * @param course new version of the course
+	 */
+	public void update(XCourseId oldCourse, XCourseId course) {
+		if (oldCourse == null) {
+			add(course);
+		} else {
+			update(iNameIndex, getNameKeys(oldCourse), getNameKeys(course), oldCourse, course);
+			update(iTitleIndex, getTitleKeys(oldCourse), getTitleKeys(course), oldCourse, course);
+		}
+	}
+
+	/** Unregister a course */
+	public void remove(XCourseId course) {
+		remove(iNameIndex, getNameKeys(course), course);
+		remove(iTitleIndex, getTitleKeys(course), course);
+	}
+
+	/** Courses for which {@link XCourseId#matchCourseName(String)} may return true */
+	public Set<XCourseId> findCourseNameCandidates(String queryInLowerCase) {
+		return find(iNameIndex, queryInLowerCase);
+	}
+
+	/** Courses for which {@link XCourseId#matchTitle(String)} may return true */
+	public Set<XCourseId> findTitleCandidates(String queryInLowerCase) {
+		return find(iTitleIndex, queryInLowerCase);
+	}
+
+	/** Remove all courses */
+	public void clear() {
+		iNameIndex.clear();
+		iTitleIndex.clear();
+	}
+}
@@ -58,6 +58,7 @@ import org.unitime.timetable.onlinesectioning.model.XEnrollment;
 import org.unitime.timetable.onlinesectioning.model.XExpectations;
 import org.unitime.timetable.onlinesectioning.model.XOffering;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.solver.OfferingTemplate;
 import org.unitime.timetable.onlinesectioning.updates.ReloadAllData;
 
 /**
@@ -284,14 +285,23 @@ public class DatabaseServer extends AbstractLockingServer {
 
 	@Override
 	public void remove(XOffering offering) {
+		offeringsChanged();
+	}
+	
+	@Override
+	public OfferingTemplate getOfferingTemplate(XOffering offering) {
+		// offerings are loaded from the database every time, there is nothing to cache
+		return new OfferingTemplate(offering);
 	}
 
 	@Override
 	public void update(XOffering offering) {
+		offeringsChanged();
 	}
 
 	@Override
 	public void clearAll() {
+		offeringsChanged();
 	}
 
 	@Override
@@ -0,0 +1,159 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cpsolver.ifs.util.JProf;
+
+/**
+ * Offerings that need their expected spaces persisted (written into {@link org.unitime.timetable.model.SectioningInfo}),
+ * ordered by the time they were first changed, together with the last persisted expected spaces of each offering.
+ * Knowing what is in the database, only the sections whose expected space has changed since then (the delta) need to be written,
+ * see {@link ExpectedSpacesBacklog#getDelta(Long, Map)}. The last persisted expected spaces are to be forgotten whenever the data are reloaded, and
+ * the records being written are checked against them (see {@link ExpectedSpacesBacklog#matchesPersisted(Long, Long, Double)}), so that
+ * a change made by a different writer is picked up.<br>
+ * The backlog size and the age of the oldest change are exposed, together with a few counters, for monitoring.
+ *
+ * @author Tomas Muller
+ */
+public class ExpectedSpacesBacklog {
+	private static final double sEpsilon = 0.0005;
+	private LinkedHashMap<Long, Long> iOfferings = new LinkedHashMap<Long, Long>();
+	private Map<Long, Map<Long, Double>> iPersisted = new HashMap<Long, Map<Long, Double>>();
+	private AtomicLong iNrChanges = new AtomicLong(0), iNrPersisted = new AtomicLong(0), iNrWritten = new AtomicLong(0), iNrUnchanged = new AtomicLong(0);
+	
+	/** Mark the offering as changed (the time of the first change is kept) */
+	public synchronized void add(Long offeringId) {
+		iNrChanges.incrementAndGet();
+		if (!iOfferings.containsKey(offeringId))
+			iOfferings.put(offeringId, JProf.currentTimeMillis());
+	}
+	
+	/** Remove and return all offerings that were first changed at least the given number of milliseconds ago, oldest first */
+	public synchronized List<Long> take(long minimalAge) {
+		List<Long> offeringIds = new ArrayList<Long>();
+		long current = JProf.currentTimeMillis();
+		for (Iterator<Map.Entry<Long, Long>> i = iOfferings.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<Long, Long> e = i.next();
+			if (current - e.getValue() < minimalAge) break; // the remaining offerings are even younger
+			offeringIds.add(e.getKey());
+			i.remove();
+		}
+		return offeringIds;
+	}
+	
+	/** Remove the offering from the backlog, returns true if it was there */
+	public synchronized boolean remove(Long offeringId) {
+		return iOfferings.remove(offeringId) != null;
+	}
+	
+	/** Number of offerings waiting to be persisted */
+	public synchronized int size() {
+		return iOfferings.size();
+	}
+	
+	/** Age of the oldest change that has not been persisted yet in milliseconds, 0 when the backlog is empty */
+	public synchronized long getAge() {
+		if (iOfferings.isEmpty()) return 0;
+		return JProf.currentTimeMillis() - iOfferings.values().iterator().next();
+	}
+	
+	/**
+	 * Sections of the offering whose expected space differs from the last persisted one. A null value means that the section
+	 * is no longer expected (its record is to be deleted).
+	 * @return null if the persisted expected spaces of the offering are not known
+	 */
+	public synchronized Map<Long, Double> getDelta(Long offeringId, Map<Long, Double> expectations) {
+		Map<Long, Double> persisted = iPersisted.get(offeringId);
+		if (persisted == null) return null;
+		Map<Long, Double> delta = new HashMap<Long, Double>();
+		for (Map.Entry<Long, Double> e: expectations.entrySet()) {
+			Double old = persisted.get(e.getKey());
+			if (old == null || Math.abs(old - e.getValue()) > sEpsilon)
+				delta.put(e.getKey(), e.getValue());
+		}
+		for (Long sectionId: persisted.keySet())
+			if (!expectations.containsKey(sectionId))
+				delta.put(sectionId, null);
+		return delta;
+	}
+	
+	/**
+	 * Check the last persisted expected space of a section against the database
+	 * @param value expected space of the section in the database, null when there is no record
+	 * @return false if the database has been changed by a different writer since the expected spaces of the offering were persisted
+	 */
+	public synchronized boolean matchesPersisted(Long offeringId, Long sectionId, Double value) {
+		Map<Long, Double> persisted = iPersisted.get(offeringId);
+		if (persisted == null) return false;
+		Double old = persisted.get(sectionId);
+		if (old == null || value == null) return old == value;
+		return Math.abs(old - value) <= sEpsilon;
+	}
+	
+	/** Remember the expected spaces of the offering as they are stored in the database */
+	public synchronized void setPersisted(Long offeringId, Map<Long, Double> expectations) {
+		iPersisted.put(offeringId, new HashMap<Long, Double>(expectations));
+	}
+	
+	/** Forget the persisted expected spaces of the offering (they will be compared with the database the next time) */
+	public synchronized void clearPersisted(Long offeringId) {
+		iPersisted.remove(offeringId);
+	}
+	
+	/** Forget the persisted expected spaces of all offerings */
+	public synchronized void clearPersisted() {
+		iPersisted.clear();
+	}
+	
+	/**
+	 * Record a persisted batch
+	 * @param nrOfferings number of offerings persisted
+	 * @param nrUnchanged number of offerings that did not need any record to be written
+	 * @param nrWritten number of section records inserted, updated, or deleted
+	 */
+	public void persisted(int nrOfferings, int nrUnchanged, int nrWritten) {
+		iNrPersisted.addAndGet(nrOfferings);
+		iNrUnchanged.addAndGet(nrUnchanged);
+		iNrWritten.addAndGet(nrWritten);
+	}
+	
+	/** Number of changes reported (an offering may be changed many times before it is persisted) */
+	public long getNrChanges() { return iNrChanges.get(); }
+	/** Number of offerings persisted */
+	public long getNrPersisted() { return iNrPersisted.get(); }
+	/** Number of offerings persisted with no section changed */
+	public long getNrUnchanged() { return iNrUnchanged.get(); }
+	/** Number of section records written (inserted, updated, or deleted) */
+	public long getNrWritten() { return iNrWritten.get(); }
+	
+	@Override
+	public String toString() {
+		return "ExpectedSpacesBacklog{size=" + size() + ", age=" + getAge() + " ms, changes=" + getNrChanges() + ", persisted=" + getNrPersisted() +
+				", unchanged=" + getNrUnchanged() + ", written=" + getNrWritten() + "}";
+	}
+}
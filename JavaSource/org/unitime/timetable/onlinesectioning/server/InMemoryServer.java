@@ -27,6 +27,7 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Function;
 
 import org.unitime.timetable.gwt.shared.SectioningException;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
@@ -36,6 +37,7 @@ import org.unitime.timetable.onlinesectioning.model.XCourse;
 import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
 import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XEnrollments;
 import org.unitime.timetable.onlinesectioning.model.XExpectations;
 import org.unitime.timetable.onlinesectioning.model.XOffering;
 import org.unitime.timetable.onlinesectioning.model.XRequest;
@@ -47,11 +49,13 @@ import org.unitime.timetable.onlinesectioning.model.XStudent;
 public class InMemoryServer extends AbstractLockingServer {
 	private Hashtable<Long, XCourseId> iCourseForId = new Hashtable<Long, XCourseId>();
 	private Hashtable<String, TreeSet<XCourseId>> iCourseForName = new Hashtable<String, TreeSet<XCourseId>>();
+	private CourseIndex iCourseIndex = new CourseIndex();
 	
 	private Hashtable<Long, XStudent> iStudentTable = new Hashtable<Long, XStudent>();
 	private Hashtable<String, XStudent> iStudentExtTable = new Hashtable<String, XStudent>();
 	private Hashtable<Long, XOffering> iOfferingTable = new Hashtable<Long, XOffering>();
 	private Hashtable<Long, List<XCourseRequest>> iOfferingRequests = new Hashtable<Long, List<XCourseRequest>>();
+	private Hashtable<Long, XEnrollments> iOfferingEnrollments = new Hashtable<Long, XEnrollments>();
 	private Hashtable<Long, XExpectations> iExpectations = new Hashtable<Long, XExpectations>();
 	private Hashtable<String, Set<Long>> iInstructedOfferings = new Hashtable<String, Set<Long>>();
 	
@@ -71,11 +75,11 @@ public class InMemoryServer extends AbstractLockingServer {
 		try {
 			SubSet<XCourseId> ret = new SubSet<XCourseId>(limit, cmp);
 			String queryInLowerCase = query.toLowerCase();
-			for (XCourseId c : iCourseForId.values()) {
+			for (XCourseId c : iCourseIndex.findCourseNameCandidates(queryInLowerCase)) {
 				if (c.matchCourseName(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
 			}
 			if (!ret.isLimitReached() && queryInLowerCase.length() > 2) {
-				for (XCourseId c : iCourseForId.values()) {
+				for (XCourseId c : iCourseIndex.findTitleCandidates(queryInLowerCase)) {
 					if (c.matchTitle(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
 				}
 			}
@@ -183,6 +187,45 @@ public class InMemoryServer extends AbstractLockingServer {
 		}		
 	}
 
+	@Override
+	public XEnrollments getEnrollments(Long offeringId) {
+		Lock lock = readLock();
+		try {
+			// computed atomically, the offering requests cannot change while the read lock is held
+			return iOfferingEnrollments.computeIfAbsent(offeringId, id -> new XEnrollments(id, iOfferingRequests.get(id)));
+		} finally {
+			lock.release();
+		}
+	}
+	
+	/**
+	 * Remove course request from the offering requests, update offering enrollments (if already computed) accordingly.
+	 * Expects the write lock to be held.
+	 */
+	protected void removeRequest(Long offeringId, XCourseRequest request) {
+		List<XCourseRequest> requests = iOfferingRequests.get(offeringId);
+		if (requests != null) requests.remove(request);
+		XEnrollments enrollments = iOfferingEnrollments.get(offeringId);
+		if (enrollments != null)
+			iOfferingEnrollments.put(offeringId, enrollments.removeRequest(request));
+	}
+	
+	/**
+	 * Add course request to the offering requests, update offering enrollments (if already computed) accordingly.
+	 * Expects the write lock to be held.
+	 */
+	protected void addRequest(Long offeringId, XCourseRequest request) {
+		List<XCourseRequest> requests = iOfferingRequests.get(offeringId);
+		if (requests == null) {
+			requests = new ArrayList<XCourseRequest>();
+			iOfferingRequests.put(offeringId, requests);
+		}
+		requests.add(request);
+		XEnrollments enrollments = iOfferingEnrollments.get(offeringId);
+		if (enrollments != null)
+			iOfferingEnrollments.put(offeringId, enrollments.addRequest(request));
+	}
+
 	@Override
 	public XExpectations getExpectations(Long offeringId) {
 		Lock lock = readLock();
@@ -215,8 +258,7 @@ public class InMemoryServer extends AbstractLockingServer {
 				for (XRequest request: oldStudent.getRequests())
 					if (request instanceof XCourseRequest)
 						for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
-							List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-							if (requests != null) requests.remove(request);
+							removeRequest(course.getOfferingId(), (XCourseRequest)request);
 						}
 			}
 		} finally {
@@ -238,8 +280,7 @@ public class InMemoryServer extends AbstractLockingServer {
 					for (XRequest request: oldStudent.getRequests())
 						if (request instanceof XCourseRequest)
 							for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
-								List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-								if (requests != null) requests.remove(request);
+								removeRequest(course.getOfferingId(), (XCourseRequest)request);
 							}
 				}
 				for (XRequest request: student.getRequests())
@@ -247,12 +288,7 @@ public class InMemoryServer extends AbstractLockingServer {
 						XCourseRequest cr = (XCourseRequest)request;
 						for (XCourseId course: cr.getCourseIds()) {
 							if (cr.isDuplicateOffering(course)) continue;
-							List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-							if (requests == null) {
-								requests = new ArrayList<XCourseRequest>();
-								iOfferingRequests.put(course.getOfferingId(), requests);
-							}
-							requests.add((XCourseRequest)request);
+							addRequest(course.getOfferingId(), (XCourseRequest)request);
 						}
 					}
 			}
@@ -264,6 +300,7 @@ public class InMemoryServer extends AbstractLockingServer {
 	@Override
 	public void remove(XOffering offering) {
 		remove(offering, true);
+		offeringsChanged();
 	}
 	
 	protected void remove(XOffering offering, boolean removeExpectations) {
@@ -271,6 +308,7 @@ public class InMemoryServer extends AbstractLockingServer {
 		try {
 			for (XCourse course: offering.getCourses()) {
 				iCourseForId.remove(course.getCourseId());
+				iCourseIndex.remove(course);
 				TreeSet<XCourseId> courses = iCourseForName.get(course.getCourseNameInLowerCase());
 				if (courses != null) {
 					courses.remove(course);
@@ -281,6 +319,7 @@ public class InMemoryServer extends AbstractLockingServer {
 				}
 			}
 			iOfferingTable.remove(offering.getOfferingId());
+			iOfferingTemplates.invalidate(offering.getOfferingId());
 			if (removeExpectations)
 				iExpectations.remove(offering.getOfferingId());
 			for (String externalId: offering.getInstructorExternalIds()) {
@@ -303,6 +342,7 @@ public class InMemoryServer extends AbstractLockingServer {
 			iOfferingTable.put(offering.getOfferingId(), offering);
 			for (XCourse course: offering.getCourses()) {
 				iCourseForId.put(course.getCourseId(), course);
+				iCourseIndex.add(course);
 				TreeSet<XCourseId> courses = iCourseForName.get(course.getCourseNameInLowerCase());
 				if (courses == null) {
 					courses = new TreeSet<XCourseId>();
@@ -322,6 +362,7 @@ public class InMemoryServer extends AbstractLockingServer {
 				}
 				offeringIds.add(offering.getOfferingId());
 			}
+			offeringsChanged();
 		} finally {
 			lock.release();
 		}
@@ -347,6 +388,10 @@ public class InMemoryServer extends AbstractLockingServer {
 				iOfferingRequests = new Hashtable<Long, List<XCourseRequest>>();
 			else
 				iOfferingRequests.clear();
+			if (iOfferingEnrollments == null)
+				iOfferingEnrollments = new Hashtable<Long, XEnrollments>();
+			else
+				iOfferingEnrollments.clear();
 			if (iExpectations == null)
 				iExpectations = new Hashtable<Long, XExpectations>();
 			else
@@ -359,10 +404,16 @@ public class InMemoryServer extends AbstractLockingServer {
 				iCourseForName = new Hashtable<String, TreeSet<XCourseId>>();
 			else
 				iCourseForName.clear();
+			if (iCourseIndex == null)
+				iCourseIndex = new CourseIndex();
+			else
+				iCourseIndex.clear();
 			if (iInstructedOfferings == null)
 				iInstructedOfferings = new Hashtable<String, Set<Long>>();
 			else
 				iInstructedOfferings.clear();
+			iOfferingTemplates.clear();
+			offeringsChanged();
 		} finally {
 			lock.release();
 		}
@@ -375,41 +426,46 @@ public class InMemoryServer extends AbstractLockingServer {
 			iStudentTable.clear();
 			iStudentExtTable.clear();
 			iOfferingRequests.clear();
+			iOfferingEnrollments.clear();
 		} finally {
 			lock.release();
 		}
 	}
 
-	@Override
-	public XCourseRequest assign(XCourseRequest request, XEnrollment enrollment) {
+	/**
+	 * Replace the given course request of a student by an updated copy. The student is replaced by a copy as well, so that a request
+	 * that has been already handed out (e.g., within {@link XEnrollments}) never changes.
+	 * @return the updated copy, null if the student or the request does not exist
+	 */
+	protected XCourseRequest replace(XCourseRequest request, Function<XCourseRequest, XCourseRequest> change) {
 		Lock lock = writeLock();
 		try {
 			XStudent student = iStudentTable.get(request.getStudentId());
-			for (XRequest r: student.getRequests()) {
+			if (student == null) return null;
+			for (int i = 0; i < student.getRequests().size(); i++) {
+				XRequest r = student.getRequests().get(i);
 				if (r.equals(request)) {
 					XCourseRequest cr = (XCourseRequest)r;
+					XCourseRequest copy = change.apply(cr);
+					
+					XStudent newStudent = new XStudent(student);
+					newStudent.getRequests().set(i, copy);
+					iStudentTable.put(newStudent.getStudentId(), newStudent);
+					if (newStudent.getExternalId() != null && !newStudent.getExternalId().isEmpty())
+						iStudentExtTable.put(newStudent.getExternalId(), newStudent);
 
 					// remove old requests
 					for (XCourseId course: cr.getCourseIds()) {
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests != null) requests.remove(cr);
+						removeRequest(course.getOfferingId(), cr);
 					}
-
-					// assign
-					cr.setEnrollment(enrollment);
 					
 					// put new requests
-					for (XCourseId course: cr.getCourseIds()) {
-						if (cr.isDuplicateOffering(course)) continue;
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests == null) {
-							requests = new ArrayList<XCourseRequest>();
-							iOfferingRequests.put(course.getOfferingId(), requests);
-						}
-						requests.add(cr);
+					for (XCourseId course: copy.getCourseIds()) {
+						if (copy.isDuplicateOffering(course)) continue;
+						addRequest(course.getOfferingId(), copy);
 					}
 					
-					return cr;
+					return copy;
 				}
 			}
 			return null;
@@ -419,43 +475,23 @@ public class InMemoryServer extends AbstractLockingServer {
 	}
 
 	@Override
-	public XCourseRequest waitlist(XCourseRequest request, boolean waitlist) {
-		Lock lock = writeLock();
-		try {
-			XStudent student = iStudentTable.get(request.getStudentId());
-			for (XRequest r: student.getRequests()) {
-				if (r.equals(request)) {
-					XCourseRequest cr = (XCourseRequest)r;
-
-					// remove old requests
-					for (XCourseId course: cr.getCourseIds()) {
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests != null) requests.remove(cr);
-					}
+	public XCourseRequest assign(XCourseRequest request, final XEnrollment enrollment) {
+		return replace(request, cr -> {
+			XCourseRequest copy = new XCourseRequest(cr, enrollment);
+			copy.setWaitListSwapWithCourseOffering(cr.getWaitListSwapWithCourseOffering());
+			return copy;
+		});
+	}
 
-					// assign
-					cr.setWaitlist(waitlist);
-					cr.setWaitListedTimeStamp(request.getWaitListedTimeStamp());
-					cr.setWaitListSwapWithCourseOffering(request.getWaitListSwapWithCourseOffering());
-					
-					// put new requests
-					for (XCourseId course: cr.getCourseIds()) {
-						if (cr.isDuplicateOffering(course)) continue;
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests == null) {
-							requests = new ArrayList<XCourseRequest>();
-							iOfferingRequests.put(course.getOfferingId(), requests);
-						}
-						requests.add(cr);
-					}
-					
-					return cr;
-				}
-			}
-			return null;
-		} finally {
-			lock.release();
-		}
+	@Override
+	public XCourseRequest waitlist(final XCourseRequest request, final boolean waitlist) {
+		return replace(request, cr -> {
+			XCourseRequest copy = new XCourseRequest(cr, cr.getEnrollment());
+			copy.setWaitlist(waitlist);
+			copy.setWaitListedTimeStamp(request.getWaitListedTimeStamp());
+			copy.setWaitListSwapWithCourseOffering(request.getWaitListSwapWithCourseOffering());
+			return copy;
+		});
 	}
 
 	@Override
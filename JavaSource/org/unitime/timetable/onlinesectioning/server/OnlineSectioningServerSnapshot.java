@@ -0,0 +1,347 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.Lock;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
+import org.unitime.timetable.onlinesectioning.model.XExpectations;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XRequest;
+import org.unitime.timetable.onlinesectioning.model.XSchedulingRules;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.model.XStudentId;
+import org.unitime.timetable.onlinesectioning.updates.ReloadStudent;
+import org.unitime.timetable.util.Constants;
+
+/**
+ * Binary image of the data of an in-memory online sectioning server (offerings, students, and expectations), stored in a local file
+ * (see {@link ApplicationProperties#getSnapshotFolder()}). The objects are written using their {@link java.io.Externalizable} implementation.<br>
+ * The snapshot also contains the time stamp of the last processed student sectioning queue item, so that when the server
+ * is restored from the snapshot, only the newer changes need to be replayed by the updater. Changes made by the server itself are
+ * not in the queue: students whose enrollments or course requests in the database differ from the snapshot, or that have an enrollment,
+ * a course request, an override, or a note changed since the snapshot was taken, are reloaded from the database after the snapshot is restored.<br>
+ * Snapshots are taken by the updater (see {@link ApplicationProperty#OnlineSchedulingServerSnapshotInterval}) and when the server is unloaded.
+ * A snapshot can only be taken of a server whose read lock excludes all the updates (see {@link #isSupported(OnlineSectioningServer)}).<br>
+ * As the externalized format of the data objects may change between releases, the snapshot also contains the application version
+ * (see {@link Constants#getVersion()}), a snapshot written by a different version is not used.
+ *
+ * @author Tomas Muller
+ */
+public class OnlineSectioningServerSnapshot {
+	private static Log sLog = LogFactory.getLog(OnlineSectioningServerSnapshot.class);
+	private static final int sMagic = 0x55534e50;
+	private static final int sVersion = 2;
+	/** Reset the object output stream after this many objects, so that its handle table does not keep all the objects */
+	private static final int sResetInterval = 1000;
+
+	/** Snapshots are enabled when the snapshot interval is set to a positive number */
+	public static boolean isEnabled() {
+		return ApplicationProperty.OnlineSchedulingServerSnapshotInterval.intValue() > 0;
+	}
+
+	/**
+	 * Snapshots can only be taken of servers whose read lock excludes all the updates, so that the snapshot is consistent.
+	 * This is not the case of the {@link ConcurrentInMemoryServer}.
+	 */
+	public static boolean isSupported(OnlineSectioningServer server) {
+		return server != null && !(server instanceof DatabaseServer) && !(server instanceof ConcurrentInMemoryServer);
+	}
+
+	public static File getFile(Long sessionId) {
+		return new File(ApplicationProperties.getSnapshotFolder(), "sectioning-" + sessionId + ".snapshot");
+	}
+
+	/**
+	 * Write a snapshot of the given server. The server is read-locked while the data are being written, the snapshot is first written into
+	 * a temporary file that then replaces the previous snapshot.
+	 * @param lastTimeStamp time stamp of the last student sectioning queue item that has been processed by the server
+	 */
+	public static void save(OnlineSectioningServer server, Date lastTimeStamp) throws IOException {
+		if (!isSupported(server))
+			throw new IOException("Snapshots are not supported by " + server.getClass().getSimpleName() + ".");
+		long t0 = System.currentTimeMillis();
+		File file = getFile(server.getAcademicSession().getUniqueId());
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		int nrOfferings = 0, nrStudents = 0;
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+		try {
+			Lock lock = server.readLock();
+			try {
+				out.writeInt(sMagic);
+				out.writeInt(sVersion);
+				out.writeUTF(Constants.getVersion());
+				out.writeLong(server.getAcademicSession().getUniqueId());
+				out.writeLong(t0);
+				out.writeLong(lastTimeStamp == null ? -1l : lastTimeStamp.getTime());
+				
+				TreeSet<Long> offeringIds = new TreeSet<Long>();
+				for (XCourseId course: server.findCourses(null))
+					offeringIds.add(course.getOfferingId());
+				List<XOffering> offerings = new ArrayList<XOffering>(offeringIds.size());
+				for (Long offeringId: offeringIds) {
+					XOffering offering = server.getOffering(offeringId);
+					if (offering != null) offerings.add(offering);
+				}
+				out.writeInt(offerings.size());
+				for (XOffering offering: offerings) {
+					offering.writeExternal(out);
+					server.getExpectations(offering.getOfferingId()).writeExternal(out);
+					if (++nrOfferings % sResetInterval == 0) out.reset();
+				}
+				
+				List<XStudent> students = new ArrayList<XStudent>();
+				for (XStudentId id: server.findStudents(null)) {
+					XStudent student = (id instanceof XStudent ? (XStudent)id : server.getStudent(id.getStudentId()));
+					if (student != null) students.add(student);
+				}
+				out.writeInt(students.size());
+				for (XStudent student: students) {
+					student.writeExternal(out);
+					if (++nrStudents % sResetInterval == 0) out.reset();
+				}
+				out.flush();
+			} finally {
+				lock.release();
+			}
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		sLog.info("Snapshot of " + server.getAcademicSession() + " with " + nrOfferings + " offerings and " + nrStudents + " students written in " +
+				new DecimalFormat("0.0").format((System.currentTimeMillis() - t0) / 1000.0) + " seconds (" + new DecimalFormat("#,##0").format(file.length() / 1024) + " kB).");
+	}
+
+	/**
+	 * Restore the server from its snapshot. The snapshot is not used when it does not exist, it is older than
+	 * {@link ApplicationProperty#OnlineSchedulingServerSnapshotMaxAge}, or it was written by a different version.
+	 * On success, the Updater.LastTimeStamp property of the server is set, so that the updater only replays the newer changes.
+	 * @return true if the server has been restored
+	 */
+	public static boolean restore(OnlineSectioningServer server, OnlineSectioningHelper helper) throws IOException, ClassNotFoundException {
+		long t0 = System.currentTimeMillis();
+		File file = getFile(server.getAcademicSession().getUniqueId());
+		if (!file.exists()) return false;
+		ObjectInputStream in = new ObjectInputStream(openStream(file));
+		try {
+			if (in.readInt() != sMagic || in.readInt() != sVersion) {
+				helper.warn("Snapshot " + file + " is not compatible.");
+				return false;
+			}
+			String version = in.readUTF();
+			if (!Constants.getVersion().equals(version)) {
+				helper.info("Snapshot " + file + " was written by a different version (" + version + ").");
+				return false;
+			}
+			if (in.readLong() != server.getAcademicSession().getUniqueId()) {
+				helper.warn("Snapshot " + file + " is not compatible.");
+				return false;
+			}
+			long created = in.readLong();
+			long lastTimeStamp = in.readLong();
+			int maxAge = ApplicationProperty.OnlineSchedulingServerSnapshotMaxAge.intValue();
+			if (maxAge > 0 && t0 - created > 60000l * maxAge) {
+				helper.info("Snapshot " + file + " from " + new Date(created) + " is too old.");
+				return false;
+			}
+			
+			int nrOfferings = in.readInt();
+			List<XOffering> offerings = new ArrayList<XOffering>(nrOfferings);
+			List<XExpectations> expectations = new ArrayList<XExpectations>(nrOfferings);
+			for (int i = 0; i < nrOfferings; i++) {
+				offerings.add(new XOffering(in));
+				expectations.add(new XExpectations(in));
+			}
+			int nrStudents = in.readInt();
+			List<XStudent> students = new ArrayList<XStudent>(nrStudents);
+			for (int i = 0; i < nrStudents; i++)
+				students.add(new XStudent(in));
+			
+			server.replaceAll(new XSchedulingRules(server.getAcademicSession(), helper.getHibSession()), offerings, students, expectations);
+			server.setProperty("Updater.LastTimeStamp", new Date(lastTimeStamp < 0 ? 0 : lastTimeStamp));
+			helper.info("Restored " + nrOfferings + " offerings and " + nrStudents + " students of " + server.getAcademicSession() + " from snapshot " + file + " (" + new Date(created) + ") in " +
+					new DecimalFormat("0.0").format((System.currentTimeMillis() - t0) / 1000.0) + " seconds.");
+			
+			Set<Long> studentIds = getChangedStudents(server.getAcademicSession().getUniqueId(), students, new Date(created), helper.getHibSession());
+			if (!studentIds.isEmpty()) {
+				helper.info("Reloading " + studentIds.size() + " students that have changed since the snapshot.");
+				server.execute(server.createAction(ReloadStudent.class).forStudents(new ArrayList<Long>(studentIds)), helper.getUser());
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Students that have changed since the snapshot was taken: students that are only in the database or only in the snapshot, students whose enrolled classes
+	 * or course demands differ, and students with an enrollment, a course demand, an override, or a note newer than the snapshot.
+	 * The online sectioning log is not used, as the log records are written asynchronously and may get lost.
+	 */
+	protected static Set<Long> getChangedStudents(Long sessionId, Collection<XStudent> students, Date created, org.hibernate.Session hibSession) {
+		Map<Long, Set<Long>> sections = new HashMap<Long, Set<Long>>();
+		Map<Long, Set<Long>> demands = new HashMap<Long, Set<Long>>();
+		for (XStudent student: students) {
+			Set<Long> sectionIds = new HashSet<Long>();
+			Set<Long> demandIds = new HashSet<Long>();
+			for (XRequest request: student.getRequests()) {
+				if (request.getRequestId() != null && request.getRequestId() >= 0) demandIds.add(request.getRequestId());
+				if (request instanceof XCourseRequest && ((XCourseRequest)request).getEnrollment() != null)
+					sectionIds.addAll(((XCourseRequest)request).getEnrollment().getSectionIds());
+			}
+			sections.put(student.getStudentId(), sectionIds);
+			demands.put(student.getStudentId(), demandIds);
+		}
+		
+		Map<Long, Set<Long>> dbSections = new HashMap<Long, Set<Long>>();
+		Map<Long, Set<Long>> dbDemands = new HashMap<Long, Set<Long>>();
+		for (Long studentId: hibSession.createQuery(
+				"select s.uniqueId from Student s where s.session.uniqueId = :sessionId", Long.class)
+				.setParameter("sessionId", sessionId).list()) {
+			dbSections.put(studentId, new HashSet<Long>());
+			dbDemands.put(studentId, new HashSet<Long>());
+		}
+		for (Object[] o: hibSession.createQuery(
+				"select e.student.uniqueId, e.clazz.uniqueId from StudentClassEnrollment e where e.student.session.uniqueId = :sessionId", Object[].class)
+				.setParameter("sessionId", sessionId).list())
+			dbSections.computeIfAbsent((Long)o[0], id -> new HashSet<Long>()).add((Long)o[1]);
+		for (Object[] o: hibSession.createQuery(
+				"select d.student.uniqueId, d.uniqueId from CourseDemand d where d.student.session.uniqueId = :sessionId", Object[].class)
+				.setParameter("sessionId", sessionId).list())
+			dbDemands.computeIfAbsent((Long)o[0], id -> new HashSet<Long>()).add((Long)o[1]);
+		
+		Set<Long> changed = new HashSet<Long>();
+		for (Map.Entry<Long, Set<Long>> e: dbSections.entrySet())
+			if (!e.getValue().equals(sections.get(e.getKey()))) changed.add(e.getKey());
+		for (Map.Entry<Long, Set<Long>> e: dbDemands.entrySet())
+			if (!e.getValue().equals(demands.get(e.getKey()))) changed.add(e.getKey());
+		for (Long studentId: sections.keySet())
+			if (!dbSections.containsKey(studentId)) changed.add(studentId);
+		
+		for (String query: new String[] {
+				"select distinct e.student.uniqueId from StudentClassEnrollment e where e.student.session.uniqueId = :sessionId and " +
+						"(e.timestamp >= :timeStamp or e.approvedDate >= :timeStamp)",
+				"select distinct d.student.uniqueId from CourseDemand d where d.student.session.uniqueId = :sessionId and " +
+						"(d.timestamp >= :timeStamp or d.waitlistedTimeStamp >= :timeStamp)",
+				"select distinct r.courseDemand.student.uniqueId from CourseRequest r where r.courseDemand.student.session.uniqueId = :sessionId and " +
+						"r.overrideTimeStamp >= :timeStamp",
+				"select s.uniqueId from Student s where s.session.uniqueId = :sessionId and " +
+						"(s.overrideTimeStamp >= :timeStamp or s.scheduleEmailedDate >= :timeStamp)",
+				"select distinct n.student.uniqueId from StudentNote n where n.student.session.uniqueId = :sessionId and n.timeStamp >= :timeStamp"
+				}) {
+			changed.addAll(hibSession.createQuery(query, Long.class)
+					.setParameter("sessionId", sessionId).setParameter("timeStamp", created).list());
+		}
+		return changed;
+	}
+
+	/** Delete the snapshot of the given academic session (if it exists) */
+	public static void delete(Long sessionId) {
+		File file = getFile(sessionId);
+		if (file.exists() && !file.delete())
+			sLog.warn("Failed to delete snapshot " + file);
+	}
+
+	/**
+	 * The snapshot is memory-mapped when it is smaller than 2GB
+	 */
+	private static InputStream openStream(File file) throws IOException {
+		if (file.length() >= Integer.MAX_VALUE)
+			return new BufferedInputStream(new FileInputStream(file), 65536);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer iBuffer;
+
+		private ByteBufferInputStream(MappedByteBuffer buffer) {
+			iBuffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return (iBuffer.hasRemaining() ? iBuffer.get() & 0xff : -1);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!iBuffer.hasRemaining()) return -1;
+			int n = Math.min(len, iBuffer.remaining());
+			iBuffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			int k = (int)Math.max(0, Math.min(n, iBuffer.remaining()));
+			iBuffer.position(iBuffer.position() + k);
+			return k;
+		}
+
+		@Override
+		public int available() {
+			return iBuffer.remaining();
+		}
+	}
+}
@@ -34,7 +34,6 @@ import java.util.TreeSet;
 import java.util.Vector;
 
 import org.cpsolver.coursett.Constants;
-import org.cpsolver.coursett.model.Lecture;
 import org.cpsolver.coursett.model.Placement;
 import org.cpsolver.coursett.model.RoomLocation;
 import org.cpsolver.coursett.model.TimeLocation;
@@ -634,6 +633,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 	public static Course clone(XOffering offering, XEnrollments enrollments, Long courseId, long studentId, XStudent originalStudent, Map<Long, Section> sections, OnlineSectioningServer server, StudentSectioningModel model, boolean hasAssignment, boolean checkDeadlines, Integer currentDateIndex, boolean onlineOnlyFilter, OnlineSectioningHelper helper) {
 		Offering clonedOffering = new Offering(offering.getOfferingId(), offering.getName());
 		clonedOffering.setModel(model);
+		OfferingTemplate template = OfferingTemplate.get(server, offering);
 		XExpectations expectations = server.getExpectations(offering.getOfferingId());
 		XCourse course = offering.getCourse(courseId);
 		int courseLimit = course.getLimit();
@@ -695,17 +695,9 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 						if (limit < 0) limit = 0; // over-enrolled, but not unlimited
 						if (student && limit == 0) limit = 1; // allow enrolled student in
 					}
-                    List<RoomLocation> rooms = new ArrayList<RoomLocation>();
-                    for (XRoom r: section.getRooms())
-                    	rooms.add(new RoomLocation(r.getUniqueId(), r.getName(), null, 0, 0, r.getX(), r.getY(), r.getIgnoreTooFar(), null));
-                    Placement placement = section.getTime() == null ? null : new Placement(
-                    		new Lecture(section.getSectionId(), null, section.getSubpartId(), section.getName(), new ArrayList<TimeLocation>(), new ArrayList<RoomLocation>(), section.getNrRooms(), null, section.getLimit(), section.getLimit(), 1.0),
-                    		new TimeLocation(section.getTime().getDays(), section.getTime().getSlot(), section.getTime().getLength(), 0, 0.0,
-                    				section.getTime().getDatePatternId(), section.getTime().getDatePatternName(), section.getTime().getWeeks(),
-                    				section.getTime().getBreakTime()),
-                    		rooms);
+					OfferingTemplate.SectionTemplate sectionTemplate = template.getSection(section.getSectionId());
 					OnlineSection clonedSection = new OnlineSection(section.getSectionId(), limit,
-							section.getName(course.getCourseId()), clonedSubpart, placement, section.toInstructors(),
+							section.getName(course.getCourseId()), clonedSubpart, sectionTemplate.getPlacement(), sectionTemplate.getInstructors(),
 							(section.getParentId() == null ? null : sections.get(section.getParentId())));
 					clonedSection.setName(-1l, section.getName(-1l));
 					clonedSection.setNote(section.getNote());
@@ -720,11 +712,9 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 						clonedSection.setEnabled(false);
 					if (section.getTime() != null && currentDateIndex != null && !(server instanceof StudentSolver))
 						clonedSection.setPast(section.getTime().isPast(currentDateIndex, server.getAcademicSession()));
-					for (XDistribution distribution: offering.getDistributions())
-						if (distribution.getDistributionType() == XDistributionType.IngoreConflicts && distribution.hasSection(section.getSectionId()))
-							for (Long id: distribution.getSectionIds())
-								if (!id.equals(section.getSectionId()))
-									clonedSection.addIgnoreConflictWith(id);
+					if (sectionTemplate.getIgnoreConflictWith() != null)
+						for (Long id: sectionTemplate.getIgnoreConflictWith())
+							clonedSection.addIgnoreConflictWith(id);
 			        if (limit > 0) {
 			        	double available = Math.round(clonedSection.getSpaceExpected() - limit);
 						clonedSection.setPenalty(available / section.getLimit());
@@ -0,0 +1,231 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.solver;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cpsolver.coursett.model.Lecture;
+import org.cpsolver.coursett.model.Placement;
+import org.cpsolver.coursett.model.RoomLocation;
+import org.cpsolver.coursett.model.TimeLocation;
+import org.cpsolver.studentsct.model.Instructor;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.model.XConfig;
+import org.unitime.timetable.onlinesectioning.model.XDistribution;
+import org.unitime.timetable.onlinesectioning.model.XDistributionType;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XRoom;
+import org.unitime.timetable.onlinesectioning.model.XSection;
+import org.unitime.timetable.onlinesectioning.model.XSubpart;
+import org.unitime.timetable.onlinesectioning.server.AbstractServer;
+
+/**
+ * Student independent part of an offering as it is needed by {@link FindAssignmentAction} when an offering is cloned into the request model:
+ * class times and rooms, instructors, and the classes with which a class can overlap (ignore student conflicts distributions).<br>
+ * The template is immutable and it can be shared between requests (and threads). The cpsolver offering structure itself (offering, configurations,
+ * subparts, sections, reservations) cannot be shared as it belongs to the model of the request and it holds the request specific
+ * state (limits, enrollments, expected space, enabled / disabled sections). The same goes for the class placements (placements and lectures
+ * are cpsolver values and variables with their own mutable state), a new placement is created for each request.<br>
+ * So, the template only saves the (student independent) lookups and conversions needed to create the offering structure, the structure
+ * itself is still created for each request.<br>
+ * The cached {@link TimeLocation}, {@link RoomLocation}, and {@link Instructor} objects are shared between the request models: neither
+ * the cpsolver student sectioning model nor the online sectioning actions call any of their setters, and the only lazily computed state of
+ * a time location is either computed right away when the template is created (days array), or it is an immutable value that is always
+ * computed the same for the same academic session (first and last meeting).
+ * 
+ * @author Tomas Muller
+ */
+public class OfferingTemplate {
+	private final XOffering iOffering;
+	private final Map<Long, SectionTemplate> iSections;
+	
+	public OfferingTemplate(XOffering offering) {
+		iOffering = offering;
+		Map<Long, Set<Long>> ignoreConflicts = new HashMap<Long, Set<Long>>();
+		for (XDistribution distribution: offering.getDistributions()) {
+			if (distribution.getDistributionType() != XDistributionType.IngoreConflicts) continue;
+			for (Long sectionId: distribution.getSectionIds()) {
+				Set<Long> ids = ignoreConflicts.get(sectionId);
+				if (ids == null) {
+					ids = new HashSet<Long>();
+					ignoreConflicts.put(sectionId, ids);
+				}
+				for (Long id: distribution.getSectionIds())
+					if (!id.equals(sectionId)) ids.add(id);
+			}
+		}
+		Map<Long, SectionTemplate> sections = new HashMap<Long, SectionTemplate>();
+		for (XConfig config: offering.getConfigs())
+			for (XSubpart subpart: config.getSubparts())
+				for (XSection section: subpart.getSections()) {
+					Set<Long> ids = ignoreConflicts.get(section.getSectionId());
+					sections.put(section.getSectionId(), new SectionTemplate(section, ids == null ? null : Collections.unmodifiableSet(ids)));
+				}
+		iSections = Collections.unmodifiableMap(sections);
+	}
+	
+	/**
+	 * Template of the given offering, cached by the online sectioning server when possible (see {@link AbstractServer#getOfferingTemplate(XOffering)})
+	 */
+	public static OfferingTemplate get(OnlineSectioningServer server, XOffering offering) {
+		if (server instanceof AbstractServer)
+			return ((AbstractServer)server).getOfferingTemplate(offering);
+		return new OfferingTemplate(offering);
+	}
+	
+	/** Offering from which the template was created */
+	public XOffering getOffering() { return iOffering; }
+	
+	/** Template of the given class */
+	public SectionTemplate getSection(Long sectionId) { return iSections.get(sectionId); }
+	
+	/** Is the template up-to-date with the given offering (the template is only valid for the same instance) */
+	public boolean isValid(XOffering offering) { return iOffering == offering; }
+	
+	/**
+	 * Student independent part of a class
+	 */
+	public static class SectionTemplate {
+		private final Long iSectionId, iSubpartId;
+		private final String iName;
+		private final int iNrRooms, iLimit;
+		private final TimeLocation iTime;
+		private final List<RoomLocation> iRooms;
+		private final List<Instructor> iInstructors;
+		private final Set<Long> iIgnoreConflictWith;
+		
+		private SectionTemplate(XSection section, Set<Long> ignoreConflictWith) {
+			iSectionId = section.getSectionId();
+			iSubpartId = section.getSubpartId();
+			iName = section.getName();
+			iNrRooms = section.getNrRooms();
+			iLimit = section.getLimit();
+			List<RoomLocation> rooms = new ArrayList<RoomLocation>();
+			for (XRoom r: section.getRooms())
+				rooms.add(new RoomLocation(r.getUniqueId(), r.getName(), null, 0, 0, r.getX(), r.getY(), r.getIgnoreTooFar(), null));
+			iRooms = Collections.unmodifiableList(rooms);
+			iTime = section.getTime() == null ? null : new TimeLocation(section.getTime().getDays(), section.getTime().getSlot(), section.getTime().getLength(), 0, 0.0,
+					section.getTime().getDatePatternId(), section.getTime().getDatePatternName(), section.getTime().getWeeks(),
+					section.getTime().getBreakTime());
+			// compute the cached days array now, before the time is shared between threads
+			if (iTime != null) iTime.getDaysArray();
+			List<Instructor> instructors = section.toInstructors();
+			iInstructors = (instructors == null ? null : Collections.unmodifiableList(instructors));
+			iIgnoreConflictWith = ignoreConflictWith;
+		}
+		
+		/** New class placement (time and rooms), null when the class has no time */
+		public Placement getPlacement() {
+			if (iTime == null) return null;
+			return new Placement(
+					new Lecture(iSectionId, null, iSubpartId, iName, new ArrayList<TimeLocation>(), new ArrayList<RoomLocation>(), iNrRooms, null, iLimit, iLimit, 1.0),
+					iTime, new ArrayList<RoomLocation>(iRooms));
+		}
+		
+		/** New list of class instructors, null when there are no instructors */
+		public List<Instructor> getInstructors() { return iInstructors == null ? null : new ArrayList<Instructor>(iInstructors); }
+		
+		/** Classes with which the class can overlap, null when there are none */
+		public Set<Long> getIgnoreConflictWith() { return iIgnoreConflictWith; }
+	}
+	
+	/**
+	 * Bounded (least recently used) cache of offering templates. A template is used only when it was created from the very same
+	 * instance of the offering, a template of an offering that has been changed is therefore never returned, but the
+	 * template should be also invalidated when an offering is updated or removed (see {@link Cache#invalidate(Long)}) to free the memory.
+	 */
+	public static class Cache {
+		private static DecimalFormat sDF = new DecimalFormat("0.0");
+		private final int iSize;
+		private final Map<Long, OfferingTemplate> iTemplates;
+		private AtomicLong iHits = new AtomicLong(0), iMisses = new AtomicLong(0);
+		
+		/**
+		 * @param size maximal number of templates kept in the cache, zero or negative value to disable caching
+		 */
+		public Cache(final int size) {
+			iSize = size;
+			iTemplates = new LinkedHashMap<Long, OfferingTemplate>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, OfferingTemplate> eldest) {
+					return size() > size;
+				}
+			};
+		}
+		
+		/** Template of the given offering, a new template is created when not cached or out-dated */
+		public OfferingTemplate get(XOffering offering) {
+			if (iSize <= 0) return new OfferingTemplate(offering);
+			synchronized (iTemplates) {
+				OfferingTemplate template = iTemplates.get(offering.getOfferingId());
+				if (template != null && template.isValid(offering)) {
+					iHits.incrementAndGet();
+					return template;
+				}
+			}
+			iMisses.incrementAndGet();
+			OfferingTemplate template = new OfferingTemplate(offering);
+			synchronized (iTemplates) {
+				iTemplates.put(offering.getOfferingId(), template);
+			}
+			return template;
+		}
+		
+		/** Remove template of the given offering */
+		public void invalidate(Long offeringId) {
+			synchronized (iTemplates) {
+				iTemplates.remove(offeringId);
+			}
+		}
+		
+		/** Remove all templates */
+		public void clear() {
+			synchronized (iTemplates) {
+				iTemplates.clear();
+			}
+		}
+		
+		public int size() {
+			synchronized (iTemplates) {
+				return iTemplates.size();
+			}
+		}
+		
+		public long getHits() { return iHits.get(); }
+		
+		public long getMisses() { return iMisses.get(); }
+		
+		@Override
+		public String toString() {
+			long hits = getHits(), total = hits + getMisses();
+			return "OfferingTemplates{size=" + size() + ", hits=" + hits + ", misses=" + getMisses() + ", hit rate=" + sDF.format(total == 0 ? 0.0 : 100.0 * hits / total) + "%}";
+		}
+	}
+}
@@ -460,7 +460,7 @@ public class CheckOfferingAction extends WaitlistedOnlineSectioningAction<Boolea
 							student.addWaitList(co, WaitList.WaitListType.RE_BATCH_ON_CHECK, false, helper.getUser().getExternalId(), ts, hibSession);
 						}
 						if (r.getRequest().isWaitlist())
-							server.waitlist(r.getRequest(), false);
+							r.setRequest(server.waitlist(r.getRequest(), false));
 					} else if (r.getOffering().isWaitList() && hasWaitListingStatus(r.getStudent(), server)) { // enable wait-list
 						if (cd != null && !cd.isWaitlist()) { // course demand is not wait-listed > enable wait-listing for the course
 							// ensure that the dropped course is the first choice 
@@ -559,7 +559,7 @@ public class CheckOfferingAction extends WaitlistedOnlineSectioningAction<Boolea
 				} catch (Exception e) {
 					if (dropEnrollment != null)
 						server.assign(r.getDropRequest(), dropEnrollment);
-					server.assign(r.getRequest(), r.getLastEnrollment());
+					r.setRequest(server.assign(r.getRequest(), r.getLastEnrollment()));
 					r.getAction().setResult(OnlineSectioningLog.Action.ResultType.FAILURE);
 					helper.error((r.getCourseId() == null ? offering.getName() : r.getCourseId().getCourseName()) + ": " + (e.getMessage() == null ? "Unable to resection student." : e.getMessage()), e, r.getAction());
 					if (tx != null) tx.rollback();
@@ -22,9 +22,15 @@ package org.unitime.timetable.onlinesectioning.updates;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 import org.unitime.timetable.model.Class_;
 import org.unitime.timetable.model.Location;
@@ -32,6 +38,8 @@ import org.unitime.timetable.model.SectioningInfo;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.server.AbstractServer;
+import org.unitime.timetable.onlinesectioning.server.ExpectedSpacesBacklog;
 
 /**
  * @author Tomas Muller
@@ -58,22 +66,52 @@ public class PersistExpectedSpacesAction implements OnlineSectioningAction<Boole
 
 	@Override
 	public Boolean execute(OnlineSectioningServer server, OnlineSectioningHelper helper) {
-		for (Long offeringId: getOfferingIds()) {
-			try {
-				helper.beginTransaction();
-				
-				persistExpectedSpaces(offeringId, true, server, helper);
-		    	
-		    	helper.commitTransaction();
-			} catch (Exception e) {
-				helper.rollbackTransaction();
-				helper.error(MSG.exceptionUnknown(e.getMessage()), e);
+		ExpectedSpacesBacklog backlog = getBacklog(server);
+		List<Long> offeringIds = new ArrayList<Long>(getOfferingIds());
+		int batchSize = Math.max(1, ApplicationProperty.OnlineSchedulingServerExpectedSpacesBatchSize.intValue());
+		for (int i = 0; i < offeringIds.size(); i += batchSize) {
+			List<Long> batch = offeringIds.subList(i, Math.min(i + batchSize, offeringIds.size()));
+			if (!persistExpectedSpaces(batch, server, helper, backlog) && batch.size() > 1) {
+				// batch has failed -> retry offering by offering, so that one failing offering does not prevent the others from being persisted
+				for (Long offeringId: batch)
+					persistExpectedSpaces(Collections.singletonList(offeringId), server, helper, backlog);
 			}
 		}
 		
 		return true;
 	}
 	
+	/** Backlog of the server (when it is an {@link AbstractServer}), null otherwise */
+	public static ExpectedSpacesBacklog getBacklog(OnlineSectioningServer server) {
+		return (server instanceof AbstractServer ? ((AbstractServer)server).getExpectedSpacesBacklog() : null);
+	}
+	
+	/**
+	 * Persist expected spaces of the given offerings using a separate transaction, the persisted expected spaces are recorded in the backlog once the transaction is committed
+	 * @return false if the transaction has failed
+	 */
+	protected static boolean persistExpectedSpaces(List<Long> offeringIds, OnlineSectioningServer server, OnlineSectioningHelper helper, ExpectedSpacesBacklog backlog) {
+		try {
+			helper.beginTransaction();
+			
+			Map<Long, Map<Long, Double>> persisted = persistExpectedSpaces(offeringIds, server, helper, backlog, true);
+			
+			helper.commitTransaction();
+			
+			if (backlog != null)
+				for (Map.Entry<Long, Map<Long, Double>> e: persisted.entrySet())
+					backlog.setPersisted(e.getKey(), e.getValue());
+			return true;
+		} catch (Exception e) {
+			helper.rollbackTransaction();
+			helper.error(MSG.exceptionUnknown(e.getMessage()), e);
+			if (backlog != null)
+				for (Long offeringId: offeringIds)
+					backlog.clearPersisted(offeringId);
+			return false;
+		}
+	}
+	
 	private static int getLimit(Class_ clazz) {
 		int limit = -1;
 		if (!clazz.getSchedulingSubpart().getInstrOfferingConfig().isUnlimitedEnrollment()) {
@@ -90,53 +128,154 @@ public class PersistExpectedSpacesAction implements OnlineSectioningAction<Boole
 		return limit;
 	}
 	
+	/**
+	 * Persist expected spaces of a single offering within the current transaction. The last persisted expected spaces of the offering are forgotten,
+	 * so that the next time the expected spaces are persisted, they are compared with the database again.
+	 */
 	public static void persistExpectedSpaces(Long offeringId, boolean needLock, OnlineSectioningServer server, OnlineSectioningHelper helper) {
-		Map<Long, Double> expectations = server.getExpectations(offeringId).toMap();
-		if (expectations == null || expectations.isEmpty()) return;
+		ExpectedSpacesBacklog backlog = getBacklog(server);
+		if (backlog != null) backlog.clearPersisted(offeringId);
+		persistExpectedSpaces(Collections.singletonList(offeringId), server, helper, backlog, false);
+	}
+	
+	/**
+	 * Persist expected spaces of the given offerings within the current transaction. When the last persisted expected spaces of an offering are known (see {@link ExpectedSpacesBacklog#getDelta(Long, Map)}),
+	 * only the changed sections are written. Otherwise, the expected spaces are compared with the database.
+	 * {@link SectioningInfo} records of all the changed sections are loaded, updated, inserted, or deleted at once.
+	 * @param useDelta use the last persisted expected spaces from the backlog (when available)
+	 * @return expected spaces of the offerings that have been written (to be recorded as persisted once the transaction is committed)
+	 */
+	protected static Map<Long, Map<Long, Double>> persistExpectedSpaces(List<Long> offeringIds, OnlineSectioningServer server, OnlineSectioningHelper helper, ExpectedSpacesBacklog backlog, boolean useDelta) {
+		Map<Long, Map<Long, Double>> persisted = new HashMap<Long, Map<Long, Double>>();
+		// section id -> new expected space (null when the section is no longer expected)
+		Map<Long, Double> changes = new HashMap<Long, Double>();
+		// offerings that need to be compared with the database
+		List<Long> compareOfferingIds = new ArrayList<Long>();
+		// changed sections of the offerings with known persisted expected spaces (section id -> offering id)
+		Map<Long, Long> deltaSections = new HashMap<Long, Long>();
+		int nrUnchanged = 0;
+		for (Long offeringId: offeringIds) {
+			Map<Long, Double> expectations = server.getExpectations(offeringId).toMap();
+			if (expectations == null || expectations.isEmpty()) continue;
+			Map<Long, Double> delta = (useDelta && backlog != null ? backlog.getDelta(offeringId, expectations) : null);
+			if (delta == null) {
+				compareOfferingIds.add(offeringId);
+				changes.putAll(expectations);
+			} else if (delta.isEmpty()) {
+				nrUnchanged ++;
+				continue;
+			} else {
+				changes.putAll(delta);
+				for (Long sectionId: delta.keySet())
+					deltaSections.put(sectionId, offeringId);
+			}
+			persisted.put(offeringId, expectations);
+		}
+		if (changes.isEmpty()) {
+			if (backlog != null) backlog.persisted(nrUnchanged, nrUnchanged, 0);
+			return persisted;
+		}
+		
+		int nrWritten = 0;
+		List<SectioningInfo> infos = new ArrayList<SectioningInfo>();
+		for (List<Long> ids: chunks(compareOfferingIds))
+			infos.addAll(helper.getHibSession().createQuery(
+	    			"select i from SectioningInfo i " +
+	    			"left join fetch i.clazz as c " +
+	    			"where i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.uniqueId in (:offeringIds)", SectioningInfo.class).
+	    			setParameterList("offeringIds", ids, Long.class).list());
+		for (List<Long> ids: chunks(deltaSections.keySet()))
+			infos.addAll(helper.getHibSession().createQuery(
+	    			"select i from SectioningInfo i " +
+	    			"left join fetch i.clazz as c " +
+	    			"where i.clazz.uniqueId in (:classIds)", SectioningInfo.class).
+	    			setParameterList("classIds", ids, Long.class).list());
+		// offerings whose records have been changed by a different writer
+		Set<Long> staleOfferingIds = new HashSet<Long>();
+		for (SectioningInfo info: infos) {
+			Long sectionId = info.getClazz().getUniqueId();
+			Long deltaOfferingId = deltaSections.remove(sectionId);
+			if (deltaOfferingId != null && !backlog.matchesPersisted(deltaOfferingId, sectionId, info.getNbrExpectedStudents()))
+				staleOfferingIds.add(deltaOfferingId);
+			Double expectation = changes.remove(sectionId);
+			if (expectation == null) {
+				helper.getHibSession().remove(info);
+				nrWritten ++;
+			} else if (update(info, expectation, helper)) {
+				nrWritten ++;
+			}
+		}
+		
+		for (Map.Entry<Long, Long> e: deltaSections.entrySet())
+			if (!backlog.matchesPersisted(e.getValue(), e.getKey(), null))
+				staleOfferingIds.add(e.getValue());
 		
-    	for (SectioningInfo info: helper.getHibSession().createQuery(
-    			"select i from SectioningInfo i " +
-    			"left join fetch i.clazz as c " +
-    			"where i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.uniqueId = :offeringId", SectioningInfo.class).
-    			setParameter("offeringId", offeringId).
-    			setCacheable(true).list()) {
-    		Double expectation = expectations.remove(info.getClazz().getUniqueId());
-    		if (expectation == null) {
-    			helper.getHibSession().remove(info);
-    		} else if (!expectation.equals(info.getNbrExpectedStudents())) {
-        		helper.debug(info.getClazz().getClassLabel(helper.getHibSession()) + ": expected " + sDF.format(expectation - info.getNbrExpectedStudents()));
-    			
-    			int limit = getLimit(info.getClazz());
-    			if (limit >= 0 && limit >= info.getNbrExpectedStudents() && limit < expectation)
-        			helper.debug(info.getClazz().getClassLabel(helper.getHibSession()) + ": become over-expected");
-        		if (limit >= 0 && limit < info.getNbrExpectedStudents() && limit >= expectation)
-        			helper.debug(info.getClazz().getClassLabel(helper.getHibSession()) + ": no longer over-expected");
-        		
-    			info.setNbrExpectedStudents(expectation);
-        		helper.getHibSession().merge(info);
-    		}
-    	}
-    	
-    	if (!expectations.isEmpty())
-        	for (Class_ clazz: helper.getHibSession().createQuery(
-        			"select c from Class_ c where c.schedulingSubpart.instrOfferingConfig.instructionalOffering.uniqueId = :offeringId", Class_.class).
-        			setParameter("offeringId", offeringId).
-        			setCacheable(true).list()) {
-        		Double expectation = expectations.remove(clazz.getUniqueId());
-        		if (expectation == null) continue;
-                SectioningInfo info = new SectioningInfo();
-                
-        		helper.debug(clazz.getClassLabel(helper.getHibSession()) + ": expected " + sDF.format(expectation) + " (new)");
-        		
-        		int limit = getLimit(clazz);
-        		if (limit >= 0 && limit < expectation)
-        			helper.debug(clazz.getClassLabel(helper.getHibSession()) + ": become over-expected");
-        		
-                info.setClazz(clazz);
-                info.setNbrExpectedStudents(expectation);
-                info.setNbrHoldingStudents(0.0);
-                helper.getHibSession().persist(info);
-    		}
+		if (!changes.isEmpty()) {
+			List<Class_> classes = new ArrayList<Class_>();
+			for (List<Long> ids: chunks(changes.keySet()))
+				classes.addAll(helper.getHibSession().createQuery(
+						"select c from Class_ c where c.uniqueId in (:classIds)", Class_.class).
+						setParameterList("classIds", ids, Long.class).list());
+			for (Class_ clazz: classes) {
+				Double expectation = changes.remove(clazz.getUniqueId());
+				if (expectation == null) continue;
+				SectioningInfo info = new SectioningInfo();
+				
+				helper.debug(clazz.getClassLabel(helper.getHibSession()) + ": expected " + sDF.format(expectation) + " (new)");
+				
+				int limit = getLimit(clazz);
+				if (limit >= 0 && limit < expectation)
+					helper.debug(clazz.getClassLabel(helper.getHibSession()) + ": become over-expected");
+				
+				info.setClazz(clazz);
+				info.setNbrExpectedStudents(expectation);
+				info.setNbrHoldingStudents(0.0);
+				helper.getHibSession().persist(info);
+				nrWritten ++;
+			}
+		}
+		
+		if (!staleOfferingIds.isEmpty()) {
+			// the remaining sections of these offerings may be out of date too -> compare them with the database the next time
+			helper.info("Expected spaces of " + staleOfferingIds.size() + " offerings have been changed by a different writer.");
+			for (Long offeringId: staleOfferingIds) {
+				persisted.remove(offeringId);
+				backlog.clearPersisted(offeringId);
+				backlog.add(offeringId);
+			}
+		}
+		
+		if (backlog != null) backlog.persisted(nrUnchanged + persisted.size(), nrUnchanged, nrWritten);
+		return persisted;
+	}
+	
+	private static boolean update(SectioningInfo info, Double expectation, OnlineSectioningHelper helper) {
+		if (expectation.equals(info.getNbrExpectedStudents())) return false;
+		helper.debug(info.getClazz().getClassLabel(helper.getHibSession()) + ": expected " + sDF.format(expectation - info.getNbrExpectedStudents()));
+		
+		int limit = getLimit(info.getClazz());
+		if (limit >= 0 && limit >= info.getNbrExpectedStudents() && limit < expectation)
+			helper.debug(info.getClazz().getClassLabel(helper.getHibSession()) + ": become over-expected");
+		if (limit >= 0 && limit < info.getNbrExpectedStudents() && limit >= expectation)
+			helper.debug(info.getClazz().getClassLabel(helper.getHibSession()) + ": no longer over-expected");
+		
+		info.setNbrExpectedStudents(expectation);
+		helper.getHibSession().merge(info);
+		return true;
+	}
+	
+	/** Split the given ids into lists of at most 1000 ids (to be used in an in clause) */
+	private static List<List<Long>> chunks(Collection<Long> ids) {
+		List<List<Long>> chunks = new ArrayList<List<Long>>();
+		List<Long> chunk = null;
+		for (Long id: ids) {
+			if (chunk == null || chunk.size() >= 1000) {
+				chunk = new ArrayList<Long>();
+				chunks.add(chunk);
+			}
+			chunk.add(id);
+		}
+		return chunks;
 	}
 	
 	@Override
@@ -31,10 +31,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cpsolver.coursett.constraint.GroupConstraint;
 import org.cpsolver.coursett.constraint.IgnoreStudentConflictsConstraint;
+import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 import org.unitime.timetable.gwt.shared.OnlineSectioningInterface.WaitListMode;
@@ -67,6 +70,9 @@ import org.unitime.timetable.onlinesectioning.model.XSchedulingRules;
 import org.unitime.timetable.onlinesectioning.model.XSection;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
+import org.unitime.timetable.onlinesectioning.server.AbstractLockingServer;
+import org.unitime.timetable.onlinesectioning.server.ExpectedSpacesBacklog;
+import org.unitime.timetable.onlinesectioning.server.OnlineSectioningServerSnapshot;
 import org.unitime.timetable.solver.TimetableDatabaseLoader;
 
 /**
@@ -75,6 +81,18 @@ import org.unitime.timetable.solver.TimetableDatabaseLoader;
 public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 	private static final long serialVersionUID = 1L;
 	private static StudentSectioningMessages MSG = Localization.create(StudentSectioningMessages.class);
+	private boolean iUseSnapshot = false;
+	
+	/**
+	 * Restore the data from the server snapshot when there is one (see {@link OnlineSectioningServerSnapshot}), used when the server is being started.
+	 * When the data are restored, the server property Snapshot.Restored is set to true.
+	 */
+	public ReloadAllData useSnapshot(boolean useSnapshot) {
+		iUseSnapshot = useSnapshot;
+		return this;
+	}
+	
+	public boolean isUseSnapshot() { return iUseSnapshot; }
 
 	@Override
 	public Boolean execute(final OnlineSectioningServer server, OnlineSectioningHelper helper) {
@@ -92,6 +110,29 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 				helper.setExternalClassNameHelper(Class_.getExternalClassNameHelper());
 		}
 
+		server.setProperty("Snapshot.Restored", Boolean.FALSE);
+		if (isUseSnapshot() && OnlineSectioningServerSnapshot.isEnabled()) {
+			helper.beginTransaction();
+			try {
+				boolean restored = OnlineSectioningServerSnapshot.restore(server, helper);
+				helper.commitTransaction();
+				if (restored) {
+					// the expected spaces come from the snapshot, compare them with the database the next time they are persisted
+					ExpectedSpacesBacklog backlog = PersistExpectedSpacesAction.getBacklog(server);
+					if (backlog != null) backlog.clearPersisted();
+					server.setProperty("Snapshot.Restored", Boolean.TRUE);
+					return true;
+				}
+			} catch (Exception e) {
+				helper.rollbackTransaction();
+				helper.warn("Failed to restore " + server.getAcademicSession() + " from a snapshot: " + e.getMessage(), e);
+			}
+		}
+
+		int nrThreads = ApplicationProperty.OnlineSchedulingServerReloadThreads.intValue();
+		if (nrThreads > 1)
+			return executeInParallel(server, helper, nrThreads, Math.max(1, ApplicationProperty.OnlineSchedulingServerReloadChunkSize.intValue()));
+
 		Lock lock = server.lockAll();
 		try {
 			helper.beginTransaction();
@@ -101,35 +142,7 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 				server.clearAll();
 				server.setSchedulingRules(new XSchedulingRules(server.getAcademicSession(), helper.getHibSession()));
 
-				Map<Long, List<XDistribution>> distributions = new Hashtable<Long, List<XDistribution>>();
-		    	List<DistributionPref> distPrefs = helper.getHibSession().createQuery(
-		        		"select p from DistributionPref p, Department d where p.distributionType.reference in (:ref1, :ref2) and d.session.uniqueId = :sessionId" +
-		        		" and p.owner = d and p.prefLevel.prefProlog = :pref", DistributionPref.class)
-		        		.setParameter("ref1", GroupConstraint.ConstraintType.LINKED_SECTIONS.reference())
-		        		.setParameter("ref2", IgnoreStudentConflictsConstraint.REFERENCE)
-		        		.setParameter("pref", PreferenceLevel.sRequired)
-		        		.setParameter("sessionId", server.getAcademicSession().getUniqueId())
-		        		.list();
-		        if (!distPrefs.isEmpty()) {
-		        	for (DistributionPref pref: distPrefs) {
-		        		int variant = 0;
-		        		for (Collection<Class_> sections: getSections(pref)) {
-		        			XDistributionType type = XDistributionType.IngoreConflicts;
-		        			if (GroupConstraint.ConstraintType.LINKED_SECTIONS.reference().equals(pref.getDistributionType().getReference()))
-		        				type = XDistributionType.LinkedSections;
-		        			XDistribution distribution = new XDistribution(type, pref.getUniqueId(), variant++, sections);
-		        			for (Long offeringId: distribution.getOfferingIds()) {
-		        				List<XDistribution> list = distributions.get(offeringId);
-		        				if (list == null) {
-		        					list = new ArrayList<XDistribution>();
-		        					distributions.put(offeringId, list);
-		        				}
-		        				list.add(distribution);
-		        			}
-		        				
-		        		}
-		        	}
-		        }
+				Map<Long, List<XDistribution>> distributions = loadDistributions(server, helper);
 		        
 				Map<Long, XOffering> offeringMap = new HashMap<Long, XOffering>();
 				Map<Long, XSection> sectionMap = new HashMap<Long, XSection>();
@@ -176,19 +189,7 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 	            		server.update(s, true);
 	            }
 				
-		    	List<Object[]> infos = helper.getHibSession().createQuery(
-		    			"select i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.uniqueId, i.clazz.uniqueId, i.nbrExpectedStudents from SectioningInfo i where i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId",
-		    			Object[].class)
-		    			.setParameter("sessionId", server.getAcademicSession().getUniqueId())
-		    			.list();
-		    	for (Object[] info : infos) {
-		    		Long offeringId = (Long)info[0];
-		    		Long sectionId = (Long)info[1];
-		    		Double expected = (Double)info[2];
-		    		Map<Long, Double> space = spaceMap.get(offeringId);
-		    		if (space != null)
-		    			space.put(sectionId, expected);
-		    	}
+	            loadExpectedSpaces(spaceMap, server, helper);
 		    	for (Map.Entry<Long, Map<Long, Double>> entry: spaceMap.entrySet())
 		    		server.update(new XExpectations(entry.getKey(), entry.getValue()));
 		        
@@ -208,6 +209,317 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 		}		
 	}
 	
+	/**
+	 * Reload all the data using multiple threads. The offerings and then the students are split into chunks of consecutive unique ids,
+	 * each chunk is loaded by one of the threads using its own (read-only) hibernate session and transaction. All the students and offerings
+	 * are locked while the data are being loaded (see {@link AbstractLockingServer#lockAllIds()}), so that no changes made in the meantime
+	 * can get lost, but the readers are not blocked. The old data are replaced by the new ones at once at the end
+	 * (see {@link OnlineSectioningServer#replaceAll(XSchedulingRules, Collection, Collection, Collection)}).
+	 * Reservations of the existing enrollments are guessed only after all the students are loaded, in the order of their unique ids.
+	 * Wait-lists are reset after the data have been replaced, all in the transaction of the given helper.
+	 */
+	protected Boolean executeInParallel(final OnlineSectioningServer server, final OnlineSectioningHelper helper, int nrThreads, int chunkSize) {
+		Lock lock = (server instanceof AbstractLockingServer ? ((AbstractLockingServer)server).lockAllIds() : server.lockAll());
+		try {
+			return executeInParallelLocked(server, helper, nrThreads, chunkSize);
+		} finally {
+			lock.release();
+		}
+	}
+	
+	private Boolean executeInParallelLocked(final OnlineSectioningServer server, final OnlineSectioningHelper helper, int nrThreads, int chunkSize) {
+		helper.beginTransaction();
+		try {
+			helper.info("Updating course infos and the student sectining model for session " + server.getAcademicSession() + " using " + nrThreads + " threads");
+			long t0 = System.currentTimeMillis();
+			XSchedulingRules rules = new XSchedulingRules(server.getAcademicSession(), helper.getHibSession());
+			final Map<Long, List<XDistribution>> distributions = loadDistributions(server, helper);
+			
+			List<Long> offeringIds = helper.getHibSession().createQuery(
+					"select distinct io.uniqueId from InstructionalOffering io " +
+					"left join io.courseOfferings co " +
+					"where io.session.uniqueId = :sessionId and io.notOffered = false and co.subjectArea.department.allowStudentScheduling = true " +
+					"order by io.uniqueId", Long.class)
+					.setParameter("sessionId", server.getAcademicSession().getUniqueId()).list();
+			final Map<Long, XOffering> offeringMap = new ConcurrentHashMap<Long, XOffering>();
+			loadInChunks(server, helper, offeringIds, nrThreads, chunkSize, new ChunkLoader() {
+				@Override
+				public void load(OnlineSectioningHelper h, Long firstId, Long lastId) {
+					List<InstructionalOffering> offerings = h.getHibSession().createQuery(
+							"select distinct io from InstructionalOffering io " +
+							"left join io.courseOfferings co " +
+							"left join fetch io.instrOfferingConfigs cf " +
+							"left join fetch cf.schedulingSubparts ss " +
+							"left join fetch ss.classes as c "+
+							"left join fetch io.reservations x " +
+							"where io.session.uniqueId = :sessionId and io.notOffered = false and co.subjectArea.department.allowStudentScheduling = true " +
+							"and io.uniqueId between :firstId and :lastId",
+							InstructionalOffering.class)
+							.setParameter("sessionId", server.getAcademicSession().getUniqueId())
+							.setParameter("firstId", firstId).setParameter("lastId", lastId).list();
+					for (InstructionalOffering io: offerings) {
+						XOffering offering = loadOffering(io, distributions.get(io.getUniqueId()), server, h);
+						if (offering != null)
+							offeringMap.put(offering.getOfferingId(), offering);
+					}
+				}
+			});
+			long t1 = System.currentTimeMillis();
+			helper.info("  Loaded " + offeringMap.size() + " offerings in " + new DecimalFormat("0.0").format((t1 - t0) / 1000.0) + " seconds.");
+			
+			List<Long> studentIds = helper.getHibSession().createQuery(
+					"select s.uniqueId from Student s where s.session.uniqueId = :sessionId order by s.uniqueId", Long.class)
+					.setParameter("sessionId", server.getAcademicSession().getUniqueId()).list();
+			final Map<Long, XStudent> studentMap = new ConcurrentHashMap<Long, XStudent>();
+			final Set<Long> waitListStudentIds = ConcurrentHashMap.newKeySet();
+			loadInChunks(server, helper, studentIds, nrThreads, chunkSize, new ChunkLoader() {
+				@Override
+				public void load(OnlineSectioningHelper h, Long firstId, Long lastId) {
+					List<org.unitime.timetable.model.Student> students = h.getHibSession().createQuery(
+		                    "select distinct s from Student s " +
+		                    "left join fetch s.courseDemands as cd " +
+		                    "left join fetch cd.courseRequests as cr " +
+		                    "left join fetch cr.classWaitLists as cwl " + 
+		                    "left join fetch s.classEnrollments as e " +
+		                    "left join fetch s.areaClasfMajors as acm " +
+		                    "left join fetch s.waitlists as w " +
+		                    "left join fetch s.groups as g " +
+		                    "left join fetch s.notes as n " +
+		                    "where s.session.uniqueId = :sessionId and s.uniqueId between :firstId and :lastId", org.unitime.timetable.model.Student.class)
+							.setParameter("sessionId", server.getAcademicSession().getUniqueId())
+							.setParameter("firstId", firstId).setParameter("lastId", lastId).list();
+					for (org.unitime.timetable.model.Student student: students) {
+						XStudent s = loadStudent(student, null, offeringMap::get, server, h, null, false);
+						if (s != null)
+							studentMap.put(s.getStudentId(), s);
+						if (student.getWaitListMode() == WaitListMode.WaitList)
+							waitListStudentIds.add(student.getUniqueId());
+					}
+				}
+			});
+			
+			Map<Long, List<XCourseRequest>> requestMap = new HashMap<Long, List<XCourseRequest>>();
+			List<XStudent> students = new ArrayList<XStudent>(studentMap.size());
+			for (Long studentId: studentIds) {
+				XStudent student = studentMap.get(studentId);
+				if (student == null) continue;
+				guessReservations(student, requestMap, offeringMap::get);
+				students.add(student);
+			}
+			long t2 = System.currentTimeMillis();
+			helper.info("  Loaded " + students.size() + " students in " + new DecimalFormat("0.0").format((t2 - t1) / 1000.0) + " seconds.");
+			
+			List<XOffering> offerings = new ArrayList<XOffering>(offeringMap.size());
+			Map<Long, Map<Long, Double>> spaceMap = new HashMap<Long, Map<Long,Double>>();
+			for (Long offeringId: offeringIds) {
+				XOffering offering = offeringMap.get(offeringId);
+				if (offering == null) continue;
+				offerings.add(offering);
+				spaceMap.put(offeringId, new HashMap<Long, Double>());
+			}
+			loadExpectedSpaces(spaceMap, server, helper);
+			List<XExpectations> expectations = new ArrayList<XExpectations>(spaceMap.size());
+			for (Map.Entry<Long, Map<Long, Double>> entry: spaceMap.entrySet())
+				expectations.add(new XExpectations(entry.getKey(), entry.getValue()));
+			
+			server.replaceAll(rules, offerings, students, expectations);
+			
+			if (!waitListStudentIds.isEmpty()) {
+				List<Long> ids = new ArrayList<Long>(waitListStudentIds);
+				Collections.sort(ids);
+				for (int i = 0; i < ids.size(); i += chunkSize) {
+					for (org.unitime.timetable.model.Student student: helper.getHibSession().createQuery(
+							"select s from Student s where s.uniqueId in :studentIds", org.unitime.timetable.model.Student.class)
+							.setParameterList("studentIds", ids.subList(i, Math.min(i + chunkSize, ids.size())), Long.class).list()) {
+						student.resetWaitLists(WaitList.WaitListType.RELOAD, helper.getUser().getExternalId(), null, helper.getHibSession());
+					}
+					helper.getHibSession().flush();
+				}
+			}
+			
+			long t3 = System.currentTimeMillis();
+			helper.info("  Update of session " + server.getAcademicSession() + " done " + new DecimalFormat("0.0").format((t3 - t0) / 1000.0) + " seconds.");
+			
+			helper.commitTransaction();
+			return true;
+		} catch (Exception e) {
+			helper.rollbackTransaction();
+			if (e instanceof SectioningException)
+				throw (SectioningException)e;
+			throw new SectioningException(MSG.exceptionUnknown(e.getMessage()), e);
+		}
+	}
+	
+	protected static Map<Long, List<XDistribution>> loadDistributions(OnlineSectioningServer server, OnlineSectioningHelper helper) {
+		Map<Long, List<XDistribution>> distributions = new Hashtable<Long, List<XDistribution>>();
+    	List<DistributionPref> distPrefs = helper.getHibSession().createQuery(
+        		"select p from DistributionPref p, Department d where p.distributionType.reference in (:ref1, :ref2) and d.session.uniqueId = :sessionId" +
+        		" and p.owner = d and p.prefLevel.prefProlog = :pref", DistributionPref.class)
+        		.setParameter("ref1", GroupConstraint.ConstraintType.LINKED_SECTIONS.reference())
+        		.setParameter("ref2", IgnoreStudentConflictsConstraint.REFERENCE)
+        		.setParameter("pref", PreferenceLevel.sRequired)
+        		.setParameter("sessionId", server.getAcademicSession().getUniqueId())
+        		.list();
+        if (!distPrefs.isEmpty()) {
+        	for (DistributionPref pref: distPrefs) {
+        		int variant = 0;
+        		for (Collection<Class_> sections: getSections(pref)) {
+        			XDistributionType type = XDistributionType.IngoreConflicts;
+        			if (GroupConstraint.ConstraintType.LINKED_SECTIONS.reference().equals(pref.getDistributionType().getReference()))
+        				type = XDistributionType.LinkedSections;
+        			XDistribution distribution = new XDistribution(type, pref.getUniqueId(), variant++, sections);
+        			for (Long offeringId: distribution.getOfferingIds()) {
+        				List<XDistribution> list = distributions.get(offeringId);
+        				if (list == null) {
+        					list = new ArrayList<XDistribution>();
+        					distributions.put(offeringId, list);
+        				}
+        				list.add(distribution);
+        			}
+        				
+        		}
+        	}
+        }
+        return distributions;
+	}
+	
+	protected static void loadExpectedSpaces(Map<Long, Map<Long, Double>> spaceMap, OnlineSectioningServer server, OnlineSectioningHelper helper) {
+    	List<Object[]> infos = helper.getHibSession().createQuery(
+    			"select i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.uniqueId, i.clazz.uniqueId, i.nbrExpectedStudents from SectioningInfo i where i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId",
+    			Object[].class)
+    			.setParameter("sessionId", server.getAcademicSession().getUniqueId())
+    			.list();
+    	for (Object[] info : infos) {
+    		Long offeringId = (Long)info[0];
+    		Long sectionId = (Long)info[1];
+    		Double expected = (Double)info[2];
+    		Map<Long, Double> space = spaceMap.get(offeringId);
+    		if (space != null)
+    			space.put(sectionId, expected);
+    	}
+    	// remember what is in the database, so that only the changes need to be persisted
+    	ExpectedSpacesBacklog backlog = PersistExpectedSpacesAction.getBacklog(server);
+    	if (backlog != null) {
+    		backlog.clearPersisted();
+    		for (Map.Entry<Long, Map<Long, Double>> entry: spaceMap.entrySet())
+    			backlog.setPersisted(entry.getKey(), entry.getValue());
+    	}
+	}
+	
+	/**
+	 * Split the given (sorted) unique ids into chunks of the given size and load them using the given number of threads.
+	 * The first exception thrown by a loader is re-thrown (no more chunks are loaded once a loader has failed).
+	 * When the calling thread is interrupted, the workers are stopped and the {@link InterruptedException} is thrown.
+	 */
+	protected static void loadInChunks(OnlineSectioningServer server, OnlineSectioningHelper helper, List<Long> ids, int nrThreads, int chunkSize, ChunkLoader loader) throws Exception {
+		List<Long[]> chunks = new ArrayList<Long[]>();
+		for (int i = 0; i < ids.size(); i += chunkSize)
+			chunks.add(new Long[] { ids.get(i), ids.get(Math.min(i + chunkSize, ids.size()) - 1) });
+		if (chunks.isEmpty()) return;
+		Iterator<Long[]> iterator = chunks.iterator();
+		List<Exception> errors = new ArrayList<Exception>();
+		List<ChunkWorker> workers = new ArrayList<ChunkWorker>();
+		for (int i = 0; i < Math.min(nrThreads, chunks.size()); i++)
+			workers.add(new ChunkWorker(i, server, helper, iterator, loader, errors));
+		for (ChunkWorker worker: workers) worker.start();
+		for (ChunkWorker worker: workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				// no more chunks are loaded, the partially loaded data must not be used
+				synchronized (errors) {
+					errors.add(e);
+				}
+				for (ChunkWorker w: workers) w.interrupt();
+				throw e;
+			}
+		}
+		synchronized (errors) {
+			if (!errors.isEmpty()) throw errors.get(0);
+		}
+	}
+	
+	protected static interface ChunkLoader {
+		/** Load offerings or students with the unique id between firstId and lastId (both inclusive) */
+		public void load(OnlineSectioningHelper helper, Long firstId, Long lastId);
+	}
+	
+	protected static class ChunkWorker extends Thread {
+		private OnlineSectioningServer iServer;
+		private OnlineSectioningHelper iParent;
+		private Iterator<Long[]> iChunks;
+		private ChunkLoader iLoader;
+		private List<Exception> iErrors;
+		
+		public ChunkWorker(int index, OnlineSectioningServer server, OnlineSectioningHelper parent, Iterator<Long[]> chunks, ChunkLoader loader, List<Exception> errors) {
+			setName("ReloadAllData-" + server.getAcademicSession().toCompactString() + "-" + (1 + index));
+			setDaemon(true);
+			iServer = server;
+			iParent = parent;
+			iChunks = chunks;
+			iLoader = loader;
+			iErrors = errors;
+		}
+		
+		/**
+		 * Helper with its own hibernate session, messages are passed on to the parent helper
+		 */
+		protected OnlineSectioningHelper createHelper() {
+			OnlineSectioningHelper helper = new OnlineSectioningHelper(iParent.getUser(), iParent.getCacheMode());
+			helper.setGradableSubpartsProvider(iParent.getGradableSubpartsProvider());
+			helper.setExternalClassNameHelper(iParent.getExternalClassNameHelper());
+			helper.addMessageHandler(new OnlineSectioningHelper.MessageHandler() {
+				@Override
+				public void onMessage(OnlineSectioningHelper.Message message) {
+					if (message.getLevel() == OnlineSectioningHelper.LogLevel.DEBUG) return;
+					synchronized (iParent) {
+						iParent.log(message);
+					}
+				}
+				
+				@Override
+				public boolean isDebugEnabled() {
+					return false;
+				}
+			});
+			return helper;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				ApplicationProperties.setSessionId(iServer.getAcademicSession().getUniqueId());
+				OnlineSectioningHelper helper = createHelper();
+				while (true) {
+					Long[] chunk = null;
+					synchronized (iChunks) {
+						if (!iChunks.hasNext()) break;
+						chunk = iChunks.next();
+					}
+					synchronized (iErrors) {
+						if (!iErrors.isEmpty()) break;
+					}
+					helper.beginTransaction();
+					try {
+						iLoader.load(helper, chunk[0], chunk[1]);
+						helper.commitTransaction();
+						helper.getHibSession().clear();
+					} catch (Exception e) {
+						helper.rollbackTransaction();
+						synchronized (iErrors) {
+							iErrors.add(e);
+						}
+						break;
+					}
+				}
+			} finally {
+				ApplicationProperties.setSessionId(null);
+				HibernateUtil.closeCurrentThreadSessions();
+			}
+		}
+	}
+	
     public static XOffering loadOffering(InstructionalOffering io, List<XDistribution> distributions, OnlineSectioningServer server, OnlineSectioningHelper helper) {
     	if (io.getInstrOfferingConfigs().isEmpty() || io.isNotOffered()) return null;
     	return new XOffering(io, distributions, helper);
@@ -218,6 +530,14 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
     }
     
     public static XStudent loadStudent(org.unitime.timetable.model.Student s, Map<Long, List<XCourseRequest>> requestMap, OnlineSectioningServer server, OnlineSectioningHelper helper, WaitList.WaitListType resetWaitListType) {
+    	return loadStudent(s, requestMap, server::getOffering, server, helper, resetWaitListType, true);
+    }
+    
+    /**
+     * Load student, using the given offering provider instead of the server to look up the offerings.
+     * When guessReservations is false, the reservations of the existing enrollments are not guessed (see {@link ReloadAllData#guessReservations(XStudent, Map, OfferingProvider)}).
+     */
+    public static XStudent loadStudent(org.unitime.timetable.model.Student s, Map<Long, List<XCourseRequest>> requestMap, OfferingProvider offerings, OnlineSectioningServer server, OnlineSectioningHelper helper, WaitList.WaitListType resetWaitListType, boolean guessReservations) {
     	XStudent student = new XStudent(s, helper, server.getAcademicSession().getFreeTimePattern(), server.getAcademicSession().getDatePatternFirstDate());
     	
     	for (Iterator<XRequest> i = student.getRequests().iterator(); i.hasNext(); ) {
@@ -227,7 +547,7 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
     			XCourseRequest courseRequest = (XCourseRequest)request;
     			for (Iterator<XCourseId> j = courseRequest.getCourseIds().iterator(); j.hasNext(); ) {
     				XCourseId course = j.next();
-    				XOffering offering = server.getOffering(course.getOfferingId());
+    				XOffering offering = offerings.get(course.getOfferingId());
                     if (offering == null) {
                     	helper.warn("Student " + helper.getStudentNameFormat().format(s) + " (" + s.getExternalUniqueId() + ") requests course " + course.getCourseName() + " that is not loaded.");
                     	j.remove();
@@ -239,17 +559,11 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
     			}
     			XEnrollment enrollment = courseRequest.getEnrollment();
     			if (enrollment != null) {
-    				XOffering offering = server.getOffering(enrollment.getOfferingId());
+    				XOffering offering = offerings.get(enrollment.getOfferingId());
     				
-    				if (!offering.getReservations().isEmpty()) {
+    				if (guessReservations && !offering.getReservations().isEmpty()) {
         				if (requestMap != null) {
-        					List<XCourseRequest> assigned = requestMap.get(enrollment.getOfferingId());
-        					if (assigned == null) {
-        						assigned = new ArrayList<XCourseRequest>();
-        						requestMap.put(enrollment.getOfferingId(), assigned);
-            				}
-            				enrollment.setReservation(offering.guessReservation(assigned, student, enrollment));
-        					assigned.add(courseRequest);
+        					guessReservation(student, courseRequest, offering, requestMap);
         				} else {
         					enrollment.setReservation(offering.guessReservation(server.getRequests(enrollment.getOfferingId()), student, enrollment));
         				}
@@ -294,6 +608,34 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
         return student;
     }
     
+    private static void guessReservation(XStudent student, XCourseRequest courseRequest, XOffering offering, Map<Long, List<XCourseRequest>> requestMap) {
+    	XEnrollment enrollment = courseRequest.getEnrollment();
+		List<XCourseRequest> assigned = requestMap.get(enrollment.getOfferingId());
+		if (assigned == null) {
+			assigned = new ArrayList<XCourseRequest>();
+			requestMap.put(enrollment.getOfferingId(), assigned);
+		}
+		enrollment.setReservation(offering.guessReservation(assigned, student, enrollment));
+		assigned.add(courseRequest);
+    }
+    
+    /**
+     * Guess reservations of the existing enrollments of a student that has been loaded with guessReservations set to false.
+     * The request map contains the already processed course requests of each offering.
+     */
+    public static void guessReservations(XStudent student, Map<Long, List<XCourseRequest>> requestMap, OfferingProvider offerings) {
+    	for (XRequest request: student.getRequests()) {
+    		if (request instanceof XCourseRequest) {
+    			XCourseRequest courseRequest = (XCourseRequest)request;
+    			XEnrollment enrollment = courseRequest.getEnrollment();
+    			if (enrollment == null) continue;
+    			XOffering offering = offerings.get(enrollment.getOfferingId());
+    			if (offering != null && !offering.getReservations().isEmpty())
+    				guessReservation(student, courseRequest, offering, requestMap);
+    		}
+    	}
+    }
+    
     public static XStudent loadStudentNoCheck(org.unitime.timetable.model.Student s, OnlineSectioningServer server, OnlineSectioningHelper helper) {
     	XStudent student = new XStudent(s, helper, server.getAcademicSession().getFreeTimePattern(), server.getAcademicSession().getDatePatternFirstDate());
     	
@@ -448,6 +790,10 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 	public static interface SectionProvider{
 		public XSection get(Class_ clazz);
 	}
+	
+	public static interface OfferingProvider {
+		public XOffering get(Long offeringId);
+	}
     
 	@Override
     public String name() { return "reload-all"; }
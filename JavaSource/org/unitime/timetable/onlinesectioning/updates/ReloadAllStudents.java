@@ -32,6 +32,7 @@ import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.Lock;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.server.ExpectedSpacesBacklog;
 
 /**
  * @author Tomas Muller
@@ -47,6 +48,10 @@ public class ReloadAllStudents extends ReloadAllData {
 			helper.beginTransaction();
 			try {
 				server.clearAllStudents();
+				// the students (and the expected spaces) may have been changed by a different writer, e.g., the batch student scheduling solver:
+				// forget the last persisted expected spaces, so that they are compared with the database the next time they are persisted
+				ExpectedSpacesBacklog backlog = PersistExpectedSpacesAction.getBacklog(server);
+				if (backlog != null) backlog.clearPersisted();
 				
 		        Map<Long, List<XCourseRequest>> requestMap = new HashMap<Long, List<XCourseRequest>>();
 				List<org.unitime.timetable.model.Student> students = helper.getHibSession().createQuery(
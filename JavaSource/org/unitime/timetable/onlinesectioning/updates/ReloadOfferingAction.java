@@ -83,6 +83,7 @@ import org.unitime.timetable.onlinesectioning.model.XSection;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
 import org.unitime.timetable.onlinesectioning.model.XTime;
+import org.unitime.timetable.onlinesectioning.server.ExpectedSpacesBacklog;
 import org.unitime.timetable.onlinesectioning.solver.SectioningRequest;
 import org.unitime.timetable.onlinesectioning.solver.SectioningRequest.ReschedulingReason;
 import org.unitime.timetable.onlinesectioning.solver.SectioningRequestComparator;
@@ -275,6 +276,8 @@ public class ReloadOfferingAction extends WaitlistedOnlineSectioningAction<Boole
         		expectations.setExpectedSpace(sectionId, expected);
         	}
         	server.update(expectations);
+        	ExpectedSpacesBacklog backlog = PersistExpectedSpacesAction.getBacklog(server);
+        	if (backlog != null) backlog.clearPersisted(offeringId);
 		} else if (oldOffering != null) {
 			server.remove(oldOffering);
 		}
@@ -774,7 +777,7 @@ public class ReloadOfferingAction extends WaitlistedOnlineSectioningAction<Boole
 				} catch (Exception ex) {
 					if (dropEnrollment != null)
 						server.assign(r.getDropRequest(), dropEnrollment);
-					server.assign(r.getRequest(), r.getLastEnrollment());
+					r.setRequest(server.assign(r.getRequest(), r.getLastEnrollment()));
 					r.getAction().setResult(OnlineSectioningLog.Action.ResultType.FAILURE);
 					helper.error((r.getCourseId() == null ? newOffering.getName() : r.getCourseId().getCourseName()) + ": " + (ex.getMessage() == null ? "Unable to resection student." : ex.getMessage()), ex, r.getAction());
 					if (tx != null) tx.rollback();
@@ -92,7 +92,7 @@ public class ConflictsByCourseAndInstructorReport extends PdfLegacyExamReport {
                 for (ExamInstructorInfo instructor : exam.getInstructors()) {
                     iStudentPrinted = false;
                     if (iDirect) for (DirectConflict conflict : exam.getInstructorDirectConflicts()) {
-                        if (!conflict.getStudents().contains(instructor.getId())) continue;
+                        if (!conflict.hasStudent(instructor.getId())) continue;
                         iPeriodPrinted = false;
                         if (conflict.getOtherExam()!=null) {
                             for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
@@ -149,7 +149,7 @@ public class ConflictsByCourseAndInstructorReport extends PdfLegacyExamReport {
                         }
                     }
                     if (iM2d) for (MoreThanTwoADayConflict conflict : exam.getInstructorMoreThanTwoADaysConflicts()) {
-                        if (!conflict.getStudents().contains(instructor.getId())) continue;
+                        if (!conflict.hasStudent(instructor.getId())) continue;
                         iPeriodPrinted = false;
                         for (ExamAssignment otherExam : conflict.getOtherExams()) {
                             if (!otherExam.getInstructors().contains(instructor)) continue;
@@ -174,7 +174,7 @@ public class ConflictsByCourseAndInstructorReport extends PdfLegacyExamReport {
                         }
                     }
                     if (iBtb) for (BackToBackConflict conflict : exam.getInstructorBackToBackConflicts()) {
-                        if (!conflict.getStudents().contains(instructor.getId())) continue;
+                        if (!conflict.hasStudent(instructor.getId())) continue;
                         iPeriodPrinted = false;
                         for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
                             if (!conflict.getOtherExam().getInstructors().contains(instructor)) continue;
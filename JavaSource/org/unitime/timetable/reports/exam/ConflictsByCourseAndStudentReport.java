@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.TreeSet;
 import java.util.Vector;
 
@@ -50,15 +51,24 @@ import com.lowagie.text.DocumentException;
  */
 public class ConflictsByCourseAndStudentReport extends PdfLegacyExamReport {
     protected static Log sLog = LogFactory.getLog(ConflictsByCourseAndStudentReport.class);
-    Hashtable<Long,String> iStudentNames = new Hashtable();
+    Map<Long,String> iStudentNames = null;
     
     public ConflictsByCourseAndStudentReport(int mode, File file, Session session, ExamType examType, Collection<SubjectArea> subjectAreas, Collection<ExamAssignmentInfo> exams) throws IOException, DocumentException {
         super(mode, file, MSG.legacyReportConflictsByCourseAndStudent(), session, examType, subjectAreas, exams);
+    }
+    
+    private void generateCache() {
+        if (iStudentNames!=null) return;
+        if (getSnapshot()!=null) {
+            iStudentNames = getSnapshot().getStudentNames();
+            return;
+        }
+        iStudentNames = new Hashtable();
         sLog.debug(MSG.statusLoadingStudents());
         for (Object[] o: StudentDAO.getInstance().getSession().createQuery(
         		"select s.uniqueId, s.externalUniqueId, s.lastName, s.firstName, s.middleName from Student s where s.session.uniqueId=:sessionId",
         		Object[].class)
-        		.setParameter("sessionId", session.getUniqueId()).list()) {
+        		.setParameter("sessionId", getSession().getUniqueId()).list()) {
             if (o[2]!=null)
                 iStudentNames.put((Long)o[0], (String)o[2]+(o[3]==null?"":" "+(String)o[3])+(o[4]==null?"":" "+(String)o[4]));
             else if (o[1]!=null)
@@ -69,6 +79,7 @@ public class ConflictsByCourseAndStudentReport extends PdfLegacyExamReport {
     }
 
     public void printReport() throws DocumentException {
+        generateCache();
         sLog.debug(MSG.statusSortingSections());
         Hashtable<String,TreeSet<ExamSectionInfo>> subject2courseSections = new Hashtable();
         for (ExamAssignmentInfo exam : getExams()) {
@@ -116,7 +127,7 @@ public class ConflictsByCourseAndStudentReport extends PdfLegacyExamReport {
                 for (Long studentId : students) {
                     iStudentPrinted = false;
                     if (iDirect) for (DirectConflict conflict : exam.getDirectConflicts()) {
-                        if (!conflict.getStudents().contains(studentId)) continue;
+                        if (!conflict.hasStudent(studentId)) continue;
                         iPeriodPrinted = false;
                         if (conflict.getOtherExam()!=null) {
                             for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
@@ -173,7 +184,7 @@ public class ConflictsByCourseAndStudentReport extends PdfLegacyExamReport {
                         }
                     }
                     if (iM2d) for (MoreThanTwoADayConflict conflict : exam.getMoreThanTwoADaysConflicts()) {
-                        if (!conflict.getStudents().contains(studentId)) continue;
+                        if (!conflict.hasStudent(studentId)) continue;
                         iPeriodPrinted = false;
                         for (ExamAssignment otherExam : conflict.getOtherExams()) {
                             for (ExamSectionInfo other : otherExam.getSectionsIncludeCrosslistedDummies()) {
@@ -198,7 +209,7 @@ public class ConflictsByCourseAndStudentReport extends PdfLegacyExamReport {
                         }
                     }
                     if (iBtb) for (BackToBackConflict conflict : exam.getBackToBackConflicts()) {
-                        if (!conflict.getStudents().contains(studentId)) continue;
+                        if (!conflict.hasStudent(studentId)) continue;
                         iPeriodPrinted = false;
                         for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
                             if (!other.getStudentIds().contains(studentId)) continue;
@@ -236,7 +247,7 @@ public class ConflictsByCourseAndStudentReport extends PdfLegacyExamReport {
                         for (Long studentId : students) {
                             iStudentPrinted = false;
                             if (iDirect) for (DirectConflict conflict : exam.getDirectConflicts()) {
-                                if (!conflict.getStudents().contains(studentId)) continue;
+                                if (!conflict.hasStudent(studentId)) continue;
                                 iPeriodPrinted = false;
                                 if (conflict.getOtherExam()!=null) {
                                     for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
@@ -312,7 +323,7 @@ public class ConflictsByCourseAndStudentReport extends PdfLegacyExamReport {
                                 }
                             }
                             if (iM2d) for (MoreThanTwoADayConflict conflict : exam.getMoreThanTwoADaysConflicts()) {
-                                if (!conflict.getStudents().contains(studentId)) continue;
+                                if (!conflict.hasStudent(studentId)) continue;
                                 iPeriodPrinted = false;
                                 for (ExamAssignment otherExam : conflict.getOtherExams()) {
                                     for (ExamSectionInfo other : otherExam.getSectionsIncludeCrosslistedDummies()) {
@@ -347,7 +358,7 @@ public class ConflictsByCourseAndStudentReport extends PdfLegacyExamReport {
                                 }
                             }
                             if (iBtb) for (BackToBackConflict conflict : exam.getBackToBackConflicts()) {
-                                if (!conflict.getStudents().contains(studentId)) continue;
+                                if (!conflict.hasStudent(studentId)) continue;
                                 iPeriodPrinted = false;
                                 for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
                                     if (!other.getStudentIds().contains(studentId)) continue;
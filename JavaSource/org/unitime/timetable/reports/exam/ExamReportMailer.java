@@ -0,0 +1,131 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.reports.exam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.commons.Email;
+
+/**
+ * Bounded mail queue for the examination reports. Emails are composed by the report generation (in the thread owning the hibernate session)
+ * and handed over to the queue, which sends them using a fixed number of threads. When the queue is full, the email is sent by the submitting
+ * thread, so that the number of pending emails (and their attachments) stays bounded.<br>
+ * Deliveries are returned by {@link ExamReportMailer#finish()} in the order in which they were submitted, so that the caller can log the outcome.
+ *
+ * @author Tomas Muller
+ */
+public class ExamReportMailer {
+	private static Log sLog = LogFactory.getLog(ExamReportMailer.class);
+	private ThreadPoolExecutor iExecutor = null;
+	private List<Delivery> iDeliveries = new ArrayList<Delivery>();
+	
+	/**
+	 * @param nrThreads number of sending threads, emails are sent right away (by the submitting thread) when not greater than one
+	 */
+	public ExamReportMailer(int nrThreads) {
+		if (nrThreads > 1) {
+			final AtomicInteger index = new AtomicInteger(0);
+			iExecutor = new ThreadPoolExecutor(nrThreads, nrThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(10 * nrThreads),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r);
+							thread.setName("ExamReportMailer-" + index.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					},
+					new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+	}
+	
+	/**
+	 * Submit an email
+	 * @param mail composed email (with recipients and attachments)
+	 * @param description recipient description, used in the log
+	 */
+	public Delivery send(Email mail, String description) {
+		Delivery delivery = new Delivery(mail, description);
+		iDeliveries.add(delivery);
+		if (iExecutor == null)
+			delivery.run();
+		else
+			iExecutor.execute(delivery);
+		return delivery;
+	}
+	
+	/**
+	 * Wait for all the submitted emails to be sent
+	 * @return all the deliveries in the order in which they were submitted
+	 */
+	public List<Delivery> finish() {
+		if (iExecutor != null) {
+			iExecutor.shutdown();
+			try {
+				while (!iExecutor.awaitTermination(1, TimeUnit.MINUTES))
+					sLog.info("Waiting for " + (iExecutor.getQueue().size() + iExecutor.getActiveCount()) + " emails to be sent...");
+			} catch (InterruptedException e) {
+				iExecutor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+		return iDeliveries;
+	}
+	
+	public static class Delivery implements Runnable {
+		private Email iMail;
+		private String iDescription;
+		private volatile boolean iSent = false;
+		private volatile Exception iError = null;
+		
+		private Delivery(Email mail, String description) {
+			iMail = mail; iDescription = description;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				iMail.send();
+				iSent = true;
+			} catch (Exception e) {
+				iError = e;
+			} finally {
+				iMail = null;
+			}
+		}
+		
+		public String getDescription() { return iDescription; }
+		
+		/** True if the email was sent */
+		public boolean isSent() { return iSent; }
+		
+		/** Sending failure, null if the email was sent (or is not sent yet) */
+		public Exception getError() { return iError; }
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.reports.exam;
+
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.localization.impl.Localization;
+import org.unitime.localization.messages.ExaminationMessages;
+import org.unitime.timetable.model.ClassEvent;
+import org.unitime.timetable.model.ExamType;
+import org.unitime.timetable.model.Location;
+import org.unitime.timetable.model.Session;
+import org.unitime.timetable.model.Student;
+import org.unitime.timetable.model.dao.SessionDAO;
+import org.unitime.timetable.model.dao.StudentDAO;
+import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo;
+
+/**
+ * Examination and assignment data shared by all the examination reports that are generated at once
+ * (e.g., all the selected reports, one for each selected subject area). The examinations are loaded only once
+ * and the session-wide lookups (students, student names, class events, and locations) are loaded lazily on the first use
+ * and then reused by all the reports, instead of each report instance querying them again.<br>
+ * Entities in the snapshot belong to the hibernate session that loaded them,
+ * so the snapshot must be used from the thread owning that session.
+ *
+ * @author Tomas Muller
+ */
+public class ExamReportSnapshot {
+	protected static ExaminationMessages MSG = Localization.create(ExaminationMessages.class);
+	private static Log sLog = LogFactory.getLog(ExamReportSnapshot.class);
+	private Session iSession;
+	private ExamType iExamType;
+	private Collection<ExamAssignmentInfo> iExams;
+	private Map<Long, Student> iStudents = null;
+	private Map<Long, String> iStudentNames = null, iStudentShortNames = null;
+	private Map<Long, ClassEvent> iClassEvents = null;
+	private Map<Long, Location> iLocations = null;
+	
+	public ExamReportSnapshot(Session session, ExamType examType, Collection<ExamAssignmentInfo> exams) {
+		iSession = session;
+		iExamType = examType;
+		iExams = exams;
+	}
+	
+	public Session getSession() { return iSession; }
+	
+	public ExamType getExamType() { return iExamType; }
+	
+	public Collection<ExamAssignmentInfo> getExams() { return iExams; }
+	
+	/** Students of the academic session */
+	public synchronized Map<Long, Student> getStudents() {
+		if (iStudents == null) {
+			sLog.info(MSG.statusLoadingStudents());
+			iStudents = new Hashtable<Long, Student>();
+			for (Student s: StudentDAO.getInstance().getSession().createQuery(
+					"select s from Student s where s.session.uniqueId=:sessionId", Student.class)
+					.setParameter("sessionId", iSession.getUniqueId())
+					.setCacheable(true).list()) {
+				iStudents.put(s.getUniqueId(), s);
+			}
+		}
+		return iStudents;
+	}
+	
+	/** Student names (last first middle, external id when there is no last name) */
+	public synchronized Map<Long, String> getStudentNames() {
+		if (iStudentNames == null) loadStudentNames();
+		return iStudentNames;
+	}
+	
+	/** Student names (last name, first and middle initials) */
+	public synchronized Map<Long, String> getStudentShortNames() {
+		if (iStudentShortNames == null) loadStudentNames();
+		return iStudentShortNames;
+	}
+	
+	private void loadStudentNames() {
+		sLog.debug(MSG.statusLoadingStudents());
+		iStudentNames = new Hashtable<Long, String>();
+		iStudentShortNames = new Hashtable<Long, String>();
+		for (Object[] o: StudentDAO.getInstance().getSession().createQuery(
+				"select s.uniqueId, s.externalUniqueId, s.lastName, s.firstName, s.middleName from Student s where s.session.uniqueId=:sessionId",
+				Object[].class)
+				.setParameter("sessionId", iSession.getUniqueId()).setCacheable(true).list()) {
+			if (o[2]!=null)
+				iStudentNames.put((Long)o[0], (String)o[2]+(o[3]==null?"":" "+(String)o[3])+(o[4]==null?"":" "+(String)o[4]));
+			else if (o[1]!=null)
+				iStudentNames.put((Long)o[0], (String)o[1]);
+			else
+				iStudentNames.put((Long)o[0], MSG.lrNA());
+			iStudentShortNames.put((Long)o[0], (String)o[2]+(o[3]==null?"":" "+((String)o[3]).substring(0,1))+(o[4]==null?"":" "+((String)o[4]).substring(0,1)));
+		}
+	}
+	
+	/** Class events (with meetings) of the academic session, class id &rarr; class event */
+	public synchronized Map<Long, ClassEvent> getClassEvents() {
+		if (iClassEvents == null) {
+			sLog.info(MSG.statusLoadingClassEvents());
+			iClassEvents = new Hashtable<Long, ClassEvent>();
+			for (Object[] o: SessionDAO.getInstance().getSession().createQuery(
+					"select c.uniqueId, e from ClassEvent e inner join e.clazz c left join fetch e.meetings m "+
+					"inner join c.schedulingSubpart.instrOfferingConfig.instructionalOffering.courseOfferings co where "+
+					"co.subjectArea.session.uniqueId=:sessionId", Object[].class).
+					setParameter("sessionId", iSession.getUniqueId()).setCacheable(true).list()) {
+				iClassEvents.put((Long)o[0], (ClassEvent)o[1]);
+			}
+		}
+		return iClassEvents;
+	}
+	
+	/** Rooms and non-university locations of the academic session, permanent id &rarr; location */
+	public synchronized Map<Long, Location> getLocations() {
+		if (iLocations == null) {
+			sLog.info(MSG.statusLoadingLocations());
+			iLocations = new Hashtable<Long, Location>();
+			for (Location location: SessionDAO.getInstance().getSession().createQuery(
+					"select r from Room r where r.session.uniqueId=:sessionId and r.permanentId is not null", Location.class).
+					setParameter("sessionId", iSession.getUniqueId()).setCacheable(true).list()) {
+				iLocations.put(location.getPermanentId(), location);
+			}
+			for (Location location: SessionDAO.getInstance().getSession().createQuery(
+					"select r from NonUniversityLocation r where r.session.uniqueId=:sessionId and r.permanentId is not null", Location.class).
+					setParameter("sessionId", iSession.getUniqueId()).setCacheable(true).list()) {
+				iLocations.put(location.getPermanentId(), location);
+			}
+		}
+		return iLocations;
+	}
+}
@@ -31,6 +31,7 @@ import java.util.Date;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
 import java.util.Vector;
 
@@ -67,9 +68,9 @@ import com.lowagie.text.DocumentException;
  */
 public class InstructorExamReport extends PdfLegacyExamReport {
     protected static Log sLog = LogFactory.getLog(InstructorExamReport.class);
-    Hashtable<Long,String> iStudentNames = null;
-    Hashtable<Long,ClassEvent> iClass2event = null;
-    Hashtable<Long,Location> iLocations = null;
+    Map<Long,String> iStudentNames = null;
+    Map<Long,ClassEvent> iClass2event = null;
+    Map<Long,Location> iLocations = null;
     
     public InstructorExamReport(int mode, File file, Session session, ExamType examType, Collection<SubjectArea> subjectAreas, Collection<ExamAssignmentInfo> exams) throws IOException, DocumentException {
         super(mode, file, MSG.legactReportInstructorExaminationSchedule(), session, examType, subjectAreas, exams);
@@ -80,6 +81,11 @@ public class InstructorExamReport extends PdfLegacyExamReport {
     }
 
     private void generateCache() {
+        if (getSnapshot()!=null) {
+            if (iStudentNames==null) iStudentNames = getSnapshot().getStudentShortNames();
+            if (iClass2event==null) iClass2event = getSnapshot().getClassEvents();
+            if (iLocations==null) iLocations = getSnapshot().getLocations();
+        }
         if (iStudentNames==null) {
             iStudentNames = new Hashtable();
             sLog.debug(MSG.statusLoadingStudents());
@@ -470,7 +476,7 @@ public class InstructorExamReport extends PdfLegacyExamReport {
             if (exam==null || exam.getPeriod()==null) continue;
             iCoursePrinted = false;
                 if (iDirect) for (DirectConflict conflict : exam.getInstructorDirectConflicts()) {
-                    if (!conflict.getStudents().contains(instructor.getId())) continue;
+                    if (!conflict.hasStudent(instructor.getId())) continue;
                     iPeriodPrinted = false;
                     if (conflict.getOtherExam()!=null) {
                         for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
@@ -593,7 +599,7 @@ public class InstructorExamReport extends PdfLegacyExamReport {
                     }
                 }
                 if (iM2d) for (MoreThanTwoADayConflict conflict : exam.getInstructorMoreThanTwoADaysConflicts()) {
-                    if (!conflict.getStudents().contains(instructor.getId())) continue;
+                    if (!conflict.hasStudent(instructor.getId())) continue;
                     iPeriodPrinted = false;
                     for (ExamAssignment otherExam : conflict.getOtherExams()) {
                         if (!otherExam.getInstructors().contains(instructor)) continue;
@@ -652,7 +658,7 @@ public class InstructorExamReport extends PdfLegacyExamReport {
                     }
                 }
                 if (iBtb) for (BackToBackConflict conflict : exam.getInstructorBackToBackConflicts()) {
-                    if (!conflict.getStudents().contains(instructor.getId())) continue;
+                    if (!conflict.hasStudent(instructor.getId())) continue;
                     iPeriodPrinted = false;
                     for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
                         if (!conflict.getOtherExam().getInstructors().contains(instructor)) continue;
@@ -729,7 +735,7 @@ public class InstructorExamReport extends PdfLegacyExamReport {
             for (Long studentId : students) {
                 iStudentPrinted = false;
                 if (iDirect) for (DirectConflict conflict : exam.getDirectConflicts()) {
-                    if (!conflict.getStudents().contains(studentId)) continue;
+                    if (!conflict.hasStudent(studentId)) continue;
                     iPeriodPrinted = false;
                     if (conflict.getOtherExam()!=null) {
                         for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
@@ -866,7 +872,7 @@ public class InstructorExamReport extends PdfLegacyExamReport {
                     }
                 }
                 if (iM2d) for (MoreThanTwoADayConflict conflict : exam.getMoreThanTwoADaysConflicts()) {
-                    if (!conflict.getStudents().contains(studentId)) continue;
+                    if (!conflict.hasStudent(studentId)) continue;
                     iPeriodPrinted = false;
                     for (ExamAssignment otherExam : conflict.getOtherExams()) {
                         for (ExamSectionInfo other : otherExam.getSectionsIncludeCrosslistedDummies()) {
@@ -931,7 +937,7 @@ public class InstructorExamReport extends PdfLegacyExamReport {
                     }
                 }
                 if (iBtb) for (BackToBackConflict conflict : exam.getBackToBackConflicts()) {
-                    if (!conflict.getStudents().contains(studentId)) continue;
+                    if (!conflict.hasStudent(studentId)) continue;
                     iPeriodPrinted = false;
                     for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
                         if (!other.getStudentIds().contains(studentId)) continue;
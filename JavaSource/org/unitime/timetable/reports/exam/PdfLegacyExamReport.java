@@ -79,6 +79,7 @@ import org.unitime.timetable.solver.exam.ui.ExamAssignment;
 import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo;
 import org.unitime.timetable.solver.exam.ui.ExamInfo;
 import org.unitime.timetable.solver.exam.ui.ExamRoomInfo;
+import org.unitime.timetable.solver.exam.ui.ExamStudentIndex;
 import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo.Parameters;
 import org.unitime.timetable.solver.exam.ui.ExamInfo.ExamInstructorInfo;
 import org.unitime.timetable.solver.exam.ui.ExamInfo.ExamSectionInfo;
@@ -102,6 +103,7 @@ public abstract class PdfLegacyExamReport extends AbstractReport {
     private Session iSession = null;
     private Collection<SubjectArea> iSubjectAreas = null;
     private ExamType iExamType = null;
+    private ExamReportSnapshot iSnapshot = null;
     
     protected boolean iDispRooms = true;
     protected String iNoRoom = "";
@@ -232,6 +234,27 @@ public abstract class PdfLegacyExamReport extends AbstractReport {
         return iExamType;
     }
     
+    /** Shared data of the reports that are generated together, null if not shared */
+    public ExamReportSnapshot getSnapshot() {
+        return iSnapshot;
+    }
+    
+    public void setSnapshot(ExamReportSnapshot snapshot) {
+        iSnapshot = snapshot;
+    }
+    
+    /**
+     * Create a report of the given class using the examinations (and other data) of the given snapshot
+     * @param reportClass report class, e.g., one of the {@link PdfLegacyExamReport#sRegisteredReports}
+     * @param subjectAreas subject areas to include, null for all
+     */
+    public static PdfLegacyExamReport createReport(Class reportClass, int mode, File file, ExamReportSnapshot snapshot, Collection<SubjectArea> subjectAreas) throws Exception {
+        PdfLegacyExamReport report = (PdfLegacyExamReport)reportClass.getConstructor(int.class, File.class, Session.class, ExamType.class, Collection.class, Collection.class).newInstance(
+                mode, file, snapshot.getSession(), snapshot.getExamType(), subjectAreas, snapshot.getExams());
+        report.setSnapshot(snapshot);
+        return report;
+    }
+    
     public boolean hasSubjectArea(String abbv) {
     	if (iSubjectAreas == null) return true;
     	for (SubjectArea area: iSubjectAreas)
@@ -723,6 +746,7 @@ public abstract class PdfLegacyExamReport extends AbstractReport {
             }
             if ("true".equals(System.getProperty("email.instructors","false")) && ireports!=null && !ireports.isEmpty()) {
                 sLog.info("Emailing instructors...");
+                ExamReportMailer mailer = new ExamReportMailer(ApplicationProperty.ExaminationReportsEmailThreads.intValue());
                 for (ExamInstructorInfo instructor : new TreeSet<ExamInstructorInfo>(ireports.keySet())) {
                     File report = ireports.get(instructor);
                     String email = instructor.getInstructor().getEmail();
@@ -746,16 +770,22 @@ public abstract class PdfLegacyExamReport extends AbstractReport {
                         if (System.getProperty("email.bcc")!=null) for (StringTokenizer s=new StringTokenizer(System.getProperty("email.bcc"),";,\n\r ");s.hasMoreTokens();) 
                             mail.addRecipientBCC(s.nextToken(), null);
                         mail.addAttachment(report, prefix + report.getName().substring(report.getName().lastIndexOf('.')));
-                    	mail.send();
-                        sLog.info("&nbsp;&nbsp;An email was sent to <a href='temp/"+report.getName()+"'>"+instructor.getName()+"</a>.");
+                        mailer.send(mail, "<a href='temp/"+report.getName()+"'>"+instructor.getName()+"</a>");
                     } catch (Exception e) {
                         sLog.error("Unable to email <a href='temp/"+report.getName()+"'>"+instructor.getName()+"</a> -- "+e.getMessage());
                     }
                 }
+                for (ExamReportMailer.Delivery delivery: mailer.finish()) {
+                    if (delivery.isSent())
+                        sLog.info("&nbsp;&nbsp;An email was sent to "+delivery.getDescription()+".");
+                    else
+                        sLog.error("Unable to email "+delivery.getDescription()+" -- "+(delivery.getError()==null?null:delivery.getError().getMessage()));
+                }
                 sLog.info("Emails sent.");
             }
             if ("true".equals(System.getProperty("email.students","false")) && sreports!=null && !sreports.isEmpty()) {
                 sLog.info("Emailing instructors...");
+                ExamReportMailer mailer = new ExamReportMailer(ApplicationProperty.ExaminationReportsEmailThreads.intValue());
                 for (Student student : new TreeSet<Student>(sreports.keySet())) {
                     File report = sreports.get(student);
                     String email = student.getEmail();
@@ -779,12 +809,17 @@ public abstract class PdfLegacyExamReport extends AbstractReport {
                         if (System.getProperty("email.bcc")!=null) for (StringTokenizer s=new StringTokenizer(System.getProperty("email.bcc"),";,\n\r ");s.hasMoreTokens();) 
                             mail.addRecipientBCC(s.nextToken(), null);
                         mail.addAttachment(report, prefix + report.getName().substring(report.getName().lastIndexOf('.')));
-                    	mail.send();
-                        sLog.info(" An email was sent to <a href='temp/"+report.getName()+"'>"+student.getName(DepartmentalInstructor.sNameFormatLastFist)+"</a>.");
+                        mailer.send(mail, "<a href='temp/"+report.getName()+"'>"+student.getName(DepartmentalInstructor.sNameFormatLastFist)+"</a>");
                     } catch (Exception e) {
                         sLog.error("Unable to email <a href='temp/"+report.getName()+"'>"+student.getName(DepartmentalInstructor.sNameFormatLastFist)+"</a> -- "+e.getMessage()+".");
                     }
                 }
+                for (ExamReportMailer.Delivery delivery: mailer.finish()) {
+                    if (delivery.isSent())
+                        sLog.info(" An email was sent to "+delivery.getDescription()+".");
+                    else
+                        sLog.error("Unable to email "+delivery.getDescription()+" -- "+(delivery.getError()==null?null:delivery.getError().getMessage())+".");
+                }
                 sLog.info("Emails sent.");
             }
     }
@@ -1046,11 +1081,18 @@ public abstract class PdfLegacyExamReport extends AbstractReport {
             }
         }
         Parameters p = new Parameters(sessionId, examTypeId);
+        ExamStudentIndex index = null;
+        Map<Long, ExamStudentIndex.StudentConflicts> studentConflicts = null;
+        if (assgn) {
+            sLog.info("  Computing student conflicts...");
+            index = new ExamStudentIndex(student2exams);
+            studentConflicts = index.computeStudentConflicts(null, p, ApplicationProperty.ExaminationReportsConflictThreads.intValue());
+        }
         sLog.info("  Creating exam assignments...");
         TreeSet<ExamAssignmentInfo> ret = new TreeSet();
         for (Enumeration<Exam> e = exams.elements(); e.hasMoreElements();) {
             Exam exam = (Exam)e.nextElement();
-            ExamAssignmentInfo info = (assgn?new ExamAssignmentInfo(exam, owner2students, owner2course2students, student2exams, period2meetings, p):new ExamAssignmentInfo(exam, (ExamPeriod)null, null));
+            ExamAssignmentInfo info = (assgn?new ExamAssignmentInfo(exam, owner2students, owner2course2students, index, studentConflicts.get(exam.getUniqueId()), period2meetings, p):new ExamAssignmentInfo(exam, (ExamPeriod)null, null));
             for (ExamSectionInfo section: info.getSections()) {
             	if (section.getOwnerType() != ExamOwner.sOwnerTypeClass) continue;
             	ClassEvent evt = classEvents.get(section.getOwnerId());
@@ -1102,6 +1144,7 @@ public abstract class PdfLegacyExamReport extends AbstractReport {
                         ).setParameter("sessionId", session.getUniqueId()).list());
             }
             TreeSet<ExamAssignmentInfo> exams = loadExams(session.getUniqueId(), examType.getUniqueId(), assgn, ignempty, true);
+            ExamReportSnapshot snapshot = new ExamReportSnapshot(session, examType, exams);
             if (subjects==null) {
                 subjects = new TreeSet();
                 for (ExamAssignmentInfo exam: exams)
@@ -1152,7 +1195,7 @@ public abstract class PdfLegacyExamReport extends AbstractReport {
                         long t0 = System.currentTimeMillis();
                         sLog.info("Generating report "+file+" ("+subject.getSubjectAreaAbbreviation()+") ...");
                         List<SubjectArea> subjectList = new ArrayList<SubjectArea>(); subjectList.add(subject);
-                        PdfLegacyExamReport report = (PdfLegacyExamReport)reportClass.getConstructor(int.class, File.class, Session.class, ExamType.class, Collection.class, Collection.class).newInstance(mode, file, session, examType, subjectList, exams);
+                        PdfLegacyExamReport report = createReport(reportClass, mode, file, snapshot, subjectList);
                         report.printReport();
                         report.close();
                         output.put(subject.getSubjectAreaAbbreviation()+"_"+reportName+getExtension(mode),file);
@@ -1196,7 +1239,7 @@ public abstract class PdfLegacyExamReport extends AbstractReport {
                             session.getAcademicTerm()+session.getAcademicYear()+examType.getReference()+"_"+reportName+getExtension(mode));
                     long t0 = System.currentTimeMillis();
                     sLog.info("Generating report "+file+" ...");
-                    PdfLegacyExamReport report = (PdfLegacyExamReport)reportClass.getConstructor(int.class, File.class, Session.class, ExamType.class, Collection.class, Collection.class).newInstance(mode, file, session, examType, subjects, exams);
+                    PdfLegacyExamReport report = createReport(reportClass, mode, file, snapshot, subjects);
                     report.printReport();
                     report.close();
                     output.put(reportName+getExtension(mode),file);
@@ -28,6 +28,7 @@ import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
@@ -64,9 +65,9 @@ import com.lowagie.text.DocumentException;
  */
 public class StudentExamReport extends PdfLegacyExamReport {
     protected static Log sLog = LogFactory.getLog(StudentExamReport.class);
-    Hashtable<Long,Student> iStudents = null;
-    Hashtable<Long,ClassEvent> iClass2event = null;
-    Hashtable<Long,Location> iLocations = null;
+    Map<Long,Student> iStudents = null;
+    Map<Long,ClassEvent> iClass2event = null;
+    Map<Long,Location> iLocations = null;
     
     public StudentExamReport(int mode, File file, Session session, ExamType examType, Collection<SubjectArea> subjectAreas, Collection<ExamAssignmentInfo> exams) throws IOException, DocumentException {
         super(mode, file, MSG.legactReportStudentExaminationSchedule(), session, examType, subjectAreas, exams);
@@ -77,6 +78,11 @@ public class StudentExamReport extends PdfLegacyExamReport {
     }
 
     private void generateCache() {
+        if (getSnapshot()!=null) {
+            if (iStudents==null) iStudents = getSnapshot().getStudents();
+            if (iClass2event==null) iClass2event = getSnapshot().getClassEvents();
+            if (iLocations==null) iLocations = getSnapshot().getLocations();
+        }
         if (iStudents==null) {
             sLog.info(MSG.statusLoadingStudents());
             iStudents = new Hashtable();
@@ -411,7 +417,7 @@ public class StudentExamReport extends PdfLegacyExamReport {
             if (exam==null || exam.getPeriod()==null) continue;
             iCoursePrinted = false;
                 if (iDirect) for (DirectConflict conflict : exam.getDirectConflicts()) {
-                    if (!conflict.getStudents().contains(student.getUniqueId())) continue;
+                    if (!conflict.hasStudent(student.getUniqueId())) continue;
                     iPeriodPrinted = false;
                     if (conflict.getOtherExam()!=null) {
                         for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
@@ -534,7 +540,7 @@ public class StudentExamReport extends PdfLegacyExamReport {
                     }
                 }
                 if (iM2d) for (MoreThanTwoADayConflict conflict : exam.getMoreThanTwoADaysConflicts()) {
-                    if (!conflict.getStudents().contains(student.getUniqueId())) continue;
+                    if (!conflict.hasStudent(student.getUniqueId())) continue;
                     iPeriodPrinted = false;
                     for (ExamAssignment otherExam : conflict.getOtherExams()) {
                         for (ExamSectionInfo other : otherExam.getSectionsIncludeCrosslistedDummies()) {
@@ -593,7 +599,7 @@ public class StudentExamReport extends PdfLegacyExamReport {
                     }
                 }
                 if (iBtb) for (BackToBackConflict conflict : exam.getBackToBackConflicts()) {
-                    if (!conflict.getStudents().contains(student.getUniqueId())) continue;
+                    if (!conflict.hasStudent(student.getUniqueId())) continue;
                     iPeriodPrinted = false;
                     for (ExamSectionInfo other : conflict.getOtherExam().getSectionsIncludeCrosslistedDummies()) {
                         if (!other.getStudentIds().contains(student.getUniqueId())) continue;
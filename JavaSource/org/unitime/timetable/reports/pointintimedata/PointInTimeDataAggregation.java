@@ -0,0 +1,451 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.reports.pointintimedata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.PointInTimeData;
+import org.unitime.timetable.model.SubjectArea;
+import org.unitime.timetable.model.dao.PointInTimeDataDAO;
+import org.unitime.timetable.util.Constants;
+
+/**
+ * Compact, in-memory aggregation of the classes of a {@link PointInTimeData} used by the day of week and hour of day reports.
+ * Instead of loading the {@link org.unitime.timetable.model.PitClass} entities and expanding their unique periods into dates,
+ * a scalar projection (class id, enrollment, instructional type, meeting date, location, time slot) is scrolled through for
+ * each subject area, and each class is kept as a few primitive arrays of period codes (day of the term times the number of slots
+ * in a day plus the time slot).<br>
+ * Subject areas are scanned in parallel (see unitime.pointInTimeData.reports.threads), each thread with its own Hibernate session.
+ * The last few aggregations are cached (see unitime.pointInTimeData.reports.cacheSize), so that when several reports are run over the same
+ * point in time data, the database is only scanned once (the point in time data never change once saved).
+ * 
+ * @author Tomas Muller
+ */
+public class PointInTimeDataAggregation {
+	private static Log sLog = LogFactory.getLog(PointInTimeDataAggregation.class);
+	private static final int sSlotsPerDay = Constants.SLOTS_PER_DAY;
+	private static Map<Long, Holder> sCache = new LinkedHashMap<Long, Holder>(16, 0.75f, true);
+	
+	private Long iPointInTimeDataId;
+	private int iFirstDayOfWeek;
+	private List<PitClassData> iClasses;
+	
+	private PointInTimeDataAggregation(Long pointInTimeDataId, int firstDayOfWeek, List<PitClassData> classes) {
+		iPointInTimeDataId = pointInTimeDataId;
+		iFirstDayOfWeek = firstDayOfWeek;
+		iClasses = classes;
+	}
+	
+	/**
+	 * Aggregation of the given point in time data, shared between the reports (a cached instance is returned when available)
+	 */
+	public static PointInTimeDataAggregation getInstance(PointInTimeData pointInTimeData, org.hibernate.Session hibSession) {
+		int cacheSize = ApplicationProperty.PointInTimeDataReportsCacheSize.intValue();
+		if (cacheSize <= 0)
+			return load(pointInTimeData, hibSession);
+		Holder holder = null;
+		synchronized (sCache) {
+			holder = sCache.get(pointInTimeData.getUniqueId());
+			if (holder == null) {
+				holder = new Holder();
+				sCache.put(pointInTimeData.getUniqueId(), holder);
+				for (Iterator<Long> i = sCache.keySet().iterator(); sCache.size() > cacheSize && i.hasNext(); ) {
+					i.next(); i.remove();
+				}
+			}
+		}
+		return holder.get(pointInTimeData, hibSession);
+	}
+	
+	private static class Holder {
+		private PointInTimeDataAggregation iAggregation = null;
+		
+		private synchronized PointInTimeDataAggregation get(PointInTimeData pointInTimeData, org.hibernate.Session hibSession) {
+			if (iAggregation == null)
+				iAggregation = load(pointInTimeData, hibSession);
+			return iAggregation;
+		}
+	}
+	
+	protected static PointInTimeDataAggregation load(PointInTimeData pointInTimeData, org.hibernate.Session hibSession) {
+		long t0 = System.currentTimeMillis();
+		org.unitime.timetable.model.Session session = pointInTimeData.getSession();
+		Calendar c = Calendar.getInstance(Locale.US);
+		c.setTime(session.getSessionBeginDateTime());
+		c.set(Calendar.HOUR_OF_DAY, 0); c.set(Calendar.MINUTE, 0); c.set(Calendar.SECOND, 0); c.set(Calendar.MILLISECOND, 0);
+		Scan scan = new Scan(pointInTimeData.getUniqueId(), c.getTime(), session.getSessionBeginDateTime(), session.getClassesEndDateTime());
+		for (SubjectArea subjectArea: session.getSubjectAreas())
+			scan.iSubjectAreas.add(new SubjectAreaInfo(subjectArea.getUniqueId(), subjectArea.getDepartment() == null ? null : subjectArea.getDepartment().getUniqueId()));
+		
+		int nrThreads = Math.max(1, Math.min(ApplicationProperty.PointInTimeDataReportsThreads.intValue(), scan.iSubjectAreas.size()));
+		if (nrThreads <= 1) {
+			scan.run(hibSession);
+		} else {
+			List<ScanThread> threads = new ArrayList<ScanThread>();
+			for (int i = 0; i < nrThreads; i++) {
+				ScanThread thread = new ScanThread(scan, i);
+				threads.add(thread);
+				thread.start();
+			}
+			for (ScanThread thread: threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					// stop the remaining workers, fail without returning (and caching) a partial aggregation
+					scan.fail(e);
+					for (ScanThread t: threads) t.interrupt();
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while aggregating point in time data " + pointInTimeData.getName() + ".", e);
+				}
+			}
+			if (scan.iException != null)
+				throw (scan.iException instanceof RuntimeException ? (RuntimeException)scan.iException : new RuntimeException(scan.iException.getMessage(), scan.iException));
+		}
+		
+		Collections.sort(scan.iClasses, new Comparator<PitClassData>() {
+			@Override
+			public int compare(PitClassData c1, PitClassData c2) {
+				return Long.compare(c1.getClassId(), c2.getClassId());
+			}
+		});
+		sLog.debug("Point in time data " + pointInTimeData.getName() + " aggregated in " + (System.currentTimeMillis() - t0) + " ms (" + scan.iClasses.size() + " classes, " + nrThreads + " threads)");
+		return new PointInTimeDataAggregation(pointInTimeData.getUniqueId(), c.get(Calendar.DAY_OF_WEEK), scan.iClasses);
+	}
+	
+	public Long getPointInTimeDataId() { return iPointInTimeDataId; }
+	
+	/** All the classes (with a controlling course and at least one utilized period), ordered by class id */
+	public List<PitClassData> getClasses() { return iClasses; }
+	
+	/** Day of week of the given period code (1 = Sunday, see {@link Calendar#DAY_OF_WEEK}) */
+	public int getDayOfWeek(int period) {
+		return 1 + (iFirstDayOfWeek - 1 + period / sSlotsPerDay) % 7;
+	}
+	
+	/** Minute of the day of the given period code */
+	public static int getMinuteOfDay(int period) {
+		return (period % sSlotsPerDay) * Constants.SLOT_LENGTH_MIN + Constants.FIRST_SLOT_TIME_MIN;
+	}
+	
+	/** Index into the arrays of {@link PeriodEnrollments} of the given day of week (1 = Sunday) and hour of day (0 .. 23) */
+	public static int index(int dayOfWeek, int hourOfDay) {
+		return 24 * (dayOfWeek - 1) + hourOfDay;
+	}
+	
+	/**
+	 * Index of the period code, -1 when the period falls into an hour that is not reported (the half hour before midnight when hours start on the half hour)
+	 */
+	protected int index(int period, boolean startOnHalfHour) {
+		int minute = getMinuteOfDay(period);
+		int hour = minute / 60;
+		if (startOnHalfHour && minute % 60 < 30) hour --;
+		if (hour < 0) return -1;
+		return index(getDayOfWeek(period), hour);
+	}
+	
+	/**
+	 * Sum of class enrollments by day of week and hour of day, over the unique periods of each class, grouped by the given grouping.
+	 * @param group class grouping, classes with no group (null) are skipped
+	 * @param startOnHalfHour reporting hours start on the half hour
+	 */
+	public <T> Map<T, PeriodEnrollments> getEnrollmentsByDayOfWeekAndHour(ClassGroup<T> group, boolean startOnHalfHour) {
+		Map<T, PeriodEnrollments> ret = new HashMap<T, PeriodEnrollments>();
+		for (PitClassData clazz: iClasses) {
+			T key = group.getGroup(clazz);
+			if (key == null) continue;
+			PeriodEnrollments enrollments = ret.get(key);
+			if (enrollments == null) {
+				enrollments = new PeriodEnrollments();
+				ret.put(key, enrollments);
+			}
+			for (int period: clazz.getPeriods()) {
+				int index = index(period, startOnHalfHour);
+				if (index >= 0) enrollments.add(index, clazz.getEnrollment());
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Sum of class enrollments by day of week and hour of day, over the periods of each class and location, grouped by the given location grouping.
+	 * When a class is using more than one location at the same time, its enrollment is divided by the number of such locations.
+	 * @param filter class filter, classes with no group (null) are skipped
+	 * @param group location grouping (by location permanent id), locations with no group (null) are skipped
+	 * @param startOnHalfHour reporting hours start on the half hour
+	 */
+	public <T> Map<T, PeriodEnrollments> getEnrollmentsByLocationDayOfWeekAndHour(ClassGroup<?> filter, LocationGroup<T> group, boolean startOnHalfHour) {
+		Map<T, PeriodEnrollments> ret = new HashMap<T, PeriodEnrollments>();
+		for (PitClassData clazz: iClasses) {
+			if (filter != null && filter.getGroup(clazz) == null) continue;
+			for (int l = 0; l < clazz.getLocations().length; l++) {
+				T key = group.getGroup(clazz.getLocations()[l]);
+				if (key == null) continue;
+				PeriodEnrollments enrollments = ret.get(key);
+				if (enrollments == null) {
+					enrollments = new PeriodEnrollments();
+					ret.put(key, enrollments);
+				}
+				for (int period: clazz.getLocationPeriods()[l]) {
+					int index = index(period, startOnHalfHour);
+					if (index >= 0) enrollments.add(index, (1.0f * clazz.getEnrollment()) / clazz.countLocations(period));
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/** Grouping of the classes */
+	public static interface ClassGroup<T> {
+		/** Group of the class, null if the class is to be skipped */
+		public T getGroup(PitClassData clazz);
+	}
+	
+	/** Grouping of the locations */
+	public static interface LocationGroup<T> {
+		/** Group of the location, null if the location is to be skipped */
+		public T getGroup(Long locationPermanentId);
+	}
+	
+	/**
+	 * Enrollments by day of week and hour of day, see {@link PointInTimeDataAggregation#index(int, int)}
+	 */
+	public static class PeriodEnrollments {
+		private float[] iEnrollments = new float[7 * 24];
+		private BitSet iUsed = new BitSet(7 * 24);
+		
+		protected void add(int index, float enrollment) {
+			iEnrollments[index] += enrollment;
+			iUsed.set(index);
+		}
+		
+		/** True if there is at least one class period in the given day and hour */
+		public boolean hasEnrollment(int dayOfWeek, int hourOfDay) {
+			return iUsed.get(index(dayOfWeek, hourOfDay));
+		}
+		
+		/** Sum of the class enrollments in the given day and hour */
+		public float getEnrollment(int dayOfWeek, int hourOfDay) {
+			return iEnrollments[index(dayOfWeek, hourOfDay)];
+		}
+	}
+	
+	/**
+	 * Compact representation of a class
+	 */
+	public static class PitClassData {
+		private long iClassId;
+		private int iEnrollment;
+		private Long iSubjectAreaId, iDepartmentId;
+		private Long iItypeId;
+		private boolean iOrganized;
+		private Long[] iLocations;
+		private int[][] iLocationPeriods;
+		private int[] iPeriods;
+		
+		private PitClassData(long classId, int enrollment, Long itypeId, boolean organized, SubjectAreaInfo subjectArea, Map<Long, Set<Integer>> locationPeriods) {
+			iClassId = classId;
+			iEnrollment = enrollment;
+			iItypeId = itypeId;
+			iOrganized = organized;
+			iSubjectAreaId = subjectArea.iSubjectAreaId;
+			iDepartmentId = subjectArea.iDepartmentId;
+			iLocations = new Long[locationPeriods.size()];
+			iLocationPeriods = new int[locationPeriods.size()][];
+			Set<Integer> periods = new HashSet<Integer>();
+			int l = 0;
+			for (Map.Entry<Long, Set<Integer>> e: locationPeriods.entrySet()) {
+				iLocations[l] = e.getKey();
+				iLocationPeriods[l] = toSortedArray(e.getValue());
+				periods.addAll(e.getValue());
+				l++;
+			}
+			iPeriods = toSortedArray(periods);
+		}
+		
+		private static int[] toSortedArray(Set<Integer> set) {
+			int[] ret = new int[set.size()];
+			int i = 0;
+			for (Integer p: set) ret[i++] = p;
+			Arrays.sort(ret);
+			return ret;
+		}
+		
+		public long getClassId() { return iClassId; }
+		public int getEnrollment() { return iEnrollment; }
+		public Long getSubjectAreaId() { return iSubjectAreaId; }
+		/** Department of the subject area of the controlling course */
+		public Long getDepartmentId() { return iDepartmentId; }
+		public Long getItypeId() { return iItypeId; }
+		public boolean isOrganized() { return iOrganized; }
+		/** Location permanent ids (may contain null for meetings with no location) */
+		public Long[] getLocations() { return iLocations; }
+		/** Sorted period codes of each location */
+		public int[][] getLocationPeriods() { return iLocationPeriods; }
+		/** Sorted unique period codes (of all the locations) */
+		public int[] getPeriods() { return iPeriods; }
+		
+		/** Number of locations used by the class in the given period */
+		public int countLocations(int period) {
+			int count = 0;
+			for (int[] periods: iLocationPeriods)
+				if (Arrays.binarySearch(periods, period) >= 0) count ++;
+			return count;
+		}
+	}
+	
+	private static class SubjectAreaInfo {
+		private Long iSubjectAreaId, iDepartmentId;
+		private SubjectAreaInfo(Long subjectAreaId, Long departmentId) {
+			iSubjectAreaId = subjectAreaId; iDepartmentId = departmentId;
+		}
+	}
+	
+	/**
+	 * Scan of the classes of a point in time data, one subject area at a time
+	 */
+	private static class Scan {
+		private Long iPointInTimeDataId;
+		private long iFirstDay;
+		private Date iBegin, iEnd;
+		private List<SubjectAreaInfo> iSubjectAreas = new ArrayList<SubjectAreaInfo>();
+		private Iterator<SubjectAreaInfo> iIterator = null;
+		private List<PitClassData> iClasses = new ArrayList<PitClassData>();
+		private Throwable iException = null;
+		
+		private Scan(Long pointInTimeDataId, Date firstDay, Date begin, Date end) {
+			iPointInTimeDataId = pointInTimeDataId;
+			iFirstDay = firstDay.getTime();
+			iBegin = begin; iEnd = end;
+		}
+		
+		private synchronized SubjectAreaInfo next() {
+			if (iIterator == null) iIterator = iSubjectAreas.iterator();
+			if (iException != null || !iIterator.hasNext()) return null;
+			return iIterator.next();
+		}
+		
+		private synchronized void add(List<PitClassData> classes) {
+			iClasses.addAll(classes);
+		}
+		
+		private synchronized void fail(Throwable t) {
+			if (iException == null) iException = t;
+		}
+		
+		private void run(org.hibernate.Session hibSession) {
+			SubjectAreaInfo subjectArea;
+			while ((subjectArea = next()) != null)
+				add(scan(subjectArea, hibSession));
+		}
+		
+		private List<PitClassData> scan(SubjectAreaInfo subjectArea, org.hibernate.Session hibSession) {
+			List<PitClassData> classes = new ArrayList<PitClassData>();
+			ScrollableResults<Object[]> results = hibSession.createQuery(
+					"select pc.uniqueId, pc.enrollment, it.itype, it.organized, pcm.meetingDate, pcm.locationPermanentId, pcmup.timeSlot " +
+					"from PitClass pc inner join pc.pitSchedulingSubpart ss inner join ss.itype it " +
+					"inner join pc.pitClassEvents pce inner join pce.pitClassMeetings pcm inner join pcm.pitClassMeetingUtilPeriods pcmup " +
+					"inner join ss.pitInstrOfferingConfig.pitInstructionalOffering.pitCourseOfferings pco " +
+					"where ss.pitInstrOfferingConfig.pitInstructionalOffering.pointInTimeData.uniqueId = :pitdId " +
+					"and pco.subjectArea.uniqueId = :saId and pco.isControl = true " +
+					"order by pc.uniqueId", Object[].class)
+					.setParameter("pitdId", iPointInTimeDataId)
+					.setParameter("saId", subjectArea.iSubjectAreaId)
+					.setFetchSize(1000)
+					.scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				Long classId = null;
+				int enrollment = 0;
+				Long itypeId = null;
+				boolean organized = false;
+				Map<Long, Set<Integer>> locationPeriods = new HashMap<Long, Set<Integer>>();
+				while (results.next()) {
+					Object[] row = results.get();
+					Long id = (Long)row[0];
+					if (!id.equals(classId)) {
+						if (classId != null)
+							classes.add(new PitClassData(classId, enrollment, itypeId, organized, subjectArea, locationPeriods));
+						classId = id;
+						enrollment = (row[1] == null ? 0 : ((Number)row[1]).intValue());
+						itypeId = (row[2] == null ? null : ((Number)row[2]).longValue());
+						organized = Boolean.TRUE.equals(row[3]);
+						locationPeriods = new HashMap<Long, Set<Integer>>();
+					}
+					Date meetingDate = (Date)row[4];
+					if (meetingDate == null || iBegin.compareTo(meetingDate) > 0 || iEnd.compareTo(meetingDate) < 0) continue;
+					Long location = (Long)row[5];
+					Set<Integer> periods = locationPeriods.get(location);
+					if (periods == null) {
+						periods = new HashSet<Integer>();
+						locationPeriods.put(location, periods);
+					}
+					int day = (int)Math.round((meetingDate.getTime() - iFirstDay) / 86.4e6);
+					periods.add(day * sSlotsPerDay + ((Number)row[6]).intValue());
+				}
+				if (classId != null)
+					classes.add(new PitClassData(classId, enrollment, itypeId, organized, subjectArea, locationPeriods));
+			} finally {
+				results.close();
+			}
+			return classes;
+		}
+	}
+	
+	private static class ScanThread extends Thread {
+		private Scan iScan;
+		
+		private ScanThread(Scan scan, int index) {
+			iScan = scan;
+			setName("PitAggregation-" + (1 + index));
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			org.hibernate.Session hibSession = PointInTimeDataDAO.getInstance().createNewSession();
+			try {
+				iScan.run(hibSession);
+			} catch (Throwable t) {
+				sLog.error("Failed to aggregate point in time data: " + t.getMessage(), t);
+				iScan.fail(t);
+			} finally {
+				hibSession.close();
+			}
+		}
+	}
+}
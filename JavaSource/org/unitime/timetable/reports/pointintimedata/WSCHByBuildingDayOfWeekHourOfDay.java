@@ -21,19 +21,20 @@
 package org.unitime.timetable.reports.pointintimedata;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.TreeSet;
 
 import org.hibernate.Session;
 import org.unitime.timetable.model.Building;
 import org.unitime.timetable.model.Location;
 import org.unitime.timetable.model.NonUniversityLocation;
-import org.unitime.timetable.model.PitClass;
 import org.unitime.timetable.model.PointInTimeData;
 import org.unitime.timetable.model.Room;
-import org.unitime.timetable.model.SubjectArea;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.ClassGroup;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.LocationGroup;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.PeriodEnrollments;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.PitClassData;
 
 public class WSCHByBuildingDayOfWeekHourOfDay extends WSCHByDayOfWeekAndHourOfDay {
 	
@@ -61,30 +62,7 @@ public class WSCHByBuildingDayOfWeekHourOfDay extends WSCHByDayOfWeekAndHourOfDa
 	@Override
 	public void createRoomUtilizationReportFor(PointInTimeData pointInTimeData, Session hibSession) {
 		
-		calculatePeriodsWithEnrollments(pointInTimeData, hibSession);
-		
-		int minute = (startOnHalfHour ? 30 : 0);
-		for(Building b : usedBuildings) {
-			for(int dayOfWeek = 1 ; dayOfWeek < 8 ; dayOfWeek++) {
-				ArrayList<String> row = new ArrayList<String>();
-				row.add(b.getAbbreviation());
-				row.add(getDayOfWeekLabel(periodDayOfWeek(dayOfWeek)));
-				for(int hourOfDay = 0 ; hourOfDay < 24 ; hourOfDay++) {
-					String key = getPeriodTag(b.getUniqueId().toString(), dayOfWeek, hourOfDay, minute);
-					row.add(periodEnrollmentMap.get(key) == null ? "0": "" + periodEnrollmentMap.get(key).getWeeklyStudentEnrollment());
-				}
-				addDataRow(row);			
-			}
-		}
-				
-	}
-	
-
-	@SuppressWarnings("unchecked")
-	private void calculatePeriodsWithEnrollments (
-			PointInTimeData pointInTimeData, Session hibSession) {
-		
-		HashMap<Long, Building> permIdToBuilding = new HashMap<Long, Building>();
+		final HashMap<Long, Building> permIdToBuilding = new HashMap<Long, Building>();
 		Building nonUniversityLocationBuilding = new Building();
 		nonUniversityLocationBuilding.setAbbreviation(MSG.labelUnknown());
 		nonUniversityLocationBuilding.setAbbrName(MSG.labelUnknown());
@@ -101,47 +79,32 @@ public class WSCHByBuildingDayOfWeekHourOfDay extends WSCHByDayOfWeekAndHourOfDa
 			}
 		}
 		
-		StringBuilder sb = new StringBuilder();
-		sb.append("select distinct pc")
-		  .append("	from PitClass pc") 
-		  .append(" inner join pc.pitClassEvents as pce")
-		  .append(" inner join pce.pitClassMeetings as pcm")
-		  .append(" inner join pcm.pitClassMeetingUtilPeriods as pcmup")
-		  .append("	inner join pc.pitSchedulingSubpart.pitInstrOfferingConfig.pitInstructionalOffering.pitCourseOfferings as pco")
-		  .append("	where pc.pitSchedulingSubpart.pitInstrOfferingConfig.pitInstructionalOffering.pointInTimeData.uniqueId = :sessId")
-		  .append(" and pc.pitSchedulingSubpart.itype.organized = true")
-		  .append(" and pco.subjectArea.uniqueId = :saId")
-		  .append("	and pco.isControl = true");
-		
-		HashSet<Long> processedClasses = new HashSet<Long>();
-		for (SubjectArea subjectArea : pointInTimeData.getSession().getSubjectAreas()){
-			for (PitClass pc : hibSession.createQuery(sb.toString(), PitClass.class)
-								.setParameter("sessId", pointInTimeData.getUniqueId().longValue())
-								.setParameter("saId", subjectArea.getUniqueId().longValue())
-								.setCacheable(true)
-								.list()) {
-				if (processedClasses.contains(pc.getUniqueId())){
-					continue;
-				}
-				processedClasses.add(pc.getUniqueId());
-			
-				for(Long roomPermanentId : pc.getLocationPeriodUseMap().keySet()) {
-					if (permIdToBuilding.get(roomPermanentId) == null) {
-						continue;
+		Map<Building, PeriodEnrollments> enrollments = PointInTimeDataAggregation.getInstance(pointInTimeData, hibSession).getEnrollmentsByLocationDayOfWeekAndHour(
+				new ClassGroup<Boolean>() {
+					@Override
+					public Boolean getGroup(PitClassData clazz) {
+						return (clazz.isOrganized() ? Boolean.TRUE : null);
 					}
-					for(Date period : pc.getLocationPeriodUseMap().get(roomPermanentId)) {
-						String label = getPeriodTag(permIdToBuilding.get(roomPermanentId).getUniqueId().toString(), period);
-						usedBuildings.add(permIdToBuilding.get(roomPermanentId));
-						PeriodEnrollment pe = periodEnrollmentMap.get(label);
-						if (pe == null) {
-							pe = new PeriodEnrollment(label, getStandardMinutesInReportingHour(), getStandardWeeksInReportingTerm());
-							periodEnrollmentMap.put(label, pe);
-						}
-						pe.addEnrollment((1.0f * pc.getEnrollment()) / pc.countRoomsForPeriod(period));
+				},
+				new LocationGroup<Building>() {
+					@Override
+					public Building getGroup(Long locationPermanentId) {
+						return permIdToBuilding.get(locationPermanentId);
 					}
+				}, startOnHalfHour);
+		usedBuildings.addAll(enrollments.keySet());
+		
+		for(Building b : usedBuildings) {
+			for(int dayOfWeek = 1 ; dayOfWeek < 8 ; dayOfWeek++) {
+				ArrayList<String> row = new ArrayList<String>();
+				row.add(b.getAbbreviation());
+				row.add(getDayOfWeekLabel(periodDayOfWeek(dayOfWeek)));
+				for(int hourOfDay = 0 ; hourOfDay < 24 ; hourOfDay++) {
+					row.add(getWeeklyStudentEnrollment(enrollments.get(b), dayOfWeek, hourOfDay));
 				}
-	
+				addDataRow(row);			
 			}
 		}
+				
 	}
 }
@@ -22,16 +22,16 @@ package org.unitime.timetable.reports.pointintimedata;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 
 import org.hibernate.Session;
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.defaults.ApplicationProperty;
-import org.unitime.timetable.model.PitClass;
 import org.unitime.timetable.model.PointInTimeData;
-import org.unitime.timetable.model.SubjectArea;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.ClassGroup;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.PeriodEnrollments;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.PitClassData;
 import org.unitime.timetable.util.Constants;
 
 /**
@@ -39,7 +39,6 @@ import org.unitime.timetable.util.Constants;
  *
  */
 public class WSCHByDayOfWeekAndHourOfDay extends BasePointInTimeDataReports {
-	protected HashMap<String, PeriodEnrollment> periodEnrollmentMap = new HashMap<String, PeriodEnrollment>();
 	protected boolean startOnHalfHour;
 	
 	public static String dayOfWeekTimeLabelFor(java.util.Date date){
@@ -59,35 +58,6 @@ public class WSCHByDayOfWeekAndHourOfDay extends BasePointInTimeDataReports {
 		setHeader(hdr);
 	}
 	
-	protected String getPeriodTag(String id, Date period) {
-        Calendar d = Calendar.getInstance(Locale.US);
-        d.setTime(period);
-		int minuteOfHour = d.get(Calendar.MINUTE);
-		int hour = d.get(Calendar.HOUR_OF_DAY);
-		int minute = (startOnHalfHour? 30 : 0);
-		if (startOnHalfHour && minuteOfHour < 30) {
-			hour -= 1;
-		} 
-		return(id + " " + d.get(Calendar.DAY_OF_WEEK) + " " + hour + " " + minute);
-	}
-
-	protected String getPeriodTag(Date period) {
-        Calendar d = Calendar.getInstance(Locale.US);
-        d.setTime(period);
-		int minuteOfHour = d.get(Calendar.MINUTE);
-		int hour = d.get(Calendar.HOUR_OF_DAY);
-		int minute = (startOnHalfHour? 30 : 0);
-		if (startOnHalfHour && minuteOfHour < 30) {
-			hour -= 1;
-		} 
-		return(d.get(Calendar.DAY_OF_WEEK) + " " + hour + " " + minute);
-	}
-
-	protected String getPeriodTag(String id, int dayOfWeek, int hourOfDay, int minute) {
-		return(id + " " + dayOfWeek + " " + (startOnHalfHour && minute < 30 ? hourOfDay - 1 : hourOfDay) + " " + (startOnHalfHour? 30 : 0));
-	}
-
-
 	protected void addTimeColumns(ArrayList<String> header) {
 		for(int hourOfDay = 0 ; hourOfDay < 24 ; hourOfDay++) {
 			if (ApplicationProperty.ReportsStartOnTheHalfHour.isTrue()) {
@@ -126,10 +96,6 @@ public class WSCHByDayOfWeekAndHourOfDay extends BasePointInTimeDataReports {
 		return(MSG.wseByDayOfWeekAndHourOfDayReportNote());
 	}
 
-	private String getPeriodTag(int dayOfWeek, int hourOfDay, int minute) {
-		return(dayOfWeek + " " + (startOnHalfHour && minute < 30 ? hourOfDay - 1 : hourOfDay) + " " + (startOnHalfHour? 30 : 0));
-	}
-	
 	protected Date periodTime(int hourOfDay, int minute) {
 		
         Calendar c = Calendar.getInstance(Locale.US);
@@ -152,63 +118,32 @@ public class WSCHByDayOfWeekAndHourOfDay extends BasePointInTimeDataReports {
 	
 	public void createRoomUtilizationReportFor(PointInTimeData pointInTimeData, Session hibSession) {
 		
-		calculatePeriodsWithEnrollments(pointInTimeData, hibSession);
+		Map<Boolean, PeriodEnrollments> enrollments = PointInTimeDataAggregation.getInstance(pointInTimeData, hibSession).getEnrollmentsByDayOfWeekAndHour(
+				new ClassGroup<Boolean>() {
+					@Override
+					public Boolean getGroup(PitClassData clazz) {
+						return (clazz.isOrganized() ? Boolean.TRUE : null);
+					}
+				}, startOnHalfHour);
 		
-		int minute = (startOnHalfHour ? 30 : 0);
 		for(int dayOfWeek = 1 ; dayOfWeek < 8 ; dayOfWeek++) {
 			ArrayList<String> row = new ArrayList<String>();
 			row.add(getDayOfWeekLabel(periodDayOfWeek(dayOfWeek)));
 			for(int hourOfDay = 0 ; hourOfDay < 24 ; hourOfDay++) {
-				String key = getPeriodTag(dayOfWeek, hourOfDay, minute);
-				row.add(periodEnrollmentMap.get(key) == null ? "0": "" + periodEnrollmentMap.get(key).getWeeklyStudentEnrollment());
+				row.add(getWeeklyStudentEnrollment(enrollments.get(Boolean.TRUE), dayOfWeek, hourOfDay));
 			}
 			addDataRow(row);			
 		}
 				
 	}
-
-	@SuppressWarnings("unchecked")
-	private void calculatePeriodsWithEnrollments (
-			PointInTimeData pointInTimeData, Session hibSession) {
-		
-		StringBuilder sb = new StringBuilder();
-		sb.append("select distinct pc")
-		  .append("	from PitClass pc") 
-		  .append(" inner join pc.pitClassEvents as pce")
-		  .append(" inner join pce.pitClassMeetings as pcm")
-		  .append(" inner join pcm.pitClassMeetingUtilPeriods as pcmup")
-		  .append("	inner join pc.pitSchedulingSubpart.pitInstrOfferingConfig.pitInstructionalOffering.pitCourseOfferings as pco")
-		  .append("	where pc.pitSchedulingSubpart.pitInstrOfferingConfig.pitInstructionalOffering.pointInTimeData.uniqueId = :sessId")
-		  .append(" and pco.subjectArea.uniqueId = :saId")
-		  .append("	and pco.isControl = true")
-		  .append(" and  pc.pitSchedulingSubpart.itype.organized = true");
-		
-		HashSet<Long> processedClasses = new HashSet<Long>();
-		for (SubjectArea subjectArea : pointInTimeData.getSession().getSubjectAreas()){
-			for (PitClass pc : hibSession.createQuery(sb.toString(), PitClass.class)
-									.setParameter("sessId", pointInTimeData.getUniqueId().longValue())
-									.setParameter("saId", subjectArea.getUniqueId().longValue())
-									.setCacheable(true)
-									.list()) {
-	
-				if (processedClasses.contains(pc.getUniqueId())){
-					continue;
-				}
-				processedClasses.add(pc.getUniqueId());
-
-				for (Date meetingPeriod : pc.getUniquePeriods()) {			
-					String label = getPeriodTag(meetingPeriod);
-					PeriodEnrollment pe = periodEnrollmentMap.get(label);
-					if (pe == null) {
-						pe = new PeriodEnrollment(label, getStandardMinutesInReportingHour(), getStandardWeeksInReportingTerm());
-						periodEnrollmentMap.put(label, pe);
-					}
-					pe.addEnrollment(pc.getEnrollment());
-				}
 	
-			}
-		}				
-
+	/**
+	 * Weekly student enrollment of the given day and hour, "0" if there are no class periods
+	 */
+	protected String getWeeklyStudentEnrollment(PeriodEnrollments enrollments, int dayOfWeek, int hourOfDay) {
+		if (enrollments == null || !enrollments.hasEnrollment(dayOfWeek, hourOfDay)) return "0";
+		float periodsPerStandardReportingHourPerTerm = (getStandardMinutesInReportingHour().floatValue() / (Constants.SLOT_LENGTH_MIN * 1.0f)) * getStandardWeeksInReportingTerm().floatValue();
+		return "" + (enrollments.getEnrollment(dayOfWeek, hourOfDay) / periodsPerStandardReportingHourPerTerm);
 	}
 
 	@Override
@@ -221,38 +156,4 @@ public class WSCHByDayOfWeekAndHourOfDay extends BasePointInTimeDataReports {
 		
 	}
 
-	protected class PeriodEnrollment {
-		private float iWeeklyStudentEnrollment = 0.0f;
-		private float iPeriodsPerStandardReportingHourPerTerm;
-		private String iPeriodTag;
-		private Float iStandardWeeksInReportingTerm;
-		private Float iStandardMinutesInReportingHour;		
-		
-		public String getPeriodTag() {
-			return iPeriodTag;
-		}
-		
-		public float getWeeklyStudentEnrollment() {
-			return (this.iWeeklyStudentEnrollment / iPeriodsPerStandardReportingHourPerTerm) ;
-		}
-		
-		public PeriodEnrollment(String periodTag, Float standardMinutesInReportingHour, Float standardWeeksInReportingTerm) {
-			this.iStandardMinutesInReportingHour = standardMinutesInReportingHour;
-			this.iStandardWeeksInReportingTerm = standardWeeksInReportingTerm;
-			this.iPeriodTag = periodTag;
-			iPeriodsPerStandardReportingHourPerTerm = (this.iStandardMinutesInReportingHour.floatValue()/(Constants.SLOT_LENGTH_MIN * 1.0f)) * this.iStandardWeeksInReportingTerm.floatValue();
-		}
-		
-		
-		public void addEnrollment(Integer enrollment) {
-			iWeeklyStudentEnrollment += enrollment.floatValue();
-		}
-
-		public void addEnrollment(float enrollment) {
-			iWeeklyStudentEnrollment += enrollment;
-		}
-
-	}
-
-	
 }
@@ -21,15 +21,16 @@
 package org.unitime.timetable.reports.pointintimedata;
 
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.TreeSet;
 
 import org.hibernate.Session;
 import org.unitime.timetable.model.Department;
-import org.unitime.timetable.model.PitClass;
 import org.unitime.timetable.model.PointInTimeData;
-import org.unitime.timetable.model.SubjectArea;
+import org.unitime.timetable.model.dao.DepartmentDAO;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.ClassGroup;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.PeriodEnrollments;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.PitClassData;
 
 public class WSCHByDepartmentDayOfWeekHourOfDay extends WSCHByDayOfWeekAndHourOfDay {
 	
@@ -59,9 +60,18 @@ public class WSCHByDepartmentDayOfWeekHourOfDay extends WSCHByDayOfWeekAndHourOf
 	@Override
 	public void createRoomUtilizationReportFor(PointInTimeData pointInTimeData, Session hibSession) {
 		
-		calculatePeriodsWithEnrollments(pointInTimeData, hibSession);
+		Map<Long, PeriodEnrollments> enrollments = PointInTimeDataAggregation.getInstance(pointInTimeData, hibSession).getEnrollmentsByDayOfWeekAndHour(
+				new ClassGroup<Long>() {
+					@Override
+					public Long getGroup(PitClassData clazz) {
+						return (clazz.isOrganized() ? clazz.getDepartmentId() : null);
+					}
+				}, startOnHalfHour);
+		for (Long departmentId: enrollments.keySet()) {
+			Department department = DepartmentDAO.getInstance().get(departmentId, hibSession);
+			if (department != null) depts.add(department);
+		}
 		
-		int minute = (startOnHalfHour ? 30 : 0);
 		for(Department department : depts) {
 			for(int dayOfWeek = 1 ; dayOfWeek < 8 ; dayOfWeek++) {
 				ArrayList<String> row = new ArrayList<String>();
@@ -70,59 +80,11 @@ public class WSCHByDepartmentDayOfWeekHourOfDay extends WSCHByDayOfWeekAndHourOf
 				row.add(department.getName());
 				row.add(getDayOfWeekLabel(periodDayOfWeek(dayOfWeek)));
 				for(int hourOfDay = 0 ; hourOfDay < 24 ; hourOfDay++) {
-					String key = getPeriodTag(department.getUniqueId().toString(), dayOfWeek, hourOfDay, minute);
-					row.add(periodEnrollmentMap.get(key) == null ? "0": "" + periodEnrollmentMap.get(key).getWeeklyStudentEnrollment());
+					row.add(getWeeklyStudentEnrollment(enrollments.get(department.getUniqueId()), dayOfWeek, hourOfDay));
 				}
 				addDataRow(row);			
 			}
 		}
 				
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void calculatePeriodsWithEnrollments (
-			PointInTimeData pointInTimeData, Session hibSession) {
-		
-		StringBuilder sb = new StringBuilder();
-		sb.append("select distinct pco.subjectArea.department, pc")
-		  .append("	from PitClass pc") 
-		  .append(" inner join pc.pitClassEvents as pce")
-		  .append(" inner join pce.pitClassMeetings as pcm")
-		  .append(" inner join pcm.pitClassMeetingUtilPeriods as pcmup")
-		  .append("	inner join pc.pitSchedulingSubpart.pitInstrOfferingConfig.pitInstructionalOffering.pitCourseOfferings as pco")
-		  .append("	where pc.pitSchedulingSubpart.pitInstrOfferingConfig.pitInstructionalOffering.pointInTimeData.uniqueId = :sessId")
-		  .append(" and pco.subjectArea.uniqueId = :saId")
-		  .append("	and pco.isControl = true")
-		  .append(" and  pc.pitSchedulingSubpart.itype.organized = true");
-		
-		HashSet<Long> processedClasses = new HashSet<Long>();
-		for (SubjectArea subjectArea : pointInTimeData.getSession().getSubjectAreas()){
-			for (Object[] result : hibSession.createQuery(sb.toString(), Object[].class)
-									.setParameter("sessId", pointInTimeData.getUniqueId().longValue())
-									.setParameter("saId", subjectArea.getUniqueId().longValue())
-									.setCacheable(true)
-									.list()) {
-				
-				Department department = (Department) result[0];
-				PitClass pc = (PitClass) result[1];
-				if (processedClasses.contains(pc.getUniqueId())){
-					continue;
-				}
-				processedClasses.add(pc.getUniqueId());
-			
-				depts.add(department);
-				
-				for (Date meetingPeriod : pc.getUniquePeriods()) {			
-					String label = getPeriodTag(department.getUniqueId().toString(), meetingPeriod);
-					PeriodEnrollment pe = periodEnrollmentMap.get(label);
-					if (pe == null) {
-						pe = new PeriodEnrollment(label, getStandardMinutesInReportingHour(), getStandardWeeksInReportingTerm());
-						periodEnrollmentMap.put(label, pe);
-					}
-					pe.addEnrollment(pc.getEnrollment());
-				}
-	
-			}
-		}
-	}
 }
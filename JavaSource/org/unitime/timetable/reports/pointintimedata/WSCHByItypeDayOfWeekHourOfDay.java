@@ -21,14 +21,15 @@
 package org.unitime.timetable.reports.pointintimedata;
 
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.hibernate.Session;
 import org.unitime.timetable.model.ItypeDesc;
-import org.unitime.timetable.model.PitClass;
 import org.unitime.timetable.model.PointInTimeData;
-import org.unitime.timetable.model.SubjectArea;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.ClassGroup;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.PeriodEnrollments;
+import org.unitime.timetable.reports.pointintimedata.PointInTimeDataAggregation.PitClassData;
 
 public class WSCHByItypeDayOfWeekHourOfDay extends WSCHByDayOfWeekAndHourOfDay {
 	
@@ -55,9 +56,18 @@ public class WSCHByItypeDayOfWeekHourOfDay extends WSCHByDayOfWeekAndHourOfDay {
 	@Override
 	public void createRoomUtilizationReportFor(PointInTimeData pointInTimeData, Session hibSession) {
 		
-		calculatePeriodsWithEnrollments(pointInTimeData, hibSession);
+		final Map<Long, String> itypeAbbvs = new HashMap<Long, String>();
+		for (ItypeDesc itype: ItypeDesc.findAll(false))
+			itypeAbbvs.put(itype.getItype().longValue(), itype.getParent() == null ? itype.getAbbv() : itype.getParent().getAbbv());
+		
+		Map<String, PeriodEnrollments> enrollments = PointInTimeDataAggregation.getInstance(pointInTimeData, hibSession).getEnrollmentsByDayOfWeekAndHour(
+				new ClassGroup<String>() {
+					@Override
+					public String getGroup(PitClassData clazz) {
+						return (clazz.getItypeId() == null ? null : itypeAbbvs.get(clazz.getItypeId()));
+					}
+				}, startOnHalfHour);
 		
-		int minute = (startOnHalfHour ? 30 : 0);
 		for(ItypeDesc itype : ItypeDesc.findAll(true)) {
 			for(int dayOfWeek = 1 ; dayOfWeek < 8 ; dayOfWeek++) {
 				ArrayList<String> row = new ArrayList<String>();
@@ -65,58 +75,11 @@ public class WSCHByItypeDayOfWeekHourOfDay extends WSCHByDayOfWeekAndHourOfDay {
 				row.add(itype.getOrganized().toString());
 				row.add(getDayOfWeekLabel(periodDayOfWeek(dayOfWeek)));
 				for(int hourOfDay = 0 ; hourOfDay < 24 ; hourOfDay++) {
-					String key = getPeriodTag(itype.getAbbv(), dayOfWeek, hourOfDay, minute);
-					row.add(periodEnrollmentMap.get(key) == null ? "0": "" + periodEnrollmentMap.get(key).getWeeklyStudentEnrollment());
+					row.add(getWeeklyStudentEnrollment(enrollments.get(itype.getAbbv()), dayOfWeek, hourOfDay));
 				}
 				addDataRow(row);			
 			}
 		}
 				
 	}
-
-	@SuppressWarnings("unchecked")
-	private void calculatePeriodsWithEnrollments (
-			PointInTimeData pointInTimeData, Session hibSession) {
-		
-		StringBuilder sb = new StringBuilder();
-		sb.append("select distinct pc.pitSchedulingSubpart.itype, pc")
-		  .append("	from PitClass pc") 
-		  .append(" inner join pc.pitClassEvents as pce")
-		  .append(" inner join pce.pitClassMeetings as pcm")
-		  .append(" inner join pcm.pitClassMeetingUtilPeriods as pcmup")
-		  .append("	inner join pc.pitSchedulingSubpart.pitInstrOfferingConfig.pitInstructionalOffering.pitCourseOfferings as pco")
-		  .append("	where pc.pitSchedulingSubpart.pitInstrOfferingConfig.pitInstructionalOffering.pointInTimeData.uniqueId = :sessId")
-		  .append(" and pco.subjectArea.uniqueId = :saId")
-		  .append("	and pco.isControl = true");
-
-		HashSet<Long> processedClasses = new HashSet<Long>();
-		
-		for (SubjectArea subjectArea : pointInTimeData.getSession().getSubjectAreas()){
-			for (Object[] result : hibSession.createQuery(sb.toString(), Object[].class)
-								.setParameter("sessId", pointInTimeData.getUniqueId().longValue())
-								.setParameter("saId", subjectArea.getUniqueId().longValue())
-								.setCacheable(true)
-								.list()) {
-			
-				ItypeDesc itype = (ItypeDesc) result[0];
-				PitClass pc = (PitClass) result[1];
-				if (processedClasses.contains(pc.getUniqueId())){
-					continue;
-				}
-				processedClasses.add(pc.getUniqueId());
-				
-				for (Date meetingPeriod : pc.getUniquePeriods()) {			
-					String label = getPeriodTag((itype.getParent() == null ? itype.getAbbv() : itype.getParent().getAbbv()), meetingPeriod);
-					PeriodEnrollment pe = periodEnrollmentMap.get(label);
-					if (pe == null) {
-						pe = new PeriodEnrollment(label, getStandardMinutesInReportingHour(), getStandardWeeksInReportingTerm());
-						periodEnrollmentMap.put(label, pe);
-					}
-					
-					pe.addEnrollment(pc.getEnrollment());
-				}
-			}
-		}
-
-	}
 }
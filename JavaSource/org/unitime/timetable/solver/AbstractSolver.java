@@ -19,11 +19,16 @@
 */
 package org.unitime.timetable.solver;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
@@ -420,24 +425,31 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
         Lock lock = currentSolution().getLock().readLock();
         lock.lock();
         try {
-            File outXmlFile = new File(folder, getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
+            boolean binary = !"xml".equalsIgnoreCase(ApplicationProperty.SolverPassivationFormat.value());
+            File outFile = new File(folder, getType().getPrefix() + puid + (binary ? BackupFileFilter.sBinaryExtension : BackupFileFilter.sXmlExtension));
             try {
-                FileOutputStream fos = null;
+                OutputStream os = null;
                 try {
-                    fos = new FileOutputStream(outXmlFile);
+                    os = new BufferedOutputStream(new FileOutputStream(outFile), 65536);
                     Document document = createCurrentSolutionBackup(false, false);
                     saveProperties(document);
-                    (new XMLWriter(fos,OutputFormat.createPrettyPrint())).write(document);
-                    fos.flush(); fos.close(); fos=null;
+                    if (binary)
+                    	BinaryBackupFormat.write(document, os, ApplicationProperty.SolverPassivationCompression.isTrue());
+                    else
+                    	(new XMLWriter(os,OutputFormat.createPrettyPrint())).write(document);
+                    os.flush(); os.close(); os=null;
                 } finally {
                     try {
-                        if (fos!=null) fos.close();
+                        if (os!=null) os.close();
                     } catch (IOException e) {}
                 }
+                // remove backup in the other format (if present), so that it is not restored instead
+                File otherFile = new File(folder, getType().getPrefix() + puid + (binary ? BackupFileFilter.sXmlExtension : BackupFileFilter.sBinaryExtension));
+                if (otherFile.exists()) otherFile.delete();
                 return true;
             } catch (Exception e) {
                 sLog.error(e.getMessage(),e);
-                if (outXmlFile.exists()) outXmlFile.delete();
+                if (outFile.exists()) outFile.delete();
             }
         } finally {
         	lock.unlock();
@@ -452,17 +464,36 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     
     protected abstract void restureCurrentSolutionFromBackup(Document document);
     
+    /**
+     * Read a backup file, either in the binary format (see {@link BinaryBackupFormat}) or in XML
+     */
+    protected Document readBackup(File file) throws IOException, DocumentException {
+    	InputStream is = new BufferedInputStream(new FileInputStream(file), 65536);
+    	try {
+    		is.mark(BinaryBackupFormat.MAGIC.length);
+    		byte[] header = new byte[BinaryBackupFormat.MAGIC.length];
+    		int len = is.readNBytes(header, 0, header.length);
+    		is.reset();
+    		if (len == header.length && BinaryBackupFormat.isMagic(header))
+    			return BinaryBackupFormat.read(is);
+    		return (new SAXReader()).read(is);
+    	} finally {
+    		is.close();
+    	}
+    }
+    
     @Override
     public boolean restore(File folder, String puid, boolean removeFiles) {
         sLog.debug("restore(folder="+folder+","+puid+")");
-        File inXmlFile = new File(folder,getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
+        File inFile = new File(folder,getType().getPrefix() + puid + BackupFileFilter.sBinaryExtension);
+        if (!inFile.exists()) inFile = new File(folder,getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
         
         M model = null;
         try {
             if (isRunning()) stopSolver();
             disposeNoInherit(false);
 
-            Document document = (new SAXReader()).read(inXmlFile);
+            Document document = readBackup(inFile);
             readProperties(document);
             
             model = createModel(getProperties());
@@ -474,7 +505,7 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
             Progress.getInstance(model).setStatus(MSG.statusReady());
             
             if (removeFiles) {
-                inXmlFile.delete();
+                inFile.delete();
             }
             
             return true;
@@ -0,0 +1,227 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.dom4j.Attribute;
+import org.dom4j.CDATA;
+import org.dom4j.Document;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.Text;
+
+/**
+ * Compact binary encoding of a dom4j document, used to passivate / back up solvers instead of a (pretty printed) XML file.
+ * Element and attribute names are written only once (then referenced by their index), all numbers are variable-length
+ * encoded, and there is no parsing or escaping of the text. The document is streamed, optionally through a fast deflate.<br>
+ * The data start with a header: {@link BinaryBackupFormat#MAGIC}, format version, and flags (compression).
+ * Only elements, attributes, and text (including CDATA) nodes are kept; comments, processing instructions, and the doctype are dropped.
+ *
+ * @author Tomas Muller
+ */
+public class BinaryBackupFormat {
+	public static final byte[] MAGIC = new byte[] { 'U', 'T', 'B', 'D' };
+	public static final int VERSION = 1;
+	private static final int FLAG_COMPRESSED = 1;
+	private static final int TOKEN_END = 0, TOKEN_ELEMENT = 1, TOKEN_TEXT = 2;
+	
+	/**
+	 * Write the document into the given stream (the stream is not closed)
+	 * @param compress compress the data using deflate (fastest level)
+	 */
+	public static void write(Document document, OutputStream output, boolean compress) throws IOException {
+		output.write(MAGIC);
+		output.write(VERSION);
+		output.write(compress ? FLAG_COMPRESSED : 0);
+		Deflater deflater = (compress ? new Deflater(Deflater.BEST_SPEED) : null);
+		try {
+			OutputStream out = (compress ? new DeflaterOutputStream(output, deflater, 65536) : output);
+			Writer writer = new Writer(new DataOutputStream(new BufferedOutputStream(out, 65536)));
+			writer.writeElement(document.getRootElement());
+			writer.iOut.flush();
+			if (compress) ((DeflaterOutputStream)out).finish();
+		} finally {
+			if (deflater != null) deflater.end();
+		}
+	}
+	
+	/**
+	 * Read a document from the given stream (the stream is not closed), the stream must start with the header
+	 */
+	public static Document read(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(input);
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!isMagic(magic)) throw new IOException("Not a binary backup.");
+		int version = in.readUnsignedByte();
+		if (version != VERSION) throw new IOException("Unsupported binary backup version " + version + ".");
+		int flags = in.readUnsignedByte();
+		InputStream data = ((flags & FLAG_COMPRESSED) != 0 ? new InflaterInputStream(input, new java.util.zip.Inflater(), 65536) : input);
+		try {
+			Reader reader = new Reader(new DataInputStream(new BufferedInputStream(data, 65536)));
+			Document document = DocumentFactory.getInstance().createDocument();
+			if (reader.iIn.readUnsignedByte() != TOKEN_ELEMENT) throw new IOException("Root element expected.");
+			document.setRootElement(reader.readElement());
+			return document;
+		} finally {
+			if (data instanceof InflaterInputStream) ((InflaterInputStream)data).close();
+		}
+	}
+	
+	/**
+	 * Check whether the given bytes start with the binary backup header
+	 */
+	public static boolean isMagic(byte[] data) {
+		if (data == null || data.length < MAGIC.length) return false;
+		for (int i = 0; i < MAGIC.length; i++)
+			if (data[i] != MAGIC[i]) return false;
+		return true;
+	}
+	
+	private static class Writer {
+		private DataOutputStream iOut;
+		private Map<String, Integer> iNames = new HashMap<String, Integer>();
+		
+		private Writer(DataOutputStream out) { iOut = out; }
+		
+		private void writeVarInt(int value) throws IOException {
+			while ((value & ~0x7F) != 0) {
+				iOut.writeByte((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			iOut.writeByte(value);
+		}
+		
+		private void writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length);
+			iOut.write(bytes);
+		}
+		
+		private void writeName(String name) throws IOException {
+			Integer index = iNames.get(name);
+			if (index != null) {
+				writeVarInt(index);
+			} else {
+				// a new name: the next index, followed by the name itself
+				writeVarInt(iNames.size());
+				writeString(name);
+				iNames.put(name, iNames.size());
+			}
+		}
+		
+		private void writeElement(Element element) throws IOException {
+			iOut.writeByte(TOKEN_ELEMENT);
+			writeName(element.getQualifiedName());
+			writeVarInt(element.attributeCount());
+			for (int i = 0; i < element.attributeCount(); i++) {
+				Attribute attribute = element.attribute(i);
+				writeName(attribute.getQualifiedName());
+				writeString(attribute.getValue());
+			}
+			for (int i = 0; i < element.nodeCount(); i++) {
+				Node node = element.node(i);
+				if (node instanceof Element) {
+					writeElement((Element)node);
+				} else if (node instanceof Text || node instanceof CDATA) {
+					iOut.writeByte(TOKEN_TEXT);
+					writeString(node.getText());
+				}
+			}
+			iOut.writeByte(TOKEN_END);
+		}
+	}
+	
+	private static class Reader {
+		private DataInputStream iIn;
+		private List<String> iNames = new ArrayList<String>();
+		private DocumentFactory iFactory = DocumentFactory.getInstance();
+		
+		private Reader(DataInputStream in) { iIn = in; }
+		
+		private int readVarInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = iIn.readUnsignedByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new IOException("Malformed number.");
+		}
+		
+		private String readString() throws IOException {
+			byte[] bytes = new byte[readVarInt()];
+			iIn.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+		private String readName() throws IOException {
+			int index = readVarInt();
+			if (index < iNames.size()) return iNames.get(index);
+			if (index > iNames.size()) throw new IOException("Malformed name reference.");
+			String name = readString();
+			iNames.add(name);
+			return name;
+		}
+		
+		private Element readElement() throws IOException {
+			Element element = iFactory.createElement(readName());
+			int attributes = readVarInt();
+			for (int i = 0; i < attributes; i++) {
+				String name = readName();
+				element.addAttribute(name, readString());
+			}
+			while (true) {
+				int token = iIn.read();
+				switch (token) {
+				case TOKEN_END:
+					return element;
+				case TOKEN_ELEMENT:
+					element.add(readElement());
+					break;
+				case TOKEN_TEXT:
+					element.addText(readString());
+					break;
+				case -1:
+					throw new EOFException("Unexpected end of a binary backup.");
+				default:
+					throw new IOException("Malformed binary backup (unknown token " + token + ").");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver;
+
+import java.text.DecimalFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.solver.ui.AssignmentPreferenceInfo;
+
+/**
+ * Shared (cross-request) cache of class assignments of saved solutions, used by {@link SolutionClassAssignmentProxy}.
+ * For each solution (keyed by the solution id), the cache remembers the assignment id of each class (or that the class is not assigned)
+ * and the assignment preference info of the class, so that the instructional offering tables do not need to
+ * look up the same assignments (and parse the same assignment infos) over and over again.<br>
+ * Only the ids are kept in the cache, the assignments themselves are loaded using the current hibernate session (and
+ * the second level cache). The number of cached solutions is limited by the unitime.classAssignment.cacheSize property,
+ * the least recently used solution is dropped first.<br>
+ * The cached assignments of a solution are checked against the number of its assignments, the highest assignment id, and the commit date
+ * (see {@link ClassAssignmentCache#getSolution(Long, org.hibernate.Session)}), so that a solution that has been saved again
+ * (possibly by a different server) is picked up as well. The check is to be made once per hibernate session, the returned
+ * {@link SolutionAssignments} are then only filled with the data of the same state of the solution (a reader with an older state never
+ * changes the assignments cached for a newer state).<br>
+ * Within the same server, the cache of a solution is also dropped whenever the solution is saved, committed, or uncommitted (see {@link ClassAssignmentCache#invalidate(Long)})
+ * and the cache of a class whenever its committed assignment is changed (see {@link ClassAssignmentCache#invalidateClass(Long)}).
+ *
+ * @author Tomas Muller
+ */
+public class ClassAssignmentCache {
+	private static DecimalFormat sDF = new DecimalFormat("0.00");
+	private static final Long sNoAssignment = Long.valueOf(-1l);
+	private static ClassAssignmentCache sInstance = null;
+	
+	private Map<Long, SolutionAssignments> iSolutions;
+	private int iMaxSolutions;
+	private AtomicLong iHits = new AtomicLong(0), iMisses = new AtomicLong(0), iInvalidations = new AtomicLong(0);
+	
+	public ClassAssignmentCache(int maxSolutions) {
+		iMaxSolutions = maxSolutions;
+		iSolutions = new LinkedHashMap<Long, SolutionAssignments>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, SolutionAssignments> eldest) {
+				return size() > iMaxSolutions;
+			}
+		};
+	}
+	
+	/**
+	 * The shared instance, null when the cache is disabled (unitime.classAssignment.cacheSize is zero)
+	 */
+	public static ClassAssignmentCache getInstance() {
+		if (sInstance == null) {
+			int size = ApplicationProperty.ClassAssignmentCacheSize.intValue();
+			if (size <= 0) return null;
+			synchronized (ClassAssignmentCache.class) {
+				if (sInstance == null)
+					sInstance = new ClassAssignmentCache(size);
+			}
+		}
+		return sInstance;
+	}
+	
+	/**
+	 * Drop all cached assignments of the given solution
+	 */
+	public static void invalidate(Long solutionId) {
+		ClassAssignmentCache cache = sInstance;
+		if (cache != null && solutionId != null) cache.remove(solutionId);
+	}
+	
+	/**
+	 * Drop all cached assignments of the given class (in all solutions)
+	 */
+	public static void invalidateClass(Long classId) {
+		ClassAssignmentCache cache = sInstance;
+		if (cache != null && classId != null) cache.removeClass(classId);
+	}
+	
+	/**
+	 * Cached assignments of the given solution, the cached assignments are dropped when they do not match the current state of the solution in the database
+	 * @param solutionId solution id
+	 * @param hibSession hibernate session used to check the state of the solution
+	 */
+	public SolutionAssignments getSolution(Long solutionId, org.hibernate.Session hibSession) {
+		Object[] stamp = hibSession.createQuery(
+				"select count(a), max(a.uniqueId), max(s.commitDate) from Solution s left join s.assignments a where s.uniqueId = :solutionId", Object[].class)
+				.setParameter("solutionId", solutionId).uniqueResult();
+		SolutionAssignments cache = new SolutionAssignments(stamp);
+		synchronized (iSolutions) {
+			SolutionAssignments current = iSolutions.get(solutionId);
+			if (current != null && current.hasSameStamp(cache)) return current;
+			if (current != null) iInvalidations.incrementAndGet();
+			iSolutions.put(solutionId, cache);
+			return cache;
+		}
+	}
+	
+	protected void remove(Long solutionId) {
+		synchronized (iSolutions) {
+			if (iSolutions.remove(solutionId) != null) iInvalidations.incrementAndGet();
+		}
+	}
+	
+	protected void removeClass(Long classId) {
+		synchronized (iSolutions) {
+			for (SolutionAssignments cache: iSolutions.values()) {
+				if (cache.iAssignments.remove(classId) != null) iInvalidations.incrementAndGet();
+				cache.iInfos.remove(classId);
+			}
+		}
+	}
+	
+	/** Drop everything */
+	public void clear() {
+		synchronized (iSolutions) {
+			iSolutions.clear();
+		}
+	}
+	
+	/** True if the cached assignment id means that the class is not assigned */
+	public static boolean isNotAssigned(Long assignmentId) {
+		return sNoAssignment.equals(assignmentId);
+	}
+	
+	/** Number of cached solutions */
+	public int size() {
+		synchronized (iSolutions) {
+			return iSolutions.size();
+		}
+	}
+	
+	public long getHits() { return iHits.get(); }
+	public long getMisses() { return iMisses.get(); }
+	public long getInvalidations() { return iInvalidations.get(); }
+	public double getHitRate() {
+		long hits = getHits(), total = hits + getMisses();
+		return (total == 0 ? 0.0 : ((double)hits) / total);
+	}
+	
+	@Override
+	public String toString() {
+		int classes = 0;
+		synchronized (iSolutions) {
+			for (Iterator<SolutionAssignments> i = iSolutions.values().iterator(); i.hasNext(); )
+				classes += i.next().iAssignments.size();
+		}
+		return "ClassAssignmentCache{solutions=" + size() + "/" + iMaxSolutions + ", classes=" + classes + ", hits=" + getHits() + ", misses=" + getMisses() +
+				" (" + sDF.format(100.0 * getHitRate()) + "% hit rate), invalidations=" + getInvalidations() + "}";
+	}
+	
+	/**
+	 * Cached assignments of a solution, together with the state of the solution (number of assignments, highest assignment id, and commit date) they belong to
+	 */
+	public class SolutionAssignments {
+		private long iNrAssignments, iMaxAssignmentId, iLastCommit;
+		private Map<Long, Long> iAssignments = new ConcurrentHashMap<Long, Long>();
+		private Map<Long, AssignmentPreferenceInfo> iInfos = new ConcurrentHashMap<Long, AssignmentPreferenceInfo>();
+		
+		private SolutionAssignments(Object[] stamp) {
+			iNrAssignments = (stamp == null || stamp[0] == null ? 0l : ((Number)stamp[0]).longValue());
+			iMaxAssignmentId = (stamp == null || stamp[1] == null ? -1l : ((Number)stamp[1]).longValue());
+			iLastCommit = (stamp == null || stamp[2] == null ? 0l : ((Date)stamp[2]).getTime());
+		}
+		
+		private boolean hasSameStamp(SolutionAssignments other) {
+			return iNrAssignments == other.iNrAssignments && iMaxAssignmentId == other.iMaxAssignmentId && iLastCommit == other.iLastCommit;
+		}
+		
+		/**
+		 * Cached assignment id of a class
+		 * @return null if not cached, {@link ClassAssignmentCache#isNotAssigned(Long)} is true when the class is known not to be assigned in the solution
+		 */
+		public Long getAssignmentId(Long classId) {
+			return getAssignmentId(classId, true);
+		}
+		
+		/**
+		 * Cached assignment id of a class
+		 * @param countLookup false if the lookup is part of another lookup that has been already counted in the cache hits / misses
+		 */
+		public Long getAssignmentId(Long classId, boolean countLookup) {
+			Long assignmentId = iAssignments.get(classId);
+			if (!countLookup)
+				return assignmentId;
+			else if (assignmentId == null)
+				iMisses.incrementAndGet();
+			else
+				iHits.incrementAndGet();
+			return assignmentId;
+		}
+		
+		/** Remember the assignment id of a class, null when the class is not assigned */
+		public void putAssignmentId(Long classId, Long assignmentId) {
+			iAssignments.put(classId, assignmentId == null ? sNoAssignment : assignmentId);
+		}
+		
+		/** Cached assignment preference info of a class, null if not cached */
+		public AssignmentPreferenceInfo getAssignmentInfo(Long classId) {
+			AssignmentPreferenceInfo info = iInfos.get(classId);
+			if (info == null)
+				iMisses.incrementAndGet();
+			else
+				iHits.incrementAndGet();
+			return info;
+		}
+		
+		/** Remember the assignment preference info of a class */
+		public void putAssignmentInfo(Long classId, AssignmentPreferenceInfo info) {
+			if (info != null) iInfos.put(classId, info);
+		}
+	}
+}
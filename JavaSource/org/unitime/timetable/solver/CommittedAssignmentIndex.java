@@ -0,0 +1,272 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.timetable.model.Assignment;
+import org.unitime.timetable.model.TimePattern;
+import org.unitime.timetable.model.dao.AssignmentDAO;
+import org.unitime.timetable.util.Constants;
+
+/**
+ * In-memory occupancy index of the committed class assignments of an academic session.
+ * For each room and each (lead) instructor external id, the index keeps the committed assignments together with
+ * a bit set of the occupied (day, time slot) pairs, so that all the committed assignments that may overlap with a given
+ * time can be found without querying the database.<br>
+ * The index is a conservative filter: the weeks (date patterns) are ignored and an exact time assignment is considered
+ * to take the rest of the day, the returned candidates are to be checked using {@link Assignment#overlaps(ClassAssignmentProxy.AssignmentInfo)} or
+ * {@link org.cpsolver.coursett.model.TimeLocation#hasIntersection(org.cpsolver.coursett.model.TimeLocation)}.<br>
+ * There is one index per academic session, it is dropped by {@link CommittedAssignmentIndex#invalidate(Long)} whenever a solution
+ * is committed or uncommitted. A cached index is also checked against the number of committed assignments, the highest assignment id,
+ * and the last commit date, so that commits made by a different server are picked up as well. This check is done only once
+ * per hibernate session (that is, once per request), as the index is looked up for each class of a listing.
+ *
+ * @author Tomas Muller
+ */
+public class CommittedAssignmentIndex {
+	private static Log sLog = LogFactory.getLog(CommittedAssignmentIndex.class);
+	private static DecimalFormat sDF = new DecimalFormat("0.00");
+	private static Map<Long, CommittedAssignmentIndex> sIndexes = new ConcurrentHashMap<Long, CommittedAssignmentIndex>();
+	private static AtomicLong sHits = new AtomicLong(0), sBuilds = new AtomicLong(0);
+	
+	private Long iSessionId;
+	private long iNrAssignments, iMaxAssignmentId, iLastCommit;
+	private Map<Long, Resource> iRooms = new HashMap<Long, Resource>();
+	private Map<String, Resource> iInstructors = new HashMap<String, Resource>();
+	private Set<org.hibernate.Session> iValidated = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<org.hibernate.Session, Boolean>()));
+	
+	private CommittedAssignmentIndex(Long sessionId, Object[] stamp) {
+		iSessionId = sessionId;
+		iNrAssignments = (stamp[0] == null ? 0l : ((Number)stamp[0]).longValue());
+		iMaxAssignmentId = (stamp[1] == null ? -1l : ((Number)stamp[1]).longValue());
+		iLastCommit = (stamp[2] == null ? 0l : ((Date)stamp[2]).getTime());
+	}
+	
+	/**
+	 * Occupancy index of the given academic session, the index is (re)created when there is no cached index or when the cached index is outdated.
+	 * A cached index is checked against the database only on the first lookup made with the given hibernate session.
+	 * @param sessionId academic session id
+	 * @param hibSession hibernate session to be used when the index is being validated or built
+	 */
+	public static CommittedAssignmentIndex getInstance(Long sessionId, org.hibernate.Session hibSession) {
+		CommittedAssignmentIndex index = sIndexes.get(sessionId);
+		if (index != null && index.iValidated.contains(hibSession)) {
+			sHits.incrementAndGet();
+			return index;
+		}
+		Object[] stamp = hibSession.createQuery(
+				"select count(a), max(a.uniqueId), max(s.commitDate) from Assignment a inner join a.solution s where " +
+				"s.commited = true and s.owner.session.uniqueId = :sessionId", Object[].class)
+				.setParameter("sessionId", sessionId).uniqueResult();
+		if (index != null && index.isValid(stamp)) {
+			index.iValidated.add(hibSession);
+			sHits.incrementAndGet();
+			return index;
+		}
+		index = new CommittedAssignmentIndex(sessionId, stamp);
+		index.load(hibSession);
+		index.iValidated.add(hibSession);
+		sIndexes.put(sessionId, index);
+		return index;
+	}
+	
+	/** Occupancy index of the given academic session, using the current thread hibernate session */
+	public static CommittedAssignmentIndex getInstance(Long sessionId) {
+		return getInstance(sessionId, AssignmentDAO.getInstance().getSession());
+	}
+	
+	/** Drop the cached index of the given academic session (to be called when a solution is committed or uncommitted) */
+	public static void invalidate(Long sessionId) {
+		if (sessionId != null) sIndexes.remove(sessionId);
+	}
+	
+	/** Drop all the cached indexes */
+	public static void invalidateAll() {
+		sIndexes.clear();
+	}
+	
+	protected boolean isValid(Object[] stamp) {
+		return iNrAssignments == (stamp[0] == null ? 0l : ((Number)stamp[0]).longValue()) &&
+				iMaxAssignmentId == (stamp[1] == null ? -1l : ((Number)stamp[1]).longValue()) &&
+				iLastCommit == (stamp[2] == null ? 0l : ((Date)stamp[2]).getTime());
+	}
+	
+	private static int length(Object slotsPerMtg, Object type, int startSlot) {
+		if (type != null && ((Number)type).intValue() == TimePattern.TimePatternType.ExactTime.ordinal())
+			return Constants.SLOTS_PER_DAY - startSlot;
+		return (slotsPerMtg == null ? Constants.SLOTS_PER_DAY - startSlot : ((Number)slotsPerMtg).intValue());
+	}
+	
+	protected void load(org.hibernate.Session hibSession) {
+		long t0 = System.currentTimeMillis();
+		for (Object[] o: hibSession.createQuery(
+				"select a.uniqueId, a.days, a.startSlot, a.timePattern.slotsPerMtg, a.timePattern.type, a.solution.owner.uniqueId, r.uniqueId " +
+				"from Assignment a inner join a.rooms r where a.solution.commited = true and a.solution.owner.session.uniqueId = :sessionId", Object[].class)
+				.setParameter("sessionId", iSessionId).list()) {
+			int start = ((Number)o[2]).intValue();
+			Entry entry = new Entry((Long)o[0], ((Number)o[1]).intValue(), start, length(o[3], o[4], start), (Long)o[5], null);
+			Long roomId = (Long)o[6];
+			Resource resource = iRooms.get(roomId);
+			if (resource == null) {
+				resource = new Resource();
+				iRooms.put(roomId, resource);
+			}
+			resource.add(entry);
+		}
+		for (Object[] o: hibSession.createQuery(
+				"select a.uniqueId, a.days, a.startSlot, a.timePattern.slotsPerMtg, a.timePattern.type, a.solution.owner.uniqueId, i.externalUniqueId, i.department.solverGroup.uniqueId " +
+				"from ClassInstructor c inner join c.instructor i inner join c.classInstructing.assignments a where " +
+				"c.lead = true and i.externalUniqueId is not null and a.solution.commited = true and a.solution.owner.session.uniqueId = :sessionId", Object[].class)
+				.setParameter("sessionId", iSessionId).list()) {
+			int start = ((Number)o[2]).intValue();
+			Entry entry = new Entry((Long)o[0], ((Number)o[1]).intValue(), start, length(o[3], o[4], start), (Long)o[5], (Long)o[7]);
+			String externalId = (String)o[6];
+			Resource resource = iInstructors.get(externalId);
+			if (resource == null) {
+				resource = new Resource();
+				iInstructors.put(externalId, resource);
+			}
+			resource.add(entry);
+		}
+		sBuilds.incrementAndGet();
+		sLog.debug("Occupancy index of session " + iSessionId + " created in " + (System.currentTimeMillis() - t0) + " ms (" + iRooms.size() + " rooms, " + iInstructors.size() + " instructors).");
+	}
+	
+	/** Committed assignments of the given room that may overlap with the given days and time */
+	public List<Entry> getRoomAssignments(Long roomId, int days, int startSlot, int length) {
+		Resource resource = iRooms.get(roomId);
+		return (resource == null ? Collections.emptyList() : resource.find(days, startSlot, length));
+	}
+	
+	/** Committed assignments of the given room that may overlap with the given assignment */
+	public List<Entry> getRoomAssignments(Long roomId, ClassAssignmentProxy.AssignmentInfo assignment) {
+		return getRoomAssignments(roomId, assignment.getDays(), assignment.getStartSlot(), assignment.getSlotPerMtg());
+	}
+	
+	/** Committed assignments of the given (lead) instructor that may overlap with the given days and time */
+	public List<Entry> getInstructorAssignments(String externalId, int days, int startSlot, int length) {
+		Resource resource = (externalId == null ? null : iInstructors.get(externalId));
+		return (resource == null ? Collections.emptyList() : resource.find(days, startSlot, length));
+	}
+	
+	/** Committed assignments of the given (lead) instructor that may overlap with the given assignment */
+	public List<Entry> getInstructorAssignments(String externalId, ClassAssignmentProxy.AssignmentInfo assignment) {
+		return getInstructorAssignments(externalId, assignment.getDays(), assignment.getStartSlot(), assignment.getSlotPerMtg());
+	}
+	
+	/** Load the assignments of the given index entries */
+	public static List<Assignment> getAssignments(Collection<Entry> entries, org.hibernate.Session hibSession) {
+		List<Assignment> assignments = new ArrayList<Assignment>(entries.size());
+		for (Entry entry: entries) {
+			Assignment assignment = hibSession.get(Assignment.class, entry.getAssignmentId());
+			if (assignment != null) assignments.add(assignment);
+		}
+		return assignments;
+	}
+	
+	public Long getSessionId() { return iSessionId; }
+	
+	/** Number of index lookups that were served by a cached index vs. the number of indexes that had to be created */
+	public static String getStatistics() {
+		long hits = sHits.get(), builds = sBuilds.get();
+		return "hits=" + hits + ", builds=" + builds + " (" + sDF.format(hits + builds == 0 ? 0.0 : 100.0 * hits / (hits + builds)) + "% hit rate)";
+	}
+	
+	@Override
+	public String toString() {
+		return "CommittedAssignmentIndex{session=" + iSessionId + ", assignments=" + iNrAssignments + ", rooms=" + iRooms.size() + ", instructors=" + iInstructors.size() + "}";
+	}
+	
+	/**
+	 * A committed assignment of a room or an instructor
+	 */
+	public static class Entry {
+		private Long iAssignmentId;
+		private int iDays, iStartSlot, iLength;
+		private Long iOwnerId, iSolverGroupId;
+		
+		private Entry(Long assignmentId, int days, int startSlot, int length, Long ownerId, Long solverGroupId) {
+			iAssignmentId = assignmentId;
+			iDays = days; iStartSlot = startSlot; iLength = length;
+			iOwnerId = ownerId; iSolverGroupId = solverGroupId;
+		}
+		
+		/** Assignment id */
+		public Long getAssignmentId() { return iAssignmentId; }
+		/** Solver group of the committed solution */
+		public Long getOwnerId() { return iOwnerId; }
+		/** Solver group of the instructor's department (instructor entries only) */
+		public Long getSolverGroupId() { return iSolverGroupId; }
+		
+		public boolean overlaps(int days, int startSlot, int length) {
+			return (iDays & days) != 0 && iStartSlot < startSlot + length && startSlot < iStartSlot + iLength;
+		}
+		
+		@Override
+		public String toString() { return "Entry{assignment=" + iAssignmentId + ", owner=" + iOwnerId + "}"; }
+	}
+	
+	/**
+	 * Committed assignments of a resource, together with a bit set of all the occupied (day, time slot) pairs
+	 */
+	private static class Resource {
+		private BitSet iOccupied = new BitSet(Constants.NR_DAYS * Constants.SLOTS_PER_DAY);
+		private List<Entry> iEntries = new ArrayList<Entry>();
+		
+		private void add(Entry entry) {
+			iEntries.add(entry);
+			for (int d = 0; d < Constants.NR_DAYS; d++)
+				if ((entry.iDays & Constants.DAY_CODES[d]) != 0)
+					iOccupied.set(d * Constants.SLOTS_PER_DAY + entry.iStartSlot, d * Constants.SLOTS_PER_DAY + Math.min(Constants.SLOTS_PER_DAY, entry.iStartSlot + entry.iLength));
+		}
+		
+		private boolean isOccupied(int days, int startSlot, int length) {
+			for (int d = 0; d < Constants.NR_DAYS; d++)
+				if ((days & Constants.DAY_CODES[d]) != 0) {
+					int next = iOccupied.nextSetBit(d * Constants.SLOTS_PER_DAY + startSlot);
+					if (next >= 0 && next < d * Constants.SLOTS_PER_DAY + Math.min(Constants.SLOTS_PER_DAY, startSlot + length)) return true;
+				}
+			return false;
+		}
+		
+		private List<Entry> find(int days, int startSlot, int length) {
+			if (!isOccupied(days, startSlot, length)) return Collections.emptyList();
+			List<Entry> ret = new ArrayList<Entry>();
+			for (Entry entry: iEntries)
+				if (entry.overlaps(days, startSlot, length)) ret.add(entry);
+			return ret;
+		}
+	}
+}
@@ -19,15 +19,18 @@
 */
 package org.unitime.timetable.solver;
 
+import java.lang.ref.WeakReference;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
@@ -50,6 +53,7 @@ import org.unitime.timetable.model.Location;
 import org.unitime.timetable.model.Room;
 import org.unitime.timetable.model.SchedulingSubpart;
 import org.unitime.timetable.model.Solution;
+import org.unitime.timetable.model.dao.AssignmentDAO;
 import org.unitime.timetable.model.dao.Class_DAO;
 import org.unitime.timetable.model.dao.InstructionalOfferingDAO;
 import org.unitime.timetable.model.dao.SolutionDAO;
@@ -64,6 +68,8 @@ import org.unitime.timetable.util.RoomAvailability;
 public class SolutionClassAssignmentProxy extends CommitedClassAssignmentProxy {
 	private Set<Long> iSolutionIds = new HashSet<Long>();
 	private Hashtable<Long, Long> iDepartmentIds = new Hashtable<Long, Long>();
+	private transient WeakReference<org.hibernate.Session> iCachedSession = null;
+	private transient Map<Long, ClassAssignmentCache.SolutionAssignments> iCachedSolutions = null;
 	
 	public SolutionClassAssignmentProxy(Collection solutionIds) {
 		super();
@@ -83,6 +89,26 @@ public class SolutionClassAssignmentProxy extends CommitedClassAssignmentProxy {
 			iDepartmentIds.put(((Department)j.next()).getUniqueId(), solution.getUniqueId());
 	}
 
+	/**
+	 * Shared cache of the assignments of the given solution, checked against the state of the solution once per hibernate session
+	 * @return null when the shared cache is disabled
+	 */
+	protected synchronized ClassAssignmentCache.SolutionAssignments getCachedAssignments(Long solutionId) {
+		ClassAssignmentCache cache = ClassAssignmentCache.getInstance();
+		if (cache == null) return null;
+		org.hibernate.Session hibSession = AssignmentDAO.getInstance().getSession();
+		if (iCachedSession == null || iCachedSession.get() != hibSession || iCachedSolutions == null) {
+			iCachedSession = new WeakReference<org.hibernate.Session>(hibSession);
+			iCachedSolutions = new HashMap<Long, ClassAssignmentCache.SolutionAssignments>();
+		}
+		ClassAssignmentCache.SolutionAssignments assignments = iCachedSolutions.get(solutionId);
+		if (assignments == null) {
+			assignments = cache.getSolution(solutionId, hibSession);
+			iCachedSolutions.put(solutionId, assignments);
+		}
+		return assignments;
+	}
+
 	public Long getSolutionId(Class_ clazz) {
 		Department department = clazz.getManagingDept();
 		if (department==null) return null;
@@ -92,6 +118,22 @@ public class SolutionClassAssignmentProxy extends CommitedClassAssignmentProxy {
     public Assignment getAssignment(Class_ clazz) {
         Long solutionId = getSolutionId(clazz);
 		if (solutionId==null) return super.getAssignment(clazz);
+		return getAssignment(clazz, solutionId, getCachedAssignments(solutionId), true);
+    }
+    
+    /**
+     * Assignment of the class in the given solution
+     * @param countLookup false when called from {@link SolutionClassAssignmentProxy#getAssignmentInfo(Class_)}, which has already counted its own cache lookup
+     */
+    private Assignment getAssignment(Class_ clazz, Long solutionId, ClassAssignmentCache.SolutionAssignments cache, boolean countLookup) {
+		if (cache != null) {
+			Long assignmentId = cache.getAssignmentId(clazz.getUniqueId(), countLookup);
+			if (assignmentId != null) {
+				if (ClassAssignmentCache.isNotAssigned(assignmentId)) return null;
+				Assignment a = AssignmentDAO.getInstance().get(assignmentId);
+				if (a != null) return a;
+			}
+		}
         Iterator i = null;
         try {
             i = clazz.getAssignments().iterator();
@@ -101,16 +143,27 @@ public class SolutionClassAssignmentProxy extends CommitedClassAssignmentProxy {
         }
         while (i.hasNext()) {
 			Assignment a = (Assignment)i.next();
-			if (solutionId.equals(a.getSolution().getUniqueId())) return a;
+			if (solutionId.equals(a.getSolution().getUniqueId())) {
+				if (cache != null) cache.putAssignmentId(clazz.getUniqueId(), a.getUniqueId());
+				return a;
+			}
 		}
+        if (cache != null) cache.putAssignmentId(clazz.getUniqueId(), null);
 		return null;
     }
  
     public AssignmentPreferenceInfo getAssignmentInfo(Class_ clazz) {
         Long solutionId = getSolutionId(clazz);
 		if (solutionId==null) return super.getAssignmentInfo(clazz);
-    	Assignment a = getAssignment(clazz);
-    	return (a==null?null:(AssignmentPreferenceInfo)a.getAssignmentInfo("AssignmentInfo"));
+		ClassAssignmentCache.SolutionAssignments cache = getCachedAssignments(solutionId);
+		if (cache != null) {
+			AssignmentPreferenceInfo info = cache.getAssignmentInfo(clazz.getUniqueId());
+			if (info != null) return info;
+		}
+    	Assignment a = getAssignment(clazz, solutionId, cache, false);
+    	AssignmentPreferenceInfo info = (a==null?null:(AssignmentPreferenceInfo)a.getAssignmentInfo("AssignmentInfo"));
+    	if (cache != null) cache.putAssignmentInfo(clazz.getUniqueId(), info);
+    	return info;
     }
     
     public Set<Long> getSolutionIds() {
@@ -163,6 +163,9 @@ public class TimetableDatabaseSaver extends TimetableSaver {
     		Long[] solutionIds = save(hibSession);
     		
     		tx.commit();
+    		if (solutionIds != null)
+    			for (Long solutionId: solutionIds)
+    				ClassAssignmentCache.invalidate(solutionId);
     		
             HashSet refreshIds = new HashSet();
     		if (iCommitSolution && solutionIds!=null) {
@@ -20,6 +20,7 @@
 package org.unitime.timetable.solver.exam.ui;
 
 import java.io.Serializable;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
@@ -302,6 +303,12 @@ public class ExamAssignmentInfo extends ExamAssignment implements Serializable
         generateConflicts(exam, examStudents, null, period2meetings, p, owner2students, onwer2course2students);
     }
     
+    public ExamAssignmentInfo(org.unitime.timetable.model.Exam exam, Hashtable<Long,Set<Long>> owner2students, Hashtable<Long,Hashtable<Long,Set<Long>>> onwer2course2students, 
+    		ExamStudentIndex index, ExamStudentIndex.StudentConflicts studentConflicts, Hashtable<Long, Set<Meeting>> period2meetings, Parameters p) {
+        super(exam, owner2students, onwer2course2students);
+        generateConflicts(exam, index, studentConflicts, null, period2meetings, p, owner2students, onwer2course2students);
+    }
+    
     public ExamAssignmentInfo(org.unitime.timetable.model.Exam exam, boolean useCache) {
         super(exam);
         if (!useCache) {
@@ -718,6 +725,49 @@ public class ExamAssignmentInfo extends ExamAssignment implements Serializable
         iBackToBacks.addAll(backToBacks.values());
         iMoreThanTwoADays.addAll(m2ds.values());
         
+        generateOtherConflicts(exam, table, period2meetings, p, owner2students, onwer2course2students);
+    }
+    
+    /**
+     * Generate conflicts using student conflicts pre-computed by {@link ExamStudentIndex#computeStudentConflicts(Hashtable, Parameters, int)}
+     */
+    public void generateConflicts(org.unitime.timetable.model.Exam exam, ExamStudentIndex index, ExamStudentIndex.StudentConflicts studentConflicts, Hashtable<Long, ExamAssignment> table, Hashtable<Long, Set<Meeting>> period2meetings, Parameters p,
+    		Hashtable<Long, Set<Long>> owner2students, Hashtable<Long,Hashtable<Long,Set<Long>>> onwer2course2students) {
+        if (getPeriod()==null) return;
+        
+        if (studentConflicts != null) {
+            for (Map.Entry<Integer, BitSet> entry: studentConflicts.getDirectConflicts().entrySet()) {
+                DirectConflict dc = new DirectConflict(getAssignment(index.getExam(entry.getKey()), table, owner2students, onwer2course2students));
+                dc.setStudents(index.getStudentIds(entry.getValue()));
+                iNrDirectConflicts += dc.getNrStudents();
+                iDirects.add(dc);
+            }
+            for (Map.Entry<Integer, BitSet> entry: studentConflicts.getBackToBackConflicts().entrySet()) {
+                org.unitime.timetable.model.Exam other = index.getExam(entry.getKey());
+                double distance = Location.getDistance(getRooms(), getAssignedRooms(other, table));
+                BackToBackConflict btb = new BackToBackConflict(getAssignment(other, table, owner2students, onwer2course2students), (p.getBackToBackDistance()<0?false:distance>p.getBackToBackDistance()), distance);
+                btb.setStudents(index.getStudentIds(entry.getValue()));
+                iNrBackToBackConflicts += btb.getNrStudents();
+                if (btb.isDistance()) iNrDistanceBackToBackConflicts += btb.getNrStudents();
+                iBackToBacks.add(btb);
+            }
+            for (Map.Entry<ExamStudentIndex.ExamSet, BitSet> entry: studentConflicts.getMoreThanTwoADaysConflicts().entrySet()) {
+                TreeSet otherExams = new TreeSet();
+                for (int x: entry.getKey().getExams())
+                    otherExams.add(getAssignment(index.getExam(x), table, owner2students, onwer2course2students));
+                MoreThanTwoADayConflict m2d = new MoreThanTwoADayConflict(otherExams);
+                m2d.setStudents(index.getStudentIds(entry.getValue()));
+                iNrMoreThanTwoADayConflicts += m2d.getNrStudents();
+                iMoreThanTwoADays.add(m2d);
+            }
+        }
+        
+        generateOtherConflicts(exam, table, period2meetings, p, owner2students, onwer2course2students);
+    }
+    
+    /** Event, instructor, and distribution conflicts */
+    protected void generateOtherConflicts(org.unitime.timetable.model.Exam exam, Hashtable<Long, ExamAssignment> table, Hashtable<Long, Set<Meeting>> period2meetings, Parameters p,
+    		Hashtable<Long, Set<Long>> owner2students, Hashtable<Long,Hashtable<Long,Set<Long>>> onwer2course2students) {
         if (ApplicationProperty.ExaminationConsiderEventConflicts.isTrue(exam.getExamType().getReference()))
             computeUnavailablility(exam,getPeriodId(),period2meetings);
             
@@ -1110,12 +1160,32 @@ public class ExamAssignmentInfo extends ExamAssignment implements Serializable
     }
 
     
+    /**
+     * Lazily built hash set of the students of a conflict, used by the reports instead of {@link Vector#contains(Object)}.
+     * The set is rebuilt when the student vector is replaced or its size changes.
+     */
+    protected static class StudentLookup {
+        private Vector<Long> iStudents = null;
+        private int iSize = -1;
+        private Set<Long> iStudentSet = null;
+        
+        protected boolean contains(Vector<Long> students, Long studentId) {
+            if (students.size() <= 8) return students.contains(studentId);
+            if (iStudentSet == null || iStudents != students || iSize != students.size()) {
+                iStudentSet = new HashSet<Long>(students);
+                iStudents = students;
+                iSize = students.size();
+            }
+            return iStudentSet.contains(studentId);
+        }
+    }
     
     public static class DirectConflict implements Serializable, Comparable<DirectConflict> {
 		private static final long serialVersionUID = 1300925620564937810L;
 		protected ExamAssignment iOtherExam = null;
         protected int iNrStudents = 1;
         protected Vector<Long> iStudents = new Vector();
+        protected transient StudentLookup iStudentLookup = null;
         protected String iOtherEventName = null;
         protected String iOtherEventTime = null;
         protected String iOtherEventDate = null;
@@ -1180,6 +1250,14 @@ public class ExamAssignmentInfo extends ExamAssignment implements Serializable
         public Vector<Long> getStudents() {
             return iStudents;
         }
+        protected void setStudents(Collection<Long> studentIds) {
+            iStudents = new Vector<Long>(studentIds);
+            iNrStudents = iStudents.size();
+        }
+        public boolean hasStudent(Long studentId) {
+            if (iStudentLookup == null) iStudentLookup = new StudentLookup();
+            return iStudentLookup.contains(iStudents, studentId);
+        }
         public ExamAssignment getOtherExam() {
             return iOtherExam;
         }
@@ -1268,6 +1346,7 @@ public class ExamAssignmentInfo extends ExamAssignment implements Serializable
         protected int iNrStudents = 1;
         protected boolean iIsDistance = false; 
         protected Vector<Long> iStudents = new Vector();
+        protected transient StudentLookup iStudentLookup = null;
         protected double iDistance = 0;
         
         protected BackToBackConflict(ExamAssignment otherExam, boolean isDistance, double distance) {
@@ -1308,6 +1387,14 @@ public class ExamAssignmentInfo extends ExamAssignment implements Serializable
         public Vector<Long> getStudents() {
             return iStudents;
         }
+        protected void setStudents(Collection<Long> studentIds) {
+            iStudents = new Vector<Long>(studentIds);
+            iNrStudents = iStudents.size();
+        }
+        public boolean hasStudent(Long studentId) {
+            if (iStudentLookup == null) iStudentLookup = new StudentLookup();
+            return iStudentLookup.contains(iStudents, studentId);
+        }
         public double getDistance() {
             return iDistance;
         }
@@ -1346,6 +1433,7 @@ public class ExamAssignmentInfo extends ExamAssignment implements Serializable
 		protected TreeSet<ExamAssignment> iOtherExams;
         protected int iNrStudents = 1;
         protected Vector<Long> iStudents = new Vector();
+        protected transient StudentLookup iStudentLookup = null;
         
         protected MoreThanTwoADayConflict(TreeSet<ExamAssignment> otherExams) {
             iOtherExams = otherExams;
@@ -1375,6 +1463,14 @@ public class ExamAssignmentInfo extends ExamAssignment implements Serializable
         public Vector<Long> getStudents() {
             return iStudents;
         }
+        protected void setStudents(Collection<Long> studentIds) {
+            iStudents = new Vector<Long>(studentIds);
+            iNrStudents = iStudents.size();
+        }
+        public boolean hasStudent(Long studentId) {
+            if (iStudentLookup == null) iStudentLookup = new StudentLookup();
+            return iStudentLookup.contains(iStudents, studentId);
+        }
         public TreeSet<ExamAssignment> getOtherExams() {
             return iOtherExams;
         }
@@ -1591,6 +1687,13 @@ public class ExamAssignmentInfo extends ExamAssignment implements Serializable
                 iBtbDayBreak = "true".equals(btbDayBreakDef.getDefault());
         }
         
+        /** Parameters with the given periods and back-to-back settings (no database lookups) */
+        public Parameters(Set<ExamPeriod> periods, int backToBackDistance, boolean dayBreakBackToBack) {
+            iPeriods = periods;
+            iBtbDistance = backToBackDistance;
+            iBtbDayBreak = dayBreakBackToBack;
+        }
+        
         public int getBackToBackDistance() { return iBtbDistance; }
         public boolean isDayBreakBackToBack() { return iBtbDayBreak; }
 
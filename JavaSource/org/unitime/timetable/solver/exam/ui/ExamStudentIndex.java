@@ -0,0 +1,334 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.exam.ui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.timetable.model.Exam;
+import org.unitime.timetable.model.ExamPeriod;
+import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo.Parameters;
+import org.unitime.timetable.util.Constants;
+
+/**
+ * Student index of all the examinations of an examination problem (session and examination type), shared by the examination reports.
+ * Students are given a dense index, each examination has a {@link BitSet} of its students and each student has an array of its examinations.<br>
+ * Student conflicts (direct, back-to-back, and more than two a day) of all the examinations are computed at once, in parallel by examination periods.
+ * The computation only works with the index and the examination period data that are collected beforehand, so the
+ * worker threads never touch the hibernate session.
+ *
+ * @author Tomas Muller
+ */
+public class ExamStudentIndex {
+	private static Log sLog = LogFactory.getLog(ExamStudentIndex.class);
+	private Map<Long, Integer> iStudentIndex = new HashMap<Long, Integer>();
+	private Long[] iStudentIds;
+	private Map<Long, Integer> iExamIndex = new HashMap<Long, Integer>();
+	private List<Exam> iExams = new ArrayList<Exam>();
+	private BitSet[] iExamStudents;
+	private int[][] iStudentExams;
+	
+	/**
+	 * Build the index
+	 * @param student2exams student id &rarr; examinations of the student
+	 */
+	public ExamStudentIndex(Map<Long, Set<Exam>> student2exams) {
+		iStudentIds = new Long[student2exams.size()];
+		iStudentExams = new int[student2exams.size()][];
+		List<BitSet> examStudents = new ArrayList<BitSet>();
+		int s = 0;
+		for (Map.Entry<Long, Set<Exam>> entry: student2exams.entrySet()) {
+			iStudentIds[s] = entry.getKey();
+			iStudentIndex.put(entry.getKey(), s);
+			int[] exams = new int[entry.getValue().size()];
+			int n = 0;
+			for (Exam exam: entry.getValue()) {
+				if (exam == null) continue;
+				Integer x = iExamIndex.get(exam.getUniqueId());
+				if (x == null) {
+					x = iExams.size();
+					iExamIndex.put(exam.getUniqueId(), x);
+					iExams.add(exam);
+					examStudents.add(new BitSet(student2exams.size()));
+				}
+				examStudents.get(x).set(s);
+				exams[n++] = x;
+			}
+			iStudentExams[s] = (n == exams.length ? exams : Arrays.copyOf(exams, n));
+			s++;
+		}
+		iExamStudents = examStudents.toArray(new BitSet[examStudents.size()]);
+	}
+	
+	/** Number of students */
+	public int getNrStudents() { return iStudentIds.length; }
+	
+	/** Number of examinations (with at least one student) */
+	public int getNrExams() { return iExams.size(); }
+	
+	/** Dense index of the given student, -1 if the student has no examinations */
+	public int getStudentIndex(Long studentId) {
+		Integer index = iStudentIndex.get(studentId);
+		return (index == null ? -1 : index);
+	}
+	
+	/** Student id of the given dense index */
+	public Long getStudentId(int index) { return iStudentIds[index]; }
+	
+	/** Index of the given examination, -1 if the examination has no students */
+	public int getExamIndex(Long examId) {
+		Integer index = iExamIndex.get(examId);
+		return (index == null ? -1 : index);
+	}
+	
+	/** Examination of the given index */
+	public Exam getExam(int index) { return iExams.get(index); }
+	
+	/** Students (dense indexes) of the given examination, the returned set must not be modified */
+	public BitSet getStudents(int examIndex) { return iExamStudents[examIndex]; }
+	
+	/** Students of the given ids that are present in the index as a set of dense indexes */
+	public BitSet getStudents(Collection<Long> studentIds) {
+		BitSet students = new BitSet(iStudentIds.length);
+		for (Long studentId: studentIds) {
+			Integer index = iStudentIndex.get(studentId);
+			if (index != null) students.set(index);
+		}
+		return students;
+	}
+	
+	/** Examinations (indexes) of the given student, the returned array must not be modified */
+	public int[] getExams(int studentIndex) { return iStudentExams[studentIndex]; }
+	
+	/** Number of students that are enrolled in both examinations */
+	public int getNrSharedStudents(int examIndex1, int examIndex2) {
+		BitSet students = (BitSet)iExamStudents[examIndex1].clone();
+		students.and(iExamStudents[examIndex2]);
+		return students.cardinality();
+	}
+	
+	/** Translate a set of dense indexes into student ids */
+	public List<Long> getStudentIds(BitSet students) {
+		List<Long> ret = new ArrayList<Long>(students.cardinality());
+		for (int s = students.nextSetBit(0); s >= 0; s = students.nextSetBit(s + 1))
+			ret.add(iStudentIds[s]);
+		return ret;
+	}
+	
+	/**
+	 * Compute student conflicts of all the assigned examinations
+	 * @param table examination assignments (if different from the ones stored in the database), can be null
+	 * @param p parameters (periods, back-to-back definition)
+	 * @param nrThreads number of threads
+	 * @return examination id &rarr; student conflicts of the examination (only examinations with an assigned period and at least one student are included)
+	 */
+	public Map<Long, StudentConflicts> computeStudentConflicts(Hashtable<Long, ExamAssignment> table, Parameters p, int nrThreads) {
+		long t0 = System.currentTimeMillis();
+		final Computation computation = new Computation(table, p);
+		final StudentConflicts[] conflicts = new StudentConflicts[iExams.size()];
+		final AtomicInteger next = new AtomicInteger(0);
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				int period;
+				while ((period = next.getAndIncrement()) < computation.iPeriodExams.length) {
+					for (int x: computation.iPeriodExams[period])
+						conflicts[x] = computation.compute(x);
+				}
+			}
+		};
+		nrThreads = Math.max(1, Math.min(nrThreads, computation.iPeriodExams.length));
+		if (nrThreads <= 1) {
+			worker.run();
+		} else {
+			final List<Throwable> errors = new ArrayList<Throwable>();
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < nrThreads; i++) {
+				Thread thread = new Thread(worker);
+				thread.setName("ExamConflicts-" + (1 + i));
+				thread.setDaemon(true);
+				thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+					@Override
+					public void uncaughtException(Thread t, Throwable e) {
+						synchronized (errors) { errors.add(e); }
+					}
+				});
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread: threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Student conflicts computation was interrupted.", e);
+				}
+			}
+			if (!errors.isEmpty()) {
+				Throwable t = errors.get(0);
+				throw (t instanceof RuntimeException ? (RuntimeException)t : new RuntimeException(t.getMessage(), t));
+			}
+		}
+		Map<Long, StudentConflicts> ret = new HashMap<Long, StudentConflicts>();
+		for (int x = 0; x < conflicts.length; x++)
+			if (conflicts[x] != null) ret.put(iExams.get(x).getUniqueId(), conflicts[x]);
+		sLog.debug("Student conflicts of " + ret.size() + " examinations computed in " + (System.currentTimeMillis() - t0) + " ms (" + iStudentIds.length + " students, " + computation.iPeriodExams.length + " periods, " + nrThreads + " threads)");
+		return ret;
+	}
+	
+	/**
+	 * Period data of all the examinations, collected before the parallel computation so that the worker threads do not need any entities
+	 */
+	private class Computation {
+		private int[] iPeriod, iLength;
+		private int[] iDateOffset, iStartMins;
+		private boolean[][] iBackToBack;
+		private int[][] iPeriodExams;
+		
+		private Computation(Hashtable<Long, ExamAssignment> table, Parameters p) {
+			iPeriod = new int[iExams.size()];
+			iLength = new int[iExams.size()];
+			List<ExamPeriod> periods = new ArrayList<ExamPeriod>();
+			Map<ExamPeriod, Integer> periodIndex = new HashMap<ExamPeriod, Integer>();
+			List<List<Integer>> periodExams = new ArrayList<List<Integer>>();
+			for (int x = 0; x < iExams.size(); x++) {
+				Exam exam = iExams.get(x);
+				ExamPeriod period = ExamAssignmentInfo.getAssignedPeriod(exam, table);
+				iLength[x] = (exam.getLength() == null ? 0 : exam.getLength());
+				if (period == null) { iPeriod[x] = -1; continue; }
+				Integer index = periodIndex.get(period);
+				if (index == null) {
+					index = periods.size();
+					periodIndex.put(period, index);
+					periods.add(period);
+					periodExams.add(new ArrayList<Integer>());
+				}
+				iPeriod[x] = index;
+				periodExams.get(index).add(x);
+			}
+			iDateOffset = new int[periods.size()];
+			iStartMins = new int[periods.size()];
+			iBackToBack = new boolean[periods.size()][periods.size()];
+			iPeriodExams = new int[periods.size()][];
+			for (int i = 0; i < periods.size(); i++) {
+				ExamPeriod period = periods.get(i);
+				iDateOffset[i] = period.getDateOffset();
+				iStartMins[i] = Constants.SLOT_LENGTH_MIN * period.getStartSlot() + Constants.FIRST_SLOT_TIME_MIN;
+				for (int j = 0; j < periods.size(); j++)
+					iBackToBack[i][j] = (i != j && p.isBackToBack(period, periods.get(j)));
+				List<Integer> exams = periodExams.get(i);
+				iPeriodExams[i] = new int[exams.size()];
+				for (int k = 0; k < exams.size(); k++)
+					iPeriodExams[i][k] = exams.get(k);
+			}
+		}
+		
+		/** Same as {@link ExamPeriod#overlap(Exam, Exam, ExamPeriod)}, or the same period */
+		private boolean isDirect(int x1, int x2) {
+			int p1 = iPeriod[x1], p2 = iPeriod[x2];
+			if (p1 == p2) return true;
+			return iDateOffset[p1] == iDateOffset[p2] && iStartMins[p1] < iStartMins[p2] + iLength[x2] && iStartMins[p2] < iStartMins[p1] + iLength[x1];
+		}
+		
+		private StudentConflicts compute(int x) {
+			StudentConflicts conflicts = new StudentConflicts();
+			int period = iPeriod[x];
+			BitSet students = iExamStudents[x];
+			int[] sameDay = new int[8];
+			for (int s = students.nextSetBit(0); s >= 0; s = students.nextSetBit(s + 1)) {
+				int nrSameDay = 0;
+				for (int other: iStudentExams[s]) {
+					if (other == x || iPeriod[other] < 0) continue;
+					if (isDirect(x, other)) {
+						add(conflicts.iDirects, other, s);
+					} else if (iBackToBack[period][iPeriod[other]]) {
+						add(conflicts.iBackToBacks, other, s);
+					}
+					if (iDateOffset[period] == iDateOffset[iPeriod[other]]) {
+						if (nrSameDay == sameDay.length) sameDay = Arrays.copyOf(sameDay, 2 * nrSameDay);
+						sameDay[nrSameDay++] = other;
+					}
+				}
+				if (nrSameDay >= 2) {
+					int[] exams = Arrays.copyOf(sameDay, nrSameDay);
+					Arrays.sort(exams);
+					add(conflicts.iMoreThanTwoADays, new ExamSet(exams), s);
+				}
+			}
+			return conflicts;
+		}
+		
+		private <K> void add(Map<K, BitSet> conflicts, K key, int student) {
+			BitSet students = conflicts.get(key);
+			if (students == null) {
+				students = new BitSet(iStudentIds.length);
+				conflicts.put(key, students);
+			}
+			students.set(student);
+		}
+	}
+	
+	/**
+	 * Student conflicts of an examination, the students are represented by their dense indexes
+	 */
+	public static class StudentConflicts {
+		private Map<Integer, BitSet> iDirects = new HashMap<Integer, BitSet>();
+		private Map<Integer, BitSet> iBackToBacks = new HashMap<Integer, BitSet>();
+		private Map<ExamSet, BitSet> iMoreThanTwoADays = new HashMap<ExamSet, BitSet>();
+		
+		/** Other examination (index) &rarr; students in a direct conflict */
+		public Map<Integer, BitSet> getDirectConflicts() { return iDirects; }
+		/** Other examination (index) &rarr; students in a back-to-back conflict */
+		public Map<Integer, BitSet> getBackToBackConflicts() { return iBackToBacks; }
+		/** Other examinations on the same day &rarr; students in a more than two a day conflict */
+		public Map<ExamSet, BitSet> getMoreThanTwoADaysConflicts() { return iMoreThanTwoADays; }
+	}
+	
+	/**
+	 * Sorted set of examination indexes, used as a key of the more than two a day conflicts
+	 */
+	public static class ExamSet {
+		private int[] iExams;
+		
+		private ExamSet(int[] exams) { iExams = exams; }
+		
+		/** Examination indexes (sorted), the returned array must not be modified */
+		public int[] getExams() { return iExams; }
+		
+		@Override
+		public int hashCode() { return Arrays.hashCode(iExams); }
+		
+		@Override
+		public boolean equals(Object o) {
+			if (o == null || !(o instanceof ExamSet)) return false;
+			return Arrays.equals(iExams, ((ExamSet)o).iExams);
+		}
+	}
+}
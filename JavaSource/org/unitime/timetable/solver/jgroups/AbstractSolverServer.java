@@ -22,7 +22,9 @@ package org.unitime.timetable.solver.jgroups;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -132,6 +134,14 @@ public abstract class AbstractSolverServer implements SolverServer {
 		return Runtime.getRuntime().availableProcessors();
 	}
 	
+	@Override
+	public Map<String, String> getRpcStatistics() {
+		Map<String, String> ret = new TreeMap<String, String>();
+		for (Map.Entry<String, UniTimeRpcDispatcher.MethodStatistics> e: UniTimeRpcDispatcher.getStatistics().entrySet())
+			ret.put(e.getKey(), e.getValue().toString());
+		return ret;
+	}
+	
 	@Override
 	public long getMemoryLimit() {
 		return 1024l * 1024l * Long.parseLong(ApplicationProperties.getProperty(ApplicationProperty.SolverMemoryLimit));
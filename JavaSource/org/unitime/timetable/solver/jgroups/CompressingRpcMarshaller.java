@@ -0,0 +1,131 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.jgroups;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.jgroups.util.Util;
+import org.unitime.timetable.defaults.ApplicationProperty;
+
+/**
+ * Default {@link RpcMarshaller}. Objects are serialized the same way as JGroups does it (primitive types and JGroups streamables
+ * are written directly, everything else using Java serialization, which relies on the {@link java.io.Externalizable} implementations of the
+ * online sectioning model classes). Payloads larger than the given threshold (see unitime.solver.compression.threshold) are compressed using
+ * a fast deflate, but only when it makes them smaller. The first byte of each buffer tells whether the rest is compressed or not.
+ *
+ * @author Tomas Muller
+ */
+public class CompressingRpcMarshaller implements RpcMarshaller {
+	private static final byte PLAIN = 0, DEFLATED = 1;
+	private int iThreshold;
+	private AtomicLong iCompressed = new AtomicLong(0), iBytesBefore = new AtomicLong(0), iBytesAfter = new AtomicLong(0);
+	
+	public CompressingRpcMarshaller() {
+		this(ApplicationProperty.SolverClusterCompressionThreshold.intValue());
+	}
+	
+	/**
+	 * @param threshold minimal size of a payload in bytes to be compressed, zero or a negative value to disable compression
+	 */
+	public CompressingRpcMarshaller(int threshold) {
+		iThreshold = threshold;
+	}
+
+	@Override
+	public byte[] objectToBuffer(Object obj) throws Exception {
+		byte[] data = Util.objectToByteBuffer(obj);
+		if (iThreshold > 0 && data.length >= iThreshold) {
+			byte[] compressed = deflate(data);
+			if (compressed != null) {
+				iCompressed.incrementAndGet();
+				iBytesBefore.addAndGet(data.length);
+				iBytesAfter.addAndGet(compressed.length);
+				return compressed;
+			}
+		}
+		byte[] ret = new byte[data.length + 1];
+		ret[0] = PLAIN;
+		System.arraycopy(data, 0, ret, 1, data.length);
+		return ret;
+	}
+
+	@Override
+	public Object objectFromBuffer(byte[] buffer, int offset, int length) throws Exception {
+		if (buffer[offset] == DEFLATED)
+			return Util.objectFromByteBuffer(inflate(buffer, offset + 1, length - 1));
+		return Util.objectFromByteBuffer(buffer, offset + 1, length - 1);
+	}
+	
+	/**
+	 * Compressed data (including the header), null if the compressed data would not be smaller
+	 */
+	protected byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			byte[] buffer = new byte[data.length];
+			buffer[0] = DEFLATED;
+			int length = 1;
+			while (!deflater.finished() && length < buffer.length)
+				length += deflater.deflate(buffer, length, buffer.length - length);
+			if (!deflater.finished()) return null;
+			byte[] ret = new byte[length];
+			System.arraycopy(buffer, 0, ret, 0, length);
+			return ret;
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	protected byte[] inflate(byte[] buffer, int offset, int length) throws DataFormatException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(buffer, offset, length);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(4 * length);
+			byte[] chunk = new byte[8192];
+			while (!inflater.finished()) {
+				int n = inflater.inflate(chunk);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new DataFormatException("Truncated compressed payload.");
+				out.write(chunk, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	/** Number of compressed payloads */
+	public long getNrCompressed() { return iCompressed.get(); }
+	/** Total size of the compressed payloads before compression */
+	public long getBytesBeforeCompression() { return iBytesBefore.get(); }
+	/** Total size of the compressed payloads after compression */
+	public long getBytesAfterCompression() { return iBytesAfter.get(); }
+	
+	@Override
+	public String toString() {
+		return "CompressingRpcMarshaller{threshold=" + iThreshold + ", compressed=" + getNrCompressed() + ", before=" + getBytesBeforeCompression() + " B, after=" + getBytesAfterCompression() + " B}";
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.jgroups;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.timetable.onlinesectioning.custom.CourseDetailsProvider;
+
+/**
+ * Near-cache of the idempotent reads (courses, offerings, course details, and course name lookups) made on a remote
+ * online sectioning server, kept on the calling (web) node. A method call can be cached only when all its arguments are
+ * simple values (strings, numbers, booleans, or nulls); a course details provider is matched by its class.<br>
+ * The cache of an academic session is dropped every time the server pushes a new offerings version stamp
+ * (see {@link OnlineSectioningServerNearCache#invalidate(String, long)}), every entry also expires after the given time to live.
+ * The cached objects are shared between the callers, they must not be modified.
+ *
+ * @author Tomas Muller
+ */
+public class OnlineSectioningServerNearCache {
+	private static Log sLog = LogFactory.getLog(OnlineSectioningServerNearCache.class);
+	private static final Set<String> sCacheableMethods = new HashSet<String>(Arrays.asList("getCourse", "getOffering", "getCourseDetails", "findCourses"));
+	private ConcurrentMap<String, Region> iRegions = new ConcurrentHashMap<String, Region>();
+	private int iMaxSize;
+	private long iTimeToLive;
+	private AtomicLong iHits = new AtomicLong(0), iMisses = new AtomicLong(0), iInvalidations = new AtomicLong(0);
+	
+	/**
+	 * @param maxSize maximal number of cached results per academic session, zero to disable the cache
+	 * @param timeToLive time to live of a cached result in milliseconds
+	 */
+	public OnlineSectioningServerNearCache(int maxSize, long timeToLive) {
+		iMaxSize = maxSize;
+		iTimeToLive = timeToLive;
+	}
+	
+	public boolean isEnabled() { return iMaxSize > 0; }
+	
+	/**
+	 * Cache key of the given method call, null if the call cannot be cached
+	 */
+	protected List<Object> key(Method method, Object[] args) {
+		if (!sCacheableMethods.contains(method.getName())) return null;
+		List<Object> key = new ArrayList<Object>(1 + (args == null ? 0 : args.length));
+		key.add(method.getName() + Arrays.toString(method.getParameterTypes()));
+		if (args != null)
+			for (Object arg: args) {
+				if (arg == null || arg instanceof String || arg instanceof Number || arg instanceof Boolean)
+					key.add(arg);
+				else if (arg instanceof CourseDetailsProvider)
+					key.add(arg.getClass());
+				else
+					return null;
+			}
+		return key;
+	}
+	
+	protected Region region(String sessionId) {
+		Region region = iRegions.get(sessionId);
+		if (region == null) {
+			region = new Region();
+			Region old = iRegions.putIfAbsent(sessionId, region);
+			if (old != null) region = old;
+		}
+		return region;
+	}
+	
+	/**
+	 * Return the cached result of the given method call, or call the loader (and cache its result when possible)
+	 */
+	public Object get(String sessionId, Method method, Object[] args, Callable<Object> loader) throws Exception {
+		List<Object> key = (isEnabled() ? key(method, args) : null);
+		if (key == null) return loader.call();
+		Region region = region(sessionId);
+		long generation;
+		synchronized (region) {
+			CachedResult entry = region.iEntries.get(key);
+			generation = region.iGeneration;
+			if (entry != null && entry.iGeneration == generation && System.currentTimeMillis() - entry.iCreated < iTimeToLive) {
+				iHits.incrementAndGet();
+				return entry.iValue;
+			}
+		}
+		iMisses.incrementAndGet();
+		Object value = loader.call();
+		synchronized (region) {
+			// do not cache the result when the cache has been invalidated in the meantime
+			if (region.iGeneration == generation)
+				region.iEntries.put(key, new CachedResult(value, generation));
+		}
+		return value;
+	}
+	
+	/**
+	 * Offerings version stamp of the server has changed, drop all the cached results of the academic session
+	 */
+	public void invalidate(String sessionId, long version) {
+		Region region = iRegions.get(sessionId);
+		if (region == null) return;
+		synchronized (region) {
+			if (region.iVersion == version) return;
+			if (sLog.isDebugEnabled()) sLog.debug("Server " + sessionId + " offerings version changed from " + region.iVersion + " to " + version + ", dropping " + region.iEntries.size() + " cached results.");
+			region.iVersion = version;
+			region.iGeneration ++;
+			region.iEntries.clear();
+		}
+		iInvalidations.incrementAndGet();
+	}
+	
+	/** Drop all the cached results */
+	public void clear() {
+		iRegions.clear();
+	}
+	
+	/** Number of calls answered from the cache */
+	public long getHits() { return iHits.get(); }
+	/** Number of cacheable calls that had to be made on the server */
+	public long getMisses() { return iMisses.get(); }
+	/** Number of times the cache of an academic session was dropped */
+	public long getInvalidations() { return iInvalidations.get(); }
+	
+	@Override
+	public String toString() {
+		int size = 0;
+		for (Region region: iRegions.values())
+			synchronized (region) { size += region.iEntries.size(); }
+		return "OnlineSectioningServerNearCache{size=" + size + ", hits=" + getHits() + ", misses=" + getMisses() + ", invalidations=" + getInvalidations() + "}";
+	}
+	
+	private class Region {
+		private long iVersion = Long.MIN_VALUE;
+		private long iGeneration = 0;
+		private Map<List<Object>, CachedResult> iEntries = new LinkedHashMap<List<Object>, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedResult> eldest) {
+				return size() > iMaxSize;
+			}
+		};
+	}
+	
+	private static class CachedResult {
+		private Object iValue;
+		private long iGeneration;
+		private long iCreated;
+		
+		private CachedResult(Object value, long generation) {
+			iValue = value; iGeneration = generation; iCreated = System.currentTimeMillis();
+		}
+	}
+}
@@ -200,6 +200,7 @@ public class OnlineStudentSchedulingContainer implements SolverContainer<OnlineS
 			OnlineSectioningServer s = iInstances.get(academicSessionId);
 			if (s != null) {
 				sLog.info("Unloading " + u.getAcademicSession() + "...");
+				if (interrupt) u.saveSnapshot(s, true);
 				s.unload();
 			}
 			iInstances.remove(academicSessionId);
@@ -314,7 +315,10 @@ public class OnlineStudentSchedulingContainer implements SolverContainer<OnlineS
 				u.stopUpdating(true);
 				if (u.getAcademicSession() != null) {
 					OnlineSectioningServer s = iInstances.get(u.getAcademicSession().getUniqueId());
-					if (s != null) s.unload();
+					if (s != null) {
+						u.saveSnapshot(s, true);
+						s.unload();
+					}
 				}
 			}
 			iInstances.clear();
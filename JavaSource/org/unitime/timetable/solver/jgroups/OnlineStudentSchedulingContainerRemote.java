@@ -23,6 +23,14 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,21 +38,40 @@ import org.cpsolver.ifs.util.DataProperties;
 import org.jgroups.Address;
 import org.jgroups.JChannel;
 import org.jgroups.SuspectedException;
+import org.jgroups.Message.Flag;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.ResponseMode;
 import org.jgroups.blocks.RpcDispatcher;
 import org.jgroups.fork.ForkChannel;
 import org.unitime.commons.hibernate.util.HibernateUtil;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
+import org.unitime.timetable.onlinesectioning.server.AbstractServer;
 import org.unitime.timetable.solver.SolverProxy;
 
 /**
+ * Online student scheduling container that can also use servers running on other nodes of the cluster.<br>
+ * Idempotent reads made on a remote server are cached in a {@link OnlineSectioningServerNearCache}. Servers running on this node push their
+ * offerings version stamp to the other nodes (see {@link AbstractServer#setOfferingsVersionListener(AbstractServer.OfferingsVersionListener)})
+ * every time an offering is changed, invalidating their near-caches. Resolved methods are cached on both ends of a call.
+ *
  * @author Tomas Muller
  */
 public class OnlineStudentSchedulingContainerRemote extends OnlineStudentSchedulingContainer implements RemoteSolverContainer<OnlineSectioningServer> {
 	private static Log sLog = LogFactory.getLog(OnlineStudentSchedulingContainerRemote.class);
 	
+	private static RequestOptions sNotification = new RequestOptions(ResponseMode.GET_NONE, 0).setFlags(Flag.DONT_BUNDLE);
 	private RpcDispatcher iDispatcher;
 	private ForkChannel iChannel;
+	private OnlineSectioningServerNearCache iNearCache = new OnlineSectioningServerNearCache(
+			ApplicationProperty.OnlineSchedulingServerNearCacheSize.intValue(),
+			1000l * ApplicationProperty.OnlineSchedulingServerNearCacheTimeToLive.intValue());
+	private VersionNotifier iNotifier = null;
+	// resolved server methods, the key is the server class, method name, and parameter types
+	private ConcurrentMap<List<Object>, Method> iServerMethods = new ConcurrentHashMap<List<Object>, Method>();
+	// proxy method -> method of the invocation handler, or the proxy method itself when it is to be dispatched to the server
+	private ConcurrentMap<Method, Method> iHandlerMethods = new ConcurrentHashMap<Method, Method>();
 
 	public OnlineStudentSchedulingContainerRemote(JChannel channel, short scope) throws Exception {
 		iChannel = new ForkChannel(channel, String.valueOf(scope), "fork-" + scope);
@@ -67,13 +94,51 @@ public class OnlineStudentSchedulingContainerRemote extends OnlineStudentSchedul
 	@Override
 	public void start() throws Exception {
 		iChannel.connect("UniTime:RPC:Online");
+		if (iNearCache.isEnabled()) {
+			iNotifier = new VersionNotifier();
+			iNotifier.start();
+		}
 		super.start();
 	}
 	
 	@Override
 	public void stop() throws Exception {
-		iChannel.disconnect();
 		super.stop();
+		if (iNotifier != null) {
+			iNotifier.stopNotifying();
+			iNotifier = null;
+		}
+		if (iNearCache.isEnabled())
+			sLog.info(iNearCache);
+		iChannel.disconnect();
+	}
+	
+	@Override
+	public OnlineSectioningServer createInstance(Long academicSessionId, DataProperties config) {
+		OnlineSectioningServer server = super.createInstance(academicSessionId, config);
+		VersionNotifier notifier = iNotifier;
+		if (notifier != null && server instanceof AbstractServer)
+			((AbstractServer)server).setOfferingsVersionListener(notifier);
+		return server;
+	}
+	
+	@Override
+	public void unload(Long academicSessionId, boolean interrupt) {
+		super.unload(academicSessionId, interrupt);
+		VersionNotifier notifier = iNotifier;
+		if (notifier != null)
+			notifier.offeringsVersionChanged(academicSessionId, -1l);
+	}
+	
+	/**
+	 * Called by a server running on a different node when its offerings version stamp has changed
+	 */
+	public void invalidateNearCache(String sessionId, Long version) {
+		iNearCache.invalidate(sessionId, version);
+	}
+	
+	public OnlineSectioningServerNearCache getNearCache() {
+		return iNearCache;
 	}
 	
 	@Override
@@ -92,7 +157,13 @@ public class OnlineStudentSchedulingContainerRemote extends OnlineStudentSchedul
 				return solver != null;
 			if (solver == null)
 				throw new Exception("Server " + sessionId + " does not exist.");
-			return solver.getClass().getMethod(method, types).invoke(solver, args);
+			List<Object> key = Arrays.asList(solver.getClass(), method, Arrays.asList(types));
+			Method m = iServerMethods.get(key);
+			if (m == null) {
+				m = solver.getClass().getMethod(method, types);
+				iServerMethods.put(key, m);
+			}
+			return m.invoke(solver, args);
 		} catch (InvocationTargetException e) {
 			if (e.getTargetException() != null && e.getTargetException() instanceof Exception)
 				throw (Exception)e.getTargetException();
@@ -148,13 +219,79 @@ public class OnlineStudentSchedulingContainerRemote extends OnlineStudentSchedul
     	
     	@Override
     	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    		try {
-    			return getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(this, args);
-    		} catch (NoSuchMethodException e) {}
-    		return dispatch(iAddress, iUser, method, args);
+    		Method local = iHandlerMethods.get(method);
+    		if (local == null) {
+    			try {
+    				local = getClass().getMethod(method.getName(), method.getParameterTypes());
+    			} catch (NoSuchMethodException e) {
+    				local = method;
+    			}
+    			iHandlerMethods.put(method, local);
+    		}
+    		if (local != method)
+    			return local.invoke(this, args);
+    		return iNearCache.get(iUser, method, args, () -> dispatch(iAddress, iUser, method, args));
         }
     }
 
+    /**
+     * Pushes the offerings version stamps of the local servers to all the nodes. Changes that come in a quick succession
+     * (e.g., when all the offerings are reloaded) are sent as one message. An unload (version -1) is never coalesced with the
+     * version of the next server instance, as the new server may start with the same version stamp as the old one.
+     */
+    private class VersionNotifier extends Thread implements AbstractServer.OfferingsVersionListener {
+    	private Map<Long, Long> iPending = new HashMap<Long, Long>();
+    	private Set<Long> iUnloaded = new HashSet<Long>();
+    	private boolean iStop = false;
+    	
+    	private VersionNotifier() {
+    		super("OnlineNearCacheNotifier");
+    		setDaemon(true);
+    	}
+    	
+    	@Override
+    	public synchronized void offeringsVersionChanged(Long sessionId, long version) {
+    		Long previous = iPending.put(sessionId, version);
+    		if (previous != null && previous < 0 && version >= 0) iUnloaded.add(sessionId);
+    		notify();
+    	}
+    	
+    	private synchronized void stopNotifying() {
+    		iStop = true;
+    		notify();
+    	}
+    	
+    	@Override
+    	public void run() {
+    		while (true) {
+    			Map<Long, Long> pending;
+    			Set<Long> unloaded;
+    			synchronized (this) {
+    				try {
+    					while (!iStop && iPending.isEmpty()) wait();
+    					if (iStop) return;
+    					wait(100);
+    				} catch (InterruptedException e) {
+    					return;
+    				}
+    				pending = new HashMap<Long, Long>(iPending);
+    				iPending.clear();
+    				unloaded = new HashSet<Long>(iUnloaded);
+    				iUnloaded.clear();
+    			}
+    			for (Map.Entry<Long, Long> e: pending.entrySet()) {
+    				try {
+    					if (unloaded.contains(e.getKey()) && e.getValue() >= 0)
+    						iDispatcher.callRemoteMethods(null, "invalidateNearCache", new Object[] { e.getKey().toString(), -1l }, new Class[] { String.class, Long.class }, sNotification);
+    					iDispatcher.callRemoteMethods(null, "invalidateNearCache", new Object[] { e.getKey().toString(), e.getValue() }, new Class[] { String.class, Long.class }, sNotification);
+    				} catch (Exception x) {
+    					sLog.warn("Failed to push offerings version of server " + e.getKey() + ": " + x.getMessage());
+    				}
+    			}
+    		}
+    	}
+    }
+
     @Override
     public OnlineSectioningServerContext getServerContext(final Long academicSessionId) {
 		return new OnlineSectioningServerContext() {
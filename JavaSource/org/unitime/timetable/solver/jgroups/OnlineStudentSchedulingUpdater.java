@@ -37,6 +37,8 @@ import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningLog;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.ServerCallback;
+import org.unitime.timetable.onlinesectioning.server.ExpectedSpacesBacklog;
+import org.unitime.timetable.onlinesectioning.server.OnlineSectioningServerSnapshot;
 import org.unitime.timetable.onlinesectioning.updates.CheckAllOfferingsAction;
 import org.unitime.timetable.onlinesectioning.updates.ClassAssignmentChanged;
 import org.unitime.timetable.onlinesectioning.updates.ExpireReservationsAction;
@@ -58,6 +60,7 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 	private OnlineStudentSchedulingContainer iContainer = null;
 	private AcademicSessionInfo iSession = null; 
 	private Date iLastTimeStamp = null;
+	private long iLastSnapshot = System.currentTimeMillis();
 	
 	public OnlineStudentSchedulingUpdater(OnlineStudentSchedulingContainer container, AcademicSessionInfo session, Date lastTimeStamp) {
 		super();
@@ -87,6 +90,7 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 						if (!iRun) break;
 						checkForExpiredReservations(server);
 						persistExpectedSpaces(server);
+						saveSnapshot(server, false);
 					}
 				} finally {
 					HibernateUtil.closeCurrentThreadSessions();
@@ -158,6 +162,9 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 	
 	public void persistExpectedSpaces(OnlineSectioningServer server) {
 		try {
+			ExpectedSpacesBacklog backlog = PersistExpectedSpacesAction.getBacklog(server);
+			if (backlog != null && iLog.isDebugEnabled())
+				iLog.debug("Expected spaces backlog: " + backlog.size() + " offerings, oldest change " + (backlog.getAge() / 1000) + " seconds ago (" + backlog + ")");
 			List<Long> offeringIds = server.getOfferingsToPersistExpectedSpaces(2000 * iSleepTimeInSeconds);
 			if (!offeringIds.isEmpty()) {
 				server.execute(server.createAction(PersistExpectedSpacesAction.class).forOfferings(offeringIds), user(), new ServerCallback<Boolean>() {
@@ -174,6 +181,24 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 		}
 	}
 	
+	/**
+	 * Write a snapshot of the server data (see {@link OnlineSectioningServerSnapshot}), together with the time stamp of the last processed change
+	 * @param force write the snapshot even when the snapshot interval has not yet elapsed since the last one
+	 */
+	public void saveSnapshot(OnlineSectioningServer server, boolean force) {
+		int interval = ApplicationProperty.OnlineSchedulingServerSnapshotInterval.intValue();
+		if (interval <= 0 || !OnlineSectioningServerSnapshot.isSupported(server) || !server.isReady()) return;
+		long ts = System.currentTimeMillis();
+		if (!force && ts - iLastSnapshot < 60000l * interval) return;
+		iLastSnapshot = ts;
+		try {
+			iLastTimeStamp = server.getProperty("Updater.LastTimeStamp", iLastTimeStamp);
+			OnlineSectioningServerSnapshot.save(server, iLastTimeStamp);
+		} catch (Exception e) {
+			iLog.error("Failed to write snapshot: " + e.getMessage(), e);
+		}
+	}
+	
 	protected void processChange(OnlineSectioningServer server, StudentSectioningQueue q) {
 		switch (StudentSectioningQueue.Type.values()[q.getType()]) {
 		case SESSION_RELOAD:
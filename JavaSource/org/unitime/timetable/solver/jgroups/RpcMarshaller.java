@@ -0,0 +1,39 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.jgroups;
+
+/**
+ * Marshaller of the payloads (method calls, their results, and exceptions) of the RPC messages sent by the {@link UniTimeRpcDispatcher}.
+ * All the nodes of the cluster must be using the same marshaller.
+ * An implementation must have a public constructor without arguments and it must be thread safe.
+ *
+ * @author Tomas Muller
+ */
+public interface RpcMarshaller {
+	/**
+	 * Serialize the given object (which may be null)
+	 */
+	public byte[] objectToBuffer(Object obj) throws Exception;
+	
+	/**
+	 * Deserialize an object from the given buffer
+	 */
+	public Object objectFromBuffer(byte[] buffer, int offset, int length) throws Exception;
+}
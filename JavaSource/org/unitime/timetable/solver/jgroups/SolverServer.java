@@ -22,6 +22,7 @@ package org.unitime.timetable.solver.jgroups;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.jgroups.Address;
 import org.unitime.timetable.interfaces.RoomAvailabilityInterface;
@@ -69,6 +70,9 @@ public interface SolverServer {
 	
 	public int getAvailableProcessors();
 	
+	/** Number of messages and bytes sent and received by this server for each remote method (see {@link UniTimeRpcDispatcher#getStatistics()}) */
+	public Map<String, String> getRpcStatistics();
+	
 	public long getMemoryLimit();
 	
 	public boolean isActive();
@@ -167,6 +167,12 @@ public class SolverServerImplementation extends AbstractSolverServer {
 	public void stop() throws Exception {
 		super.stop();
 		
+		if (sLog.isInfoEnabled()) {
+			for (Map.Entry<String, UniTimeRpcDispatcher.MethodStatistics> e: UniTimeRpcDispatcher.getStatistics().entrySet())
+				sLog.info("RPC " + e.getKey() + ": " + e.getValue());
+			sLog.info(UniTimeRpcDispatcher.getMarshaller());
+		}
+		
 		iServerChannel.disconnect();
 	
 		iCourseSolverContainer.stop();
@@ -20,8 +20,14 @@
 package org.unitime.timetable.solver.jgroups;
 
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jgroups.Address;
 import org.jgroups.BytesMessage;
@@ -36,6 +42,7 @@ import org.jgroups.blocks.RpcDispatcher;
 import org.jgroups.conf.ClassConfigurator;
 import org.jgroups.stack.Protocol;
 import org.jgroups.util.RspList;
+import org.unitime.timetable.defaults.ApplicationProperty;
 
 /**
  * A special version of the {@link RpcDispatcher} to avoid an endless loop when
@@ -49,6 +56,10 @@ import org.jgroups.util.RspList;
  * and {@link RpcRequestCorrelator#sendReply(Message, long, Object, boolean)} will also ensure
  * that any serialization errors that happen on the other side are passed back to the caller.
  * 
+ * The payloads are serialized by a pluggable {@link RpcMarshaller} (see unitime.solver.marshaller),
+ * which can also compress them (see {@link CompressingRpcMarshaller}). The number of bytes sent and received
+ * is tracked for each method (see {@link UniTimeRpcDispatcher#getStatistics()}).
+ * 
  * @author Tomas Muller
  */
 public class UniTimeRpcDispatcher extends RpcDispatcher {
@@ -58,10 +69,75 @@ public class UniTimeRpcDispatcher extends RpcDispatcher {
 		ClassConfigurator.addProtocol(PROTOCOL_CUSTOM_CORRELATOR, RpcRequestCorrelator.class);
 	}
 	
+	private static RpcMarshaller sMarshaller = null;
+	private static ConcurrentMap<String, MethodStatistics> sStatistics = new ConcurrentHashMap<String, MethodStatistics>();
+	// name of the method that is being handled by the current thread (to account for the size of its response)
+	private static ThreadLocal<String> sHandledMethod = new ThreadLocal<String>();
+	
 	public UniTimeRpcDispatcher(JChannel channel, Object server_obj) {
 		super(channel, server_obj);
 		setCorrelator(new RpcRequestCorrelator(prot_adapter, req_handler, local_addr));
 	}
+	
+	/**
+	 * Marshaller used by all the dispatchers (see unitime.solver.marshaller)
+	 */
+	public static synchronized RpcMarshaller getMarshaller() {
+		if (sMarshaller == null) {
+			String marshaller = ApplicationProperty.SolverClusterMarshaller.value();
+			try {
+				sMarshaller = (marshaller == null || marshaller.isEmpty() ? new CompressingRpcMarshaller() : (RpcMarshaller)Class.forName(marshaller).getDeclaredConstructor().newInstance());
+			} catch (Exception e) {
+				throw new RuntimeException("Failed to create RPC marshaller " + marshaller + ": " + e.getMessage(), e);
+			}
+		}
+		return sMarshaller;
+	}
+	
+	/**
+	 * Message containing the given method call, serialized by the {@link RpcMarshaller}
+	 */
+	protected static Message createMessage(Address dest, MethodCall call) throws Exception {
+		byte[] data = getMarshaller().objectToBuffer(call);
+		statistics(methodName(call)).iRequestsSent.record(data.length);
+		return new BytesMessage(dest, data);
+	}
+	
+	/**
+	 * Name of the called method. The solver and online sectioning proxies call all the methods through a generic invoke method
+	 * (e.g., see {@link CourseSolverContainerRemote#dispatch(Address, String, Method, Object[])}), the name of the target method is
+	 * then the first argument.
+	 */
+	protected static String methodName(MethodCall call) {
+		String name = methodName0(call);
+		if ("invoke".equals(name) && call.getArgs() != null && call.getArgs().length > 0 && call.getArgs()[0] instanceof String)
+			return (String)call.getArgs()[0];
+		return name;
+	}
+	
+	private static String methodName0(MethodCall call) {
+		Method method = call.getMethod();
+		if (method != null) return method.getName();
+		if (call.getMethodName() != null) return call.getMethodName();
+		return "#" + call.getMethodId();
+	}
+	
+	protected static MethodStatistics statistics(String method) {
+		MethodStatistics stats = sStatistics.get(method);
+		if (stats == null) {
+			stats = new MethodStatistics();
+			MethodStatistics old = sStatistics.putIfAbsent(method, stats);
+			if (old != null) stats = old;
+		}
+		return stats;
+	}
+	
+	/**
+	 * Number of bytes sent and received for each method (by all the dispatchers of this node)
+	 */
+	public static Map<String, MethodStatistics> getStatistics() {
+		return new TreeMap<String, MethodStatistics>(sStatistics);
+	}
 
 	@Override
 	public <T> RspList<T> callRemoteMethods(Collection<Address> dests, MethodCall method_call, RequestOptions opts) throws Exception {
@@ -70,7 +146,7 @@ public class UniTimeRpcDispatcher extends RpcDispatcher {
 			return empty_rsplist;
 		}
 		// serialize immediately, not during transport
-		Message msg=new BytesMessage(null, method_call);
+		Message msg=createMessage(null, method_call);
 		RspList<T> retval=super.castMessage(dests, msg, opts);
 		if(log.isTraceEnabled())
 			log.trace("dests=%s, method_call=%s, options=%s, responses: %s", dests, method_call, opts, retval);
@@ -84,7 +160,7 @@ public class UniTimeRpcDispatcher extends RpcDispatcher {
 			return CompletableFuture.completedFuture(empty_rsplist);
 		}
 		// serialize immediately, not during transport
-		Message msg=new BytesMessage(null, call);
+		Message msg=createMessage(null, call);
 		CompletableFuture<RspList<T>> retval=super.castMessageWithFuture(dests, msg, options);
 		if(log.isTraceEnabled())
 			log.trace("dests=%s, method_call=%s, options=%s", dests, call, options);
@@ -95,7 +171,7 @@ public class UniTimeRpcDispatcher extends RpcDispatcher {
 	public <T> T callRemoteMethod(Address dest, MethodCall call, RequestOptions options) throws Exception {
 		// serialize immediately, not during transport
 		// also pass serialization errors back to the client
-        Message req=new BytesMessage(dest, call);
+        Message req=createMessage(dest, call);
         T retval=super.sendMessage(req, options);
         if(log.isTraceEnabled())
             log.trace("dest=%s, method_call=%s, options=%s, retval: %s", dest, call, options, retval);
@@ -109,10 +185,51 @@ public class UniTimeRpcDispatcher extends RpcDispatcher {
 		if(log.isTraceEnabled())
 			log.trace("dest=%s, method_call=%s, options=%s", dest, call, opts);
 		// serialize immediately, not during transport
-        Message msg=new BytesMessage(dest, call);
+        Message msg=createMessage(dest, call);
         return super.sendMessageWithFuture(msg, opts);
     }
 
+	/**
+	 * Deserialize the method call using the {@link RpcMarshaller} and execute it, see {@link RpcDispatcher#handle(Message)}
+	 */
+	@Override
+	public Object handle(Message req) throws Exception {
+		if (server_obj == null) {
+			log.error("No method handler is registered, discarding request.");
+			return null;
+		}
+		if (req == null || req.getLength() == 0) {
+			log.error("Message or message buffer is null.");
+			return null;
+		}
+		MethodCall method_call = (MethodCall)getMarshaller().objectFromBuffer(req.getArray(), req.getOffset(), req.getLength());
+		if (log.isTraceEnabled())
+			log.trace("[sender=%s], method_call: %s", req.getSrc(), method_call);
+		if (method_call.useIds()) {
+			if (method_invoker != null)
+				return handled(method_call, req.getLength(), () -> method_invoker.invoke(server_obj, method_call.getMethodId(), method_call.getArgs()));
+			if (method_lookup == null)
+				throw new Exception(String.format("MethodCall uses ID=%d, but method_lookup has not been set", method_call.getMethodId()));
+			Method m = method_lookup.findMethod(method_call.getMethodId());
+			if (m == null)
+				throw new Exception("no method found for " + method_call.getMethodId());
+			method_call.setMethod(m);
+		}
+		return handled(method_call, req.getLength(), () -> method_call.invoke(server_obj));
+	}
+	
+	private Object handled(MethodCall call, int requestBytes, Invocation invocation) throws Exception {
+		String method = methodName(call);
+		statistics(method).iRequestsReceived.record(requestBytes);
+		// the response is sent by the same thread, right after the method returns (see RequestCorrelator.handleRequest)
+		sHandledMethod.set(method);
+		return invocation.invoke();
+	}
+	
+	private static interface Invocation {
+		public Object invoke() throws Exception;
+	}
+	
 	/**
 	 * Custom request correlator that checks for serialization errors during
 	 * {@link Message#getPayload()} {@link Message#setPayload(Object)} calls. When there is an error,
@@ -130,7 +247,7 @@ public class UniTimeRpcDispatcher extends RpcDispatcher {
 	        	boolean threw_exception = false; 
 	        	Object retval = null;
 	        	try {
-	        		retval = rsp.getPayload();
+	        		retval = getMarshaller().objectFromBuffer(rsp.getArray(), rsp.getOffset(), rsp.getLength());
 	        	} catch (Exception e) {
 		        	// message cannot be read > return the serialization error as the message
 		        	// this is to ensure that the serialization error gets returned back to the client
@@ -141,19 +258,85 @@ public class UniTimeRpcDispatcher extends RpcDispatcher {
 	        }
 		}
 		
+		@Override
+		protected void handleRequest(Message req, Header hdr) {
+			try {
+				super.handleRequest(req, hdr);
+			} finally {
+				// no reply is sent when the request does not expect one
+				sHandledMethod.remove();
+			}
+		}
+		
 		@Override
 		protected void sendReply(final Message req, final long req_id, Object reply, boolean is_exception) {
 			Message rsp = makeReply(req).setFlag(req.getFlags(false), false, true);
+			String method = sHandledMethod.get();
+			sHandledMethod.remove();
 			try {
-		        rsp.setPayload(reply);
+				rsp.setArray(getMarshaller().objectToBuffer(reply));
 			} catch (Exception e) {
 	        	// message cannot be written > send the serialization error as the message
 	        	// this is to ensure that the serialization error gets returned back to the client
-				rsp.setPayload(wrap_exceptions ? new InvocationTargetException(e) : e);
+				try {
+					rsp.setArray(getMarshaller().objectToBuffer(wrap_exceptions ? new InvocationTargetException(e) : e));
+				} catch (Exception f) {
+					// the exception itself cannot be written either > send a plain exception with the message
+					// (the payload must stay in the marshaller's format, see handleResponse)
+					RuntimeException g = new RuntimeException(e.getClass().getName() + ": " + e.getMessage());
+					try {
+						rsp.setArray(getMarshaller().objectToBuffer(wrap_exceptions ? new InvocationTargetException(g) : g));
+					} catch (Exception h) {
+						log.error("Failed to write the response: " + e.getMessage(), e);
+						rsp.setArray(new byte[0]);
+					}
+				}
 				is_exception = true;
 			}
+			if (method != null)
+				statistics(method).iResponsesSent.record(rsp.getLength());
 			rsp.clearFlag(Message.Flag.RSVP); // JGRP-1940
 	        sendResponse(rsp, req_id, is_exception);
 	    }
 	}
+
+	/**
+	 * Number of messages and bytes of a method
+	 */
+	public static class MethodStatistics {
+		private Counter iRequestsSent = new Counter(), iRequestsReceived = new Counter(), iResponsesSent = new Counter();
+		
+		/** Calls of the method made by this node */
+		public Counter getRequestsSent() { return iRequestsSent; }
+		/** Calls of the method handled by this node */
+		public Counter getRequestsReceived() { return iRequestsReceived; }
+		/** Responses of the handled calls */
+		public Counter getResponsesSent() { return iResponsesSent; }
+		
+		@Override
+		public String toString() {
+			return "sent=" + iRequestsSent + ", received=" + iRequestsReceived + ", responses=" + iResponsesSent;
+		}
+	}
+	
+	public static class Counter {
+		private AtomicLong iCount = new AtomicLong(0), iBytes = new AtomicLong(0);
+		
+		private void record(int bytes) {
+			iCount.incrementAndGet();
+			iBytes.addAndGet(bytes);
+		}
+		
+		/** Number of messages */
+		public long getCount() { return iCount.get(); }
+		/** Total size of the messages in bytes */
+		public long getBytes() { return iBytes.get(); }
+		/** Average size of a message in bytes */
+		public long getAverageBytes() { long c = getCount(); return (c == 0 ? 0 : getBytes() / c); }
+		
+		@Override
+		public String toString() {
+			return getCount() + " (" + getBytes() + " B, avg " + getAverageBytes() + " B)";
+		}
+	}
 }
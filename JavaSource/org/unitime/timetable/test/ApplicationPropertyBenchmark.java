@@ -0,0 +1,107 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.commons.hibernate.util.HibernateUtil;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.Session;
+
+/**
+ * Measures the cost of the {@link ApplicationProperty} lookups: the cached {@link ApplicationProperty#value()} and {@link ApplicationProperty#isTrue()}
+ * are compared with the uncached resolution (session configuration, application configuration, and application properties are checked every time)
+ * and with the reflection based default value lookup that was used before the properties were pre-compiled.
+ * Use properties initiative, year, and term to set academic session (optional), iterations for the number of lookups and warmup for the number of warm-up rounds.
+ *
+ * @author Tomas Muller
+ */
+public class ApplicationPropertyBenchmark {
+	private static Log sLog = LogFactory.getLog(ApplicationPropertyBenchmark.class);
+	private static volatile Object sBlackHole;
+	
+	private static interface Lookup {
+		public Object lookup(ApplicationProperty property) throws Exception;
+	}
+	
+	private static double run(ApplicationProperty[] properties, int iterations, Lookup lookup) throws Exception {
+		long t0 = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			sBlackHole = lookup.lookup(properties[i % properties.length]);
+		return ((double)(System.nanoTime() - t0)) / iterations;
+	}
+	
+	private static void benchmark(String name, ApplicationProperty[] properties, int iterations, int warmup, Lookup lookup) throws Exception {
+		for (int i = 0; i < warmup; i++)
+			run(properties, iterations, lookup);
+		sLog.info(name + ": " + String.format("%.1f", run(properties, iterations, lookup)) + " ns/op");
+	}
+	
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			HibernateUtil.configureHibernate(ApplicationProperties.getProperties());
+			
+			Session session = Session.getSessionUsingInitiativeYearTerm(
+					ApplicationProperties.getProperty("initiative", "PWL"),
+					ApplicationProperties.getProperty("year","2015"),
+					ApplicationProperties.getProperty("term","Spring")
+					);
+			if (session != null) {
+				sLog.info("Session: " + session);
+				ApplicationProperties.setSessionId(session.getUniqueId());
+			}
+			
+			int iterations = Integer.parseInt(ApplicationProperties.getProperty("iterations", "1000000"));
+			int warmup = Integer.parseInt(ApplicationProperties.getProperty("warmup", "3"));
+			final ApplicationProperty[] properties = ApplicationProperty.values();
+			
+			benchmark("value() [cached]", properties, iterations, warmup, new Lookup() {
+				@Override
+				public Object lookup(ApplicationProperty property) { return property.value(); }
+			});
+			benchmark("isTrue() [cached]", properties, iterations, warmup, new Lookup() {
+				@Override
+				public Object lookup(ApplicationProperty property) { return property.isTrue(); }
+			});
+			benchmark("valueOfSession(sessionId, null, null) [not cached]", properties, iterations, warmup, new Lookup() {
+				@Override
+				public Object lookup(ApplicationProperty property) { return property.valueOfSession(ApplicationProperties.getSessionId(), null, null); }
+			});
+			benchmark("defaultValue() [pre-compiled]", properties, iterations, warmup, new Lookup() {
+				@Override
+				public Object lookup(ApplicationProperty property) { return property.defaultValue(); }
+			});
+			benchmark("getField(name()).getAnnotation(..) [reflection]", properties, iterations, warmup, new Lookup() {
+				@Override
+				public Object lookup(ApplicationProperty property) throws Exception {
+					return ApplicationProperty.class.getField(property.name()).getAnnotation(Deprecated.class);
+				}
+			});
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+		} finally {
+			HibernateUtil.closeHibernate();
+		}
+		System.exit(0);
+	}
+}
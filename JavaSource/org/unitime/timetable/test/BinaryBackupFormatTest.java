@@ -0,0 +1,172 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.XMLWriter;
+import org.unitime.timetable.solver.BinaryBackupFormat;
+
+/**
+ * Round-trip checks of the {@link BinaryBackupFormat}: a document that looks like a solver backup (many repeated element and attribute names,
+ * numbers, nested elements, non-ASCII and special characters, CDATA, long texts) is written, both compressed and not, and read back.
+ * The read document must have the same elements, attributes (in the same order), and texts. Malformed data must be rejected.<br>
+ * The program exits with a non-zero status when any of the checks fails.
+ *
+ * @author Tomas Muller
+ */
+public class BinaryBackupFormatTest {
+	private static Log sLog = LogFactory.getLog(BinaryBackupFormatTest.class);
+	private static int sFailures = 0;
+
+	private static void check(boolean condition, String message) {
+		if (condition) {
+			sLog.info("OK: " + message);
+		} else {
+			sLog.error("FAILED: " + message);
+			sFailures ++;
+		}
+	}
+
+	/** Returns null if the two elements are the same, a description of the first difference otherwise */
+	private static String compare(Element e1, Element e2, String path) {
+		path += "/" + e1.getQualifiedName();
+		if (!e1.getQualifiedName().equals(e2.getQualifiedName())) return path + ": element " + e2.getQualifiedName() + " found instead";
+		if (e1.attributeCount() != e2.attributeCount()) return path + ": " + e2.attributeCount() + " attributes instead of " + e1.attributeCount();
+		for (int i = 0; i < e1.attributeCount(); i++) {
+			Attribute a1 = e1.attribute(i), a2 = e2.attribute(i);
+			if (!a1.getQualifiedName().equals(a2.getQualifiedName()) || !a1.getValue().equals(a2.getValue()))
+				return path + ": attribute " + a2.getQualifiedName() + "=" + a2.getValue() + " instead of " + a1.getQualifiedName() + "=" + a1.getValue();
+		}
+		if (!e1.getText().equals(e2.getText())) return path + ": text differs";
+		if (e1.elements().size() != e2.elements().size()) return path + ": " + e2.elements().size() + " child elements instead of " + e1.elements().size();
+		for (int i = 0; i < e1.elements().size(); i++) {
+			String diff = compare(e1.elements().get(i), e2.elements().get(i), path);
+			if (diff != null) return diff;
+		}
+		return null;
+	}
+
+	private static Document createDocument(Random random) {
+		Document document = DocumentHelper.createDocument();
+		document.addComment("comments are not kept");
+		Element root = document.addElement("problem");
+		root.addAttribute("version", "1.0").addAttribute("initiative", "puWestLafayetteTrdtn").addAttribute("term", "Fal2026");
+		Element rooms = root.addElement("rooms");
+		for (int i = 0; i < 200; i++)
+			rooms.addElement("room").addAttribute("id", String.valueOf(i)).addAttribute("constraint", "true").addAttribute("size", String.valueOf(random.nextInt(500)))
+				.addAttribute("location", random.nextInt(1000) + "," + random.nextInt(1000));
+		Element classes = root.addElement("classes");
+		for (int i = 0; i < 1000; i++) {
+			Element clazz = classes.addElement("class").addAttribute("id", String.valueOf(100000 + i)).addAttribute("offering", String.valueOf(i / 5))
+					.addAttribute("classLimit", String.valueOf(random.nextInt(100))).addAttribute("dates", Long.toBinaryString(random.nextLong()));
+			for (int j = 0; j < 3; j++)
+				clazz.addElement("time").addAttribute("days", "1010100").addAttribute("start", String.valueOf(90 + 12 * random.nextInt(10)))
+					.addAttribute("length", "12").addAttribute("pref", String.valueOf(random.nextDouble()));
+			if (random.nextInt(10) == 0) clazz.addElement("instructor").addAttribute("id", String.valueOf(random.nextInt(50)));
+		}
+		Element texts = root.addElement("texts");
+		texts.addElement("special").addText("<&> \"quotes\" 'apostrophes' \t tab\nnew line");
+		texts.addElement("unicode").addText("P\u0159\u00edli\u0161 \u017elu\u0165ou\u010dk\u00fd k\u016f\u0148 \u2013 \u65e5\u672c\u8a9e \ud83d\ude00");
+		texts.addElement("cdata").addCDATA("some <b>bold</b> text & more");
+		texts.addElement("mixed").addText("before ").addCDATA("<cdata>").addText(" after");
+		texts.addElement("empty");
+		texts.addElement("emptyText").addText("");
+		texts.addElement("emptyAttribute").addAttribute("value", "");
+		StringBuilder longText = new StringBuilder();
+		for (int i = 0; i < 100000; i++) longText.append((char)('a' + random.nextInt(26)));
+		texts.addElement("long").addText(longText.toString());
+		Element deep = root.addElement("deep");
+		for (int i = 0; i < 500; i++) deep = deep.addElement("level").addAttribute("depth", String.valueOf(i));
+		// more than 128 different names (so that the name indexes take more than one byte)
+		Element names = root.addElement("names");
+		for (int i = 0; i < 300; i++) names.addElement("name" + i).addAttribute("attribute" + i, String.valueOf(i));
+		return document;
+	}
+
+	private static byte[] write(Document document, boolean compress) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryBackupFormat.write(document, out, compress);
+		return out.toByteArray();
+	}
+
+	private static boolean fails(byte[] data) {
+		try {
+			BinaryBackupFormat.read(new ByteArrayInputStream(data));
+			return false;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			Document document = createDocument(new Random(1));
+			StringWriter xml = new StringWriter();
+			new XMLWriter(xml, OutputFormat.createPrettyPrint()).write(document);
+			sLog.info("XML size: " + xml.toString().length() + " characters");
+
+			for (boolean compress: new boolean[] {false, true}) {
+				byte[] data = write(document, compress);
+				sLog.info((compress ? "Compressed" : "Uncompressed") + " binary size: " + data.length + " bytes");
+				check(BinaryBackupFormat.isMagic(data), (compress ? "compressed" : "uncompressed") + ": data start with the header");
+				Document copy = BinaryBackupFormat.read(new ByteArrayInputStream(data));
+				String diff = compare(document.getRootElement(), copy.getRootElement(), "");
+				check(diff == null, (compress ? "compressed" : "uncompressed") + ": document is the same after a round-trip" + (diff == null ? "" : " (" + diff + ")"));
+				check(copy.getRootElement().element("texts").element("unicode").getText().equals(document.getRootElement().element("texts").element("unicode").getText()),
+						(compress ? "compressed" : "uncompressed") + ": non-ASCII text is kept");
+				check(Arrays.equals(data, write(copy, compress)), (compress ? "compressed" : "uncompressed") + ": document written again gives the same data");
+				check(fails(Arrays.copyOf(data, data.length / 2)), (compress ? "compressed" : "uncompressed") + ": truncated data are rejected");
+			}
+			check(write(document, true).length < write(document, false).length, "compressed data are smaller");
+			check(write(document, false).length < xml.toString().length(), "binary data are smaller than the XML");
+
+			byte[] data = write(document, false);
+			byte[] wrongMagic = data.clone(); wrongMagic[0] = '<';
+			check(!BinaryBackupFormat.isMagic(wrongMagic) && fails(wrongMagic), "data without the header are rejected");
+			byte[] wrongVersion = data.clone(); wrongVersion[BinaryBackupFormat.MAGIC.length] = (byte)(BinaryBackupFormat.VERSION + 1);
+			check(fails(wrongVersion), "data of a different version are rejected");
+			check(!BinaryBackupFormat.isMagic(new byte[] {'U', 'T'}), "too short data do not start with the header");
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+			sFailures ++;
+		}
+		if (sFailures > 0) {
+			sLog.error(sFailures + " check(s) failed.");
+			System.exit(1);
+		}
+		sLog.info("All checks passed.");
+		System.exit(0);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.jgroups.blocks.MethodCall;
+import org.unitime.timetable.solver.jgroups.CompressingRpcMarshaller;
+
+/**
+ * Round-trip checks of the {@link CompressingRpcMarshaller}: small payloads must stay plain, large compressible payloads
+ * must be compressed (and counted), incompressible payloads must stay plain, and all of them must be deserialized back
+ * to equal objects, also when the buffer is a part of a larger array and when the marshaller is used by many threads at once.<br>
+ * The program exits with a non-zero status when any of the checks fails.
+ *
+ * @author Tomas Muller
+ */
+public class CompressingRpcMarshallerTest {
+	private static Log sLog = LogFactory.getLog(CompressingRpcMarshallerTest.class);
+	private static int sFailures = 0;
+
+	private static void check(boolean condition, String message) {
+		if (condition) {
+			sLog.info("OK: " + message);
+		} else {
+			sLog.error("FAILED: " + message);
+			sFailures ++;
+		}
+	}
+
+	private static boolean same(Object o1, Object o2) {
+		if (o1 instanceof byte[] && o2 instanceof byte[]) return Arrays.equals((byte[])o1, (byte[])o2);
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	private static Object roundTrip(CompressingRpcMarshaller marshaller, Object object) throws Exception {
+		byte[] buffer = marshaller.objectToBuffer(object);
+		return marshaller.objectFromBuffer(buffer, 0, buffer.length);
+	}
+
+	/** A large, well compressible object (similar to a list of enrollments) */
+	private static HashMap<String, List<Long>> createLargeObject(Random random) {
+		HashMap<String, List<Long>> ret = new HashMap<String, List<Long>>();
+		for (int i = 0; i < 500; i++) {
+			List<Long> ids = new ArrayList<Long>();
+			for (int j = 0; j < 20; j++) ids.add(1000000l + random.nextInt(100));
+			ret.put("Course " + i, ids);
+		}
+		return ret;
+	}
+
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			final Random random = new Random(1);
+			final CompressingRpcMarshaller marshaller = new CompressingRpcMarshaller(1024);
+
+			// small objects are not compressed
+			for (Object object: new Object[] {null, Boolean.TRUE, 42, 42l, 3.14, "Hello World!", "P\u0159\u00edli\u0161 \u017elu\u0165ou\u010dk\u00fd k\u016f\u0148", new byte[] {1, 2, 3}, new ArrayList<Long>(Arrays.asList(1l, 2l, 3l))})
+				check(same(object, roundTrip(marshaller, object)), "object " + object + " is the same after a round-trip");
+			check(marshaller.getNrCompressed() == 0, "small objects are not compressed");
+
+			// large compressible object is compressed
+			HashMap<String, List<Long>> large = createLargeObject(random);
+			byte[] buffer = marshaller.objectToBuffer(large);
+			check(marshaller.getNrCompressed() == 1, "large object is compressed");
+			check(marshaller.getBytesAfterCompression() == buffer.length && marshaller.getBytesBeforeCompression() > buffer.length,
+					"compressed size is counted (" + marshaller + ")");
+			check(large.equals(marshaller.objectFromBuffer(buffer, 0, buffer.length)), "large object is the same after a round-trip");
+
+			// incompressible data are not compressed
+			byte[] noise = new byte[100000];
+			random.nextBytes(noise);
+			check(same(noise, roundTrip(marshaller, noise)), "random data are the same after a round-trip");
+			check(marshaller.getNrCompressed() == 1, "random data are not compressed");
+
+			// compression disabled
+			CompressingRpcMarshaller plain = new CompressingRpcMarshaller(0);
+			check(large.equals(roundTrip(plain, large)) && plain.getNrCompressed() == 0, "nothing is compressed when the compression is disabled");
+			byte[] plainBuffer = plain.objectToBuffer(large);
+			check(large.equals(marshaller.objectFromBuffer(plainBuffer, 0, plainBuffer.length)), "plain payload is read by a compressing marshaller");
+
+			// buffer being a part of a larger array
+			for (Object object: new Object[] {"Hello World!", large}) {
+				byte[] data = marshaller.objectToBuffer(object);
+				byte[] array = new byte[data.length + 20];
+				Arrays.fill(array, (byte)0xff);
+				System.arraycopy(data, 0, array, 7, data.length);
+				check(object.equals(marshaller.objectFromBuffer(array, 7, data.length)), (object == large ? "large" : "small") + " object is read from an offset");
+			}
+
+			// method calls and exceptions (the payloads of the RPC dispatcher)
+			MethodCall call = new MethodCall("getEnrollments", new Object[] {123l, large}, new Class[] {Long.class, Map.class});
+			MethodCall callCopy = (MethodCall)roundTrip(marshaller, call);
+			check("getEnrollments".equals(callCopy.getMethodName()) && callCopy.getArgs().length == 2 &&
+					Long.valueOf(123l).equals(callCopy.getArgs()[0]) && large.equals(callCopy.getArgs()[1]), "method call is the same after a round-trip");
+			Object exception = roundTrip(marshaller, new IllegalStateException("Test exception"));
+			check(exception instanceof IllegalStateException && "Test exception".equals(((Exception)exception).getMessage()), "exception is the same after a round-trip");
+
+			// truncated compressed payload is rejected
+			try {
+				marshaller.objectFromBuffer(buffer, 0, buffer.length / 2);
+				check(false, "truncated payload is rejected");
+			} catch (Exception e) {
+				check(true, "truncated payload is rejected (" + e.getMessage() + ")");
+			}
+
+			// many threads using the same marshaller
+			final AtomicBoolean failed = new AtomicBoolean(false);
+			List<Thread> threads = new ArrayList<Thread>();
+			long compressedBefore = marshaller.getNrCompressed();
+			for (int t = 0; t < 8; t++) {
+				final HashMap<String, List<Long>> object = createLargeObject(new Random(t));
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							for (int i = 0; i < 50; i++)
+								if (!object.equals(roundTrip(marshaller, object))) failed.set(true);
+						} catch (Exception e) {
+							sLog.error("Round-trip failed: " + e.getMessage(), e);
+							failed.set(true);
+						}
+					}
+				});
+				threads.add(thread); thread.start();
+			}
+			for (Thread thread: threads) thread.join(60000);
+			check(!failed.get(), "marshaller can be used by many threads at once");
+			check(marshaller.getNrCompressed() == compressedBefore + 8 * 50, "all compressions are counted");
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+			sFailures ++;
+		}
+		if (sFailures > 0) {
+			sLog.error(sFailures + " check(s) failed.");
+			System.exit(1);
+		}
+		sLog.info("All checks passed.");
+		System.exit(0);
+	}
+}
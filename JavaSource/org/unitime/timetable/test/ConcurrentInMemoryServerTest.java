@@ -0,0 +1,284 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.commons.hibernate.util.HibernateUtil;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.model.Session;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
+import org.unitime.timetable.onlinesectioning.model.XConfig;
+import org.unitime.timetable.onlinesectioning.model.XCourse;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XEnrollments;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XSection;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.model.XStudentId;
+import org.unitime.timetable.onlinesectioning.model.XSubpart;
+import org.unitime.timetable.onlinesectioning.server.ConcurrentInMemoryServer;
+import org.unitime.timetable.onlinesectioning.server.InMemoryServer;
+
+/**
+ * Checks the {@link ConcurrentInMemoryServer} against the {@link InMemoryServer}: both servers are loaded for the same academic session
+ * and they must return the same courses (also for course name searches), students, course requests, and enrollment counts.
+ * The concurrent server is then read by many threads while its students are being updated: every enrollment snapshot that a reader
+ * gets must be consistent (the counts of an offering, its courses, and its sections match the enrollments), and the enrollment counts
+ * must be the same once the updates are done.
+ * Use properties initiative, year, and term to set academic session, nrReaders, nrWriters, and seconds for the concurrent part.<br>
+ * The program exits with a non-zero status when any of the checks fails.
+ *
+ * @author Tomas Muller
+ */
+public class ConcurrentInMemoryServerTest {
+	private static Log sLog = LogFactory.getLog(ConcurrentInMemoryServerTest.class);
+	private static int sFailures = 0;
+
+	private static void check(boolean condition, String message) {
+		if (condition) {
+			sLog.info("OK: " + message);
+		} else {
+			sLog.error("FAILED: " + message);
+			sFailures ++;
+		}
+	}
+
+	/** Course ids of the given search */
+	private static TreeSet<Long> courseIds(Collection<? extends XCourseId> courses) {
+		TreeSet<Long> ret = new TreeSet<Long>();
+		for (XCourseId course: courses) ret.add(course.getCourseId());
+		return ret;
+	}
+
+	/** Enrollment counts of the given offering: offering, each course, and each section */
+	private static String counts(OnlineSectioningServer server, Long offeringId) {
+		XOffering offering = server.getOffering(offeringId);
+		XEnrollments enrollments = server.getEnrollments(offeringId);
+		if (offering == null || enrollments == null) return null;
+		Map<String, Integer> counts = new TreeMap<String, Integer>();
+		counts.put("offering", enrollments.countEnrollments());
+		counts.put("requests", server.getRequests(offeringId).size());
+		for (XCourse course: offering.getCourses())
+			counts.put("course " + course.getCourseId(), enrollments.countEnrollmentsForCourse(course.getCourseId()));
+		for (XConfig config: offering.getConfigs())
+			for (XSubpart subpart: config.getSubparts())
+				for (XSection section: subpart.getSections())
+					counts.put("section " + section.getSectionId(), enrollments.countEnrollmentsForSection(section.getSectionId()));
+		return counts.toString();
+	}
+
+	/** Enrollment snapshot must be consistent: the counts match the enrollments */
+	private static boolean consistent(XOffering offering, XEnrollments enrollments) {
+		if (enrollments.countEnrollments() != enrollments.getEnrollments().size()) return false;
+		for (XCourse course: offering.getCourses())
+			if (enrollments.countEnrollmentsForCourse(course.getCourseId()) != enrollments.getEnrollmentsForCourse(course.getCourseId()).size()) return false;
+		for (XConfig config: offering.getConfigs())
+			for (XSubpart subpart: config.getSubparts())
+				for (XSection section: subpart.getSections())
+					if (enrollments.countEnrollmentsForSection(section.getSectionId()) != enrollments.getEnrollmentsForSection(section.getSectionId()).size()) return false;
+		return true;
+	}
+
+	private static TreeSet<Long> studentIds(OnlineSectioningServer server) {
+		TreeSet<Long> ret = new TreeSet<Long>();
+		for (XStudentId student: server.findStudents(null)) ret.add(student.getStudentId());
+		return ret;
+	}
+
+	private static void compare(OnlineSectioningServer expected, OnlineSectioningServer server) {
+		List<XCourseId> courses = new ArrayList<XCourseId>(expected.findCourses(null));
+		check(courseIds(courses).equals(courseIds(server.findCourses(null))), "the same " + courses.size() + " courses are loaded");
+
+		int nrDifferent = 0;
+		for (XCourseId course: courses) {
+			String name = course.getCourseName();
+			for (String query: new String[] { name, name.substring(0, Math.min(name.length(), 3)), name.substring(0, 1)}) {
+				if (!courseIds(expected.findCourses(query, 20, null)).equals(courseIds(server.findCourses(query, 20, null)))) {
+					if (nrDifferent < 10) sLog.error("Different courses for '" + query + "'.");
+					nrDifferent ++;
+				}
+			}
+			XCourseId c1 = expected.getCourse(name), c2 = server.getCourse(name);
+			if (c1 == null ? c2 != null : c2 == null || !c1.getCourseId().equals(c2.getCourseId())) {
+				if (nrDifferent < 10) sLog.error("Different course for '" + name + "'.");
+				nrDifferent ++;
+			}
+		}
+		check(nrDifferent == 0, nrDifferent + " course searches differ");
+
+		TreeSet<Long> offeringIds = new TreeSet<Long>();
+		for (XCourseId course: courses) offeringIds.add(course.getOfferingId());
+		nrDifferent = 0;
+		for (Long offeringId: offeringIds) {
+			String c1 = counts(expected, offeringId), c2 = counts(server, offeringId);
+			if (c1 == null ? c2 != null : !c1.equals(c2)) {
+				if (nrDifferent < 10) sLog.error("Different enrollments of offering " + offeringId + ": " + c2 + " instead of " + c1);
+				nrDifferent ++;
+			}
+		}
+		check(nrDifferent == 0, nrDifferent + " of " + offeringIds.size() + " offerings have different requests or enrollments");
+
+		TreeSet<Long> studentIds = studentIds(expected);
+		check(studentIds.equals(studentIds(server)), "the same " + studentIds.size() + " students are loaded");
+		nrDifferent = 0;
+		for (Long studentId: studentIds) {
+			XStudent s1 = expected.getStudent(studentId), s2 = server.getStudent(studentId);
+			if (s2 == null || !s1.getRequests().equals(s2.getRequests()) || !server.getRequestedCourseIds(studentId).equals(expected.getRequestedCourseIds(studentId))) {
+				if (nrDifferent < 10) sLog.error("Different course requests of student " + studentId);
+				nrDifferent ++;
+			}
+		}
+		check(nrDifferent == 0, nrDifferent + " students have different course requests");
+	}
+
+	private static void concurrent(final OnlineSectioningServer server, int nrReaders, int nrWriters, int seconds) throws InterruptedException {
+		final List<XCourseId> courses = new ArrayList<XCourseId>(server.findCourses(null));
+		final List<XStudentId> students = new ArrayList<XStudentId>(server.findStudents(null));
+		if (courses.isEmpty() || students.isEmpty()) {
+			sLog.warn("No courses or students loaded.");
+			return;
+		}
+		TreeSet<Long> offeringIds = new TreeSet<Long>();
+		for (XCourseId course: courses) offeringIds.add(course.getOfferingId());
+		Map<Long, String> before = new TreeMap<Long, String>();
+		for (Long offeringId: offeringIds) before.put(offeringId, counts(server, offeringId));
+
+		final AtomicLong reads = new AtomicLong(0), writes = new AtomicLong(0);
+		final AtomicBoolean inconsistent = new AtomicBoolean(false), failed = new AtomicBoolean(false);
+		final long end = System.currentTimeMillis() + 1000l * seconds;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < nrReaders; i++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.currentTimeMillis() < end) {
+							XCourseId course = ToolBox.random(courses);
+							XOffering offering = server.getOffering(course.getOfferingId());
+							XEnrollments enrollments = server.getEnrollments(course.getOfferingId());
+							if (offering != null && enrollments != null && !consistent(offering, enrollments)) inconsistent.set(true);
+							reads.incrementAndGet();
+						}
+					} catch (Exception e) {
+						sLog.error("Read failed: " + e.getMessage(), e);
+						failed.set(true);
+					}
+				}
+			}));
+		}
+		for (int i = 0; i < nrWriters; i++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.currentTimeMillis() < end) {
+							XStudent student = server.getStudent(ToolBox.random(students).getStudentId());
+							if (student != null) server.update(student, true);
+							writes.incrementAndGet();
+						}
+					} catch (Exception e) {
+						sLog.error("Update failed: " + e.getMessage(), e);
+						failed.set(true);
+					}
+				}
+			}));
+		}
+		for (Thread t: threads) t.start();
+		for (Thread t: threads) t.join();
+		sLog.info(reads.get() + " reads and " + writes.get() + " updates done by " + nrReaders + " readers and " + nrWriters + " writers.");
+		check(!failed.get(), "no read or update failed");
+		check(!inconsistent.get(), "readers only see consistent enrollments");
+
+		int nrDifferent = 0;
+		for (Long offeringId: offeringIds) {
+			String counts = counts(server, offeringId);
+			if (before.get(offeringId) == null ? counts != null : !before.get(offeringId).equals(counts)) {
+				if (nrDifferent < 10) sLog.error("Different enrollments of offering " + offeringId + " after the updates: " + counts + " instead of " + before.get(offeringId));
+				nrDifferent ++;
+			}
+		}
+		check(nrDifferent == 0, nrDifferent + " offerings have different enrollments after the updates");
+	}
+
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			HibernateUtil.configureHibernate(ApplicationProperties.getProperties());
+
+			final Session session = Session.getSessionUsingInitiativeYearTerm(
+					ApplicationProperties.getProperty("initiative", "PWL"),
+					ApplicationProperties.getProperty("year","2015"),
+					ApplicationProperties.getProperty("term","Spring")
+					);
+			if (session==null) {
+				sLog.error("Academic session not found, use properties initiative, year, and term to set academic session.");
+				System.exit(0);
+			} else {
+				sLog.info("Session: "+session);
+			}
+
+			OnlineSectioningServerContext context = new OnlineSectioningServerContext() {
+				@Override
+				public Long getAcademicSessionId() { return session.getUniqueId(); }
+				@Override
+				public boolean isWaitTillStarted() { return true; }
+			};
+
+			int nrReaders = Integer.parseInt(ApplicationProperties.getProperty("nrReaders", "16"));
+			int nrWriters = Integer.parseInt(ApplicationProperties.getProperty("nrWriters", "4"));
+			int seconds = Integer.parseInt(ApplicationProperties.getProperty("seconds", "30"));
+
+			OnlineSectioningServer expected = new InMemoryServer(context);
+			while (!expected.isReady()) Thread.sleep(1000);
+			OnlineSectioningServer server = new ConcurrentInMemoryServer(context);
+			while (!server.isReady()) Thread.sleep(1000);
+			try {
+				compare(expected, server);
+				concurrent(server, nrReaders, nrWriters, seconds);
+			} finally {
+				expected.unload();
+				server.unload();
+			}
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+			sFailures ++;
+		} finally {
+			HibernateUtil.closeHibernate();
+		}
+		if (sFailures > 0) {
+			sLog.error(sFailures + " check(s) failed.");
+			System.exit(1);
+		}
+		sLog.info("All checks passed.");
+		System.exit(0);
+	}
+}
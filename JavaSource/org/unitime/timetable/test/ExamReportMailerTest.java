@@ -0,0 +1,129 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.timetable.reports.exam.ExamReportMailer;
+
+/**
+ * Checks the {@link ExamReportMailer} using emails that are not sent anywhere: all the submitted emails are sent, using no more
+ * than the given number of threads (plus the submitting thread when the queue is full), the number of pending emails stays bounded,
+ * failures are reported, and the deliveries are returned in the order in which they were submitted.<br>
+ * The program exits with a non-zero status when any of the checks fails.
+ *
+ * @author Tomas Muller
+ */
+public class ExamReportMailerTest {
+	private static Log sLog = LogFactory.getLog(ExamReportMailerTest.class);
+	private static int sFailures = 0;
+
+	private static void check(boolean condition, String message) {
+		if (condition) {
+			sLog.info("OK: " + message);
+		} else {
+			sLog.error("FAILED: " + message);
+			sFailures ++;
+		}
+	}
+
+	/** Email that takes a while to send, keeps track of the emails being sent at the same time, and can fail */
+	private static class SlowEmail extends MockupEmail {
+		private static AtomicInteger sSending = new AtomicInteger(0), sMaxSending = new AtomicInteger(0), sSent = new AtomicInteger(0), sDone = new AtomicInteger(0);
+		private boolean iFail;
+		private Thread iSubmitter;
+		private static volatile boolean sSentBySubmitter = false;
+
+		private SlowEmail(boolean fail) {
+			iFail = fail; iSubmitter = Thread.currentThread();
+		}
+
+		@Override
+		public void send() throws Exception {
+			int sending = sSending.incrementAndGet();
+			sMaxSending.accumulateAndGet(sending, Math::max);
+			if (Thread.currentThread() == iSubmitter) sSentBySubmitter = true;
+			try {
+				Thread.sleep(5);
+				if (iFail) throw new Exception("Failed to send email.");
+				sSent.incrementAndGet();
+			} finally {
+				sSending.decrementAndGet();
+				sDone.incrementAndGet();
+			}
+		}
+
+		private static void reset() {
+			sSending.set(0); sMaxSending.set(0); sSent.set(0); sDone.set(0); sSentBySubmitter = false;
+		}
+	}
+
+	private static void test(int nrThreads, int nrEmails) {
+		SlowEmail.reset();
+		ExamReportMailer mailer = new ExamReportMailer(nrThreads);
+		int maxPending = 0;
+		for (int i = 0; i < nrEmails; i++) {
+			mailer.send(new SlowEmail(i % 10 == 9), "email " + i);
+			maxPending = Math.max(maxPending, i + 1 - SlowEmail.sDone.get());
+		}
+		List<ExamReportMailer.Delivery> deliveries = mailer.finish();
+		String name = nrThreads + " thread(s)";
+
+		check(deliveries.size() == nrEmails, name + ": all " + nrEmails + " deliveries are returned");
+		boolean ordered = true, outcomes = true;
+		for (int i = 0; i < deliveries.size(); i++) {
+			ExamReportMailer.Delivery d = deliveries.get(i);
+			if (!("email " + i).equals(d.getDescription())) ordered = false;
+			if (i % 10 == 9 ? d.isSent() || d.getError() == null : !d.isSent() || d.getError() != null) outcomes = false;
+		}
+		check(ordered, name + ": deliveries are in the order of submission");
+		check(outcomes, name + ": sent emails and failures are reported");
+		check(SlowEmail.sSent.get() == nrEmails - nrEmails / 10, name + ": " + SlowEmail.sSent.get() + " emails are sent");
+		if (nrThreads <= 1) {
+			check(SlowEmail.sMaxSending.get() == 1 && SlowEmail.sSentBySubmitter, name + ": emails are sent by the submitting thread");
+		} else {
+			check(SlowEmail.sMaxSending.get() > 1, name + ": up to " + SlowEmail.sMaxSending.get() + " emails are sent at the same time");
+			check(SlowEmail.sMaxSending.get() <= nrThreads + 1, name + ": no more than " + (nrThreads + 1) + " emails are sent at the same time");
+			check(maxPending <= 11 * nrThreads + 1, name + ": up to " + maxPending + " emails are pending");
+		}
+	}
+
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			test(1, 100);
+			test(4, 500);
+			test(8, 1000);
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+			sFailures ++;
+		}
+		if (sFailures > 0) {
+			sLog.error(sFailures + " check(s) failed.");
+			System.exit(1);
+		}
+		sLog.info("All checks passed.");
+		System.exit(0);
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.model.Exam;
+import org.unitime.timetable.model.ExamPeriod;
+import org.unitime.timetable.model.ExamType;
+import org.unitime.timetable.model.Session;
+import org.unitime.timetable.solver.exam.ui.ExamAssignment;
+import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo;
+import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo.BackToBackConflict;
+import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo.DirectConflict;
+import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo.MoreThanTwoADayConflict;
+import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo.Parameters;
+import org.unitime.timetable.solver.exam.ui.ExamStudentIndex;
+
+/**
+ * Compares the student conflicts computed by the {@link ExamStudentIndex} with the original computation
+ * ({@link ExamAssignmentInfo#generateConflicts(Exam, Hashtable, Hashtable, Hashtable, Parameters, Hashtable, Hashtable)}) on a randomly
+ * generated examination problem (no database is needed, the examinations and periods are created in memory).
+ * Direct, back-to-back, and more than two a day conflicts of each examination must be the same (the same other examinations and the same students).
+ * Use properties seed, exams, students, and threads to change the generated problem.<br>
+ * The program exits with a non-zero status when any of the checks fails.
+ *
+ * @author Tomas Muller
+ */
+public class ExamStudentIndexTest {
+	private static Log sLog = LogFactory.getLog(ExamStudentIndexTest.class);
+	private static int sFailures = 0;
+
+	private static void check(boolean condition, String message) {
+		if (condition) {
+			sLog.debug("OK: " + message);
+		} else {
+			sLog.error("FAILED: " + message);
+			sFailures ++;
+		}
+	}
+
+	private static String students(List<Long> students) {
+		List<Long> sorted = new ArrayList<Long>(students);
+		Collections.sort(sorted);
+		return sorted.toString();
+	}
+
+	/** Student conflicts of an examination, as a sorted set of strings (conflict type, other examinations, students) */
+	private static Set<String> conflicts(ExamAssignmentInfo info) {
+		Set<String> ret = new TreeSet<String>();
+		for (DirectConflict dc: info.getDirectConflicts())
+			ret.add("direct " + dc.getOtherExam().getExamId() + " " + students(dc.getStudents()));
+		for (BackToBackConflict btb: info.getBackToBackConflicts())
+			ret.add("btb " + btb.getOtherExam().getExamId() + (btb.isDistance() ? " distance " : " ") + students(btb.getStudents()));
+		for (MoreThanTwoADayConflict m2d: info.getMoreThanTwoADaysConflicts()) {
+			List<Long> exams = new ArrayList<Long>();
+			for (ExamAssignment other: m2d.getOtherExams())
+				exams.add(other.getExamId());
+			ret.add("m2d " + students(exams) + " " + students(m2d.getStudents()));
+		}
+		return ret;
+	}
+
+	private static Exam createExam(long id, Session session, ExamType type, ExamPeriod period, int length) {
+		Exam exam = new Exam();
+		exam.setUniqueId(id);
+		exam.setName("Exam " + id);
+		exam.setSession(session);
+		exam.setExamType(type);
+		exam.setLength(length);
+		exam.setMaxNbrRooms(1);
+		exam.setSeatingType(Exam.sSeatingTypeNormal);
+		exam.setAssignedPeriod(period);
+		exam.setAssignedRooms(new HashSet());
+		exam.setOwners(new HashSet());
+		exam.setInstructors(new HashSet());
+		exam.setPreferences(new HashSet());
+		exam.setDistributionObjects(new HashSet());
+		return exam;
+	}
+
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			long seed = Long.parseLong(ApplicationProperties.getProperty("seed", "1"));
+			int nrExams = Integer.parseInt(ApplicationProperties.getProperty("exams", "100"));
+			int nrStudents = Integer.parseInt(ApplicationProperties.getProperty("students", "2000"));
+			int nrThreads = Integer.parseInt(ApplicationProperties.getProperty("threads", "4"));
+			Random random = new Random(seed);
+
+			Session session = new Session();
+			session.setUniqueId(1l);
+			Calendar c = Calendar.getInstance(Locale.US);
+			c.set(2026, Calendar.DECEMBER, 14, 0, 0, 0); c.set(Calendar.MILLISECOND, 0);
+			session.setExamBeginDate(c.getTime());
+
+			ExamType type = new ExamType();
+			type.setUniqueId(1l);
+			type.setReference("final");
+			type.setLabel("Final");
+			type.setType(ExamType.sExamTypeFinal);
+
+			// 5 days, 4 two-hour periods a day (8:00, 10:00, 13:00, 15:00)
+			List<ExamPeriod> periods = new ArrayList<ExamPeriod>();
+			int[] startSlots = new int[] { 96, 120, 156, 180 };
+			for (int day = 0; day < 5; day++)
+				for (int slot: startSlots) {
+					ExamPeriod period = new ExamPeriod();
+					period.setUniqueId((long)(1 + periods.size()));
+					period.setSession(session);
+					period.setExamType(type);
+					period.setDateOffset(day);
+					period.setStartSlot(slot);
+					period.setLength(24);
+					periods.add(period);
+				}
+
+			// exams of 60, 120, or 150 minutes (the long ones overlap with the following period), some not assigned
+			int[] lengths = new int[] { 60, 120, 120, 150 };
+			List<Exam> exams = new ArrayList<Exam>();
+			for (int i = 0; i < nrExams; i++)
+				exams.add(createExam(1000l + i, session, type,
+						random.nextInt(10) == 0 ? null : periods.get(random.nextInt(periods.size())),
+						lengths[random.nextInt(lengths.length)]));
+
+			Map<Long, Set<Exam>> student2exams = new HashMap<Long, Set<Exam>>();
+			Map<Exam, Set<Long>> exam2students = new HashMap<Exam, Set<Long>>();
+			for (Exam exam: exams) exam2students.put(exam, new HashSet<Long>());
+			for (int s = 0; s < nrStudents; s++) {
+				Long studentId = 100000l + s;
+				Set<Exam> studentExams = new HashSet<Exam>();
+				int nrStudentExams = 1 + random.nextInt(6);
+				while (studentExams.size() < nrStudentExams)
+					studentExams.add(exams.get(random.nextInt(exams.size())));
+				student2exams.put(studentId, studentExams);
+				for (Exam exam: studentExams)
+					exam2students.get(exam).add(studentId);
+			}
+
+			Parameters p = new Parameters(new TreeSet<ExamPeriod>(periods), -1, false);
+			ExamStudentIndex index = new ExamStudentIndex(student2exams);
+			check(index.getNrStudents() == nrStudents, "index has " + index.getNrStudents() + " students");
+			Map<Long, ExamStudentIndex.StudentConflicts> indexed = index.computeStudentConflicts(null, p, nrThreads);
+			Map<Long, ExamStudentIndex.StudentConflicts> single = index.computeStudentConflicts(null, p, 1);
+
+			int nrDirects = 0, nrBackToBacks = 0, nrMoreThanTwoADays = 0, nrChecked = 0;
+			for (Exam exam: exams) {
+				if (exam.getAssignedPeriod() == null) {
+					check(!indexed.containsKey(exam.getUniqueId()), exam.getName() + ": no conflicts computed for an exam without a period");
+					continue;
+				}
+				Set<Long> students = exam2students.get(exam);
+				if (students.isEmpty()) continue;
+
+				// original computation: student id -> examinations of the student, for all the students of the exam
+				Hashtable<Long, Set<Exam>> examStudents = new Hashtable<Long, Set<Exam>>();
+				for (Long studentId: students)
+					examStudents.put(studentId, student2exams.get(studentId));
+				ExamAssignmentInfo original = new ExamAssignmentInfo(exam, new Hashtable<Long, Set<Long>>(), null, index, null, new Hashtable(), p);
+				original.generateConflicts(exam, examStudents, null, new Hashtable(), p, new Hashtable<Long, Set<Long>>(), null);
+
+				ExamAssignmentInfo computed = new ExamAssignmentInfo(exam, new Hashtable<Long, Set<Long>>(), null, index, indexed.get(exam.getUniqueId()), new Hashtable(), p);
+				ExamAssignmentInfo computedSingle = new ExamAssignmentInfo(exam, new Hashtable<Long, Set<Long>>(), null, index, single.get(exam.getUniqueId()), new Hashtable(), p);
+
+				Set<String> expected = conflicts(original);
+				check(expected.equals(conflicts(computed)), exam.getName() + ": conflicts " + conflicts(computed) + " do not match the original " + expected);
+				check(expected.equals(conflicts(computedSingle)), exam.getName() + ": conflicts computed in a single thread " + conflicts(computedSingle) + " do not match the original " + expected);
+				check(original.getNrDirectConflicts() == computed.getNrDirectConflicts(), exam.getName() + ": number of direct conflicts");
+				check(original.getNrBackToBackConflicts() == computed.getNrBackToBackConflicts(), exam.getName() + ": number of back-to-back conflicts");
+				check(original.getNrMoreThanTwoConflicts() == computed.getNrMoreThanTwoConflicts(), exam.getName() + ": number of more than two a day conflicts");
+				nrDirects += original.getNrDirectConflicts();
+				nrBackToBacks += original.getNrBackToBackConflicts();
+				nrMoreThanTwoADays += original.getNrMoreThanTwoConflicts();
+				nrChecked ++;
+			}
+			sLog.info("Checked " + nrChecked + " examinations with " + nrDirects + " direct, " + nrBackToBacks + " back-to-back, and " + nrMoreThanTwoADays + " more than two a day conflicts.");
+			check(nrDirects > 0 && nrBackToBacks > 0 && nrMoreThanTwoADays > 0, "the generated problem has conflicts of all types");
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+			sFailures ++;
+		}
+		if (sFailures > 0) {
+			sLog.error(sFailures + " check(s) failed.");
+			System.exit(1);
+		}
+		sLog.info("All checks passed.");
+		System.exit(0);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.test;
+
+import java.lang.reflect.Proxy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.localization.impl.Localization;
+import org.unitime.localization.messages.CourseMessages;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Compares the compiled message bundles (see {@link Localization.Bundle}) with the original proxy that looks up and fills in
+ * the message on each call. A mix of constants and messages with arguments is used.
+ * Use properties locale to set the locale, iterations for the number of calls and warmup for the number of warm-up rounds.
+ *
+ * @author Tomas Muller
+ */
+public class LocalizationBenchmark {
+	private static Log sLog = LogFactory.getLog(LocalizationBenchmark.class);
+	private static volatile Object sBlackHole;
+	
+	private static double run(CourseMessages messages, int iterations) {
+		long t0 = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			switch (i % 4) {
+			case 0: sBlackHole = messages.filter(); break;
+			case 1: sBlackHole = messages.labelLocationLabelWithCapacity("EDUC 101", i); break;
+			case 2: sBlackHole = messages.errorRequiredRoomTooSmall("THTR 203", i, i + 1); break;
+			case 3: sBlackHole = messages.tooltipExam("CHEM 101 Lec 1", "Final"); break;
+			}
+		}
+		return ((double)(System.nanoTime() - t0)) / iterations;
+	}
+	
+	private static void benchmark(String name, CourseMessages messages, int iterations, int warmup) {
+		for (int i = 0; i < warmup; i++)
+			run(messages, iterations);
+		sLog.info(name + ": " + String.format("%.1f", run(messages, iterations)) + " ns/call");
+	}
+	
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			Localization.setLocale(ApplicationProperties.getProperty("locale", "en"));
+			int iterations = Integer.parseInt(ApplicationProperties.getProperty("iterations", "1000000"));
+			int warmup = Integer.parseInt(ApplicationProperties.getProperty("warmup", "3"));
+			
+			CourseMessages original = (CourseMessages)Proxy.newProxyInstance(Localization.class.getClassLoader(), new Class[] {CourseMessages.class}, new Localization.Bundle(CourseMessages.class, false));
+			CourseMessages compiled = (CourseMessages)Proxy.newProxyInstance(Localization.class.getClassLoader(), new Class[] {CourseMessages.class}, new Localization.Bundle(CourseMessages.class, true));
+			
+			for (int i = 0; i < 100; i++) {
+				String a = original.errorRequiredRoomTooSmall("THTR 203", i, 1000 * i), b = compiled.errorRequiredRoomTooSmall("THTR 203", i, 1000 * i);
+				if (!a.equals(b)) sLog.warn("Message mismatch: " + a + " != " + b);
+			}
+			
+			benchmark("Original bundle", original, iterations, warmup);
+			benchmark("Compiled bundle", compiled, iterations, warmup);
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.commons.hibernate.util.HibernateUtil;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.model.Session;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.model.XStudentId;
+import org.unitime.timetable.onlinesectioning.server.ConcurrentInMemoryServer;
+import org.unitime.timetable.onlinesectioning.server.InMemoryServer;
+
+/**
+ * Compares the throughput of the {@link InMemoryServer} and the {@link ConcurrentInMemoryServer}
+ * on a mix of course searches, enrollment lookups and student updates.
+ * Use properties initiative, year, and term to set academic session, nrReaders, nrWriters, and seconds for the load.
+ *
+ * @author Tomas Muller
+ */
+public class OnlineSectioningServerBenchmark {
+	private static Log sLog = LogFactory.getLog(OnlineSectioningServerBenchmark.class);
+
+	private static void benchmark(final OnlineSectioningServer server, int nrReaders, int nrWriters, int seconds) throws InterruptedException {
+		while (!server.isReady()) Thread.sleep(1000);
+		final List<XCourseId> courses = new ArrayList<XCourseId>(server.findCourses(null));
+		final List<XStudentId> students = new ArrayList<XStudentId>(server.findStudents(null));
+		if (courses.isEmpty() || students.isEmpty()) {
+			sLog.warn("No courses or students loaded.");
+			return;
+		}
+		final AtomicLong reads = new AtomicLong(0), writes = new AtomicLong(0);
+		final long end = System.currentTimeMillis() + 1000l * seconds;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < nrReaders; i++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (System.currentTimeMillis() < end) {
+						XCourseId course = ToolBox.random(courses);
+						String name = course.getCourseName();
+						server.findCourses(name.substring(0, 1 + ToolBox.random(name.length())), 20, null);
+						server.getEnrollments(course.getOfferingId()).countEnrollments();
+						server.getStudent(ToolBox.random(students).getStudentId());
+						reads.incrementAndGet();
+					}
+				}
+			}));
+		}
+		for (int i = 0; i < nrWriters; i++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (System.currentTimeMillis() < end) {
+						XStudent student = server.getStudent(ToolBox.random(students).getStudentId());
+						if (student != null) server.update(student, true);
+						writes.incrementAndGet();
+					}
+				}
+			}));
+		}
+		for (Thread t: threads) t.start();
+		for (Thread t: threads) t.join();
+		sLog.info(server.getClass().getSimpleName() + ": " + (reads.get() / seconds) + " reads/s, " + (writes.get() / seconds) + " writes/s (" + nrReaders + " readers, " + nrWriters + " writers)");
+	}
+
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			HibernateUtil.configureHibernate(ApplicationProperties.getProperties());
+
+			final Session session = Session.getSessionUsingInitiativeYearTerm(
+					ApplicationProperties.getProperty("initiative", "PWL"),
+					ApplicationProperties.getProperty("year","2015"),
+					ApplicationProperties.getProperty("term","Spring")
+					);
+			if (session==null) {
+				sLog.error("Academic session not found, use properties initiative, year, and term to set academic session.");
+				System.exit(0);
+			} else {
+				sLog.info("Session: "+session);
+			}
+
+			OnlineSectioningServerContext context = new OnlineSectioningServerContext() {
+				@Override
+				public Long getAcademicSessionId() { return session.getUniqueId(); }
+				@Override
+				public boolean isWaitTillStarted() { return false; }
+			};
+
+			int nrReaders = Integer.parseInt(ApplicationProperties.getProperty("nrReaders", "16"));
+			int nrWriters = Integer.parseInt(ApplicationProperties.getProperty("nrWriters", "2"));
+			int seconds = Integer.parseInt(ApplicationProperties.getProperty("seconds", "30"));
+
+			OnlineSectioningServer server = new InMemoryServer(context);
+			benchmark(server, nrReaders, nrWriters, seconds);
+			server.unload();
+
+			server = new ConcurrentInMemoryServer(context);
+			benchmark(server, nrReaders, nrWriters, seconds);
+			server.unload();
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+		} finally {
+			HibernateUtil.closeHibernate();
+		}
+		System.exit(0);
+	}
+}
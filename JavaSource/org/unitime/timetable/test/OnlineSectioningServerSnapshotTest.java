@@ -0,0 +1,182 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.commons.hibernate.util.HibernateUtil;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.model.Session;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningLog;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.model.XStudentId;
+import org.unitime.timetable.onlinesectioning.server.InMemoryServer;
+import org.unitime.timetable.onlinesectioning.server.OnlineSectioningServerSnapshot;
+
+/**
+ * Snapshot round-trip of the {@link OnlineSectioningServerSnapshot}: an {@link InMemoryServer} is loaded, its snapshot is written,
+ * and the server is restored from the snapshot. All offerings, expectations, and students must be the same after the restore
+ * (compared using their externalized form), the enrollment counts must match, and the time stamp of the last processed queue item
+ * must be restored. A snapshot that is not compatible must not be used. The snapshot of the academic session is deleted at the end.
+ * Use properties initiative, year, and term to set academic session.<br>
+ * The program exits with a non-zero status when any of the checks fails.
+ *
+ * @author Tomas Muller
+ */
+public class OnlineSectioningServerSnapshotTest {
+	private static Log sLog = LogFactory.getLog(OnlineSectioningServerSnapshotTest.class);
+	private static int sFailures = 0;
+
+	private static void check(boolean condition, String message) {
+		if (condition) {
+			sLog.info("OK: " + message);
+		} else {
+			sLog.error("FAILED: " + message);
+			sFailures ++;
+		}
+	}
+
+	private static byte[] externalize(Externalizable object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		object.writeExternal(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/** Externalized offerings (with their expectations and enrollment counts) and students of the server, by unique id */
+	private static Map<String, byte[]> content(OnlineSectioningServer server) throws IOException {
+		Map<String, byte[]> content = new HashMap<String, byte[]>();
+		TreeSet<Long> offeringIds = new TreeSet<Long>();
+		for (XCourseId course: server.findCourses(null))
+			offeringIds.add(course.getOfferingId());
+		for (Long offeringId: offeringIds) {
+			XOffering offering = server.getOffering(offeringId);
+			if (offering == null) continue;
+			content.put("offering " + offeringId, externalize(offering));
+			content.put("expectations " + offeringId, externalize(server.getExpectations(offeringId)));
+			content.put("enrollments " + offeringId, String.valueOf(server.getEnrollments(offeringId).countEnrollments()).getBytes());
+		}
+		for (XStudentId id: server.findStudents(null)) {
+			XStudent student = (id instanceof XStudent ? (XStudent)id : server.getStudent(id.getStudentId()));
+			if (student != null) content.put("student " + id.getStudentId(), externalize(student));
+		}
+		return content;
+	}
+
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			HibernateUtil.configureHibernate(ApplicationProperties.getProperties());
+
+			final Session session = Session.getSessionUsingInitiativeYearTerm(
+					ApplicationProperties.getProperty("initiative", "PWL"),
+					ApplicationProperties.getProperty("year","2015"),
+					ApplicationProperties.getProperty("term","Spring")
+					);
+			if (session==null) {
+				sLog.error("Academic session not found, use properties initiative, year, and term to set academic session.");
+				System.exit(0);
+			} else {
+				sLog.info("Session: "+session);
+			}
+
+			OnlineSectioningServerContext context = new OnlineSectioningServerContext() {
+				@Override
+				public Long getAcademicSessionId() { return session.getUniqueId(); }
+				@Override
+				public boolean isWaitTillStarted() { return true; }
+			};
+
+			OnlineSectioningServer server = new InMemoryServer(context);
+			while (!server.isReady()) Thread.sleep(1000);
+			try {
+				check(OnlineSectioningServerSnapshot.isSupported(server), "snapshots are supported by the in-memory server");
+				Map<String, byte[]> before = content(server);
+				check(!before.isEmpty(), "server has " + before.size() + " objects");
+
+				Date lastTimeStamp = new Date(System.currentTimeMillis() - 60000l);
+				OnlineSectioningServerSnapshot.save(server, lastTimeStamp);
+				check(OnlineSectioningServerSnapshot.getFile(session.getUniqueId()).exists(), "snapshot is written");
+
+				server.setProperty("Updater.LastTimeStamp", null);
+				OnlineSectioningHelper helper = new OnlineSectioningHelper(OnlineSectioningLog.Entity.newBuilder()
+						.setExternalId("TEST").setName("Snapshot Test").setType(OnlineSectioningLog.Entity.EntityType.OTHER).build());
+				helper.beginTransaction();
+				try {
+					check(OnlineSectioningServerSnapshot.restore(server, helper), "server is restored from the snapshot");
+					helper.commitTransaction();
+				} catch (Exception e) {
+					helper.rollbackTransaction();
+					throw e;
+				}
+				check(lastTimeStamp.equals(server.getProperty("Updater.LastTimeStamp", null)), "time stamp of the last processed queue item is restored");
+
+				Map<String, byte[]> after = content(server);
+				check(before.keySet().equals(after.keySet()), "the same " + before.size() + " objects are restored (" + after.size() + " found)");
+				int nrDifferent = 0;
+				for (Map.Entry<String, byte[]> e: before.entrySet()) {
+					if (!Arrays.equals(e.getValue(), after.get(e.getKey()))) {
+						if (nrDifferent < 10) sLog.error("Different after restore: " + e.getKey());
+						nrDifferent ++;
+					}
+				}
+				check(nrDifferent == 0, nrDifferent + " objects differ after the restore");
+
+				// a snapshot that is not compatible is not used
+				ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(OnlineSectioningServerSnapshot.getFile(session.getUniqueId())));
+				out.writeInt(0); out.writeInt(0); out.close();
+				check(!OnlineSectioningServerSnapshot.restore(server, helper), "incompatible snapshot is not used");
+				check(after.keySet().equals(content(server).keySet()), "server is not changed by an incompatible snapshot");
+			} finally {
+				server.unload();
+				OnlineSectioningServerSnapshot.delete(session.getUniqueId());
+			}
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+			sFailures ++;
+		} finally {
+			HibernateUtil.closeHibernate();
+		}
+		if (sFailures > 0) {
+			sLog.error(sFailures + " check(s) failed.");
+			System.exit(1);
+		}
+		sLog.info("All checks passed.");
+		System.exit(0);
+	}
+}
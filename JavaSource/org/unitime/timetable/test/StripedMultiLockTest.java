@@ -0,0 +1,217 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.timetable.onlinesectioning.MultiLock;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.StripedMultiLock;
+
+/**
+ * Checks the online sectioning lock managers ({@link StripedMultiLock} and, for the shared checks, the original {@link MultiLock}):
+ * no two threads hold the same id at the same time, locks of disjoint stripes can be held at the same time, nested locks
+ * of the same thread do not deadlock, {@link StripedMultiLock#lockAll()} excludes all the other locks, a lock cannot be released
+ * by a different thread, and the contention statistics are counted.<br>
+ * The program exits with a non-zero status when any of the checks fails.
+ *
+ * @author Tomas Muller
+ */
+public class StripedMultiLockTest {
+	private static Log sLog = LogFactory.getLog(StripedMultiLockTest.class);
+	private static int sFailures = 0;
+
+	private static void check(boolean condition, String message) {
+		if (condition) {
+			sLog.info("OK: " + message);
+		} else {
+			sLog.error("FAILED: " + message);
+			sFailures ++;
+		}
+	}
+
+	/** Lock manager under test, so that the same checks can be run on both implementations */
+	private static interface Locks {
+		OnlineSectioningServer.Lock lock(Collection<Long> ids);
+	}
+
+	/** Many threads locking random sets of ids, each id must never be held by two threads at the same time */
+	private static boolean mutualExclusion(final Locks locks, int nrThreads, final int nrLocks, final int nrIds) throws InterruptedException {
+		final AtomicInteger[] holders = new AtomicInteger[nrIds];
+		for (int i = 0; i < nrIds; i++) holders[i] = new AtomicInteger(0);
+		final AtomicBoolean violated = new AtomicBoolean(false);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < nrThreads; t++) {
+			final Random random = new Random(t);
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int x = 0; x < nrLocks; x++) {
+						Set<Long> ids = new HashSet<Long>();
+						int nrCourses = 1 + random.nextInt(5);
+						while (ids.size() < nrCourses) ids.add((long)random.nextInt(nrIds));
+						OnlineSectioningServer.Lock lock = locks.lock(ids);
+						try {
+							for (Long id: ids)
+								if (holders[id.intValue()].incrementAndGet() != 1) violated.set(true);
+							Thread.yield();
+							for (Long id: ids)
+								holders[id.intValue()].decrementAndGet();
+						} finally {
+							lock.release();
+						}
+					}
+				}
+			});
+			thread.setName("Locker-" + t);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread: threads) {
+			thread.join(60000);
+			if (thread.isAlive()) return false;
+		}
+		return !violated.get();
+	}
+
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+
+			final StripedMultiLock striped = new StripedMultiLock(64);
+			check(striped.getNrStripes() == 64, "number of stripes is " + striped.getNrStripes());
+			check(new StripedMultiLock(100).getNrStripes() == 128, "number of stripes is rounded up to a power of two");
+
+			check(mutualExclusion(new Locks() {
+				@Override
+				public OnlineSectioningServer.Lock lock(Collection<Long> ids) { return striped.lock(ids); }
+			}, 50, 1000, 500), "striped lock: an id is never held by two threads");
+
+			final MultiLock multi = new MultiLock();
+			check(mutualExclusion(new Locks() {
+				@Override
+				public OnlineSectioningServer.Lock lock(Collection<Long> ids) { return multi.lock(ids); }
+			}, 50, 1000, 500), "multi lock: an id is never held by two threads");
+
+			// nested locks of the same thread (sharing a stripe) must not deadlock
+			Thread nested = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					OnlineSectioningServer.Lock outer = striped.lock(1l, 2l, 3l);
+					OnlineSectioningServer.Lock inner = striped.lock(3l, 65l);
+					inner.release();
+					outer.release();
+				}
+			});
+			nested.start(); nested.join(10000);
+			check(!nested.isAlive(), "striped lock: nested locks of the same thread do not deadlock");
+			check(!striped.isLocked(1l) && !striped.isLocked(65l), "striped lock: nested locks are released");
+
+			// two threads holding ids of different stripes at the same time
+			final CountDownLatch bothHeld = new CountDownLatch(2);
+			final AtomicBoolean concurrent = new AtomicBoolean(false);
+			List<Thread> disjoint = new ArrayList<Thread>();
+			for (final long id: new long[] {10l, 11l}) {
+				Thread t = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						OnlineSectioningServer.Lock lock = striped.lock(id);
+						try {
+							bothHeld.countDown();
+							concurrent.compareAndSet(false, bothHeld.await(10, TimeUnit.SECONDS));
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} finally {
+							lock.release();
+						}
+					}
+				});
+				disjoint.add(t); t.start();
+			}
+			for (Thread t: disjoint) t.join(20000);
+			check(concurrent.get(), "striped lock: ids of different stripes are held at the same time");
+
+			// lock all excludes everybody else
+			OnlineSectioningServer.Lock all = striped.lockAll();
+			final CountDownLatch acquired = new CountDownLatch(1);
+			Thread waiting = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					OnlineSectioningServer.Lock lock = striped.lock(42l);
+					acquired.countDown();
+					lock.release();
+				}
+			});
+			waiting.start();
+			check(!acquired.await(500, TimeUnit.MILLISECONDS), "striped lock: lock is not acquired while everything is locked");
+			check(striped.isLocked(42l) && striped.isLocked(4242l), "striped lock: all ids are locked");
+			all.release();
+			check(acquired.await(10, TimeUnit.SECONDS), "striped lock: lock is acquired once everything is unlocked");
+			waiting.join(10000);
+
+			// a lock can only be released by the thread that holds it
+			final OnlineSectioningServer.Lock held = striped.lock(7l);
+			final AtomicBoolean rejected = new AtomicBoolean(false);
+			Thread other = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						held.release();
+					} catch (IllegalMonitorStateException e) {
+						rejected.set(true);
+					}
+				}
+			});
+			other.start(); other.join(10000);
+			check(rejected.get() && striped.isLocked(7l), "striped lock: lock cannot be released by a different thread");
+			held.release();
+			held.release();
+			check(!striped.isLocked(7l), "striped lock: lock is released (and it can be released twice)");
+
+			// statistics
+			striped.resetStatistics();
+			striped.lock(100l, 101l).release();
+			check(striped.getTotalStatistics().getAcquisitions() >= 1, "striped lock: acquisitions are counted (" + striped.getTotalStatistics() + ")");
+			check(striped.getStatistics(100l) != null && striped.getStatistics(100l).getAcquisitions() == 1, "striped lock: offering acquisitions are counted");
+			check(striped.getTotalStatistics().getContended() == 0, "striped lock: uncontended acquisition is not counted as contended");
+		} catch (Exception e) {
+			sLog.error("Test failed: " + e.getMessage(), e);
+			sFailures ++;
+		}
+		if (sFailures > 0) {
+			sLog.error(sFailures + " check(s) failed.");
+			System.exit(1);
+		}
+		sLog.info("All checks passed.");
+		System.exit(0);
+	}
+}
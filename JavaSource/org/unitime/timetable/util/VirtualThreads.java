@@ -0,0 +1,73 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.util;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Access to virtual threads (Java 21 or newer). The code is compiled for an older version of Java,
+ * so the virtual thread factory (Thread.ofVirtual().name(prefix, 1).factory()) is looked up by reflection.
+ * 
+ * @author Tomas Muller
+ */
+public class VirtualThreads {
+	private static Log sLog = LogFactory.getLog(VirtualThreads.class);
+	private static Boolean sSupported = null;
+	
+	/**
+	 * Are virtual threads supported by the JVM
+	 */
+	public static synchronized boolean isSupported() {
+		if (sSupported == null) {
+			try {
+				Thread.class.getMethod("ofVirtual");
+				sSupported = true;
+			} catch (NoSuchMethodException e) {
+				sSupported = false;
+			}
+		}
+		return sSupported;
+	}
+	
+	/**
+	 * Virtual thread factory, threads are named prefix1, prefix2, etc.
+	 * @return null when virtual threads are not supported
+	 */
+	public static ThreadFactory getFactory(String prefix) {
+		if (!isSupported()) {
+			sLog.warn("Virtual threads are not supported, using platform threads instead.");
+			return null;
+		}
+		try {
+			// use the public interfaces, the builder implementation is not accessible
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			if (prefix != null)
+				builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1l);
+			return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			sLog.warn("Failed to create virtual thread factory: " + e.getMessage(), e);
+			return null;
+		}
+	}
+}
@@ -24,7 +24,6 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -49,7 +48,6 @@ import org.unitime.timetable.model.Class_;
 import org.unitime.timetable.model.CourseOffering;
 import org.unitime.timetable.model.DepartmentalInstructor;
 import org.unitime.timetable.model.ExamOwner;
-import org.unitime.timetable.model.ExamType;
 import org.unitime.timetable.model.InstrOfferingConfig;
 import org.unitime.timetable.model.InstructionalOffering;
 import org.unitime.timetable.model.ManagerRole;
@@ -61,6 +59,8 @@ import org.unitime.timetable.model.dao.ExamDAO;
 import org.unitime.timetable.model.dao.ExamTypeDAO;
 import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.model.dao.SubjectAreaDAO;
+import org.unitime.timetable.reports.exam.ExamReportMailer;
+import org.unitime.timetable.reports.exam.ExamReportSnapshot;
 import org.unitime.timetable.reports.exam.InstructorExamReport;
 import org.unitime.timetable.reports.exam.PdfLegacyExamReport;
 import org.unitime.timetable.reports.exam.StudentExamReport;
@@ -294,6 +294,7 @@ public class PdfExamReportQueueItem extends QueueItem {
             Hashtable<ExamInstructorInfo,File> ireports = null;
             Hashtable<Student,File> sreports = null;
             Session session = getSession();
+            ExamReportSnapshot snapshot = new ExamReportSnapshot(SessionDAO.getInstance().get(session.getUniqueId()), ExamTypeDAO.getInstance().get(iForm.getExamType()), exams);
             for (int i=0;i<iForm.getReports().length;i++) {
             	iProgress = 0.1 + (0.8 / iForm.getReports().length) * i;
             	RegisteredReport regReport = ExamPdfReportForm.RegisteredReport.valueOf(iForm.getReports()[i]);
@@ -307,9 +308,7 @@ public class PdfExamReportQueueItem extends QueueItem {
                 if (iForm.getAll()) {
                     File file = ApplicationProperties.getTempFile(name, PdfLegacyExamReport.getExtension(iForm.getReportMode()).substring(1));
                     log("&nbsp;&nbsp;" + MSG.statusWritingReport("<a href='temp/"+file.getName()+"'>"+reportName+PdfLegacyExamReport.getExtension(iForm.getReportMode())+"</a>") + (iSubjectIndependent ? " " + MSG.hintNbrExams(exams.size()) : ""));
-                    PdfLegacyExamReport report = (PdfLegacyExamReport)reportClass.
-                        getConstructor(int.class, File.class, Session.class, ExamType.class, Collection.class, Collection.class).
-                        newInstance(iForm.getReportMode().ordinal(), file, SessionDAO.getInstance().get(session.getUniqueId()), ExamTypeDAO.getInstance().get(iForm.getExamType()), iSubjectIndependent ? null : iForm.getSubjectAreas(), exams);
+                    PdfLegacyExamReport report = PdfLegacyExamReport.createReport(reportClass, iForm.getReportMode().ordinal(), file, snapshot, iSubjectIndependent ? null : iForm.getSubjectAreas());
                     report.setDirect(iForm.getDirect());
                     report.setM2d(iForm.getM2d());
                     report.setBtb(iForm.getBtb());
@@ -343,9 +342,7 @@ public class PdfExamReportQueueItem extends QueueItem {
                         }
                         log("&nbsp;&nbsp;" + MSG.statusWritingReport("<a href='temp/"+file.getName()+"'>"+subject.getSubjectAreaAbbreviation()+"_"+reportName+PdfLegacyExamReport.getExtension(iForm.getReportMode())+"</a>") + " " + MSG.hintNbrExams(nrExams));
                         List<SubjectArea> subjects = new ArrayList<SubjectArea>(); subjects.add(subject);
-                        PdfLegacyExamReport report = (PdfLegacyExamReport)reportClass.
-                            getConstructor(int.class, File.class, Session.class, ExamType.class, Collection.class, Collection.class).
-                            newInstance(iForm.getReportMode().ordinal(), file, SessionDAO.getInstance().get(session.getUniqueId()), ExamTypeDAO.getInstance().get(iForm.getExamType()), subjects, exams);
+                        PdfLegacyExamReport report = PdfLegacyExamReport.createReport(reportClass, iForm.getReportMode().ordinal(), file, snapshot, subjects);
                         report.setDirect(iForm.getDirect());
                         report.setM2d(iForm.getM2d());
                         report.setBtb(iForm.getBtb());
@@ -474,6 +471,7 @@ public class PdfExamReportQueueItem extends QueueItem {
                 }
                 if (iForm.getEmailInstructors() && ireports!=null && !ireports.isEmpty()) {
                     setStatus(MSG.statusEmailingInstructors());
+                    ExamReportMailer mailer = new ExamReportMailer(ApplicationProperty.ExaminationReportsEmailThreads.intValue());
                     for (ExamInstructorInfo instructor : new TreeSet<ExamInstructorInfo>(ireports.keySet())) {
                         File report = ireports.get(instructor);
                         String email = instructor.getInstructor().getEmail();
@@ -493,17 +491,18 @@ public class PdfExamReportQueueItem extends QueueItem {
                             if (iForm.getBcc()!=null) for (StringTokenizer s=new StringTokenizer(iForm.getBcc(),";,\n\r ");s.hasMoreTokens();) 
                                 mail.addRecipientBCC(s.nextToken(), null);
                             mail.addAttachment(report, session.getAcademicTerm()+session.getAcademicYear()+ExamTypeDAO.getInstance().get(iForm.getExamType()).getReference()+PdfLegacyExamReport.getExtension(iForm.getReportMode()));
-                            mail.send();
-                            log("&nbsp;&nbsp;" + MSG.infoEmailSentTo("<a href='temp/"+report.getName()+"'>"+instructor.getName()+"</a>"));
+                            mailer.send(mail, "<a href='temp/"+report.getName()+"'>"+instructor.getName()+"</a>");
                         } catch (Exception e) {
                             log("&nbsp;&nbsp;<font color='orange'>" + MSG.errorUnableToSendEmailTo("<a href='temp/"+report.getName()+"'>"+instructor.getName()+"</a>", e.getMessage())+"</font>");
                             setError(e);
                         }
                     }
+                    logDeliveries(mailer.finish());
                     log(MSG.infoEmailsSent());
                 }
                 if (iForm.getEmailStudents() && sreports!=null && !sreports.isEmpty()) {
                     setStatus(MSG.statusEmailingStudents());
+                    ExamReportMailer mailer = new ExamReportMailer(ApplicationProperty.ExaminationReportsEmailThreads.intValue());
                     for (Student student : new TreeSet<Student>(sreports.keySet())) {
                         File report = sreports.get(student);
                         String email = student.getEmail();
@@ -523,13 +522,13 @@ public class PdfExamReportQueueItem extends QueueItem {
                             if (iForm.getBcc()!=null) for (StringTokenizer s=new StringTokenizer(iForm.getBcc(),";,\n\r ");s.hasMoreTokens();) 
                                 mail.addRecipientBCC(s.nextToken(), null);
                             mail.addAttachment(report, session.getAcademicTerm()+session.getAcademicYear()+ExamTypeDAO.getInstance().get(iForm.getExamType()).getReference()+PdfLegacyExamReport.getExtension(iForm.getReportMode()));
-                            mail.send();
-                            log("&nbsp;&nbsp;" + MSG.infoEmailSentTo("<a href='temp/"+report.getName()+"'>"+student.getName(DepartmentalInstructor.sNameFormatLastFist)+"</a>"));
+                            mailer.send(mail, "<a href='temp/"+report.getName()+"'>"+student.getName(DepartmentalInstructor.sNameFormatLastFist)+"</a>");
                         } catch (Exception e) {
                         	log("&nbsp;&nbsp;<font color='orange'>" + MSG.errorUnableToSendEmailTo("<a href='temp/"+report.getName()+"'>"+student.getName(DepartmentalInstructor.sNameFormatLastFist)+"</a>", e.getMessage())+"</font>");
                             setError(e);
                         }
                     }
+                    logDeliveries(mailer.finish());
                     log(MSG.infoEmailsSent());
                 }
             }
@@ -581,6 +580,17 @@ public class PdfExamReportQueueItem extends QueueItem {
 		return TYPE;
 	}
 	
+	protected void logDeliveries(List<ExamReportMailer.Delivery> deliveries) {
+		for (ExamReportMailer.Delivery delivery: deliveries) {
+			if (delivery.isSent()) {
+				log("&nbsp;&nbsp;" + MSG.infoEmailSentTo(delivery.getDescription()));
+			} else {
+				log("&nbsp;&nbsp;<font color='orange'>" + MSG.errorUnableToSendEmailTo(delivery.getDescription(), delivery.getError() == null ? null : delivery.getError().getMessage())+"</font>");
+				if (delivery.getError() != null) setError(delivery.getError());
+			}
+		}
+	}
+	
 	public static class FileGenerator implements InstructorExamReport.FileGenerator {
         String iName;
         public FileGenerator(String name) {